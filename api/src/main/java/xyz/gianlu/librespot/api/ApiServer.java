@@ -17,56 +17,108 @@
 package xyz.gianlu.librespot.api;
 
 import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.RoutingHandler;
 import io.undertow.server.handlers.PathHandler;
 import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.Headers;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import xyz.gianlu.librespot.api.handlers.*;
 
 public class ApiServer {
+    public static final long DEFAULT_METADATA_CACHE_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_METADATA_CACHE_TTL = 300;
     private static final Logger LOGGER = LogManager.getLogger(ApiServer.class);
     protected final RoutingHandler handler;
     protected final EventsHandler events = new EventsHandler();
     private final SessionWrapper wrapper;
+    private final MetadataCache metadataCache;
+    private final WebApiHandler webApi;
     private final int port;
     private final String host;
     private Undertow undertow = null;
 
     public ApiServer(int port, @NotNull String host, @NotNull SessionWrapper wrapper) {
+        this(port, host, wrapper, new MetadataCache(DEFAULT_METADATA_CACHE_SIZE, DEFAULT_METADATA_CACHE_TTL));
+    }
+
+    public ApiServer(int port, @NotNull String host, @NotNull SessionWrapper wrapper, @NotNull MetadataCache metadataCache) {
         AbsSessionHandler instanceHandler = InstanceHandler.forSession(this, wrapper);
 
         this.port = port;
         this.host = host;
         this.wrapper = wrapper;
+        this.metadataCache = metadataCache;
+        this.webApi = new WebApiHandler(wrapper);
         this.handler = new RoutingHandler()
-                .post("/metadata/{type}/{uri}", new MetadataHandler(wrapper, true))
-                .post("/metadata/{uri}", new MetadataHandler(wrapper, false))
+                .post("/metadata/batch", new MetadataBatchHandler(wrapper, metadataCache))
+                .post("/metadata/{type}/{uri}", new MetadataHandler(wrapper, true, metadataCache))
+                .post("/metadata/{uri}", new MetadataHandler(wrapper, false, metadataCache))
+                .get("/metadata/cache", exchange -> {
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+                    exchange.getResponseSender().send(metadataCache.stats().toString());
+                })
                 .post("/search/{query}", new SearchHandler(wrapper))
                 .post("/token/{scope}", new TokensHandler(wrapper))
                 .post("/profile/{user_id}/{action}", new ProfileHandler(wrapper))
-                .post("/web-api/{endpoint}", new WebApiHandler(wrapper))
+                .post("/web-api/{endpoint}", webApi)
                 .get("/instance", instanceHandler)
                 .post("/instance/{action}", instanceHandler)
                 .post("/discovery/{action}", new DiscoveryHandler())
                 .get("/events", events)
+                .get("/events/stats", exchange -> {
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+                    exchange.getResponseSender().send(events.stats().toString());
+                })
                 .setFallbackHandler(new PathHandler(ResponseCodeHandler.HANDLE_404)
-                        .addPrefixPath("/web-api", new WebApiHandler(wrapper)));
+                        .addPrefixPath("/web-api", webApi));
 
         wrapper.setListener(events);
     }
 
+    /**
+     * Starts Undertow serving {@param handler} with CORS headers, shared by all the servers.
+     *
+     * @param ioThreads     The number of IO threads, {@code 0} for Undertow's default
+     * @param workerThreads The number of worker threads, {@code 0} for Undertow's default
+     */
+    @NotNull
+    static Undertow startUndertow(int port, @NotNull String host, @NotNull HttpHandler handler, int ioThreads, int workerThreads) {
+        if (ioThreads < 0) throw new IllegalArgumentException("Invalid IO threads: " + ioThreads);
+        if (workerThreads < 0) throw new IllegalArgumentException("Invalid worker threads: " + workerThreads);
+
+        Undertow.Builder builder = Undertow.builder().addHttpListener(port, host, new CorsHandler(handler));
+        if (ioThreads > 0) builder.setIoThreads(ioThreads);
+        if (workerThreads > 0) builder.setWorkerThreads(workerThreads);
+
+        Undertow undertow = builder.build();
+        undertow.start();
+        return undertow;
+    }
+
     public void start() {
+        start(0, 0);
+    }
+
+    /**
+     * Starts the server, most handlers do not block so a few worker threads are enough.
+     *
+     * @param ioThreads     The number of IO threads, {@code 0} for Undertow's default
+     * @param workerThreads The number of worker threads, {@code 0} for Undertow's default
+     */
+    public void start(int ioThreads, int workerThreads) {
         if (undertow != null) throw new IllegalStateException("Already started!");
 
-        undertow = Undertow.builder().addHttpListener(port, host, new CorsHandler(handler)).build();
-        undertow.start();
-        LOGGER.info("Server started on port {}!", port);
+        undertow = startUndertow(port, host, handler, ioThreads, workerThreads);
+        LOGGER.info("Server started on port {}! {ioThreads: {}, workerThreads: {}}", port, ioThreads, workerThreads);
     }
 
     public void stop() {
         wrapper.clear();
+        metadataCache.clear();
+        webApi.close();
 
         if (undertow != null) {
             undertow.stop();
@@ -19,6 +19,7 @@ package xyz.gianlu.librespot.api;
 
 import org.apache.logging.log4j.core.config.Configurator;
 import org.jetbrains.annotations.NotNull;
+import xyz.gianlu.librespot.ZeroconfServer;
 import xyz.gianlu.librespot.common.Log4JUncaughtExceptionHandler;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.mercury.MercuryClient;
@@ -47,14 +48,30 @@ public class Main {
 
     private static void withPlayer(int port, @NotNull String host, @NotNull FileConfiguration conf) throws IOException, MercuryClient.MercuryException, GeneralSecurityException, Session.SpotifyAuthenticationException {
         PlayerWrapper wrapper;
-        if (conf.authStrategy() == AuthStrategy.ZEROCONF)
-            wrapper = PlayerWrapper.fromZeroconf(conf.initZeroconfBuilder().create(), conf.toPlayer(), conf.toEventsShell());
-        else
+        if (conf.authStrategy() == AuthStrategy.ZEROCONF) {
+            ZeroconfServer zeroconf = conf.initZeroconfBuilder().create();
+            if (zeroconf.devices().size() > 1) {
+                MultiPlayerApiServer server = new MultiPlayerApiServer(port, host, zeroconf, conf.toPlayer(), conf.toEventsShell(), conf.apiMetadataCacheSize(), conf.apiMetadataCacheTtl());
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    server.stop();
+
+                    try {
+                        zeroconf.close();
+                    } catch (IOException ignored) {
+                    }
+                }));
+                server.start(conf.apiIoThreads(), conf.apiWorkerThreads());
+                return;
+            }
+
+            wrapper = PlayerWrapper.fromZeroconf(zeroconf, conf.toPlayer(), conf.toEventsShell());
+        } else {
             wrapper = PlayerWrapper.fromSession(conf.initSessionBuilder().create(), conf.toPlayer(), conf.toEventsShell());
+        }
 
-        PlayerApiServer server = new PlayerApiServer(port, host, wrapper);
+        PlayerApiServer server = new PlayerApiServer(port, host, wrapper, new MetadataCache(conf.apiMetadataCacheSize(), conf.apiMetadataCacheTtl()));
         Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
-        server.start();
+        server.start(conf.apiIoThreads(), conf.apiWorkerThreads());
     }
 
     private static void withoutPlayer(int port, @NotNull String host, @NotNull FileConfiguration conf) throws IOException, MercuryClient.MercuryException, GeneralSecurityException, Session.SpotifyAuthenticationException {
@@ -64,8 +81,8 @@ public class Main {
         else
             wrapper = SessionWrapper.fromSession(conf.initSessionBuilder().create(), conf.toEventsShell());
 
-        ApiServer server = new ApiServer(port, host, wrapper);
+        ApiServer server = new ApiServer(port, host, wrapper, new MetadataCache(conf.apiMetadataCacheSize(), conf.apiMetadataCacheTtl()));
         Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
-        server.start();
+        server.start(conf.apiIoThreads(), conf.apiWorkerThreads());
     }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api;
+
+import com.google.gson.JsonObject;
+import io.undertow.util.ETag;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * LRU cache of serialized API responses bounded by the total size of the bodies. Each entry has an {@link ETag}
+ * derived from its content, so that clients can revalidate with {@code If-None-Match}. Concurrent misses for the
+ * same key share a single load.
+ *
+ * @author devgianlu
+ */
+public final class MetadataCache {
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Entry>> loading = new HashMap<>();
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long notModified = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxBytes   The maximum total size of the cached bodies, {@code 0} disables the cache
+     * @param ttlSeconds How long an entry is served before being loaded again
+     */
+    public MetadataCache(long maxBytes, int ttlSeconds) {
+        this(maxBytes, ttlSeconds, System::currentTimeMillis);
+    }
+
+    MetadataCache(long maxBytes, int ttlSeconds, @NotNull LongSupplier clock) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+        if (ttlSeconds < 0) throw new IllegalArgumentException("Invalid cache TTL: " + ttlSeconds);
+
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.clock = clock;
+    }
+
+    @NotNull
+    private static ETag computeETag(@NotNull byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(body);
+            return new ETag(false, Base64.getUrlEncoder().withoutPadding().encodeToString(digest));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Gets the entry for {@param key}, loading it with {@param loader} if it is missing or expired.
+     *
+     * @param loader Supplies the serialized body, called on the current thread
+     */
+    @NotNull
+    public CompletableFuture<Entry> get(@NotNull String key, @NotNull Supplier<CompletableFuture<byte[]>> loader) {
+        CompletableFuture<Entry> future;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > clock.getAsLong()) {
+                    hits++;
+                    return CompletableFuture.completedFuture(entry);
+                }
+
+                remove(key);
+            }
+
+            misses++;
+            future = loading.get(key);
+            if (future != null) return future;
+
+            future = new CompletableFuture<>();
+            loading.put(key, future);
+        }
+
+        CompletableFuture<byte[]> load;
+        try {
+            load = loader.get();
+        } catch (RuntimeException ex) {
+            synchronized (this) {
+                loading.remove(key);
+            }
+
+            future.completeExceptionally(ex);
+            throw ex;
+        }
+
+        CompletableFuture<Entry> result = future;
+        load.whenComplete((body, ex) -> {
+            if (ex != null) {
+                synchronized (this) {
+                    loading.remove(key);
+                }
+
+                result.completeExceptionally(ex);
+                return;
+            }
+
+            Entry entry = new Entry(body, computeETag(body), clock.getAsLong() + ttlMillis);
+            synchronized (this) {
+                loading.remove(key);
+                put(key, entry);
+            }
+
+            result.complete(entry);
+        });
+
+        return result;
+    }
+
+    private void remove(@NotNull String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) bytes -= entry.body.length;
+    }
+
+    private void put(@NotNull String key, @NotNull Entry entry) {
+        if (entry.body.length > maxBytes) return;
+
+        remove(key);
+        entries.put(key, entry);
+        bytes += entry.body.length;
+
+        Iterator<Entry> iter = entries.values().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            bytes -= iter.next().body.length;
+            iter.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Records a response that was not sent because the client already had it.
+     */
+    public synchronized void notModified() {
+        notModified++;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    @NotNull
+    public synchronized JsonObject stats() {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("entries", entries.size());
+        obj.addProperty("bytes", bytes);
+        obj.addProperty("maxBytes", maxBytes);
+        obj.addProperty("hits", hits);
+        obj.addProperty("misses", misses);
+        obj.addProperty("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        obj.addProperty("notModified", notModified);
+        obj.addProperty("evictions", evictions);
+        return obj;
+    }
+
+    public static final class Entry {
+        public final ETag etag;
+        private final byte[] body;
+        private final long expiresAt;
+
+        private Entry(@NotNull byte[] body, @NotNull ETag etag, long expiresAt) {
+            this.body = body;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * @return A new buffer over the body, which is shared between all the responses and must not be modified
+         */
+        @NotNull
+        public ByteBuffer body() {
+            return ByteBuffer.wrap(body);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.undertow.Undertow;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.Headers;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import xyz.gianlu.librespot.ZeroconfServer;
+import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.player.PlayerConfiguration;
+import xyz.gianlu.librespot.player.ShellEvents;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Serves the API of every device announced by a {@link ZeroconfServer} on a single port. The routes of each device
+ * are the ones of {@link PlayerApiServer} prefixed with {@code /<deviceId>}, {@code GET /devices} lists the devices.
+ * Every device has its own metadata cache and snapshot file, see {@link PlayerConfiguration#forDevice(String)}.
+ *
+ * @author devgianlu
+ */
+public class MultiPlayerApiServer {
+    private static final Logger LOGGER = LogManager.getLogger(MultiPlayerApiServer.class);
+    private final Map<String, PlayerApiServer> servers = new LinkedHashMap<>();
+    private final ZeroconfServer zeroconf;
+    private final PathHandler handler;
+    private final int port;
+    private final String host;
+    private Undertow undertow = null;
+
+    public MultiPlayerApiServer(int port, @NotNull String host, @NotNull ZeroconfServer zeroconf, @NotNull PlayerConfiguration conf,
+                                @NotNull ShellEvents.Configuration shellConf, long metadataCacheSize, int metadataCacheTtl) {
+        this.port = port;
+        this.host = host;
+        this.zeroconf = zeroconf;
+        this.handler = new PathHandler(ResponseCodeHandler.HANDLE_404)
+                .addExactPath("/devices", exchange -> {
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+                    exchange.getResponseSender().send(devices().toString());
+                });
+
+        for (ZeroconfServer.Device device : zeroconf.devices()) {
+            PlayerWrapper wrapper = PlayerWrapper.fromZeroconf(zeroconf, device.id(), conf.forDevice(device.id()), shellConf);
+            PlayerApiServer server = new PlayerApiServer(port, host, wrapper, new MetadataCache(metadataCacheSize, metadataCacheTtl));
+            servers.put(device.id(), server);
+            handler.addPrefixPath("/" + device.id(), server.handler);
+        }
+    }
+
+    @NotNull
+    private JsonArray devices() {
+        JsonArray array = new JsonArray();
+        for (ZeroconfServer.Device device : zeroconf.devices()) {
+            Session session = device.session();
+
+            JsonObject obj = new JsonObject();
+            obj.addProperty("device_id", device.id());
+            obj.addProperty("device_name", device.name());
+            obj.addProperty("path", "/" + device.id());
+            obj.addProperty("active", session != null);
+            if (session != null) obj.addProperty("username", session.username());
+            array.add(obj);
+        }
+
+        return array;
+    }
+
+    /**
+     * Starts the server, see {@link ApiServer#start(int, int)}.
+     */
+    public void start(int ioThreads, int workerThreads) {
+        if (undertow != null) throw new IllegalStateException("Already started!");
+
+        undertow = ApiServer.startUndertow(port, host, handler, ioThreads, workerThreads);
+        LOGGER.info("Server started on port {}! {devices: {}, ioThreads: {}, workerThreads: {}}", port, servers.size(), ioThreads, workerThreads);
+    }
+
+    public void stop() {
+        for (PlayerApiServer server : servers.values()) server.stop();
+
+        if (undertow != null) {
+            undertow.stop();
+            undertow = null;
+
+            LOGGER.info("Server stopped!");
+        }
+    }
+}
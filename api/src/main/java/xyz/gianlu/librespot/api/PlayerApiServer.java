@@ -19,15 +19,23 @@ package xyz.gianlu.librespot.api;
 import org.jetbrains.annotations.NotNull;
 import xyz.gianlu.librespot.api.handlers.InstanceHandler;
 import xyz.gianlu.librespot.api.handlers.PlayerHandler;
+import xyz.gianlu.librespot.api.handlers.PlayerStateHandler;
+import xyz.gianlu.librespot.api.handlers.PlayerStateStreamHandler;
 
 /**
  * @author devgianlu
  */
 public class PlayerApiServer extends ApiServer {
     public PlayerApiServer(int port, @NotNull String host, @NotNull PlayerWrapper wrapper) {
-        super(port, host, wrapper);
+        this(port, host, wrapper, new MetadataCache(DEFAULT_METADATA_CACHE_SIZE, DEFAULT_METADATA_CACHE_TTL));
+    }
+
+    public PlayerApiServer(int port, @NotNull String host, @NotNull PlayerWrapper wrapper, @NotNull MetadataCache metadataCache) {
+        super(port, host, wrapper, metadataCache);
 
         handler.post("/player/{cmd}", new PlayerHandler(wrapper));
+        handler.get("/player/state", new PlayerStateHandler(wrapper.state()));
+        handler.get("/player/state/stream", new PlayerStateStreamHandler(wrapper.state()));
         handler.post("/instance/{action}", InstanceHandler.forPlayer(this, wrapper)); // Overrides session only handler
         wrapper.setListener(events);
     }
@@ -32,6 +32,7 @@ import java.util.concurrent.atomic.AtomicReference;
 public class PlayerWrapper extends SessionWrapper {
     private final AtomicReference<Player> playerRef = new AtomicReference<>(null);
     private final PlayerConfiguration conf;
+    private final VersionedPlayerState state = new VersionedPlayerState();
     private Listener listener = null;
 
     private PlayerWrapper(@NotNull PlayerConfiguration conf, @NotNull ShellEvents.Configuration shellConf) {
@@ -41,6 +42,7 @@ public class PlayerWrapper extends SessionWrapper {
 
     /**
      * Convenience method to create an instance of {@link PlayerWrapper} that is updated by {@link ZeroconfServer}
+     * with the sessions of its main device
      *
      * @param server The {@link ZeroconfServer}
      * @param conf   The player configuration
@@ -48,6 +50,20 @@ public class PlayerWrapper extends SessionWrapper {
      */
     @NotNull
     public static PlayerWrapper fromZeroconf(@NotNull ZeroconfServer server, @NotNull PlayerConfiguration conf, @NotNull ShellEvents.Configuration shellConf) {
+        return fromZeroconf(server, server.devices().get(0).id(), conf, shellConf);
+    }
+
+    /**
+     * Convenience method to create an instance of {@link PlayerWrapper} that is updated by {@link ZeroconfServer}
+     * with the sessions of a single device
+     *
+     * @param server   The {@link ZeroconfServer}
+     * @param deviceId The ID of the device
+     * @param conf     The player configuration
+     * @return A wrapper that holds a changing session-player tuple
+     */
+    @NotNull
+    public static PlayerWrapper fromZeroconf(@NotNull ZeroconfServer server, @NotNull String deviceId, @NotNull PlayerConfiguration conf, @NotNull ShellEvents.Configuration shellConf) {
         PlayerWrapper wrapper = new PlayerWrapper(conf, shellConf);
         server.addSessionListener(new ZeroconfServer.SessionListener() {
             @Override
@@ -58,7 +74,8 @@ public class PlayerWrapper extends SessionWrapper {
 
             @Override
             public void sessionChanged(@NotNull Session session) {
-                wrapper.set(session);
+                if (deviceId.equals(session.deviceId()))
+                    wrapper.set(session);
             }
         });
         return wrapper;
@@ -75,7 +92,10 @@ public class PlayerWrapper extends SessionWrapper {
     public static PlayerWrapper fromSession(@NotNull Session session, @NotNull PlayerConfiguration conf, @NotNull ShellEvents.Configuration shellConf) {
         PlayerWrapper wrapper = new PlayerWrapper(conf, shellConf);
         wrapper.sessionRef.set(session);
-        wrapper.playerRef.set(new Player(conf, session));
+
+        Player player = new Player(conf, session);
+        player.addEventsListener(wrapper.state);
+        wrapper.playerRef.set(player);
         return wrapper;
     }
 
@@ -92,6 +112,7 @@ public class PlayerWrapper extends SessionWrapper {
         super.set(session);
 
         Player player = new Player(conf, session);
+        player.addEventsListener(state);
         playerRef.set(player);
 
         if (shellEvents != null) player.addEventsListener(shellEvents);
@@ -103,6 +124,7 @@ public class PlayerWrapper extends SessionWrapper {
         Player old = playerRef.get();
         if (old != null) old.close();
         playerRef.set(null);
+        if (old != null) state.clear();
 
         if (listener != null && old != null) listener.onPlayerCleared(old);
 
@@ -114,6 +136,14 @@ public class PlayerWrapper extends SessionWrapper {
         return playerRef.get();
     }
 
+    /**
+     * @return The versioned state of the current player, which outlives the player itself
+     */
+    @NotNull
+    public VersionedPlayerState state() {
+        return state;
+    }
+
     public interface Listener extends SessionWrapper.Listener {
         void onPlayerCleared(@NotNull Player old);
 
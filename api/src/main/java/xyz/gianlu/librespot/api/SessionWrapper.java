@@ -39,12 +39,26 @@ public class SessionWrapper {
 
     /**
      * Convenience method to create an instance of {@link SessionWrapper} that is updated by {@link ZeroconfServer}
+     * with the sessions of its main device
      *
      * @param server The {@link ZeroconfServer}
      * @return A wrapper that holds a changing session
      */
     @NotNull
     public static SessionWrapper fromZeroconf(@NotNull ZeroconfServer server, @NotNull ShellEvents.Configuration shellConf) {
+        return fromZeroconf(server, server.devices().get(0).id(), shellConf);
+    }
+
+    /**
+     * Convenience method to create an instance of {@link SessionWrapper} that is updated by {@link ZeroconfServer}
+     * with the sessions of a single device
+     *
+     * @param server   The {@link ZeroconfServer}
+     * @param deviceId The ID of the device
+     * @return A wrapper that holds a changing session
+     */
+    @NotNull
+    public static SessionWrapper fromZeroconf(@NotNull ZeroconfServer server, @NotNull String deviceId, @NotNull ShellEvents.Configuration shellConf) {
         SessionWrapper wrapper = new SessionWrapper(shellConf);
         server.addSessionListener(new ZeroconfServer.SessionListener() {
             @Override
@@ -55,7 +69,8 @@ public class SessionWrapper {
 
             @Override
             public void sessionChanged(@NotNull Session session) {
-                wrapper.set(session);
+                if (deviceId.equals(session.deviceId()))
+                    wrapper.set(session);
             }
         });
         return wrapper;
@@ -49,12 +49,20 @@ public final class Utils {
                 body = out.toString();
             }
 
-            return QueryParameterUtils.mergeQueryParametersWithNewQueryString(map, body, "UTF-8");
+            return mergeParameters(exchange, body);
         } else {
             return map;
         }
     }
 
+    /**
+     * Merges the query parameters with the ones in the URL-encoded {@param body} read without blocking.
+     */
+    @NotNull
+    public static Map<String, Deque<String>> mergeParameters(@NotNull HttpServerExchange exchange, @NotNull String body) {
+        return QueryParameterUtils.mergeQueryParametersWithNewQueryString(exchange.getQueryParameters(), body, "UTF-8");
+    }
+
     @Nullable
     public static String getFirstString(@NotNull Map<String, Deque<String>> params, @NotNull String key) {
         Deque<String> q = params.get(key);
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.api;
+
+import com.google.gson.JsonPrimitive;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.Range;
+import xyz.gianlu.librespot.audio.MetadataWrapper;
+import xyz.gianlu.librespot.common.ProtobufToJson;
+import xyz.gianlu.librespot.common.Utils;
+import xyz.gianlu.librespot.metadata.PlayableId;
+import xyz.gianlu.librespot.player.Player;
+
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Snapshot of the player state made of top level JSON fields, each one tagged with the version in which it last changed.
+ * Clients that know a version receive only the fields that changed after it. Values are serialized once when they
+ * change, so the metadata of the current item is not serialized again for every client.
+ * <p>
+ * Versions restart from zero with every instance, so clients see them as {@code epoch:version} tokens where the epoch
+ * is random for each instance. A token from another epoch is answered with the whole state.
+ *
+ * @author devgianlu
+ */
+public final class VersionedPlayerState implements Player.EventsListener {
+    private static final String[] KEYS = new String[]{"context", "current", "track", "episode", "active", "playing",
+            "loading", "halted", "trackTime", "trackTimeAt", "volume"};
+    private static final long UNKNOWN_VERSION = -1;
+    private final Map<String, Field> fields = new LinkedHashMap<>();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final String epoch = Utils.randomHexString(new SecureRandom(), 16);
+    private long version = 0;
+
+    public VersionedPlayerState() {
+        for (String key : KEYS) fields.put(key, new Field("null", 0));
+    }
+
+    @NotNull
+    private static String string(@Nullable String str) {
+        return str == null ? "null" : new JsonPrimitive(str).toString();
+    }
+
+    public void addListener(@NotNull Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(@NotNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * @return The token of the current version
+     */
+    @NotNull
+    public synchronized String token() {
+        return token(version);
+    }
+
+    @NotNull
+    private String token(long version) {
+        return epoch + ':' + version;
+    }
+
+    /**
+     * @return The version of {@param token}, or {@link #UNKNOWN_VERSION} if it is missing, malformed or from another epoch
+     */
+    private long parseToken(@Nullable String token) {
+        if (token == null) return UNKNOWN_VERSION;
+
+        int index = token.indexOf(':');
+        if (index == -1 || !epoch.equals(token.substring(0, index))) return UNKNOWN_VERSION;
+
+        try {
+            long since = Long.parseLong(token.substring(index + 1));
+            return since < 0 || since > version ? UNKNOWN_VERSION : since;
+        } catch (NumberFormatException ex) {
+            return UNKNOWN_VERSION;
+        }
+    }
+
+    /**
+     * @param since The token known by the client, the whole state is returned if it is {@code null} or unknown
+     * @return The JSON object with the current token and the fields that changed after {@param since}
+     */
+    @NotNull
+    public synchronized String delta(@Nullable String since) {
+        return delta(parseToken(since));
+    }
+
+    @NotNull
+    private String delta(long since) {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append("{\"version\":\"").append(token(version)).append("\",\"state\":{");
+        boolean first = true;
+        for (Map.Entry<String, Field> entry : fields.entrySet()) {
+            Field field = entry.getValue();
+            if (since != UNKNOWN_VERSION && field.version <= since) continue;
+
+            if (!first) builder.append(',');
+            builder.append('"').append(entry.getKey()).append("\":").append(field.json);
+            first = false;
+        }
+
+        return builder.append("}}").toString();
+    }
+
+    /**
+     * Calls {@param listener} with the delta since {@param since}, no change is notified to other listeners in the meantime.
+     */
+    public synchronized void sendDelta(@Nullable String since, @NotNull Listener listener) {
+        listener.onStateChanged(token(version), delta(since));
+    }
+
+    /**
+     * @return A future completed with the delta since {@param token} as soon as there is one
+     */
+    @NotNull
+    public synchronized CompletableFuture<String> await(@Nullable String token) {
+        long since = parseToken(token);
+        if (since == UNKNOWN_VERSION || since != version)
+            return CompletableFuture.completedFuture(delta(since));
+
+        Waiter waiter = new Waiter(since);
+        waiters.add(waiter);
+        waiter.future.whenComplete((result, ex) -> {
+            synchronized (this) {
+                waiters.remove(waiter);
+            }
+        });
+        return waiter.future;
+    }
+
+    /**
+     * Applies all {@param changes} as a single new version. Values are JSON, {@code null} clears the field.
+     */
+    private synchronized void update(@NotNull Map<String, String> changes) {
+        long since = version;
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            String json = entry.getValue() == null ? "null" : entry.getValue();
+            Field field = fields.get(entry.getKey());
+            if (field.json.equals(json)) continue;
+
+            fields.put(entry.getKey(), new Field(json, since + 1));
+            version = since + 1;
+        }
+
+        if (version == since) return;
+
+        String delta = delta(since);
+        String token = token(version);
+        for (Listener listener : listeners) listener.onStateChanged(token, delta);
+
+        if (!waiters.isEmpty()) {
+            for (Waiter waiter : new ArrayList<>(waiters))
+                waiter.future.complete(waiter.since == since ? delta : delta(waiter.since));
+        }
+    }
+
+    private void update(@NotNull String key, @Nullable String json) {
+        update(Collections.singletonMap(key, json));
+    }
+
+    private void updateTrackTime(@NotNull Map<String, String> changes, long trackTime) {
+        changes.put("trackTime", String.valueOf(trackTime));
+        changes.put("trackTimeAt", String.valueOf(System.currentTimeMillis()));
+        update(changes);
+    }
+
+    private void updateMetadata(@NotNull Map<String, String> changes, @Nullable MetadataWrapper metadata) {
+        changes.put("track", metadata == null || metadata.track == null ? null : ProtobufToJson.toJsonString(metadata.track));
+        changes.put("episode", metadata == null || metadata.episode == null ? null : ProtobufToJson.toJsonString(metadata.episode));
+    }
+
+    /**
+     * Clears all fields, used when the player goes away.
+     */
+    public void clear() {
+        Map<String, String> changes = new HashMap<>();
+        for (String key : KEYS) changes.put(key, null);
+        update(changes);
+    }
+
+    @Override
+    public void onContextChanged(@NotNull Player player, @NotNull String newUri) {
+        update("context", string(newUri));
+    }
+
+    @Override
+    public void onTrackChanged(@NotNull Player player, @NotNull PlayableId id, @Nullable MetadataWrapper metadata, boolean userInitiated) {
+        Map<String, String> changes = new HashMap<>();
+        changes.put("current", string(id.toSpotifyUri()));
+        changes.put("active", "true");
+        updateMetadata(changes, metadata);
+        updateTrackTime(changes, Math.max(0, player.time()));
+    }
+
+    @Override
+    public void onPlaybackEnded(@NotNull Player player) {
+        update("playing", "false");
+    }
+
+    @Override
+    public void onPlaybackPaused(@NotNull Player player, long trackTime) {
+        Map<String, String> changes = new HashMap<>();
+        changes.put("playing", "false");
+        updateTrackTime(changes, trackTime);
+    }
+
+    @Override
+    public void onPlaybackResumed(@NotNull Player player, long trackTime) {
+        Map<String, String> changes = new HashMap<>();
+        changes.put("playing", "true");
+        updateTrackTime(changes, trackTime);
+    }
+
+    @Override
+    public void onPlaybackFailed(@NotNull Player player, @NotNull Exception e) {
+        update("playing", "false");
+    }
+
+    @Override
+    public void onTrackSeeked(@NotNull Player player, long trackTime) {
+        updateTrackTime(new HashMap<>(), trackTime);
+    }
+
+    @Override
+    public void onMetadataAvailable(@NotNull Player player, @NotNull MetadataWrapper metadata) {
+        Map<String, String> changes = new HashMap<>();
+        updateMetadata(changes, metadata);
+        update(changes);
+    }
+
+    @Override
+    public void onPlaybackHaltStateChanged(@NotNull Player player, boolean halted, long trackTime) {
+        Map<String, String> changes = new HashMap<>();
+        changes.put("halted", String.valueOf(halted));
+        updateTrackTime(changes, trackTime);
+    }
+
+    @Override
+    public void onInactiveSession(@NotNull Player player, boolean timeout) {
+        Map<String, String> changes = new HashMap<>();
+        changes.put("active", "false");
+        changes.put("playing", "false");
+        update(changes);
+    }
+
+    @Override
+    public void onVolumeChanged(@NotNull Player player, @Range(from = 0, to = 1) float volume) {
+        update("volume", String.valueOf(volume));
+    }
+
+    @Override
+    public void onPanicState(@NotNull Player player) {
+        update("playing", "false");
+    }
+
+    @Override
+    public void onStartedLoading(@NotNull Player player) {
+        update("loading", "true");
+    }
+
+    @Override
+    public void onFinishedLoading(@NotNull Player player) {
+        update("loading", "false");
+    }
+
+    public interface Listener {
+        /**
+         * Called with the lock held, so it must not block.
+         *
+         * @param token The token of the new version
+         * @param delta The JSON object with the fields changed by this version
+         */
+        void onStateChanged(@NotNull String token, @NotNull String delta);
+    }
+
+    private static final class Field {
+        final String json;
+        final long version;
+
+        Field(@NotNull String json, long version) {
+            this.json = json;
+            this.version = version;
+        }
+    }
+
+    private static final class Waiter {
+        final long since;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Waiter(long since) {
+            this.since = since;
+        }
+    }
+}
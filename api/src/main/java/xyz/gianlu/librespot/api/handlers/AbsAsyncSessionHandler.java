@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api.handlers;
+
+import com.google.gson.JsonElement;
+import io.undertow.server.HttpServerExchange;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.gianlu.librespot.api.SessionWrapper;
+import xyz.gianlu.librespot.api.Utils;
+import xyz.gianlu.librespot.core.Session;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Base class for handlers that complete the exchange from a {@link CompletableFuture}. The request body is read without
+ * blocking and the worker thread is released as soon as {@link #handleAsync(HttpServerExchange, Session, Map)} returns,
+ * the response is then written from the IO thread when the future completes. Handlers that switch the exchange to
+ * blocking mode are completed on the thread that completed the future instead.
+ *
+ * @author devgianlu
+ */
+public abstract class AbsAsyncSessionHandler extends AbsSessionHandler {
+    private static final Logger LOGGER = LogManager.getLogger(AbsAsyncSessionHandler.class);
+    private final boolean readParameters;
+
+    /**
+     * @param readParameters Whether the body should be read and merged with the query parameters, if {@code false}
+     *                       the handler is responsible for consuming the request body
+     */
+    public AbsAsyncSessionHandler(@NotNull SessionWrapper wrapper, boolean readParameters) {
+        super(wrapper);
+        this.readParameters = readParameters;
+    }
+
+    @Nullable
+    private static Throwable unwrap(@Nullable Throwable ex) {
+        while (ex instanceof CompletionException && ex.getCause() != null) ex = ex.getCause();
+        return ex;
+    }
+
+    @Override
+    protected final void handleRequest(@NotNull HttpServerExchange exchange, @NotNull Session session) {
+        if (readParameters)
+            exchange.getRequestReceiver().receiveFullString((ex, body) -> start(ex, session, Utils.mergeParameters(ex, body)), StandardCharsets.UTF_8);
+        else
+            start(exchange, session, exchange.getQueryParameters());
+    }
+
+    /**
+     * Starts the handler on a worker thread, it may block briefly while requesting tokens before sending the request.
+     */
+    private void start(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull Map<String, Deque<String>> params) {
+        exchange.dispatch(() -> {
+            CompletableFuture<?> future;
+            try {
+                future = handleAsync(exchange, session, params);
+            } catch (Exception ex) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(ex);
+            }
+
+            future.whenComplete((result, ex) -> {
+                if (exchange.isBlocking()) complete(exchange, result, unwrap(ex));
+                else exchange.getIoThread().execute(() -> complete(exchange, result, unwrap(ex)));
+            });
+        });
+    }
+
+    private void complete(@NotNull HttpServerExchange exchange, @Nullable Object result, @Nullable Throwable ex) {
+        if (ex != null) {
+            if (exchange.isResponseStarted()) {
+                LOGGER.error("Failed completing api request. {path: {}}", exchange.getRequestPath(), ex);
+                exchange.endExchange();
+            } else {
+                handleFailure(exchange, ex);
+            }
+        } else if (result instanceof String) {
+            exchange.getResponseSender().send((String) result);
+        } else if (result instanceof JsonElement) {
+            exchange.getResponseSender().send(result.toString());
+        } else if (result instanceof ByteBuffer) {
+            exchange.getResponseSender().send((ByteBuffer) result);
+        } else if (!exchange.isResponseStarted()) {
+            exchange.endExchange();
+        }
+    }
+
+    /**
+     * Writes the response for a failed request.
+     */
+    protected void handleFailure(@NotNull HttpServerExchange exchange, @NotNull Throwable ex) {
+        LOGGER.error("Failed handling api request. {path: {}}", exchange.getRequestPath(), ex);
+        Utils.internalError(exchange, ex.getMessage() == null ? ex.toString() : ex.getMessage());
+    }
+
+    /**
+     * Handles the request without blocking on network calls. The future can complete with a {@link String}, a
+     * {@link JsonElement} or a {@link ByteBuffer} to send as the body, or {@code null} if the response has already
+     * been written (or only the status code should be sent).
+     *
+     * @param params The query parameters, merged with the body ones if requested
+     */
+    @NotNull
+    protected abstract CompletableFuture<?> handleAsync(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull Map<String, Deque<String>> params) throws Exception;
+}
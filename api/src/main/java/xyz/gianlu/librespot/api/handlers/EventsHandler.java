@@ -16,16 +16,21 @@
 
 package xyz.gianlu.librespot.api.handlers;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import io.undertow.websockets.WebSocketConnectionCallback;
 import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.WebSocketCallback;
 import io.undertow.websockets.core.WebSocketChannel;
 import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Range;
+import org.xnio.IoUtils;
 import xyz.gianlu.librespot.api.PlayerWrapper;
 import xyz.gianlu.librespot.audio.MetadataWrapper;
 import xyz.gianlu.librespot.common.ProtobufToJson;
@@ -33,16 +38,71 @@ import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.metadata.PlayableId;
 import xyz.gianlu.librespot.player.Player;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 public final class EventsHandler extends WebSocketProtocolHandshakeHandler implements Player.EventsListener, PlayerWrapper.Listener, Session.ReconnectionListener {
     private static final Logger LOGGER = LogManager.getLogger(EventsHandler.class);
+    private static final int MAX_QUEUED_EVENTS = 64;
+    private final Broadcaster broadcaster;
 
     public EventsHandler() {
-        super((WebSocketConnectionCallback) (exchange, channel) -> LOGGER.info("Accepted new websocket connection from {}.", channel.getSourceAddress().getAddress()));
+        this(new Broadcaster());
+    }
+
+    private EventsHandler(@NotNull Broadcaster broadcaster) {
+        super(broadcaster);
+        this.broadcaster = broadcaster;
+    }
+
+    /**
+     * Serializes {@param obj} with the track or episode metadata appended, writing the metadata directly instead of
+     * converting it to a {@link JsonObject} first.
+     */
+    @NotNull
+    private static String withMetadata(@NotNull JsonObject obj, @Nullable MetadataWrapper metadata) {
+        String json = obj.toString();
+        if (metadata == null || (metadata.track == null && metadata.episode == null)) return json;
+
+        StringBuilder builder = new StringBuilder(json.length() + 4096);
+        builder.append(json, 0, json.length() - 1);
+        if (metadata.track != null) {
+            builder.append(",\"track\":");
+            ProtobufToJson.write(metadata.track, builder);
+        } else {
+            builder.append(",\"episode\":");
+            ProtobufToJson.write(metadata.episode, builder);
+        }
+
+        return builder.append('}').toString();
     }
 
     private void dispatch(@NotNull JsonObject obj) {
-        for (WebSocketChannel channel : getPeerConnections())
-            WebSockets.sendText(obj.toString(), channel, null);
+        broadcaster.broadcast(obj.toString(), null);
+    }
+
+    private void dispatch(@NotNull String text) {
+        broadcaster.broadcast(text, null);
+    }
+
+    /**
+     * Dispatches an event that replaces the previous one with the same {@param coalesceKey} if a peer hasn't received it yet.
+     */
+    private void dispatchLatest(@NotNull JsonObject obj, @NotNull String coalesceKey) {
+        broadcaster.broadcast(obj.toString(), coalesceKey);
+    }
+
+    /**
+     * @return The delivery metrics of every connected peer
+     */
+    @NotNull
+    public JsonObject stats() {
+        return broadcaster.stats();
     }
 
     @Override
@@ -59,12 +119,7 @@ public final class EventsHandler extends WebSocketProtocolHandshakeHandler imple
         obj.addProperty("event", "trackChanged");
         obj.addProperty("userInitiated", userInitiated);
         obj.addProperty("uri", id.toSpotifyUri());
-        if (metadata != null) {
-            if (metadata.track != null) obj.add("track", ProtobufToJson.convert(metadata.track));
-            else if (metadata.episode != null) obj.add("episode", ProtobufToJson.convert(metadata.episode));
-        }
-
-        dispatch(obj);
+        dispatch(withMetadata(obj, metadata));
     }
 
     @Override
@@ -104,16 +159,14 @@ public final class EventsHandler extends WebSocketProtocolHandshakeHandler imple
         JsonObject obj = new JsonObject();
         obj.addProperty("event", "trackSeeked");
         obj.addProperty("trackTime", trackTime);
-        dispatch(obj);
+        dispatchLatest(obj, "trackSeeked");
     }
 
     @Override
     public void onMetadataAvailable(@NotNull Player player, @NotNull MetadataWrapper metadata) {
         JsonObject obj = new JsonObject();
         obj.addProperty("event", "metadataAvailable");
-        if (metadata.track != null) obj.add("track", ProtobufToJson.convert(metadata.track));
-        else if (metadata.episode != null) obj.add("episode", ProtobufToJson.convert(metadata.episode));
-        dispatch(obj);
+        dispatch(withMetadata(obj, metadata));
     }
 
     @Override
@@ -138,7 +191,7 @@ public final class EventsHandler extends WebSocketProtocolHandshakeHandler imple
         JsonObject obj = new JsonObject();
         obj.addProperty("event", "volumeChanged");
         obj.addProperty("value", volume);
-        dispatch(obj);
+        dispatchLatest(obj, "volumeChanged");
     }
 
     @Override
@@ -198,4 +251,127 @@ public final class EventsHandler extends WebSocketProtocolHandshakeHandler imple
         obj.addProperty("event", "connectionEstablished");
         dispatch(obj);
     }
+
+    private static final class Event {
+        private final ByteBuffer frame;
+        private final String coalesceKey;
+        private final long timestamp = System.nanoTime();
+
+        Event(@NotNull String text, @Nullable String coalesceKey) {
+            this.frame = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            this.coalesceKey = coalesceKey;
+        }
+    }
+
+    /**
+     * Keeps the connected peers and sends every event to all of them. Events are serialized once and the same frame
+     * is sent to every peer, one at a time, so that a peer which doesn't read only fills its own bounded queue.
+     */
+    private static final class Broadcaster implements WebSocketConnectionCallback {
+        private final Map<WebSocketChannel, Peer> peers = new ConcurrentHashMap<>();
+
+        @Override
+        public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+            peers.put(channel, new Peer(channel));
+            channel.addCloseTask(peers::remove);
+            channel.getReceiveSetter().set(new AbstractReceiveListener() {
+            });
+            channel.resumeReceives();
+            LOGGER.info("Accepted new websocket connection from {}.", channel.getSourceAddress().getAddress());
+        }
+
+        void broadcast(@NotNull String text, @Nullable String coalesceKey) {
+            if (peers.isEmpty()) return;
+
+            Event event = new Event(text, coalesceKey);
+            for (Peer peer : peers.values()) peer.offer(event);
+        }
+
+        @NotNull
+        JsonObject stats() {
+            JsonArray array = new JsonArray(peers.size());
+            for (Peer peer : peers.values()) array.add(peer.stats());
+
+            JsonObject obj = new JsonObject();
+            obj.add("peers", array);
+            return obj;
+        }
+    }
+
+    private static final class Peer implements WebSocketCallback<Event> {
+        private final WebSocketChannel channel;
+        private final ArrayDeque<Event> queue = new ArrayDeque<>();
+        private boolean sending = false;
+        private long sent = 0;
+        private long dropped = 0;
+        private long coalesced = 0;
+        private long maxLag = 0;
+
+        Peer(@NotNull WebSocketChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void offer(@NotNull Event event) {
+            if (event.coalesceKey != null) {
+                Iterator<Event> iter = queue.iterator();
+                while (iter.hasNext()) {
+                    if (event.coalesceKey.equals(iter.next().coalesceKey)) {
+                        iter.remove();
+                        coalesced++;
+                        break;
+                    }
+                }
+            }
+
+            if (queue.size() >= MAX_QUEUED_EVENTS) {
+                queue.poll();
+                dropped++;
+            }
+
+            queue.add(event);
+            if (!sending) sendNext();
+        }
+
+        private void sendNext() {
+            Event event = queue.poll();
+            if (event == null) {
+                sending = false;
+                return;
+            }
+
+            sending = true;
+            WebSockets.sendText(event.frame.duplicate(), channel, this, event);
+        }
+
+        @Override
+        public synchronized void complete(WebSocketChannel channel, Event event) {
+            sent++;
+            maxLag = Math.max(maxLag, System.nanoTime() - event.timestamp);
+            sendNext();
+        }
+
+        @Override
+        public synchronized void onError(WebSocketChannel channel, Event event, Throwable ex) {
+            LOGGER.debug("Failed sending event to {}.", channel.getSourceAddress(), ex);
+            dropped += queue.size() + 1;
+            queue.clear();
+            sending = false;
+            IoUtils.safeClose(channel);
+        }
+
+        @NotNull
+        synchronized JsonObject stats() {
+            Event oldest = queue.peek();
+
+            JsonObject obj = new JsonObject();
+            obj.addProperty("address", String.valueOf(channel.getSourceAddress()));
+            obj.addProperty("queued", queue.size() + (sending ? 1 : 0));
+            obj.addProperty("sent", sent);
+            obj.addProperty("dropped", dropped);
+            obj.addProperty("coalesced", coalesced);
+            obj.addProperty("lagMs", oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.timestamp));
+            obj.addProperty("maxLagMs", TimeUnit.NANOSECONDS.toMillis(maxLag));
+            return obj;
+        }
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.api.handlers;
+
+import com.google.gson.JsonPrimitive;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.gianlu.librespot.api.MetadataCache;
+import xyz.gianlu.librespot.api.SessionWrapper;
+import xyz.gianlu.librespot.api.Utils;
+import xyz.gianlu.librespot.api.handlers.MetadataHandler.MetadataType;
+import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.dealer.ApiClient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Returns the metadata of many URIs with a single request. Each URI goes through the {@link MetadataCache} like
+ * {@link MetadataHandler} does, at most {@link #MAX_CONCURRENT_REQUESTS} of them are requested at the same time and
+ * the JSON array is written as results complete, so its order is not the one of the request. Results are written from
+ * the completion callbacks without blocking, no worker thread is held while the requests are running.
+ *
+ * @author devgianlu
+ */
+public final class MetadataBatchHandler extends AbsAsyncSessionHandler {
+    public static final int MAX_URIS = 200;
+    static final int MAX_CONCURRENT_REQUESTS = 8;
+    private static final Logger LOGGER = LogManager.getLogger(MetadataBatchHandler.class);
+    private final MetadataCache cache;
+
+    public MetadataBatchHandler(@NotNull SessionWrapper wrapper, @NotNull MetadataCache cache) {
+        super(wrapper, true);
+        this.cache = cache;
+    }
+
+    @NotNull
+    private static String describe(@NotNull Throwable ex) {
+        while (ex instanceof CompletionException && ex.getCause() != null) ex = ex.getCause();
+
+        if (ex instanceof ApiClient.StatusCodeException && ((ApiClient.StatusCodeException) ex).code == 404)
+            return "404: Unknown uri";
+        else
+            return ex.getMessage() == null ? ex.toString() : ex.getMessage();
+    }
+
+    /**
+     * Loads every URI with {@param loader} and streams the results to {@param exchange} as a JSON array.
+     *
+     * @return A future completed once the whole array has been sent and the exchange ended
+     */
+    @NotNull
+    static CompletableFuture<Void> stream(@NotNull HttpServerExchange exchange, @NotNull Collection<String> uris, @NotNull Function<String, CompletableFuture<Result>> loader) {
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        return new Batch(exchange, uris, loader).start();
+    }
+
+    @Override
+    protected @NotNull CompletableFuture<?> handleAsync(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull Map<String, Deque<String>> params) {
+        Set<String> uris = new LinkedHashSet<>();
+        Deque<String> values = params.get("uris");
+        if (values != null) {
+            for (String value : values) {
+                for (String uri : value.split(",")) {
+                    uri = uri.trim();
+                    if (!uri.isEmpty()) uris.add(uri);
+                }
+            }
+        }
+
+        if (uris.isEmpty()) {
+            Utils.invalidParameter(exchange, "uris");
+            return CompletableFuture.completedFuture(null);
+        } else if (uris.size() > MAX_URIS) {
+            Utils.invalidParameter(exchange, "uris", "Too many uris, at most " + MAX_URIS + " are allowed");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return stream(exchange, uris, uri -> load(session, uri));
+    }
+
+    @NotNull
+    private CompletableFuture<Result> load(@NotNull Session session, @NotNull String uri) {
+        MetadataType type = MetadataType.guessTypeFromUri(uri);
+        if (type == null)
+            return CompletableFuture.completedFuture(new Result(uri, null, null, "Unknown type"));
+
+        try {
+            return cache.get(MetadataHandler.cacheKey(session, type, uri), () -> MetadataHandler.load(session, type, uri)).handle((entry, ex) -> {
+                if (ex == null) {
+                    return new Result(uri, type, entry.body(), null);
+                } else {
+                    LOGGER.debug("Failed loading metadata. {uri: {}}", uri, ex);
+                    return new Result(uri, type, null, describe(ex));
+                }
+            });
+        } catch (IllegalArgumentException ex) {
+            return CompletableFuture.completedFuture(new Result(uri, type, null, "Invalid uri for type: " + type.val));
+        }
+    }
+
+    static final class Result {
+        final String uri;
+        final MetadataType type;
+        final ByteBuffer body;
+        final String error;
+
+        Result(@NotNull String uri, @Nullable MetadataType type, @Nullable ByteBuffer body, @Nullable String error) {
+            this.uri = uri;
+            this.type = type;
+            this.body = body;
+            this.error = error;
+        }
+
+        /**
+         * @return The buffers of this element, including the separator before it and the end of the array after it
+         */
+        @NotNull
+        ByteBuffer[] toBuffers(boolean first, boolean last) {
+            StringBuilder builder = new StringBuilder(64);
+            builder.append(first ? '[' : ',').append("{\"uri\":").append(new JsonPrimitive(uri));
+            if (type != null) builder.append(",\"type\":\"").append(type.val).append('"');
+
+            if (body != null) {
+                builder.append(",\"metadata\":");
+                return new ByteBuffer[]{
+                        ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8)),
+                        body.duplicate(),
+                        ByteBuffer.wrap((last ? "}]" : "}").getBytes(StandardCharsets.UTF_8))
+                };
+            } else {
+                builder.append(",\"error\":").append(new JsonPrimitive(error == null ? "" : error)).append('}');
+                if (last) builder.append(']');
+                return new ByteBuffer[]{ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8))};
+            }
+        }
+    }
+
+    /**
+     * Keeps at most {@link #MAX_CONCURRENT_REQUESTS} loads running and queues their results. The results are sent one
+     * at a time from the IO thread, the next one is sent when the previous has been written.
+     */
+    private static final class Batch implements IoCallback {
+        private final HttpServerExchange exchange;
+        private final Iterator<String> pending;
+        private final Function<String, CompletableFuture<Result>> loader;
+        private final int total;
+        private final ArrayDeque<ByteBuffer[]> ready = new ArrayDeque<>();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private int completed = 0;
+        private boolean sending = false;
+
+        Batch(@NotNull HttpServerExchange exchange, @NotNull Collection<String> uris, @NotNull Function<String, CompletableFuture<Result>> loader) {
+            this.exchange = exchange;
+            this.pending = new ArrayList<>(uris).iterator();
+            this.loader = loader;
+            this.total = uris.size();
+        }
+
+        @NotNull
+        CompletableFuture<Void> start() {
+            if (total == 0) {
+                exchange.getResponseSender().send("[]");
+                done.complete(null);
+                return done;
+            }
+
+            List<String> first = new ArrayList<>(MAX_CONCURRENT_REQUESTS);
+            synchronized (this) {
+                while (first.size() < MAX_CONCURRENT_REQUESTS && pending.hasNext()) first.add(pending.next());
+            }
+
+            for (String uri : first) load(uri);
+            return done;
+        }
+
+        private void load(@NotNull String uri) {
+            CompletableFuture<Result> future;
+            try {
+                future = loader.apply(uri);
+            } catch (RuntimeException ex) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(ex);
+            }
+
+            future.whenComplete((result, ex) -> {
+                if (ex != null) LOGGER.debug("Failed loading metadata. {uri: {}}", uri, ex);
+                onResult(ex == null ? result : new Result(uri, null, null, describe(ex)));
+            });
+        }
+
+        private void onResult(@NotNull Result result) {
+            String next;
+            synchronized (this) {
+                completed++;
+                ready.add(result.toBuffers(completed == 1, completed == total));
+                next = pending.hasNext() ? pending.next() : null;
+            }
+
+            if (next != null) load(next);
+            exchange.getIoThread().execute(this::sendNext);
+        }
+
+        /**
+         * Sends the next queued result, must be called from the IO thread.
+         */
+        private void sendNext() {
+            ByteBuffer[] buffers;
+            synchronized (this) {
+                if (sending || (buffers = ready.poll()) == null) return;
+                sending = true;
+            }
+
+            exchange.getResponseSender().send(buffers, this);
+        }
+
+        @Override
+        public void onComplete(HttpServerExchange exchange, Sender sender) {
+            boolean finished;
+            synchronized (this) {
+                sending = false;
+                finished = completed == total && ready.isEmpty();
+            }
+
+            if (finished) {
+                exchange.endExchange();
+                done.complete(null);
+            } else {
+                sendNext();
+            }
+        }
+
+        @Override
+        public void onException(HttpServerExchange exchange, Sender sender, IOException ex) {
+            done.completeExceptionally(ex);
+        }
+    }
+}
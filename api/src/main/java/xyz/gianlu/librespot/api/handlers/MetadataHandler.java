@@ -16,50 +16,63 @@
 
 package xyz.gianlu.librespot.api.handlers;
 
-import com.google.gson.JsonObject;
 import io.undertow.server.HttpServerExchange;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import xyz.gianlu.librespot.api.MetadataCache;
 import xyz.gianlu.librespot.api.SessionWrapper;
 import xyz.gianlu.librespot.api.Utils;
 import xyz.gianlu.librespot.common.ProtobufToJson;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.dealer.ApiClient;
-import xyz.gianlu.librespot.mercury.MercuryClient;
 import xyz.gianlu.librespot.metadata.*;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Deque;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Gianlu
  */
-public final class MetadataHandler extends AbsSessionHandler {
-    private static final Logger LOGGER = LogManager.getLogger(MetadataHandler.class);
+public final class MetadataHandler extends AbsAsyncSessionHandler {
     private final boolean needsType;
+    private final MetadataCache cache;
 
-    public MetadataHandler(@NotNull SessionWrapper wrapper, boolean needsType) {
-        super(wrapper);
+    public MetadataHandler(@NotNull SessionWrapper wrapper, boolean needsType, @NotNull MetadataCache cache) {
+        super(wrapper, true);
         this.needsType = needsType;
+        this.cache = cache;
     }
 
-    @Override
-    public void handleRequest(@NotNull HttpServerExchange exchange, @NotNull Session session) throws Exception {
-        exchange.startBlocking();
-        if (exchange.isInIoThread()) {
-            exchange.dispatch(this);
-            return;
+    /**
+     * Sends the cached body, or only the status if the client already has it.
+     */
+    @Nullable
+    private ByteBuffer respond(@NotNull HttpServerExchange exchange, @NotNull MetadataCache.Entry entry) {
+        exchange.getResponseHeaders().put(Headers.ETAG, entry.etag.toString());
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH);
+        if (!ETagUtils.handleIfNoneMatch(ifNoneMatch, entry.etag, true)) {
+            cache.notModified();
+            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+            return null;
         }
 
-        Map<String, Deque<String>> params = Utils.readParameters(exchange);
+        return entry.body();
+    }
+
+    @Override
+    protected @NotNull CompletableFuture<?> handleAsync(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull Map<String, Deque<String>> params) {
         String uri = Utils.getFirstString(params, "uri");
         if (uri == null) {
             Utils.invalidParameter(exchange, "uri");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         MetadataType type;
@@ -67,7 +80,7 @@ public final class MetadataHandler extends AbsSessionHandler {
         if (typeStr == null) {
             if (needsType) {
                 Utils.invalidParameter(exchange, "type");
-                return;
+                return CompletableFuture.completedFuture(null);
             }
 
             type = MetadataType.guessTypeFromUri(uri);
@@ -77,41 +90,52 @@ public final class MetadataHandler extends AbsSessionHandler {
 
         if (type == null) {
             Utils.invalidParameter(exchange, "type");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         try {
-            JsonObject obj = handle(session, type, uri);
-            exchange.getResponseSender().send(obj.toString());
-        } catch (ApiClient.StatusCodeException ex) {
-            if (ex.code == 404) {
-                Utils.invalidParameter(exchange, "uri", "404: Unknown uri");
-                return;
-            }
-
-            Utils.internalError(exchange, ex);
-            LOGGER.error("Failed handling api request. {type: {}, uri: {}, code: {}}", type, uri, ex.code, ex);
-        } catch (IOException | MercuryClient.MercuryException ex) {
-            Utils.internalError(exchange, ex);
-            LOGGER.error("Failed handling api request. {type: {}, uri: {}}", type, uri, ex);
+            return cache.get(cacheKey(session, type, uri), () -> load(session, type, uri))
+                    .thenApply(entry -> respond(exchange, entry));
         } catch (IllegalArgumentException ex) {
             Utils.invalidParameter(exchange, "uri", "Invalid uri for type: " + type);
+            return CompletableFuture.completedFuture(null);
         }
     }
 
+    @Override
+    protected void handleFailure(@NotNull HttpServerExchange exchange, @NotNull Throwable ex) {
+        if (ex instanceof ApiClient.StatusCodeException && ((ApiClient.StatusCodeException) ex).code == 404) {
+            Utils.invalidParameter(exchange, "uri", "404: Unknown uri");
+            return;
+        }
+
+        super.handleFailure(exchange, ex);
+    }
+
+    /**
+     * @return The cache key for {@param uri}, scoped to the user since playlists and other metadata can be private
+     */
+    @NotNull
+    static String cacheKey(@NotNull Session session, @NotNull MetadataType type, @NotNull String uri) {
+        return session.username() + "/" + type.val + ":" + uri;
+    }
+
+    /**
+     * Requests the metadata for {@param uri} and serializes it to JSON.
+     */
     @NotNull
-    private JsonObject handle(@NotNull Session session, @NotNull MetadataType type, @NotNull String uri) throws IOException, MercuryClient.MercuryException, IllegalArgumentException {
+    static CompletableFuture<byte[]> load(@NotNull Session session, @NotNull MetadataType type, @NotNull String uri) throws IllegalArgumentException {
         switch (type) {
             case ALBUM:
-                return ProtobufToJson.convert(session.api().getMetadata4Album(AlbumId.fromUri(uri)));
+                return session.api().getMetadata4AlbumAsync(AlbumId.fromUri(uri)).thenApply(ProtobufToJson::toJsonBytes);
             case ARTIST:
-                return ProtobufToJson.convert(session.api().getMetadata4Artist(ArtistId.fromUri(uri)));
+                return session.api().getMetadata4ArtistAsync(ArtistId.fromUri(uri)).thenApply(ProtobufToJson::toJsonBytes);
             case SHOW:
-                return ProtobufToJson.convert(session.api().getMetadata4Show(ShowId.fromUri(uri)));
+                return session.api().getMetadata4ShowAsync(ShowId.fromUri(uri)).thenApply(ProtobufToJson::toJsonBytes);
             case EPISODE:
-                return ProtobufToJson.convert(session.api().getMetadata4Episode(EpisodeId.fromUri(uri)));
+                return session.api().getMetadata4EpisodeAsync(EpisodeId.fromUri(uri)).thenApply(ProtobufToJson::toJsonBytes);
             case TRACK:
-                return ProtobufToJson.convert(session.api().getMetadata4Track(TrackId.fromUri(uri)));
+                return session.api().getMetadata4TrackAsync(TrackId.fromUri(uri)).thenApply(ProtobufToJson::toJsonBytes);
             case PLAYLIST:
                 return handlePlaylist(session, uri);
             default:
@@ -120,22 +144,22 @@ public final class MetadataHandler extends AbsSessionHandler {
     }
 
     @NotNull
-    private JsonObject handlePlaylist(@NotNull Session session, @NotNull String uri) throws IOException, MercuryClient.MercuryException {
-        return ProtobufToJson.convert(session.api().getPlaylist(PlaylistId.fromUri(uri)));
+    private static CompletableFuture<byte[]> handlePlaylist(@NotNull Session session, @NotNull String uri) {
+        return session.api().getPlaylistAsync(PlaylistId.fromUri(uri)).thenApply(ProtobufToJson::toJsonBytes);
     }
 
-    private enum MetadataType {
+    enum MetadataType {
         EPISODE("episode"), TRACK("track"), ALBUM("album"),
         ARTIST("artist"), SHOW("show"), PLAYLIST("playlist");
 
-        private final String val;
+        final String val;
 
         MetadataType(String val) {
             this.val = val;
         }
 
         @Nullable
-        private static MetadataType parse(@NotNull String val) {
+        static MetadataType parse(@NotNull String val) {
             for (MetadataType type : values())
                 if (Objects.equals(type.val, val))
                     return type;
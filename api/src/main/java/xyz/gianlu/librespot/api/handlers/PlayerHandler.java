@@ -152,11 +152,15 @@ public final class PlayerHandler extends AbsPlayerHandler {
     private static void tracks(@NotNull HttpServerExchange exchange, @NotNull Player player, boolean withQueue) {
         Player.Tracks tracks = player.tracks(withQueue);
 
-        JsonObject obj = new JsonObject();
-        obj.add("current", tracks.current == null ? null : ProtobufToJson.convert(tracks.current));
-        obj.add("next", ProtobufToJson.convertList(tracks.next));
-        obj.add("prev", ProtobufToJson.convertList(tracks.previous));
-        exchange.getResponseSender().send(obj.toString());
+        StringBuilder builder = new StringBuilder(256 * (tracks.next.size() + tracks.previous.size() + 1));
+        builder.append("{\"current\":");
+        if (tracks.current == null) builder.append("null");
+        else ProtobufToJson.write(tracks.current, builder);
+        builder.append(",\"next\":");
+        ProtobufToJson.writeList(tracks.next, builder);
+        builder.append(",\"prev\":");
+        ProtobufToJson.writeList(tracks.previous, builder);
+        exchange.getResponseSender().send(builder.append('}').toString());
     }
 
     private static void addToQueue(HttpServerExchange exchange, @NotNull Player player, String uri) {
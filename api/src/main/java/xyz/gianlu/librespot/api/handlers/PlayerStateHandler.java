@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.api.handlers;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.SameThreadExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.xnio.XnioExecutor;
+import xyz.gianlu.librespot.api.Utils;
+import xyz.gianlu.librespot.api.VersionedPlayerState;
+
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-poll endpoint for the player state. Responds with the fields changed since the {@code since} token as soon as
+ * there are some, or with an empty delta after {@code timeout} seconds. Unknown tokens get the whole state.
+ *
+ * @author devgianlu
+ */
+public final class PlayerStateHandler implements HttpHandler {
+    private static final int DEFAULT_TIMEOUT = 30;
+    private static final int MAX_TIMEOUT = 120;
+    private final VersionedPlayerState state;
+
+    public PlayerStateHandler(@NotNull VersionedPlayerState state) {
+        this.state = state;
+    }
+
+    private static void send(@NotNull HttpServerExchange exchange, @NotNull String delta) {
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, "no-store");
+        exchange.getResponseSender().send(delta);
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+        Map<String, Deque<String>> params = exchange.getQueryParameters();
+
+        String since = Utils.getFirstString(params, "since");
+
+        int timeout;
+        try {
+            String str = Utils.getFirstString(params, "timeout");
+            timeout = str == null ? DEFAULT_TIMEOUT : Integer.parseInt(str);
+        } catch (NumberFormatException ex) {
+            timeout = -1;
+        }
+
+        if (timeout < 0 || timeout > MAX_TIMEOUT) {
+            Utils.invalidParameter(exchange, "timeout", "Must be between 0 and " + MAX_TIMEOUT);
+            return;
+        }
+
+        CompletableFuture<String> future = state.await(since);
+        if (timeout == 0) future.complete(state.delta(since));
+        if (future.isDone()) {
+            send(exchange, future.join());
+            return;
+        }
+
+        int finalTimeout = timeout;
+        exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+            XnioExecutor.Key key = exchange.getIoThread().executeAfter(() -> future.complete(state.delta(since)), finalTimeout, TimeUnit.SECONDS);
+            future.thenAccept(delta -> exchange.getIoThread().execute(() -> {
+                key.remove();
+                send(exchange, delta);
+            }));
+        });
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.api.handlers;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.server.handlers.sse.ServerSentEventConnectionCallback;
+import io.undertow.server.handlers.sse.ServerSentEventHandler;
+import org.jetbrains.annotations.NotNull;
+import xyz.gianlu.librespot.api.VersionedPlayerState;
+
+/**
+ * Server-Sent Events stream of the player state. The first event contains the whole state, or only the fields changed
+ * since the {@code Last-Event-ID} token when reconnecting, then every event contains the fields changed by a single version.
+ * Each delta is serialized once for all the connections.
+ *
+ * @author devgianlu
+ */
+public final class PlayerStateStreamHandler implements HttpHandler, ServerSentEventConnectionCallback, VersionedPlayerState.Listener {
+    private static final long KEEP_ALIVE_MILLIS = 15_000;
+    private final ServerSentEventHandler handler = new ServerSentEventHandler(this);
+    private final VersionedPlayerState state;
+
+    public PlayerStateStreamHandler(@NotNull VersionedPlayerState state) {
+        this.state = state;
+        state.addListener(this);
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        handler.handleRequest(exchange);
+    }
+
+    @Override
+    public void connected(ServerSentEventConnection connection, String lastEventId) {
+        connection.setKeepAliveTime(KEEP_ALIVE_MILLIS);
+        state.sendDelta(lastEventId, (token, delta) -> connection.send(delta, "state", token, null));
+    }
+
+    @Override
+    public void onStateChanged(@NotNull String token, @NotNull String delta) {
+        for (ServerSentEventConnection connection : handler.getConnections())
+            connection.send(delta, "state", token, null);
+    }
+}
@@ -16,11 +16,8 @@
 
 package xyz.gianlu.librespot.api.handlers;
 
-import com.google.gson.JsonObject;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import xyz.gianlu.librespot.api.SessionWrapper;
 import xyz.gianlu.librespot.api.Utils;
@@ -28,52 +25,40 @@ import xyz.gianlu.librespot.core.Session;
 
 import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-public final class ProfileHandler extends AbsSessionHandler {
-    private static final Logger LOGGER = LogManager.getLogger(ProfileHandler.class);
+public final class ProfileHandler extends AbsAsyncSessionHandler {
 
     public ProfileHandler(@NotNull SessionWrapper wrapper) {
-        super(wrapper);
+        super(wrapper, true);
     }
 
     @Override
-    protected void handleRequest(@NotNull HttpServerExchange exchange, @NotNull Session session) throws Exception {
-        exchange.startBlocking();
-        if (exchange.isInIoThread()) {
-            exchange.dispatch(this);
-            return;
-        }
-
-        Map<String, Deque<String>> params = Utils.readParameters(exchange);
+    protected @NotNull CompletableFuture<?> handleAsync(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull Map<String, Deque<String>> params) {
         String userId = Utils.getFirstString(params, "user_id");
         if (userId == null) {
             Utils.invalidParameter(exchange, "user_id");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         String action = Utils.getFirstString(params, "action");
         if (action == null) {
             Utils.invalidParameter(exchange, "action");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
 
         switch (action) {
             case "followers":
-                JsonObject followers = session.api().getUserFollowers(userId);
-                exchange.getResponseSender().send(followers.toString());
-                break;
+                return session.api().getUserFollowersAsync(userId);
             case "following":
-                JsonObject following = session.api().getUserFollowing(userId);
-                exchange.getResponseSender().send(following.toString());
-                break;
+                return session.api().getUserFollowingAsync(userId);
             case "profile":
-                JsonObject profile = session.api().getUserProfile(userId, null, null);
-                exchange.getResponseSender().send(profile.toString());
-                break;
+                return session.api().getUserProfileAsync(userId, null, null);
             default:
                 Utils.invalidParameter(exchange, "action");
+                return CompletableFuture.completedFuture(null);
         }
     }
 }
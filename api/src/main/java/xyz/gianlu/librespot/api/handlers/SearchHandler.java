@@ -25,30 +25,22 @@ import xyz.gianlu.librespot.core.Session;
 
 import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-public final class SearchHandler extends AbsSessionHandler {
+public final class SearchHandler extends AbsAsyncSessionHandler {
 
     public SearchHandler(@NotNull SessionWrapper wrapper) {
-        super(wrapper);
+        super(wrapper, true);
     }
 
     @Override
-    protected void handleRequest(@NotNull HttpServerExchange exchange, @NotNull Session session) throws Exception {
-        exchange.startBlocking();
-        if (exchange.isInIoThread()) {
-            exchange.dispatch(this);
-            return;
-        }
-
-        Map<String, Deque<String>> params = Utils.readParameters(exchange);
+    protected @NotNull CompletableFuture<?> handleAsync(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull Map<String, Deque<String>> params) {
         String query = Utils.getFirstString(params, "query");
         if (query == null) {
             Utils.invalidParameter(exchange, "query");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
-        exchange.getResponseSender().send(session.search()
-                .request(new SearchManager.SearchRequest(query))
-                .toString());
+        return session.search().requestAsync(new SearchManager.SearchRequest(query));
     }
 }
@@ -26,26 +26,20 @@ import xyz.gianlu.librespot.core.TokenProvider;
 
 import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-public final class TokensHandler extends AbsSessionHandler {
+public final class TokensHandler extends AbsAsyncSessionHandler {
 
     public TokensHandler(@NotNull SessionWrapper wrapper) {
-        super(wrapper);
+        super(wrapper, true);
     }
 
     @Override
-    protected void handleRequest(@NotNull HttpServerExchange exchange, @NotNull Session session) throws Exception {
-        exchange.startBlocking();
-        if (exchange.isInIoThread()) {
-            exchange.dispatch(this);
-            return;
-        }
-
-        Map<String, Deque<String>> params = Utils.readParameters(exchange);
+    protected @NotNull CompletableFuture<?> handleAsync(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull Map<String, Deque<String>> params) throws Exception {
         String scope = Utils.getFirstString(params, "scope");
         if (scope == null) {
             Utils.invalidParameter(exchange, "scope");
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         TokenProvider.StoredToken token = session.tokens().getToken(scope);
@@ -53,6 +47,6 @@ public final class TokensHandler extends AbsSessionHandler {
         obj.addProperty("token", token.accessToken);
         obj.addProperty("timestamp", token.timestamp);
         obj.addProperty("expiresIn", token.expiresIn);
-        exchange.getResponseSender().send(obj.toString());
+        return CompletableFuture.completedFuture(obj);
     }
 }
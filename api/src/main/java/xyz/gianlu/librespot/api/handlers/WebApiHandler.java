@@ -17,64 +17,168 @@
 package xyz.gianlu.librespot.api.handlers;
 
 import io.undertow.server.HttpServerExchange;
-import io.undertow.util.FileUtils;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
 import okhttp3.*;
+import okio.BufferedSink;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import xyz.gianlu.librespot.api.SessionWrapper;
+import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.core.TokenProvider;
+import xyz.gianlu.librespot.mercury.MercuryClient;
 
-public final class WebApiHandler extends AbsSessionHandler {
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Proxies requests to the Web API. Bodies are streamed in both directions through a fixed size buffer, so neither side
+ * is ever buffered entirely and a slow client slows down the upstream read. The token is requested and the call executed
+ * synchronously on a dedicated pool of at most {@link #MAX_CONCURRENT_CALLS} threads rather than on the worker or the
+ * OkHttp dispatcher, so a slow client holds one of these threads and not one of the few per-host slots the rest of the
+ * session uses. At most {@link #MAX_PENDING_CALLS} calls wait for a thread, the others are answered with 503.
+ */
+public final class WebApiHandler extends AbsAsyncSessionHandler {
     private static final String[] API_TOKENS_ALL = new String[]{"ugc-image-upload", "playlist-read-collaborative", "playlist-modify-private", "playlist-modify-public", "playlist-read-private", "user-read-playback-position", "user-read-recently-played", "user-top-read", "user-modify-playback-state", "user-read-currently-playing", "user-read-playback-state", "user-read-private", "user-read-email", "user-library-modify", "user-library-read", "user-follow-modify", "user-follow-read", "streaming", "app-remote-control"};
     private static final HttpUrl BASE_API_URL = HttpUrl.get("https://api.spotify.com");
     private static final HttpString HEADER_X_SCOPE = HttpString.tryFromString("X-Spotify-Scope");
+    private static final HttpString[] FORWARDED_RESPONSE_HEADERS = new HttpString[]{Headers.CONTENT_TYPE, Headers.CONTENT_ENCODING, Headers.CONTENT_LENGTH};
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_CONCURRENT_CALLS = 16;
+    private static final int MAX_PENDING_CALLS = 64;
+    private static final Logger LOGGER = LogManager.getLogger(WebApiHandler.class);
+    private final ThreadPoolExecutor proxyExecutor;
 
     public WebApiHandler(@NotNull SessionWrapper wrapper) {
-        super(wrapper);
+        super(wrapper, false);
+
+        proxyExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_CALLS, MAX_CONCURRENT_CALLS, 10, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_CALLS), new NameThreadFactory(r -> "web-api-proxy-" + r.hashCode()));
+        proxyExecutor.allowCoreThreadTimeOut(true);
     }
 
-    @Override
-    protected void handleRequest(@NotNull HttpServerExchange exchange, @NotNull Session session) throws Exception {
-        exchange.startBlocking();
-        if (exchange.isInIoThread()) {
-            exchange.dispatch(this);
-            return;
+    /**
+     * Stops the calls in progress, no more requests can be handled after this.
+     */
+    public void close() {
+        proxyExecutor.shutdownNow();
+    }
+
+    private static void copy(@NotNull InputStream in, @NotNull OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = in.read(buffer)) != -1) out.write(buffer, 0, count);
+    }
+
+    /**
+     * @return A body that reads the request while it is being sent upstream
+     */
+    @NotNull
+    private static RequestBody streamingBody(@NotNull HttpServerExchange exchange, @Nullable MediaType contentType) {
+        long contentLength = exchange.getRequestContentLength();
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override
+            public long contentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public boolean isOneShot() {
+                return true;
+            }
+
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) throws IOException {
+                copy(exchange.getInputStream(), sink.outputStream());
+            }
+        };
+    }
+
+    private static void forwardResponse(@NotNull HttpServerExchange exchange, @NotNull Response resp) throws IOException {
+        exchange.setStatusCode(resp.code());
+        for (HttpString header : FORWARDED_RESPONSE_HEADERS) {
+            String value = resp.header(header.toString());
+            if (value != null) exchange.getResponseHeaders().put(header, value);
         }
 
-        String body = FileUtils.readFile(exchange.getInputStream());
-        HeaderValues contentType = exchange.getRequestHeaders().get(Headers.CONTENT_TYPE);
+        ResponseBody body = resp.body();
+        if (body == null) return;
+
+        try (InputStream in = body.byteStream(); OutputStream out = exchange.getOutputStream()) {
+            copy(in, out);
+        }
+    }
+
+    @Override
+    protected @NotNull CompletableFuture<?> handleAsync(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull Map<String, Deque<String>> params) throws Exception {
+        exchange.startBlocking();
 
         String[] scopes = API_TOKENS_ALL;
         if (exchange.getRequestHeaders().contains(HEADER_X_SCOPE))
             scopes = exchange.getRequestHeaders().get(HEADER_X_SCOPE).toArray(new String[0]);
 
-        TokenProvider.StoredToken token = session.tokens().getToken(scopes);
-
         HttpUrl.Builder url = BASE_API_URL.newBuilder()
                 .addPathSegments(exchange.getRelativePath().substring(1))
                 .query(exchange.getQueryString());
 
         Request.Builder req = new Request.Builder()
-                .url(url.build())
-                .addHeader("Authorization", "Bearer " + token.accessToken);
+                .url(url.build());
+
+        // Asking for a specific encoding disables OkHttp's transparent decompression, the body is forwarded as is
+        String acceptEncoding = exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING);
+        if (acceptEncoding != null) req.addHeader("Accept-Encoding", acceptEncoding);
+
+        HeaderValues contentType = exchange.getRequestHeaders().get(Headers.CONTENT_TYPE);
+        boolean hasBody = exchange.getRequestContentLength() > 0 || exchange.getRequestHeaders().contains(Headers.TRANSFER_ENCODING);
 
         String method = exchange.getRequestMethod().toString();
-        if (!body.isEmpty() && contentType != null)
-            req.method(method, RequestBody.create(body, MediaType.get(contentType.getFirst())));
-        else
+        if (hasBody && contentType != null) {
+            String contentEncoding = exchange.getRequestHeaders().getFirst(Headers.CONTENT_ENCODING);
+            if (contentEncoding != null) req.addHeader("Content-Encoding", contentEncoding);
+
+            req.method(method, streamingBody(exchange, MediaType.get(contentType.getFirst())));
+        } else {
             req.method(method, null);
+        }
 
-        try (Response resp = session.client().newCall(req.build()).execute()) {
-            exchange.setStatusCode(resp.code());
+        String[] finalScopes = scopes;
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            proxyExecutor.execute(() -> {
+                try {
+                    TokenProvider.StoredToken token = session.tokens().getToken(finalScopes);
+                    req.addHeader("Authorization", "Bearer " + token.accessToken);
 
-            String respContentType = resp.header("Content-Type");
-            if (respContentType != null) exchange.getResponseHeaders().add(Headers.CONTENT_TYPE, respContentType);
+                    try (Response resp = session.client().newCall(req.build()).execute()) {
+                        forwardResponse(exchange, resp);
+                    }
 
-            ResponseBody respBody = resp.body();
-            if (respBody != null) exchange.getOutputStream().write(respBody.bytes());
+                    future.complete(null);
+                } catch (IOException | MercuryClient.MercuryException | RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.warn("Too many Web API calls, rejecting request.");
+            exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+            exchange.getResponseHeaders().put(Headers.RETRY_AFTER, 1);
+            future.complete(null);
         }
+
+        return future;
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.undertow.Undertow;
+import io.undertow.server.handlers.PathHandler;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.api.handlers.EventsHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class EventsHandlerTest {
+    /**
+     * Must match the per peer limit in {@link EventsHandler}, plus the event being sent.
+     */
+    private static final int MAX_PEER_QUEUE = 64 + 1;
+    private static final int EVENT_SIZE = 128 * 1024;
+
+    private static int port(@NotNull Undertow undertow) {
+        return ((InetSocketAddress) undertow.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    @NotNull
+    private static Undertow start(@NotNull EventsHandler events) {
+        Undertow undertow = Undertow.builder()
+                .addHttpListener(0, "localhost", new PathHandler().addExactPath("/events", events))
+                .build();
+        undertow.start();
+        return undertow;
+    }
+
+    @NotNull
+    private static WebSocket connect(@NotNull OkHttpClient client, int port, @NotNull BlockingQueue<String> queue) {
+        return client.newWebSocket(new Request.Builder().url("ws://localhost:" + port + "/events").build(), new WebSocketListener() {
+            @Override
+            public void onMessage(@NotNull WebSocket webSocket, @NotNull String text) {
+                queue.add(text);
+            }
+        });
+    }
+
+    /**
+     * Opens a websocket connection which completes the handshake and then never reads again.
+     */
+    @NotNull
+    private static Socket connectStalled(int port) throws IOException {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("localhost", port));
+        socket.getOutputStream().write(("GET /events HTTP/1.1\r\n" +
+                "Host: localhost:" + port + "\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+
+        InputStream in = socket.getInputStream();
+        int last = 0;
+        while (last != 0x0D0A0D0A) {
+            int b = in.read();
+            if (b == -1) throw new IOException("Connection closed during handshake");
+            last = (last << 8) | b;
+        }
+
+        return socket;
+    }
+
+    private static void awaitPeers(@NotNull EventsHandler events, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (events.stats().getAsJsonArray("peers").size() != count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(count, events.stats().getAsJsonArray("peers").size());
+    }
+
+    @Nullable
+    private static JsonObject peerStats(@NotNull EventsHandler events, int localPort) {
+        for (JsonElement peer : events.stats().getAsJsonArray("peers")) {
+            if (peer.getAsJsonObject().get("address").getAsString().endsWith(":" + localPort))
+                return peer.getAsJsonObject();
+        }
+
+        return null;
+    }
+
+    private static boolean allSent(@NotNull JsonArray peers, int count) {
+        for (JsonElement peer : peers)
+            if (peer.getAsJsonObject().get("sent").getAsInt() < count) return false;
+
+        return true;
+    }
+
+    @Test
+    void testBroadcast() throws Exception {
+        EventsHandler events = new EventsHandler();
+        Undertow undertow = start(events);
+
+        OkHttpClient client = new OkHttpClient();
+        List<WebSocket> sockets = new ArrayList<>();
+        List<BlockingQueue<String>> received = new ArrayList<>();
+        try {
+            int port = port(undertow);
+            for (int i = 0; i < 3; i++) {
+                BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+                received.add(queue);
+                sockets.add(connect(client, port, queue));
+            }
+
+            awaitPeers(events, sockets.size());
+
+            events.onConnectionDropped();
+            events.onConnectionEstablished();
+
+            for (BlockingQueue<String> queue : received) {
+                assertEquals("{\"event\":\"connectionDropped\"}", queue.poll(5, TimeUnit.SECONDS));
+                assertEquals("{\"event\":\"connectionEstablished\"}", queue.poll(5, TimeUnit.SECONDS));
+            }
+
+            // The send callback may run after the peer received the frame
+            JsonArray peers = events.stats().getAsJsonArray("peers");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!allSent(peers, 2) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                peers = events.stats().getAsJsonArray("peers");
+            }
+
+            assertEquals(sockets.size(), peers.size());
+            for (JsonElement peer : peers) {
+                assertEquals(2, peer.getAsJsonObject().get("sent").getAsInt());
+                assertEquals(0, peer.getAsJsonObject().get("dropped").getAsInt());
+            }
+        } finally {
+            for (WebSocket socket : sockets) socket.close(1000, null);
+            client.dispatcher().executorService().shutdown();
+            undertow.stop();
+        }
+    }
+
+    @Test
+    void testSlowPeer() throws Exception {
+        EventsHandler events = new EventsHandler();
+        Undertow undertow = start(events);
+
+        OkHttpClient client = new OkHttpClient();
+        List<WebSocket> sockets = new ArrayList<>();
+        List<BlockingQueue<String>> received = new ArrayList<>();
+        Socket stalled = null;
+        try {
+            int port = port(undertow);
+            stalled = connectStalled(port);
+            for (int i = 0; i < 2; i++) {
+                BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+                received.add(queue);
+                sockets.add(connect(client, port, queue));
+            }
+
+            awaitPeers(events, sockets.size() + 1);
+
+            // Large events fill the socket buffers of the stalled peer, the others must keep receiving all of them
+            char[] padding = new char[EVENT_SIZE];
+            for (int i = 0; i < 200; i++) {
+                Arrays.fill(padding, (char) ('a' + i % 26));
+                events.onPlaybackFailed(null, new Exception(i + new String(padding)));
+
+                for (BlockingQueue<String> queue : received) {
+                    String text = queue.poll(5, TimeUnit.SECONDS);
+                    assertNotNull(text);
+                    assertTrue(JsonParser.parseString(text).getAsJsonObject().get("message").getAsString().startsWith(i + String.valueOf((char) ('a' + i % 26))));
+                }
+            }
+
+            for (int i = 1; i <= 10; i++)
+                events.onVolumeChanged(null, i / 10f);
+
+            for (BlockingQueue<String> queue : received) {
+                String last = null;
+                for (String text; (text = queue.poll(5, TimeUnit.SECONDS)) != null; ) {
+                    last = text;
+                    if (text.contains("\"value\":1.0")) break;
+                }
+
+                assertEquals("{\"event\":\"volumeChanged\",\"value\":1.0}", last);
+            }
+
+            JsonObject slow = peerStats(events, stalled.getLocalPort());
+            assertNotNull(slow);
+            assertTrue(slow.get("queued").getAsInt() <= MAX_PEER_QUEUE);
+            assertTrue(slow.get("dropped").getAsInt() > 0);
+            assertTrue(slow.get("coalesced").getAsInt() >= 9);
+            assertTrue(slow.get("sent").getAsInt() < 200);
+
+            for (JsonElement peer : events.stats().getAsJsonArray("peers")) {
+                if (peer.getAsJsonObject().get("address").equals(slow.get("address"))) continue;
+                assertEquals(0, peer.getAsJsonObject().get("dropped").getAsInt());
+            }
+
+            stalled.close();
+            stalled = null;
+            awaitPeers(events, sockets.size());
+
+            for (WebSocket socket : sockets) socket.close(1000, null);
+            sockets.clear();
+            awaitPeers(events, 0);
+        } finally {
+            if (stalled != null) stalled.close();
+            for (WebSocket socket : sockets) socket.close(1000, null);
+            client.dispatcher().executorService().shutdown();
+            undertow.stop();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataCacheTest {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private CompletableFuture<byte[]> load(String body) {
+        loads.incrementAndGet();
+        return CompletableFuture.completedFuture(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void shouldCacheAndExpire() {
+        MetadataCache cache = new MetadataCache(1024, 10, now::get);
+        MetadataCache.Entry first = cache.get("track:a", () -> load("{\"a\":1}")).join();
+        MetadataCache.Entry second = cache.get("track:a", () -> load("{\"a\":2}")).join();
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+
+        now.addAndGet(10_000);
+        MetadataCache.Entry third = cache.get("track:a", () -> load("{\"a\":2}")).join();
+        assertEquals(2, loads.get());
+        assertNotEquals(first.etag, third.etag);
+        assertEquals("{\"a\":2}", StandardCharsets.UTF_8.decode(third.body()).toString());
+
+        JsonObject stats = cache.stats();
+        assertEquals(1, stats.get("hits").getAsLong());
+        assertEquals(2, stats.get("misses").getAsLong());
+    }
+
+    @Test
+    void shouldShareConcurrentLoads() {
+        MetadataCache cache = new MetadataCache(1024, 10, now::get);
+        CompletableFuture<byte[]> pending = new CompletableFuture<>();
+        CompletableFuture<MetadataCache.Entry> a = cache.get("album:b", () -> pending);
+        CompletableFuture<MetadataCache.Entry> b = cache.get("album:b", () -> load("unused"));
+        assertFalse(a.isDone());
+        assertEquals(0, loads.get());
+
+        pending.complete("{}".getBytes(StandardCharsets.UTF_8));
+        assertSame(a.join(), b.join());
+
+        CompletableFuture<byte[]> failing = new CompletableFuture<>();
+        CompletableFuture<MetadataCache.Entry> c = cache.get("album:c", () -> failing);
+        failing.completeExceptionally(new IllegalStateException());
+        assertTrue(c.isCompletedExceptionally());
+        cache.get("album:c", () -> load("{}")).join();
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsed() {
+        MetadataCache cache = new MetadataCache(250, 10, now::get);
+        for (int i = 0; i < 3; i++) {
+            String body = new String(new char[100]).replace('\0', (char) ('a' + i));
+            cache.get("track:" + i, () -> load(body)).join();
+            cache.get("track:0", () -> load("unused")).join();
+        }
+
+        JsonObject stats = cache.stats();
+        assertEquals(2, stats.get("entries").getAsInt());
+        assertEquals(200, stats.get("bytes").getAsLong());
+        assertEquals(1, stats.get("evictions").getAsLong());
+
+        cache.get("track:0", () -> load("unused")).join();
+        cache.get("track:1", () -> load("reloaded")).join();
+        assertEquals(4, loads.get());
+    }
+}
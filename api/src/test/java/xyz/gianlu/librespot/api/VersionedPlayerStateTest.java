@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.api;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class VersionedPlayerStateTest {
+
+    private static JsonObject parse(String json) {
+        return JsonParser.parseString(json).getAsJsonObject();
+    }
+
+    @NotNull
+    private static String token(@NotNull VersionedPlayerState state, long version) {
+        String token = state.token();
+        return token.substring(0, token.indexOf(':') + 1) + version;
+    }
+
+    @Test
+    void testDeltas() {
+        VersionedPlayerState state = new VersionedPlayerState();
+        List<String> notified = new ArrayList<>();
+        state.addListener((token, delta) -> notified.add(delta));
+
+        state.onContextChanged(null, "spotify:album:abc");
+        state.onVolumeChanged(null, 0.5f);
+        state.onVolumeChanged(null, 0.5f);
+        assertEquals(2, state.version());
+        assertEquals(2, notified.size());
+        assertEquals("{\"version\":\"" + token(state, 2) + "\",\"state\":{\"volume\":0.5}}", notified.get(1));
+
+        JsonObject full = parse(state.delta(null)).getAsJsonObject("state");
+        assertEquals("spotify:album:abc", full.get("context").getAsString());
+        assertTrue(full.get("track").isJsonNull());
+        assertEquals(full.toString(), parse(state.delta(token(state, 100))).getAsJsonObject("state").toString());
+        assertEquals(full.toString(), parse(state.delta("garbage")).getAsJsonObject("state").toString());
+
+        state.onPlaybackPaused(null, 1234);
+        JsonObject delta = parse(state.delta(token(state, 2))).getAsJsonObject("state");
+        assertEquals(3, delta.size());
+        assertFalse(delta.get("playing").getAsBoolean());
+        assertEquals(1234, delta.get("trackTime").getAsLong());
+        assertEquals("{\"version\":\"" + token(state, 3) + "\",\"state\":{}}", state.delta(state.token()));
+
+        state.clear();
+        delta = parse(state.delta(token(state, 3))).getAsJsonObject("state");
+        assertEquals(5, delta.size());
+        assertTrue(delta.get("context").isJsonNull());
+    }
+
+    @Test
+    void testEpochMismatch() {
+        VersionedPlayerState old = new VersionedPlayerState();
+        old.onVolumeChanged(null, 0.1f);
+        old.onVolumeChanged(null, 0.2f);
+
+        VersionedPlayerState state = new VersionedPlayerState();
+        state.onVolumeChanged(null, 0.3f);
+        state.onContextChanged(null, "spotify:album:abc");
+        assertNotEquals(old.token(), state.token());
+        assertEquals(old.version(), state.version());
+
+        JsonObject full = parse(state.delta(null)).getAsJsonObject("state");
+        assertEquals(full.toString(), parse(state.delta(old.token())).getAsJsonObject("state").toString());
+
+        CompletableFuture<String> future = state.await(old.token());
+        assertTrue(future.isDone());
+        assertEquals(state.token(), parse(future.join()).get("version").getAsString());
+        assertEquals(full.toString(), parse(future.join()).getAsJsonObject("state").toString());
+    }
+
+    @Test
+    void testAwaitInitialVersion() {
+        VersionedPlayerState state = new VersionedPlayerState();
+        assertEquals(0, state.version());
+
+        CompletableFuture<String> future = state.await(state.token());
+        assertFalse(future.isDone());
+        assertTrue(state.await(null).isDone());
+        assertTrue(state.await("other:0").isDone());
+
+        state.onVolumeChanged(null, 0.4f);
+        assertEquals("{\"version\":\"" + token(state, 1) + "\",\"state\":{\"volume\":0.4}}", future.getNow(null));
+    }
+
+    @Test
+    void testAwait() {
+        VersionedPlayerState state = new VersionedPlayerState();
+        state.onVolumeChanged(null, 0.1f);
+
+        assertTrue(state.await(null).isDone());
+        assertTrue(state.await(token(state, 0)).isDone());
+        assertTrue(state.await(token(state, 7)).isDone());
+
+        CompletableFuture<String> future = state.await(state.token());
+        assertFalse(future.isDone());
+        state.onVolumeChanged(null, 0.1f);
+        assertFalse(future.isDone());
+
+        state.onVolumeChanged(null, 0.2f);
+        assertEquals("{\"version\":\"" + token(state, 2) + "\",\"state\":{\"volume\":0.2}}", future.getNow(null));
+
+        String before = state.token();
+        CompletableFuture<String> cancelled = state.await(before);
+        cancelled.complete(state.delta(before));
+        state.onVolumeChanged(null, 0.3f);
+        assertEquals("{\"version\":\"" + token(state, 2) + "\",\"state\":{}}", cancelled.join());
+    }
+}
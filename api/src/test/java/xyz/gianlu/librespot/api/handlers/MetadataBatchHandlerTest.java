@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.api.handlers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.api.handlers.MetadataHandler.MetadataType;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class MetadataBatchHandlerTest {
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(4);
+    private final OkHttpClient client = new OkHttpClient.Builder().readTimeout(10, TimeUnit.SECONDS).build();
+    private Undertow undertow = null;
+
+    /**
+     * Dispatches to a worker thread and streams the batch like {@link MetadataBatchHandler} does, with a fake loader.
+     */
+    @NotNull
+    private static HttpHandler handler(@NotNull Function<String, CompletableFuture<MetadataBatchHandler.Result>> loader) {
+        return exchange -> exchange.dispatch(() -> {
+            List<String> uris = Arrays.asList(exchange.getQueryParameters().get("uris").getFirst().split(","));
+            MetadataBatchHandler.stream(exchange, uris, loader);
+        });
+    }
+
+    @NotNull
+    private static MetadataBatchHandler.Result success(@NotNull String uri) {
+        String json = "{\"uri\":\"" + uri + "\"}";
+        return new MetadataBatchHandler.Result(uri, MetadataType.TRACK, ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (undertow != null) undertow.stop();
+        executor.shutdownNow();
+        client.dispatcher().executorService().shutdown();
+    }
+
+    @NotNull
+    private String start(@NotNull HttpHandler handler) {
+        undertow = Undertow.builder()
+                .addHttpListener(0, "localhost", handler)
+                .setWorkerThreads(1)
+                .build();
+        undertow.start();
+        return "http://localhost:" + ((InetSocketAddress) undertow.getListenerInfo().get(0).getAddress()).getPort() + "/";
+    }
+
+    @NotNull
+    private JsonArray batch(@NotNull String url, @NotNull List<String> uris) throws IOException {
+        HttpUrl httpUrl = HttpUrl.get(url).newBuilder().addQueryParameter("uris", String.join(",", uris)).build();
+        try (Response response = client.newCall(new Request.Builder().url(httpUrl).build()).execute()) {
+            assertEquals(200, response.code());
+            assertEquals("application/json", response.header("Content-Type"));
+            return JsonParser.parseString(response.body().string()).getAsJsonArray();
+        }
+    }
+
+    @Test
+    void testPartialFailures() throws IOException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Random random = new Random(42);
+
+        String url = start(handler(uri -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            if (uri.startsWith("throw:")) {
+                running.decrementAndGet();
+                throw new IllegalStateException("Thrown for " + uri);
+            }
+
+            CompletableFuture<MetadataBatchHandler.Result> future = new CompletableFuture<>();
+            executor.schedule(() -> {
+                running.decrementAndGet();
+                if (uri.startsWith("fail:"))
+                    future.completeExceptionally(new CompletionException(new IOException("Failed " + uri)));
+                else if (uri.startsWith("error:"))
+                    future.complete(new MetadataBatchHandler.Result(uri, null, null, "Unknown type"));
+                else
+                    future.complete(success(uri));
+            }, random.nextInt(20), TimeUnit.MILLISECONDS);
+            return future;
+        }));
+
+        List<String> uris = new ArrayList<>();
+        String[] kinds = new String[]{"fail:", "error:", "throw:", "spotify:track:"};
+        for (int i = 0; i < 60; i++) uris.add(kinds[i % kinds.length] + i);
+
+        JsonArray array = batch(url, uris);
+        assertEquals(uris.size(), array.size());
+        assertTrue(maxRunning.get() <= MetadataBatchHandler.MAX_CONCURRENT_REQUESTS);
+
+        Set<String> seen = new HashSet<>();
+        for (JsonElement elm : array) {
+            JsonObject obj = elm.getAsJsonObject();
+            String uri = obj.get("uri").getAsString();
+            assertTrue(seen.add(uri));
+
+            if (uri.startsWith("fail:")) {
+                assertEquals("Failed " + uri, obj.get("error").getAsString());
+            } else if (uri.startsWith("error:")) {
+                assertEquals("Unknown type", obj.get("error").getAsString());
+            } else if (uri.startsWith("throw:")) {
+                assertEquals("Thrown for " + uri, obj.get("error").getAsString());
+            } else {
+                assertEquals("track", obj.get("type").getAsString());
+                assertEquals(uri, obj.getAsJsonObject("metadata").get("uri").getAsString());
+                assertFalse(obj.has("error"));
+            }
+        }
+
+        assertEquals(new HashSet<>(uris), seen);
+    }
+
+    @Test
+    void testDoesNotHoldWorker() throws Exception {
+        CountDownLatch second = new CountDownLatch(1);
+        String url = start(handler(uri -> {
+            if (uri.startsWith("second:")) {
+                second.countDown();
+                return CompletableFuture.completedFuture(success(uri));
+            }
+
+            // The first batch completes only once the second one, which needs the only worker thread, has started
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    if (!second.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("Second batch not started");
+                } catch (InterruptedException ex) {
+                    throw new CompletionException(ex);
+                }
+
+                return success(uri);
+            }, executor);
+        }));
+
+        Future<JsonArray> first = executor.submit(() -> batch(url, Arrays.asList("first:a", "first:b")));
+        while (executor.getActiveCount() < 3) Thread.sleep(10);
+
+        assertEquals(1, batch(url, Collections.singletonList("second:a")).size());
+
+        JsonArray array = first.get(10, TimeUnit.SECONDS);
+        assertEquals(2, array.size());
+        for (JsonElement elm : array) assertFalse(elm.getAsJsonObject().has("error"));
+    }
+}
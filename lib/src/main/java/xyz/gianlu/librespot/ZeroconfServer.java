@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.core.SharedResources;
 import xyz.gianlu.librespot.crypto.DiffieHellman;
 import xyz.gianlu.librespot.mercury.MercuryClient;
 import xyz.gianlu.zeroconf.Service;
@@ -36,19 +37,24 @@ import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.*;
 
 /**
  * @author Gianlu
@@ -59,6 +65,8 @@ public class ZeroconfServer implements Closeable {
     private final static int MIN_PORT = 1024;
     private static final Logger LOGGER = LoggerFactory.getLogger(ZeroconfServer.class);
     private static final byte[] EOL = new byte[]{'\r', '\n'};
+    private static final byte[] HEAD_END = new byte[]{'\r', '\n', '\r', '\n'};
+    private static final byte[] GET_INFO_STATUS_LINE = "HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.US_ASCII);
     private static final JsonObject DEFAULT_GET_INFO_FIELDS = new JsonObject();
     private static final JsonObject DEFAULT_SUCCESSFUL_ADD_USER = new JsonObject();
     private static final byte[][] VIRTUAL_INTERFACES = new byte[][]{
@@ -108,19 +116,38 @@ public class ZeroconfServer implements Closeable {
     }
 
     private final HttpRunner runner;
-    private final DiffieHellman keys;
     private final List<SessionListener> sessionListeners;
     private final Zeroconf zeroconf;
-    private final Object connectionLock = new Object();
     private final Inner inner;
-    private volatile Session session;
-    private String connectingUsername = null;
+    private final List<Device> devices;
+    private final Map<String, Device> devicesByPath;
+    private final SharedResources resources;
+    private final SharedResources ownedResources;
+    volatile SessionFactory sessionFactory = Session.Builder::create;
 
-    private ZeroconfServer(@NotNull Inner inner, int listenPort, boolean listenAllInterfaces, String[] interfacesList) throws IOException {
+    private ZeroconfServer(@NotNull Inner inner, @NotNull List<String> additionalDevices, int listenPort, boolean listenAllInterfaces, String[] interfacesList) throws IOException {
         this.inner = inner;
-        this.keys = new DiffieHellman(inner.random);
         this.sessionListeners = new ArrayList<>();
 
+        List<Device> devices = new ArrayList<>(1 + additionalDevices.size());
+        devices.add(new Device(inner.deviceName, inner.deviceId, "/"));
+        for (String name : additionalDevices) {
+            String deviceId = deriveDeviceId(inner.deviceId, name);
+            devices.add(new Device(name, deviceId, "/zc/" + deviceId));
+        }
+
+        this.devices = Collections.unmodifiableList(devices);
+        this.devicesByPath = new HashMap<>(devices.size());
+        for (Device device : devices) devicesByPath.put(device.path, device);
+
+        if (inner.resources == null && devices.size() > 1) {
+            this.ownedResources = new SharedResources(inner.conf);
+            this.resources = ownedResources;
+        } else {
+            this.ownedResources = null;
+            this.resources = inner.resources;
+        }
+
         if (listenPort == -1)
             listenPort = inner.random.nextInt((MAX_PORT - MIN_PORT) + 1) + MIN_PORT;
 
@@ -151,14 +178,31 @@ public class ZeroconfServer implements Closeable {
         zeroconf.setUseIpv4(true).setUseIpv6(false);
         zeroconf.addNetworkInterfaces(nics);
 
-        Map<String, String> txt = new HashMap<>();
-        txt.put("CPath", "/");
-        txt.put("VERSION", "1.0");
-        txt.put("Stack", "SP");
-        Service service = new Service(inner.deviceName, SERVICE, listenPort);
-        service.setText(txt);
+        for (Device device : devices) {
+            Map<String, String> txt = new HashMap<>();
+            txt.put("CPath", device.path);
+            txt.put("VERSION", "1.0");
+            txt.put("Stack", "SP");
+            Service service = new Service(device.name, SERVICE, listenPort);
+            service.setText(txt);
+
+            zeroconf.announce(service);
+        }
+    }
 
-        zeroconf.announce(service);
+    /**
+     * Derives the ID of an additional device from the main one, so that it doesn't change across restarts if the main one doesn't.
+     */
+    @NotNull
+    private static String deriveDeviceId(@NotNull String deviceId, @NotNull String deviceName) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            sha1.update(deviceId.getBytes(StandardCharsets.UTF_8));
+            sha1.update(deviceName.getBytes(StandardCharsets.UTF_8));
+            return Utils.bytesToHex(sha1.digest()).toLowerCase();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
     }
 
     @NotNull
@@ -215,73 +259,73 @@ public class ZeroconfServer implements Closeable {
     public void close() throws IOException {
         zeroconf.close();
         runner.close();
+        if (ownedResources != null) ownedResources.close();
     }
 
+    /**
+     * Closes the session of every device.
+     */
     public void closeSession() throws IOException {
-        if (session == null) return;
-
-        sessionListeners.forEach(l -> l.sessionClosing(session));
-        session.close();
-        session = null;
+        for (Device device : devices) device.closeSession();
     }
 
-    private boolean hasValidSession() {
-        try {
-            boolean valid = session != null && session.isValid();
-            if (!valid) session = null;
-            return valid;
-        } catch (IllegalStateException ex) {
-            session = null;
-            return false;
-        }
+    /**
+     * @return All the devices announced by this server, the first one is the main device
+     */
+    @NotNull
+    public List<Device> devices() {
+        return devices;
     }
 
-    private void handleGetInfo(OutputStream out, String httpVersion) throws IOException {
-        JsonObject info = DEFAULT_GET_INFO_FIELDS.deepCopy();
-        info.addProperty("deviceID", inner.deviceId);
-        info.addProperty("remoteName", inner.deviceName);
-        info.addProperty("publicKey", Utils.toBase64(keys.publicKeyArray()));
-        info.addProperty("deviceType", inner.deviceType.name().toUpperCase());
-
-        synchronized (connectionLock) {
-            info.addProperty("activeUser", connectingUsername != null ? connectingUsername : (hasValidSession() ? session.username() : ""));
-        }
-
-        out.write(httpVersion.getBytes());
-        out.write(" 200 OK".getBytes());
-        out.write(EOL);
-        out.flush();
+    /**
+     * @return The device with the given ID or {@code null}
+     */
+    @Nullable
+    public Device device(@NotNull String deviceId) {
+        for (Device device : devices)
+            if (device.id.equals(deviceId))
+                return device;
 
-        out.write("Content-Type: application/json".getBytes());
-        out.write(EOL);
-        out.flush();
+        return null;
+    }
 
-        out.write(EOL);
-        out.write(info.toString().getBytes());
-        out.flush();
+    /**
+     * @return The whole response, only the status line isn't cached
+     */
+    @NotNull
+    private ByteBuffer[] handleGetInfo(@NotNull Device device, @NotNull String httpVersion) {
+        byte[] statusLine = Objects.equals(httpVersion, "HTTP/1.1") ? GET_INFO_STATUS_LINE : (httpVersion + " 200 OK\r\n").getBytes(StandardCharsets.US_ASCII);
+        return new ByteBuffer[]{ByteBuffer.wrap(statusLine), ByteBuffer.wrap(device.info())};
     }
 
-    private void handleAddUser(OutputStream out, Map<String, String> params, String httpVersion) throws GeneralSecurityException, IOException {
+    /**
+     * Checks and decrypts the blob, then decrypts the credentials inside it. This is all the CPU bound work of
+     * {@code addUser}: Diffie-Hellman, HMAC and AES for the blob, PBKDF2 and AES for the credentials.
+     *
+     * @return The builder for the new session once the response has been sent, {@code null} if the request failed
+     */
+    @Nullable
+    private Session.Builder handleAddUser(Device device, OutputStream out, Map<String, String> params, String httpVersion) throws GeneralSecurityException, IOException {
         String username = params.get("userName");
         if (username == null || username.isEmpty()) {
             LOGGER.error("Missing userName!");
-            return;
+            return null;
         }
 
         String blobStr = params.get("blob");
         if (blobStr == null || blobStr.isEmpty()) {
             LOGGER.error("Missing blob!");
-            return;
+            return null;
         }
 
         String clientKeyStr = params.get("clientKey");
         if (clientKeyStr == null || clientKeyStr.isEmpty()) {
             LOGGER.error("Missing clientKey!");
-            return;
+            return null;
         }
 
-        synchronized (connectionLock) {
-            if (username.equals(connectingUsername)) {
+        synchronized (device.connectionLock) {
+            if (username.equals(device.connectingUsername)) {
                 LOGGER.info("{} is already trying to connect.", username);
 
                 out.write(httpVersion.getBytes());
@@ -289,11 +333,11 @@ public class ZeroconfServer implements Closeable {
                 out.write(EOL);
                 out.write(EOL);
                 out.flush();
-                return;
+                return null;
             }
         }
 
-        byte[] sharedKey = Utils.toByteArray(keys.computeSharedKey(Utils.fromBase64(clientKeyStr)));
+        byte[] sharedKey = Utils.toByteArray(device.keys.computeSharedKey(Utils.fromBase64(clientKeyStr)));
         byte[] blobBytes = Utils.fromBase64(blobStr);
         byte[] iv = Arrays.copyOfRange(blobBytes, 0, 16);
         byte[] encrypted = Arrays.copyOfRange(blobBytes, 16, blobBytes.length - 20);
@@ -324,58 +368,84 @@ public class ZeroconfServer implements Closeable {
             out.write(EOL);
             out.write(EOL);
             out.flush();
-            return;
+            return null;
         }
 
         Cipher aes = Cipher.getInstance("AES/CTR/NoPadding");
         aes.init(Cipher.DECRYPT_MODE, new SecretKeySpec(Arrays.copyOfRange(encryptionKey, 0, 16), "AES"), new IvParameterSpec(iv));
         byte[] decrypted = aes.doFinal(encrypted);
 
+        Session.Builder builder;
         try {
-            closeSession();
-        } catch (IOException ex) {
-            LOGGER.warn("Failed closing previous session.", ex);
-        }
-
-        try {
-            synchronized (connectionLock) {
-                connectingUsername = username;
-            }
-
-            LOGGER.info("Accepted new user from {}. {deviceId: {}}", params.get("deviceName"), inner.deviceId);
+            builder = new Session.Builder(inner.conf)
+                    .setDeviceId(device.id)
+                    .setDeviceName(device.name)
+                    .setDeviceType(inner.deviceType)
+                    .setPreferredLocale(inner.preferredLocale)
+                    .setSharedResources(resources)
+                    .blob(username, decrypted);
+        } catch (GeneralSecurityException | IOException ex) {
+            LOGGER.error("Couldn't decrypt credentials.", ex);
 
-            // Sending response
-            String resp = DEFAULT_SUCCESSFUL_ADD_USER.toString();
             out.write(httpVersion.getBytes());
-            out.write(" 200 OK".getBytes());
+            out.write(" 500 Internal Server Error".getBytes()); // I don't think this is the Spotify way
             out.write(EOL);
-            out.write("Content-Length: ".getBytes());
-            out.write(String.valueOf(resp.length()).getBytes());
             out.write(EOL);
             out.flush();
+            return null;
+        }
 
-            out.write(EOL);
-            out.write(resp.getBytes());
-            out.flush();
+        synchronized (device.connectionLock) {
+            device.connectingUsername = username;
+            device.info = null;
+        }
 
-            session = new Session.Builder(inner.conf)
-                    .setDeviceId(inner.deviceId)
-                    .setDeviceName(inner.deviceName)
-                    .setDeviceType(inner.deviceType)
-                    .setPreferredLocale(inner.preferredLocale)
-                    .blob(username, decrypted)
-                    .create();
+        LOGGER.info("Accepted new user from {}. {deviceId: {}}", params.get("deviceName"), device.id);
 
-            synchronized (connectionLock) {
-                connectingUsername = null;
+        // Sending response
+        String resp = DEFAULT_SUCCESSFUL_ADD_USER.toString();
+        out.write(httpVersion.getBytes());
+        out.write(" 200 OK".getBytes());
+        out.write(EOL);
+        out.write("Content-Length: ".getBytes());
+        out.write(String.valueOf(resp.length()).getBytes());
+        out.write(EOL);
+        out.flush();
+
+        out.write(EOL);
+        out.write(resp.getBytes());
+        out.flush();
+
+        return builder;
+    }
+
+    /**
+     * Replaces the session of {@param device} with a new one, the client already received the response to {@code addUser}.
+     */
+    private void createSession(Device device, OutputStream out, Session.Builder builder, String httpVersion) throws IOException {
+        try {
+            device.closeSession();
+        } catch (IOException ex) {
+            LOGGER.warn("Failed closing previous session.", ex);
+        }
+
+        try {
+            Session session = sessionFactory.create(builder);
+            synchronized (device.connectionLock) {
+                device.session = session;
+                device.activeUser = session.username();
+                device.connectingUsername = null;
+                device.info = null;
             }
 
+            session.addCloseListener(() -> device.sessionClosed(session));
             sessionListeners.forEach(l -> l.sessionChanged(session));
         } catch (Session.SpotifyAuthenticationException | MercuryClient.MercuryException | IOException | GeneralSecurityException ex) {
             LOGGER.error("Couldn't establish a new session.", ex);
 
-            synchronized (connectionLock) {
-                connectingUsername = null;
+            synchronized (device.connectionLock) {
+                device.connectingUsername = null;
+                device.info = null;
             }
 
             out.write(httpVersion.getBytes());
@@ -394,6 +464,9 @@ public class ZeroconfServer implements Closeable {
         sessionListeners.remove(listener);
     }
 
+    /**
+     * Listener for the sessions of all devices, {@link Session#deviceId()} tells which device they belong to.
+     */
     public interface SessionListener {
         /**
          * The session instance is going to be closed after this call.
@@ -410,10 +483,19 @@ public class ZeroconfServer implements Closeable {
         void sessionChanged(@NotNull Session session);
     }
 
+    /**
+     * Creates the session from the credentials received with {@code addUser}, tests replace it to avoid connecting.
+     */
+    interface SessionFactory {
+        @NotNull
+        Session create(@NotNull Session.Builder builder) throws IOException, GeneralSecurityException, Session.SpotifyAuthenticationException, MercuryClient.MercuryException;
+    }
+
     public static class Builder extends Session.AbsBuilder<Builder> {
         private boolean listenAll = true;
         private int listenPort = -1;
         private String[] listenInterfaces = null;
+        private final List<String> additionalDevices = new ArrayList<>();
 
         public Builder(Session.@NotNull Configuration conf) {
             super(conf);
@@ -439,9 +521,25 @@ public class ZeroconfServer implements Closeable {
             return this;
         }
 
+        /**
+         * Announces another device with its own identity and session, sharing the HTTP server and the {@link SharedResources}.
+         *
+         * @param deviceName The name of the additional device that will appear on Spotify Connect
+         */
+        public Builder addDevice(@NotNull String deviceName) {
+            if (deviceName.isEmpty() || additionalDevices.contains(deviceName))
+                throw new IllegalArgumentException("Invalid or duplicated device name: " + deviceName);
+
+            additionalDevices.add(deviceName);
+            return this;
+        }
+
         @NonNls
         public ZeroconfServer create() throws IOException {
-            return new ZeroconfServer(new Inner(deviceType, deviceName, deviceId, preferredLocale, conf), listenPort, listenAll, listenInterfaces);
+            if (additionalDevices.contains(deviceName))
+                throw new IllegalArgumentException("Duplicated device name: " + deviceName);
+
+            return new ZeroconfServer(new Inner(deviceType, deviceName, deviceId, preferredLocale, conf, resources), additionalDevices, listenPort, listenAll, listenInterfaces);
         }
     }
 
@@ -452,9 +550,11 @@ public class ZeroconfServer implements Closeable {
         final String deviceId;
         final String preferredLocale;
         final Session.Configuration conf;
+        final SharedResources resources;
 
-        Inner(@NotNull Connect.DeviceType deviceType, @NotNull String deviceName, @Nullable String deviceId, @NotNull String preferredLocale, @NotNull Session.Configuration conf) {
+        Inner(@NotNull Connect.DeviceType deviceType, @NotNull String deviceName, @Nullable String deviceId, @NotNull String preferredLocale, @NotNull Session.Configuration conf, @Nullable SharedResources resources) {
             this.deviceType = deviceType;
+            this.resources = resources;
             this.deviceName = deviceName;
             this.preferredLocale = preferredLocale;
             this.conf = conf;
@@ -462,13 +562,139 @@ public class ZeroconfServer implements Closeable {
         }
     }
 
+    /**
+     * A device announced on the network, with its own identity and session.
+     */
+    public final class Device {
+        private final String name;
+        private final String id;
+        private final String path;
+        private final DiffieHellman keys;
+        private final Object connectionLock = new Object();
+        private volatile Session session;
+        private String connectingUsername = null;
+        private String activeUser = null;
+        private byte[] info = null;
+
+        private Device(@NotNull String name, @NotNull String id, @NotNull String path) {
+            this.name = name;
+            this.id = id;
+            this.path = path;
+            this.keys = new DiffieHellman(inner.random);
+        }
+
+        @NotNull
+        public String name() {
+            return name;
+        }
+
+        @NotNull
+        public String id() {
+            return id;
+        }
+
+        /**
+         * @return The current session of this device or {@code null}
+         */
+        @Nullable
+        public Session session() {
+            return hasValidSession() ? session : null;
+        }
+
+        public void closeSession() throws IOException {
+            Session session = this.session;
+            if (session == null) return;
+
+            sessionListeners.forEach(l -> l.sessionClosing(session));
+            session.close();
+            clearSession();
+        }
+
+        private void clearSession() {
+            synchronized (connectionLock) {
+                session = null;
+                activeUser = null;
+                info = null;
+            }
+        }
+
+        private void sessionClosed(@NotNull Session closed) {
+            synchronized (connectionLock) {
+                if (session == closed) {
+                    activeUser = null;
+                    info = null;
+                }
+            }
+        }
+
+        private boolean hasValidSession() {
+            try {
+                boolean valid = session != null && session.isValid();
+                if (!valid) clearSession();
+                return valid;
+            } catch (IllegalStateException ex) {
+                clearSession();
+                return false;
+            }
+        }
+
+        /**
+         * @return The headers and body of the {@code getInfo} response, serialized again only when the active user changes
+         */
+        @NotNull
+        private byte[] info() {
+            synchronized (connectionLock) {
+                if (info != null) return info;
+
+                JsonObject obj = DEFAULT_GET_INFO_FIELDS.deepCopy();
+                obj.addProperty("deviceID", id);
+                obj.addProperty("remoteName", name);
+                obj.addProperty("publicKey", Utils.toBase64(keys.publicKeyArray()));
+                obj.addProperty("deviceType", inner.deviceType.name().toUpperCase());
+                obj.addProperty("activeUser", connectingUsername != null ? connectingUsername : (activeUser != null ? activeUser : ""));
+
+                byte[] body = obj.toString().getBytes(StandardCharsets.UTF_8);
+                byte[] head = ("Content-Type: application/json\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+                info = Arrays.copyOf(head, head.length + body.length);
+                System.arraycopy(body, 0, info, head.length, body.length);
+                return info;
+            }
+        }
+    }
+
+    /**
+     * Single threaded HTTP server based on a {@link Selector}. Requests are parsed on the event loop, {@code getInfo}
+     * is answered there from the cached payload and {@code addUser} is handed to a small bounded pool for the
+     * cryptography, then to another one that creates the session. The number of connections is bounded and
+     * connections that don't complete a request in time are closed.
+     */
     private class HttpRunner implements Runnable, Closeable {
-        private final ServerSocket serverSocket;
-        private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "zeroconf-client-" + r.hashCode()));
+        private static final int MAX_CONNECTIONS = 32;
+        private static final int MAX_WORKERS = 4;
+        private static final int MAX_CRYPTO_WORKERS = 2;
+        private static final int MAX_PENDING_USERS = 8;
+        private static final int MAX_REQUEST_SIZE = 32 * 1024;
+        private static final int REQUEST_TIMEOUT_MILLIS = 10_000;
+        private final ServerSocketChannel serverChannel;
+        private final Selector selector;
+        private final Set<Connection> connections = new HashSet<>();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ExecutorService executorService;
+        private final ThreadPoolExecutor cryptoExecutor;
         private volatile boolean shouldStop = false;
 
         HttpRunner(int port) throws IOException {
-            serverSocket = new ServerSocket(port);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            selector = Selector.open();
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            executorService = Executors.newFixedThreadPool(Math.min(devices.size(), MAX_WORKERS), new NameThreadFactory((r) -> "zeroconf-worker-" + r.hashCode()));
+            cryptoExecutor = new ThreadPoolExecutor(MAX_CRYPTO_WORKERS, MAX_CRYPTO_WORKERS, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(MAX_PENDING_USERS), new NameThreadFactory((r) -> "zeroconf-crypto-" + r.hashCode()));
+            cryptoExecutor.allowCoreThreadTimeOut(true);
             LOGGER.info("Zeroconf HTTP server started successfully on port {}!", port);
         }
 
@@ -476,83 +702,140 @@ public class ZeroconfServer implements Closeable {
         public void run() {
             while (!shouldStop) {
                 try {
-                    Socket socket = serverSocket.accept();
-                    executorService.execute(() -> {
+                    selector.select(1000);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+
+                    Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+
+                        Connection conn = (Connection) key.attachment();
                         try {
-                            handle(socket);
-                            socket.close();
-                        } catch (IOException ex) {
-                            LOGGER.error("Failed handling request!", ex);
+                            if (key.isReadable()) conn.read();
+                            if (key.isValid() && key.isWritable()) conn.write();
+                        } catch (IOException | RuntimeException ex) {
+                            LOGGER.debug("Failed handling connection!", ex);
+                            conn.close();
                         }
-                    });
+                    }
+
+                    long now = System.currentTimeMillis();
+                    for (Connection conn : new ArrayList<>(connections)) {
+                        if (!conn.busy && conn.deadline < now) {
+                            LOGGER.trace("Connection timed out. {address: {}}", conn.address);
+                            conn.close();
+                        }
+                    }
                 } catch (IOException ex) {
                     if (!shouldStop) LOGGER.error("Failed handling connection!", ex);
                 }
             }
+
+            for (Connection conn : new ArrayList<>(connections)) conn.close();
+
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * Runs {@param task} on the event loop.
+         */
+        private void execute(@NotNull Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) return;
+
+            if (connections.size() >= MAX_CONNECTIONS) {
+                LOGGER.warn("Too many connections, dropping {}.", channel.getRemoteAddress());
+                channel.close();
+                return;
+            }
+
+            channel.configureBlocking(false);
+            Connection conn = new Connection(channel);
+            conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+            connections.add(conn);
         }
 
-        private void handleRequest(@NotNull OutputStream out, @NotNull String httpVersion, @NotNull String action, @Nullable Map<String, String> params) {
+        private void handleRequest(@NotNull Connection conn, @NotNull Device device, @NotNull String httpVersion, @NotNull String action, @NotNull Map<String, String> params, boolean keepAlive) {
             if (Objects.equals(action, "addUser")) {
-                if (params == null) throw new IllegalArgumentException();
+                conn.busy = true;
+                conn.updateInterest();
 
+                ResponseStream out = new ResponseStream(conn);
                 try {
-                    handleAddUser(out, params, httpVersion);
-                } catch (GeneralSecurityException | IOException ex) {
-                    LOGGER.error("Failed handling addUser!", ex);
+                    cryptoExecutor.execute(() -> {
+                        Session.Builder builder = null;
+                        try {
+                            builder = handleAddUser(device, out, params, httpVersion);
+                        } catch (GeneralSecurityException | IOException ex) {
+                            LOGGER.error("Failed handling addUser!", ex);
+                        }
+
+                        if (builder == null) out.close();
+                        else createSessionLater(device, out, builder, httpVersion);
+                    });
+                } catch (RejectedExecutionException ex) {
+                    LOGGER.warn("Too many users connecting, rejecting request.");
+                    conn.send(ByteBuffer.wrap((httpVersion + " 503 Service Unavailable\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+                    conn.finish();
                 }
             } else if (Objects.equals(action, "getInfo")) {
-                try {
-                    handleGetInfo(out, httpVersion);
-                } catch (IOException ex) {
-                    LOGGER.error("Failed handling getInfo!", ex);
-                }
+                conn.send(handleGetInfo(device, httpVersion));
+                if (!keepAlive) conn.finish();
             } else {
                 LOGGER.warn("Unknown action: " + action);
+                conn.finish();
             }
         }
 
-        private void handle(@NotNull Socket socket) throws IOException {
-            DataInputStream in = new DataInputStream(socket.getInputStream());
-            OutputStream out = socket.getOutputStream();
+        private void createSessionLater(@NotNull Device device, @NotNull ResponseStream out, @NotNull Session.Builder builder, @NotNull String httpVersion) {
+            try {
+                executorService.execute(() -> {
+                    try {
+                        createSession(device, out, builder, httpVersion);
+                    } catch (IOException ex) {
+                        LOGGER.error("Failed handling addUser!", ex);
+                    } finally {
+                        out.close();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                synchronized (device.connectionLock) {
+                    device.connectingUsername = null;
+                    device.info = null;
+                }
 
-            String[] requestLine = Utils.split(Utils.readLine(in), ' ');
-            if (requestLine.length != 3) {
-                LOGGER.warn("Unexpected request line: " + Arrays.toString(requestLine));
-                return;
+                out.close();
             }
+        }
 
-            String method = requestLine[0];
-            String path = requestLine[1];
-            String httpVersion = requestLine[2];
-
-            Map<String, String> headers = new HashMap<>();
-            String header;
-            while (!(header = Utils.readLine(in)).isEmpty()) {
-                String[] split = Utils.split(header, ':');
-                headers.put(split[0], split[1].trim());
-            }
+        private void handle(@NotNull Connection conn, @NotNull String method, @NotNull String path, @NotNull String httpVersion, @NotNull Map<String, String> headers, @NotNull byte[] body) throws IOException {
+            int query = path.indexOf('?');
+            Device device = devicesByPath.get(query == -1 ? path : path.substring(0, query));
+            if (device == null) device = devices.get(0);
 
-            if (!hasValidSession())
+            if (device.session == null)
                 LOGGER.trace("Handling request: {} {} {}, headers: {}", method, path, httpVersion, headers);
 
             Map<String, String> params;
             if (Objects.equals(method, "POST")) {
-                String contentType = headers.get("Content-Type");
-                if (!Objects.equals(contentType, "application/x-www-form-urlencoded")) {
-                    LOGGER.error("Bad Content-Type: " + contentType);
-                    return;
-                }
-
-                String contentLengthStr = headers.get("Content-Length");
-                if (contentLengthStr == null) {
-                    LOGGER.error("Missing Content-Length header!");
-                    return;
-                }
-
-                int contentLength = Integer.parseInt(contentLengthStr);
-                byte[] body = new byte[contentLength];
-                in.readFully(body);
-                String bodyStr = new String(body);
+                String bodyStr = new String(body, StandardCharsets.UTF_8);
 
                 String[] pairs = Utils.split(bodyStr, '&');
                 params = new HashMap<>(pairs.length);
@@ -568,17 +851,228 @@ public class ZeroconfServer implements Closeable {
             String action = params.get("action");
             if (action == null) {
                 LOGGER.debug("Request is missing action.");
+                conn.finish();
                 return;
             }
 
-            handleRequest(out, httpVersion, action, params);
+            boolean keepAlive = Objects.equals(httpVersion, "HTTP/1.1") && !"close".equalsIgnoreCase(headers.get("Connection"));
+            handleRequest(conn, device, httpVersion, action, params, keepAlive);
         }
 
         @Override
         public void close() throws IOException {
             shouldStop = true;
-            serverSocket.close();
-            executorService.shutdown();
+            serverChannel.close();
+            selector.wakeup();
+            cryptoExecutor.shutdownNow();
+            executorService.shutdownNow();
+        }
+
+        private final class Connection {
+            private final SocketChannel channel;
+            private final SocketAddress address;
+            private final Deque<ByteBuffer> pending = new ArrayDeque<>();
+            private SelectionKey key;
+            private byte[] buffer = new byte[1024];
+            private int count = 0;
+            private long deadline = System.currentTimeMillis() + REQUEST_TIMEOUT_MILLIS;
+            private boolean busy = false;
+            private boolean closeAfterWrite = false;
+            private boolean closed = false;
+
+            Connection(@NotNull SocketChannel channel) throws IOException {
+                this.channel = channel;
+                this.address = channel.getRemoteAddress();
+            }
+
+            void read() throws IOException {
+                if (count == buffer.length) {
+                    if (buffer.length >= MAX_REQUEST_SIZE) {
+                        LOGGER.warn("Request too large. {address: {}}", address);
+                        close();
+                        return;
+                    }
+
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_REQUEST_SIZE));
+                }
+
+                int read = channel.read(ByteBuffer.wrap(buffer, count, buffer.length - count));
+                if (read == -1) {
+                    close();
+                    return;
+                }
+
+                count += read;
+                while (!busy && !closeAfterWrite && !closed && process()) ;
+            }
+
+            void write() throws IOException {
+                while (!pending.isEmpty()) {
+                    ByteBuffer head = pending.peek();
+                    channel.write(head);
+                    if (head.hasRemaining()) return;
+                    pending.poll();
+                }
+
+                if (closeAfterWrite) {
+                    close();
+                    return;
+                }
+
+                updateInterest();
+                if (!busy) {
+                    deadline = System.currentTimeMillis() + REQUEST_TIMEOUT_MILLIS;
+                    while (!busy && !closeAfterWrite && !closed && process()) ;
+                }
+            }
+
+            private int indexOf(@NotNull byte[] sequence, int from) {
+                outer:
+                for (int i = from; i <= count - sequence.length; i++) {
+                    for (int j = 0; j < sequence.length; j++)
+                        if (buffer[i + j] != sequence[j])
+                            continue outer;
+
+                    return i;
+                }
+
+                return -1;
+            }
+
+            /**
+             * Handles the first request in the buffer, if it has been received entirely.
+             *
+             * @return Whether a request has been handled
+             */
+            private boolean process() throws IOException {
+                int headEnd = indexOf(HEAD_END, 0);
+                if (headEnd == -1) return false;
+
+                String[] lines = new String(buffer, 0, headEnd, StandardCharsets.UTF_8).split("\r\n");
+                String[] requestLine = Utils.split(lines[0], ' ');
+                if (requestLine.length != 3) {
+                    LOGGER.warn("Unexpected request line: " + Arrays.toString(requestLine));
+                    close();
+                    return false;
+                }
+
+                String method = requestLine[0];
+                String path = requestLine[1];
+                String httpVersion = requestLine[2];
+
+                Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon > 0) headers.put(lines[i].substring(0, colon), lines[i].substring(colon + 1).trim());
+                }
+
+                int contentLength = 0;
+                if (Objects.equals(method, "POST")) {
+                    String contentType = headers.get("Content-Type");
+                    if (!Objects.equals(contentType, "application/x-www-form-urlencoded")) {
+                        LOGGER.error("Bad Content-Type: " + contentType);
+                        close();
+                        return false;
+                    }
+
+                    String contentLengthStr = headers.get("Content-Length");
+                    if (contentLengthStr == null) {
+                        LOGGER.error("Missing Content-Length header!");
+                        close();
+                        return false;
+                    }
+
+                    try {
+                        contentLength = Integer.parseInt(contentLengthStr);
+                    } catch (NumberFormatException ex) {
+                        contentLength = -1;
+                    }
+
+                    if (contentLength < 0 || headEnd + HEAD_END.length + contentLength > MAX_REQUEST_SIZE) {
+                        LOGGER.error("Bad Content-Length: " + contentLengthStr);
+                        close();
+                        return false;
+                    }
+                }
+
+                int requestEnd = headEnd + HEAD_END.length + contentLength;
+                if (count < requestEnd) return false;
+
+                byte[] body = Arrays.copyOfRange(buffer, headEnd + HEAD_END.length, requestEnd);
+                System.arraycopy(buffer, requestEnd, buffer, 0, count - requestEnd);
+                count -= requestEnd;
+
+                handle(this, method, path, httpVersion, headers, body);
+                return true;
+            }
+
+            void send(@NotNull ByteBuffer... data) {
+                if (closed) return;
+
+                pending.addAll(Arrays.asList(data));
+                updateInterest();
+            }
+
+            /**
+             * Closes the connection once all pending data has been written.
+             */
+            void finish() {
+                if (closed) return;
+
+                busy = false;
+                closeAfterWrite = true;
+                if (pending.isEmpty()) close();
+                else updateInterest();
+            }
+
+            void updateInterest() {
+                if (closed) return;
+
+                int ops = 0;
+                if (!pending.isEmpty()) ops |= SelectionKey.OP_WRITE;
+                if (!busy && !closeAfterWrite) ops |= SelectionKey.OP_READ;
+                key.interestOps(ops);
+            }
+
+            void close() {
+                if (closed) return;
+
+                closed = true;
+                connections.remove(this);
+                key.cancel();
+
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * Collects what the handlers write on the worker threads and passes it to the event loop on every flush.
+         */
+        private final class ResponseStream extends ByteArrayOutputStream {
+            private final Connection conn;
+
+            ResponseStream(@NotNull Connection conn) {
+                super(256);
+                this.conn = conn;
+            }
+
+            @Override
+            public synchronized void flush() {
+                if (count == 0) return;
+
+                ByteBuffer data = ByteBuffer.wrap(toByteArray());
+                reset();
+                execute(() -> conn.send(data));
+            }
+
+            @Override
+            public void close() {
+                flush();
+                execute(conn::finish);
+            }
         }
     }
 }
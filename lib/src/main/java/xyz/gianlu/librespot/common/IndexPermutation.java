@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.common;
+
+/**
+ * A seeded random permutation of {@code [0, size)} that is computed on demand. Indexes are mapped with a small Feistel
+ * network over the smallest even power of two containing {@code size}, cycle walking until the result falls in range.
+ * Both directions take constant time and memory, unlike {@link FisherYatesShuffle} which must touch every element.
+ *
+ * @author devgianlu
+ */
+public final class IndexPermutation {
+    private static final int ROUNDS = 4;
+    private final int size;
+    private final long seed;
+    private final int halfBits;
+    private final int halfMask;
+    private final int[] keys = new int[ROUNDS];
+
+    public IndexPermutation(int size, long seed) {
+        if (size < 0 || size > 1 << 30) throw new IllegalArgumentException("Invalid size: " + size);
+
+        this.size = size;
+        this.seed = seed;
+
+        int bits = 2;
+        while ((1 << bits) < size) bits += 2;
+        this.halfBits = bits / 2;
+        this.halfMask = (1 << halfBits) - 1;
+
+        long state = seed;
+        for (int i = 0; i < ROUNDS; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            keys[i] = (int) mix(state);
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int round(int value, int key) {
+        int h = value * 0x9E3779B1 ^ key;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private int encrypt(int value) {
+        int left = value >>> halfBits, right = value & halfMask;
+        for (int i = 0; i < ROUNDS; i++) {
+            int tmp = right;
+            right = left ^ (round(right, keys[i]) & halfMask);
+            left = tmp;
+        }
+
+        return (left << halfBits) | right;
+    }
+
+    private int decrypt(int value) {
+        int left = value >>> halfBits, right = value & halfMask;
+        for (int i = ROUNDS - 1; i >= 0; i--) {
+            int tmp = left;
+            left = right ^ (round(left, keys[i]) & halfMask);
+            right = tmp;
+        }
+
+        return (left << halfBits) | right;
+    }
+
+    /**
+     * @return The index placed at {@param position}
+     */
+    public int apply(int position) {
+        if (position < 0 || position >= size) throw new IndexOutOfBoundsException(position + " >= " + size);
+
+        int value = position;
+        do value = encrypt(value);
+        while (value >= size);
+        return value;
+    }
+
+    /**
+     * @return The position of {@param index}, such that {@code apply(invert(index)) == index}
+     */
+    public int invert(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index + " >= " + size);
+
+        int value = index;
+        do value = decrypt(value);
+        while (value >= size);
+        return value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long seed() {
+        return seed;
+    }
+}
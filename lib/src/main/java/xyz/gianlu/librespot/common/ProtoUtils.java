@@ -34,6 +34,7 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.metadata.PlayableId;
+import xyz.gianlu.librespot.metadata.SpotifyIdCodec;
 
 import java.lang.reflect.Field;
 import java.util.*;
@@ -88,7 +89,7 @@ public final class ProtoUtils {
         if (track.hasUri() && !track.getUri().isEmpty())
             obj.addProperty("uri", track.getUri());
         else if (track.hasGid() && uriPrefix != null)
-            obj.addProperty("uri", uriPrefix + new String(PlayableId.BASE62.encode(track.getGid().toByteArray(), 22)));
+            obj.addProperty("uri", uriPrefix + SpotifyIdCodec.gidToBase62(track.getGid()));
 
         return obj;
     }
@@ -324,7 +325,7 @@ public final class ProtoUtils {
             builder.setUri(track.getUri());
         } else if (track.hasGid()) {
             String uriPrefix = PlayableId.inferUriPrefix(contextUri);
-            builder.setUri(uriPrefix + new String(PlayableId.BASE62.encode(track.getGid().toByteArray(), 22)));
+            builder.setUri(uriPrefix + SpotifyIdCodec.gidToBase62(track.getGid()));
         }
 
         try {
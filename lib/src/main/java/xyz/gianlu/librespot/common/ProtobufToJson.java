@@ -20,17 +20,46 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Descriptors;
+import com.google.protobuf.GeneratedMessageV3;
 import com.google.protobuf.MapEntry;
 import com.google.protobuf.Message;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
+ * Converts protobuf messages to JSON. {@link #convert(Message)} builds a Gson tree, while {@link #write(Message, Appendable)}
+ * streams the same output directly using writers compiled once per message descriptor.
+ *
  * @author Gianlu
  */
 public final class ProtobufToJson {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final String[] REPLACEMENT_CHARS = new String[128];
+    private static final Map<Descriptors.Descriptor, MessageWriter> WRITERS = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < 0x20; i++) REPLACEMENT_CHARS[i] = String.format("\\u%04x", i);
+        REPLACEMENT_CHARS['"'] = "\\\"";
+        REPLACEMENT_CHARS['\\'] = "\\\\";
+        REPLACEMENT_CHARS['\t'] = "\\t";
+        REPLACEMENT_CHARS['\b'] = "\\b";
+        REPLACEMENT_CHARS['\n'] = "\\n";
+        REPLACEMENT_CHARS['\r'] = "\\r";
+        REPLACEMENT_CHARS['\f'] = "\\f";
+    }
 
     private ProtobufToJson() {
     }
@@ -51,6 +80,109 @@ public final class ProtobufToJson {
         return array;
     }
 
+    /**
+     * Writes {@param message} as JSON to {@param out}, the output is the same as {@code convert(message).toString()}.
+     */
+    public static void write(@NotNull Message message, @NotNull Appendable out) throws IOException {
+        writerFor(message).write(message, out);
+    }
+
+    /**
+     * Writes {@param list} as a JSON array to {@param out}, the output is the same as {@code convertList(list).toString()}.
+     */
+    public static void writeList(@NotNull List<? extends Message> list, @NotNull Appendable out) throws IOException {
+        out.append('[');
+        for (int i = 0; i < list.size(); i++) {
+            if (i != 0) out.append(',');
+            write(list.get(i), out);
+        }
+        out.append(']');
+    }
+
+    public static void write(@NotNull Message message, @NotNull StringBuilder builder) {
+        try {
+            write(message, (Appendable) builder);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public static void writeList(@NotNull List<? extends Message> list, @NotNull StringBuilder builder) {
+        try {
+            writeList(list, (Appendable) builder);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @NotNull
+    public static String toJsonString(@NotNull Message message) {
+        StringBuilder builder = new StringBuilder(256);
+        write(message, builder);
+        return builder.toString();
+    }
+
+    @NotNull
+    public static byte[] toJsonBytes(@NotNull Message message) {
+        return toJsonString(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @NotNull
+    private static MessageWriter writerFor(@NotNull Message message) {
+        Descriptors.Descriptor descriptor = message.getDescriptorForType();
+        MessageWriter writer = WRITERS.get(descriptor);
+        if (writer == null) {
+            writer = new MessageWriter(descriptor, message.getClass());
+            MessageWriter old = WRITERS.putIfAbsent(descriptor, writer);
+            if (old != null) writer = old;
+        }
+
+        return writer;
+    }
+
+    /**
+     * Escapes strings like Gson's {@link com.google.gson.stream.JsonWriter} without HTML escaping.
+     */
+    private static void writeString(@NotNull Appendable out, @NotNull String str) throws IOException {
+        out.append('"');
+        int last = 0;
+        int length = str.length();
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            String replacement;
+            if (c < 128) {
+                replacement = REPLACEMENT_CHARS[c];
+                if (replacement == null) continue;
+            } else if (c == '\u2028') {
+                replacement = "\\u2028";
+            } else if (c == '\u2029') {
+                replacement = "\\u2029";
+            } else {
+                continue;
+            }
+
+            if (last < i) out.append(str, last, i);
+            out.append(replacement);
+            last = i + 1;
+        }
+
+        if (last == 0) out.append(str);
+        else if (last < length) out.append(str, last, length);
+        out.append('"');
+    }
+
+    private static void writeHex(@NotNull Appendable out, @NotNull ByteString bytes) throws IOException {
+        char[] chars = new char[bytes.size() * 2 + 2];
+        chars[0] = '"';
+        for (int i = 0; i < bytes.size(); i++) {
+            int v = bytes.byteAt(i) & 0xFF;
+            chars[i * 2 + 1] = HEX[v >>> 4];
+            chars[i * 2 + 2] = HEX[v & 0x0F];
+        }
+        chars[chars.length - 1] = '"';
+        out.append(new String(chars));
+    }
+
     private static @NotNull JsonArray arrayOfNumbers(@NotNull List<? extends Number> list) {
         JsonArray array = new JsonArray(list.size());
         for (Number num : list) array.add(num);
@@ -123,4 +255,219 @@ public final class ProtobufToJson {
                 throw new IllegalStateException("Unknown type: " + descriptor.getJavaType());
         }
     }
+
+    @NotNull
+    private static String camelCase(@NotNull String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        boolean capitalize = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                builder.append(capitalize ? (char) (c - 'a' + 'A') : c);
+                capitalize = false;
+            } else if (c >= 'A' && c <= 'Z') {
+                builder.append(c);
+                capitalize = false;
+            } else if (c >= '0' && c <= '9') {
+                builder.append(c);
+                capitalize = true;
+            } else {
+                capitalize = true;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Binds the generated accessor {@param name} of {@param clazz} to a function, avoiding the reflection done by
+     * {@link Message#getField(Descriptors.FieldDescriptor)} for every call.
+     *
+     * @return The bound accessor or {@code null} if it doesn't exist or may clash with a method of {@link GeneratedMessageV3}
+     */
+    @Nullable
+    private static Function<Object, Object> bindAccessor(@NotNull Class<?> clazz, @NotNull String name) {
+        try {
+            GeneratedMessageV3.class.getMethod(name);
+            return null;
+        } catch (NoSuchMethodException ignored) {
+        }
+
+        try {
+            Method method = clazz.getMethod(name);
+            if (Modifier.isStatic(method.getModifiers()) || method.getReturnType() == void.class) return null;
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle handle = lookup.unreflect(method);
+            CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class), handle, MethodType.methodType(Object.class, clazz));
+
+            //noinspection unchecked
+            return (Function<Object, Object>) site.getTarget().invoke();
+        } catch (Throwable ex) {
+            return null;
+        }
+    }
+
+    private interface ValueWriter {
+        void write(@NotNull Appendable out, @NotNull Object value) throws IOException;
+    }
+
+    /**
+     * Writes the fields of a message type in field number order, which is the order of {@link Message#getAllFields()}.
+     */
+    private static final class MessageWriter {
+        private final Class<?> clazz;
+        private final FieldWriter[] fields;
+        private final boolean extendable;
+
+        MessageWriter(@NotNull Descriptors.Descriptor descriptor, @NotNull Class<?> clazz) {
+            this.clazz = clazz;
+            this.extendable = descriptor.isExtendable();
+
+            boolean generated = GeneratedMessageV3.class.isAssignableFrom(clazz);
+            List<Descriptors.FieldDescriptor> list = descriptor.getFields();
+            fields = new FieldWriter[list.size()];
+            for (int i = 0; i < fields.length; i++) fields[i] = new FieldWriter(list.get(i), generated ? clazz : null);
+            Arrays.sort(fields, Comparator.comparingInt(field -> field.descriptor.getNumber()));
+        }
+
+        void write(@NotNull Message message, @NotNull Appendable out) throws IOException {
+            if (extendable) {
+                out.append(convert(message).toString());
+                return;
+            }
+
+            boolean compiled = message.getClass() == clazz;
+            out.append('{');
+            boolean first = true;
+            for (FieldWriter field : fields) {
+                Object value = compiled ? field.getCompiled(message) : field.get(message);
+                if (value == null) continue;
+
+                if (!first) out.append(',');
+                out.append(field.name);
+                field.write(out, value);
+                first = false;
+            }
+            out.append('}');
+        }
+    }
+
+    private static final class FieldWriter {
+        private final Descriptors.FieldDescriptor descriptor;
+        private final String name;
+        private final boolean repeated;
+        private final boolean map;
+        private final ValueWriter value;
+        private final Function<Object, Object> getter;
+        private final Function<Object, Object> has;
+        private MessageWriter nested = null;
+
+        FieldWriter(@NotNull Descriptors.FieldDescriptor descriptor, @Nullable Class<?> clazz) {
+            this.descriptor = descriptor;
+            this.repeated = descriptor.isRepeated();
+            this.map = descriptor.isMapField();
+
+            StringBuilder builder = new StringBuilder();
+            try {
+                writeString(builder, descriptor.getJsonName());
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            this.name = builder.append(':').toString();
+
+            switch (descriptor.getJavaType()) {
+                case FLOAT:
+                case LONG:
+                case DOUBLE:
+                case INT:
+                case BOOLEAN:
+                    value = (out, obj) -> out.append(obj.toString());
+                    break;
+                case STRING:
+                    value = (out, obj) -> writeString(out, (String) obj);
+                    break;
+                case BYTE_STRING:
+                    value = (out, obj) -> writeHex(out, (ByteString) obj);
+                    break;
+                case ENUM:
+                    value = (out, obj) -> writeString(out, ((Descriptors.EnumValueDescriptor) obj).getName());
+                    break;
+                case MESSAGE:
+                    value = (out, obj) -> {
+                        Message message = (Message) obj;
+                        MessageWriter writer = nested;
+                        if (writer == null || writer.clazz != message.getClass())
+                            nested = writer = writerFor(message);
+                        writer.write(message, out);
+                    };
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown type: " + descriptor.getJavaType());
+            }
+
+            // Generated enum accessors return Java enums and map accessors return maps, both go through reflection
+            if (clazz == null || map || descriptor.getJavaType() == Descriptors.FieldDescriptor.JavaType.ENUM) {
+                getter = null;
+                has = null;
+            } else {
+                String camelCase = camelCase(descriptor.getName());
+                getter = bindAccessor(clazz, "get" + camelCase + (repeated ? "List" : ""));
+                has = repeated || !descriptor.hasPresence() ? null : bindAccessor(clazz, "has" + camelCase);
+            }
+        }
+
+        /**
+         * @return The value of this field or {@code null} if it wouldn't be included by {@link Message#getAllFields()}
+         */
+        @Nullable
+        Object get(@NotNull Message message) {
+            if (repeated) {
+                if (message.getRepeatedFieldCount(descriptor) == 0) return null;
+            } else if (!message.hasField(descriptor)) {
+                return null;
+            }
+
+            return message.getField(descriptor);
+        }
+
+        @Nullable
+        Object getCompiled(@NotNull Message message) {
+            if (getter == null || (descriptor.hasPresence() && !repeated && has == null))
+                return get(message);
+
+            if (has != null && !((Boolean) has.apply(message))) return null;
+
+            Object obj = getter.apply(message);
+            if (repeated) return ((List<?>) obj).isEmpty() ? null : obj;
+            else if (has == null && obj.equals(descriptor.getDefaultValue())) return null;
+            else return obj;
+        }
+
+        void write(@NotNull Appendable out, @NotNull Object obj) throws IOException {
+            if (map) {
+                out.append('{');
+                List<?> entries = (List<?>) obj;
+                for (int i = 0; i < entries.size(); i++) {
+                    MapEntry<?, ?> entry = (MapEntry<?, ?>) entries.get(i);
+                    if (i != 0) out.append(',');
+                    writeString(out, entry.getKey().toString());
+                    out.append(':');
+                    writeString(out, entry.getValue().toString());
+                }
+                out.append('}');
+            } else if (repeated) {
+                out.append('[');
+                List<?> values = (List<?>) obj;
+                for (int i = 0; i < values.size(); i++) {
+                    if (i != 0) out.append(',');
+                    value.write(out, values.get(i));
+                }
+                out.append(']');
+            } else {
+                value.write(out, obj);
+            }
+        }
+    }
 }
@@ -27,6 +27,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Gianlu
@@ -40,19 +41,48 @@ public final class SearchManager {
     }
 
     @NotNull
-    public JsonObject request(@NotNull SearchRequest req) throws IOException {
+    private static JsonObject parseResponse(@NotNull MercuryClient.Response resp) throws IOException {
+        if (resp.statusCode != 200) throw new SearchException(resp.statusCode);
+
+        try (Reader reader = new InputStreamReader(resp.payload.stream())) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        }
+    }
+
+    @NotNull
+    private RawMercuryRequest buildRequest(@NotNull SearchRequest req) throws UnsupportedEncodingException {
         if (req.username.isEmpty()) req.username = session.username();
         if (req.country.isEmpty()) req.country = session.countryCode();
         if (req.locale.isEmpty()) req.locale = session.preferredLocale();
 
-        MercuryClient.Response resp = session.mercury().sendSync(RawMercuryRequest.newBuilder()
-                .setMethod("GET").setUri(req.buildUrl()).build());
+        return RawMercuryRequest.newBuilder()
+                .setMethod("GET").setUri(req.buildUrl()).build();
+    }
 
-        if (resp.statusCode != 200) throw new SearchException(resp.statusCode);
+    @NotNull
+    public JsonObject request(@NotNull SearchRequest req) throws IOException {
+        return parseResponse(session.mercury().sendSync(buildRequest(req)));
+    }
 
-        try (Reader reader = new InputStreamReader(resp.payload.stream())) {
-            return JsonParser.parseReader(reader).getAsJsonObject();
+    /**
+     * Same as {@link SearchManager#request(SearchRequest)}, but the response is handled on the Mercury thread.
+     */
+    @NotNull
+    public CompletableFuture<JsonObject> requestAsync(@NotNull SearchRequest req) {
+        CompletableFuture<JsonObject> future = new CompletableFuture<>();
+        try {
+            session.mercury().send(buildRequest(req), resp -> {
+                try {
+                    future.complete(parseResponse(resp));
+                } catch (IOException | RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (IOException ex) {
+            future.completeExceptionally(ex);
         }
+
+        return future;
     }
 
     public static class SearchException extends IOException {
@@ -134,7 +134,7 @@ public final class Session implements Closeable {
     private Session(@NotNull Inner inner) throws IOException {
         this.inner = inner;
         this.keys = new DiffieHellman(inner.random);
-        this.client = createClient(inner.conf);
+        this.client = inner.resources == null ? createClient(inner.conf) : inner.resources.client();
         this.apResolver = new ApResolver(client);
         String addr = apResolver.getRandomAccesspoint();
         this.conn = ConnectionHolder.create(addr, inner.conf);
@@ -143,7 +143,7 @@ public final class Session implements Closeable {
     }
 
     @NotNull
-    private static OkHttpClient createClient(@NotNull Configuration conf) {
+    static OkHttpClient createClient(@NotNull Configuration conf) {
         OkHttpClient.Builder builder = new OkHttpClient.Builder();
         builder.retryOnConnectionFailure(true);
 
@@ -214,6 +214,14 @@ public final class Session implements Closeable {
         return client;
     }
 
+    /**
+     * @return The resources shared with other sessions, or {@code null} if this session owns all of its resources
+     */
+    @Nullable
+    public SharedResources sharedResources() {
+        return inner.resources;
+    }
+
     private void connect() throws IOException, GeneralSecurityException, SpotifyAuthenticationException {
         Accumulator acc = new Accumulator();
 
@@ -354,7 +362,7 @@ public final class Session implements Closeable {
             api = new ApiClient(this);
             cdnManager = new CdnManager(this);
             contentFeeder = new PlayableContentFeeder(this);
-            cacheManager = new CacheManager(inner.conf);
+            cacheManager = inner.resources == null ? new CacheManager(inner.conf) : inner.resources.cache();
             dealer = new DealerClient(this);
             search = new SearchManager(this);
             eventService = new EventService(this);
@@ -500,8 +508,10 @@ public final class Session implements Closeable {
             receiver = null;
         }
 
-        client.dispatcher().executorService().shutdownNow();
-        client.connectionPool().evictAll();
+        if (inner.resources == null) {
+            client.dispatcher().executorService().shutdownNow();
+            client.connectionPool().evictAll();
+        }
 
         if (conn != null) {
             conn.socket.close();
@@ -816,9 +826,11 @@ public final class Session implements Closeable {
         final String deviceId;
         final Configuration conf;
         final String preferredLocale;
+        final SharedResources resources;
 
-        private Inner(@NotNull Connect.DeviceType deviceType, @NotNull String deviceName, @Nullable String deviceId, @NotNull String preferredLocale, @NotNull Configuration conf) {
+        private Inner(@NotNull Connect.DeviceType deviceType, @NotNull String deviceName, @Nullable String deviceId, @NotNull String preferredLocale, @NotNull Configuration conf, @Nullable SharedResources resources) {
             this.random = new SecureRandom();
+            this.resources = resources;
             this.preferredLocale = preferredLocale;
             this.conf = conf;
             this.deviceType = deviceType;
@@ -835,6 +847,7 @@ public final class Session implements Closeable {
         protected String deviceName = "librespot-java";
         protected Connect.DeviceType deviceType = Connect.DeviceType.COMPUTER;
         protected String preferredLocale = "en";
+        protected SharedResources resources = null;
 
         public AbsBuilder(@NotNull Configuration conf) {
             this.conf = conf;
@@ -899,6 +912,16 @@ public final class Session implements Closeable {
             this.deviceType = deviceType;
             return (T) this;
         }
+
+        /**
+         * Sets the resources shared with other sessions. If not provided, the session will create and release its own.
+         *
+         * @param resources The {@link SharedResources}
+         */
+        public T setSharedResources(@Nullable SharedResources resources) {
+            this.resources = resources;
+            return (T) this;
+        }
     }
 
     /**
@@ -1075,7 +1098,7 @@ public final class Session implements Closeable {
 
             TimeProvider.init(conf);
 
-            Session session = new Session(new Inner(deviceType, deviceName, deviceId, preferredLocale, conf));
+            Session session = new Session(new Inner(deviceType, deviceName, deviceId, preferredLocale, conf, resources));
             session.connect();
             session.authenticate(loginCredentials);
             session.api().setClientToken(clientToken);
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.core;
+
+import okhttp3.OkHttpClient;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.cache.CacheManager;
+import xyz.gianlu.librespot.common.NameThreadFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Resources pooled between all the {@link Session}s living in the same process: the HTTP client (connection pool and
+ * dispatcher), the cache and the worker threads used to load and decode content. Sessions created with these
+ * resources do not release them when closed, the owner must call {@link #close()} once all of them are gone.
+ *
+ * @author devgianlu
+ */
+public final class SharedResources implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedResources.class);
+    private final Session.Configuration conf;
+    private final OkHttpClient client;
+    private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "shared-worker-" + r.hashCode()));
+    private CacheManager cacheManager = null;
+
+    public SharedResources(@NotNull Session.Configuration conf) {
+        this.conf = conf;
+        this.client = Session.createClient(conf);
+    }
+
+    /**
+     * @return The HTTP client, used as is by all sessions
+     */
+    @NotNull
+    public OkHttpClient client() {
+        return client;
+    }
+
+    /**
+     * @return The cache manager, created the first time it is needed since the journal can be opened only once
+     */
+    @NotNull
+    public synchronized CacheManager cache() throws IOException {
+        if (cacheManager == null) cacheManager = new CacheManager(conf);
+        return cacheManager;
+    }
+
+    /**
+     * @return The executor for loading and decoding content, it must never be shutdown by its users
+     */
+    @NotNull
+    public ExecutorService executor() {
+        return executorService;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        client.dispatcher().executorService().shutdownNow();
+        client.connectionPool().evictAll();
+
+        synchronized (this) {
+            if (cacheManager != null) {
+                cacheManager.close();
+                cacheManager = null;
+            }
+        }
+
+        LOGGER.trace("Shared resources released.");
+    }
+}
@@ -40,6 +40,8 @@ import xyz.gianlu.librespot.metadata.*;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static com.spotify.canvaz.CanvazOuterClass.EntityCanvazRequest;
 import static com.spotify.canvaz.CanvazOuterClass.EntityCanvazResponse;
@@ -131,6 +133,51 @@ public final class ApiClient {
         return send(method, suffix, headers, body, 1);
     }
 
+    /**
+     * Sends a request to the Spotify API without blocking the calling thread while waiting for the response.
+     *
+     * @return A future completed with the response, which must be closed
+     */
+    @NotNull
+    public CompletableFuture<Response> sendFuture(@NotNull String method, @NotNull String suffix, @Nullable Headers headers, @Nullable RequestBody body) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        try {
+            sendAsync(method, suffix, headers, body, new Callback() {
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException ex) {
+                    future.completeExceptionally(ex);
+                }
+
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response resp) {
+                    if (!future.complete(resp)) resp.close();
+                }
+            });
+        } catch (IOException | MercuryClient.MercuryException ex) {
+            future.completeExceptionally(ex);
+        }
+
+        return future;
+    }
+
+    /**
+     * Sends a GET request and parses the response body on the OkHttp thread that received it.
+     */
+    @NotNull
+    private <T> CompletableFuture<T> getAsync(@NotNull String suffix, @NotNull BodyParser<T> parser) {
+        return sendFuture("GET", suffix, null, null).thenApply(resp -> {
+            try (Response r = resp) {
+                StatusCodeException.checkStatus(r);
+
+                ResponseBody body;
+                if ((body = r.body()) == null) throw new IOException();
+                return parser.parse(body);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+    }
+
     public void putConnectState(@NotNull String connectionId, @NotNull Connect.PutStateRequest proto) throws IOException, MercuryClient.MercuryException {
         try (Response resp = send("PUT", "/connect-state/v1/devices/" + session.deviceId(), new Headers.Builder()
                 .add("X-Spotify-Connection-Id", connectionId).build(), protoBody(proto), 5 /* We want this to succeed */)) {
@@ -231,7 +278,7 @@ public final class ApiClient {
     }
 
     @NotNull
-    public JsonObject getUserProfile(@NotNull String id, @Nullable Integer playlistLimit, @Nullable Integer artistLimit) throws IOException, MercuryClient.MercuryException {
+    private static String userProfileSuffix(@NotNull String id, @Nullable Integer playlistLimit, @Nullable Integer artistLimit) {
         StringBuilder url = new StringBuilder();
         url.append("/user-profile-view/v3/profile/");
         url.append(id);
@@ -252,7 +299,12 @@ public final class ApiClient {
             }
         }
 
-        try (Response resp = send("GET", url.toString(), null, null)) {
+        return url.toString();
+    }
+
+    @NotNull
+    public JsonObject getUserProfile(@NotNull String id, @Nullable Integer playlistLimit, @Nullable Integer artistLimit) throws IOException, MercuryClient.MercuryException {
+        try (Response resp = send("GET", userProfileSuffix(id, playlistLimit, artistLimit), null, null)) {
             StatusCodeException.checkStatus(resp);
 
             ResponseBody body;
@@ -283,6 +335,51 @@ public final class ApiClient {
         }
     }
 
+    @NotNull
+    public CompletableFuture<Metadata.Track> getMetadata4TrackAsync(@NotNull TrackId track) {
+        return getAsync("/metadata/4/track/" + track.hexId(), body -> Metadata.Track.parseFrom(body.byteStream()));
+    }
+
+    @NotNull
+    public CompletableFuture<Metadata.Episode> getMetadata4EpisodeAsync(@NotNull EpisodeId episode) {
+        return getAsync("/metadata/4/episode/" + episode.hexId(), body -> Metadata.Episode.parseFrom(body.byteStream()));
+    }
+
+    @NotNull
+    public CompletableFuture<Metadata.Album> getMetadata4AlbumAsync(@NotNull AlbumId album) {
+        return getAsync("/metadata/4/album/" + album.hexId(), body -> Metadata.Album.parseFrom(body.byteStream()));
+    }
+
+    @NotNull
+    public CompletableFuture<Metadata.Artist> getMetadata4ArtistAsync(@NotNull ArtistId artist) {
+        return getAsync("/metadata/4/artist/" + artist.hexId(), body -> Metadata.Artist.parseFrom(body.byteStream()));
+    }
+
+    @NotNull
+    public CompletableFuture<Metadata.Show> getMetadata4ShowAsync(@NotNull ShowId show) {
+        return getAsync("/metadata/4/show/" + show.hexId(), body -> Metadata.Show.parseFrom(body.byteStream()));
+    }
+
+    @NotNull
+    public CompletableFuture<Playlist4ApiProto.SelectedListContent> getPlaylistAsync(@NotNull PlaylistId id) {
+        return getAsync("/playlist/v2/playlist/" + id.id(), body -> Playlist4ApiProto.SelectedListContent.parseFrom(body.byteStream()));
+    }
+
+    @NotNull
+    public CompletableFuture<JsonObject> getUserProfileAsync(@NotNull String id, @Nullable Integer playlistLimit, @Nullable Integer artistLimit) {
+        return getAsync(userProfileSuffix(id, playlistLimit, artistLimit), body -> JsonParser.parseReader(body.charStream()).getAsJsonObject());
+    }
+
+    @NotNull
+    public CompletableFuture<JsonObject> getUserFollowersAsync(@NotNull String id) {
+        return getAsync("/user-profile-view/v3/profile/" + id + "/followers", body -> JsonParser.parseReader(body.charStream()).getAsJsonObject());
+    }
+
+    @NotNull
+    public CompletableFuture<JsonObject> getUserFollowingAsync(@NotNull String id) {
+        return getAsync("/user-profile-view/v3/profile/" + id + "/following", body -> JsonParser.parseReader(body.charStream()).getAsJsonObject());
+    }
+
     @NotNull
     public JsonObject getRadioForTrack(@NotNull PlayableId id) throws IOException, MercuryClient.MercuryException {
         try (Response resp = send("GET", "/inspiredby-mix/v2/seed_to_playlist/" + id.toSpotifyUri() + "?response-format=json", null, null)) {
@@ -354,6 +451,11 @@ public final class ApiClient {
         this.clientToken = clientToken;
     }
 
+    private interface BodyParser<T> {
+        @NotNull
+        T parse(@NotNull ResponseBody body) throws IOException;
+    }
+
     public static class StatusCodeException extends IOException {
         public final int code;
 
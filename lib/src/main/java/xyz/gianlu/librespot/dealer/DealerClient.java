@@ -16,9 +16,7 @@
 
 package xyz.gianlu.librespot.dealer;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.WebSocket;
@@ -27,47 +25,37 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import xyz.gianlu.librespot.common.AsyncWorker;
-import xyz.gianlu.librespot.common.BytesArrayList;
 import xyz.gianlu.librespot.common.NameThreadFactory;
-import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.mercury.MercuryClient;
 
-import java.io.*;
-import java.util.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPInputStream;
 
 /**
  * @author Gianlu
  */
 public class DealerClient implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(DealerClient.class);
-    private final AsyncWorker<Runnable> asyncWorker;
+    private final ExecutorService dispatchExecutor = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "dealer-worker-" + r.hashCode()));
     private final Session session;
-    private final Map<String, RequestListener> reqListeners = new HashMap<>();
-    private final Map<MessageListener, List<String>> msgListeners = new HashMap<>();
+    private final Object listenersLock = new Object();
+    private volatile PrefixRouter<Dispatcher<RequestListener>> reqListeners = PrefixRouter.empty();
+    private volatile PrefixRouter<Dispatcher<MessageListener>> msgListeners = PrefixRouter.empty();
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new NameThreadFactory((r) -> "dealer-scheduler-" + r.hashCode()));
     private volatile ConnectionHolder conn = null;
     private ScheduledFuture<?> lastScheduledReconnection;
 
     public DealerClient(@NotNull Session session) {
         this.session = session;
-        this.asyncWorker = new AsyncWorker<>("dealer-worker", Runnable::run);
-    }
-
-    @NotNull
-    private static Map<String, String> getHeaders(@NotNull JsonObject obj) {
-        JsonObject headers = obj.getAsJsonObject("headers");
-        if (headers == null) return Collections.emptyMap();
-
-        Map<String, String> map = new HashMap<>();
-        for (String key : headers.keySet()) map.put(key, headers.get(key).getAsString());
-        return map;
     }
 
     /**
@@ -80,30 +68,32 @@ public class DealerClient implements Closeable {
     }
 
     private void waitForListeners() {
-        synchronized (msgListeners) {
+        synchronized (listenersLock) {
             if (!msgListeners.isEmpty()) return;
 
             try {
-                msgListeners.wait();
+                listenersLock.wait();
             } catch (InterruptedException ignored) {
             }
         }
     }
 
-    private void handleRequest(@NotNull JsonObject obj) {
-        String mid = obj.get("message_ident").getAsString();
-        String key = obj.get("key").getAsString();
-
-        Map<String, String> headers = getHeaders(obj);
-        JsonObject payload = obj.getAsJsonObject("payload");
-        if ("gzip".equals(headers.get("Transfer-Encoding"))) {
-            byte[] gzip = Utils.fromBase64(payload.get("compressed").getAsString());
-            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip)); Reader reader = new InputStreamReader(in)) {
-                payload = JsonParser.parseReader(reader).getAsJsonObject();
-            } catch (IOException ex) {
-                LOGGER.warn("Failed decompressing request! {mid: {}, key: {}}", mid, key, ex);
-                return;
-            }
+    private void handleRequest(@NotNull MessageDecoder decoder, @NotNull MessageDecoder.Envelope envelope, @NotNull String text) {
+        String mid = envelope.mid;
+        String key = envelope.key;
+        if (mid == null || key == null) throw new IllegalArgumentException("Invalid request envelope!");
+
+        if (!reqListeners.matches(mid)) {
+            LOGGER.debug("Couldn't dispatch request: " + mid);
+            return;
+        }
+
+        JsonObject payload;
+        try {
+            payload = decoder.decodeRequestPayload(text, envelope.headers);
+        } catch (IOException ex) {
+            LOGGER.warn("Failed decompressing request! {mid: {}, key: {}}", mid, key, ex);
+            return;
         }
 
         int pid = payload.get("message_id").getAsInt();
@@ -112,136 +102,93 @@ public class DealerClient implements Closeable {
         JsonObject command = payload.getAsJsonObject("command");
         LOGGER.trace("Received request. {mid: {}, key: {}, pid: {}, sender: {}, command: {}}", mid, key, pid, sender, command);
 
-        boolean interesting = false;
-        synchronized (reqListeners) {
-            for (String midPrefix : reqListeners.keySet()) {
-                if (mid.startsWith(midPrefix)) {
-                    RequestListener listener = reqListeners.get(midPrefix);
-                    interesting = true;
-                    asyncWorker.submit(() -> {
-                        try {
-                            RequestResult result = listener.onRequest(mid, pid, sender, command);
-                            if (conn != null) conn.sendReply(key, result);
-                            LOGGER.debug("Handled request. {key: {}, result: {}}", key, result);
-                        } catch (Exception ex) {
-                            if (conn != null) conn.sendReply(key, RequestResult.UPSTREAM_ERROR);
-                            LOGGER.error("Failed handling request. {key: {}}", key, ex);
-                        }
-                    });
+        for (Dispatcher<RequestListener> dispatcher : reqListeners.route(mid)) {
+            dispatcher.submit(() -> {
+                try {
+                    RequestResult result = dispatcher.listener.onRequest(mid, pid, sender, command);
+                    if (conn != null) conn.sendReply(key, result);
+                    LOGGER.debug("Handled request. {key: {}, result: {}}", key, result);
+                } catch (Exception ex) {
+                    if (conn != null) conn.sendReply(key, RequestResult.UPSTREAM_ERROR);
+                    LOGGER.error("Failed handling request. {key: {}}", key, ex);
                 }
-            }
+            });
         }
-
-        if (!interesting) LOGGER.debug("Couldn't dispatch request: " + mid);
     }
 
-    private void handleMessage(@NotNull JsonObject obj) {
-        String uri = obj.get("uri").getAsString();
+    private void handleMessage(@NotNull MessageDecoder decoder, @NotNull MessageDecoder.Envelope envelope, @NotNull String text) {
+        String uri = envelope.uri;
+        if (uri == null) throw new IllegalArgumentException("Invalid message envelope!");
+
+        if (!msgListeners.matches(uri)) {
+            LOGGER.debug("Couldn't dispatch message: " + uri);
+            return;
+        }
 
-        Map<String, String> headers = getHeaders(obj);
-        JsonArray payloads = obj.getAsJsonArray("payloads");
+        Map<String, String> headers = envelope.headers;
         byte[] decodedPayload;
-        if (payloads != null) {
-            if ("application/json".equals(headers.get("Content-Type"))) {
-                if (payloads.size() > 1) throw new UnsupportedOperationException();
-                decodedPayload = payloads.get(0).getAsJsonObject().toString().getBytes();
-            } else if ("text/plain".equals(headers.get("Content-Type"))) {
-                if (payloads.size() > 1) throw new UnsupportedOperationException();
-                decodedPayload = payloads.get(0).getAsString().getBytes();
-            } else {
-                String[] payloadsStr = new String[payloads.size()];
-                for (int i = 0; i < payloads.size(); i++) payloadsStr[i] = payloads.get(i).getAsString();
-
-                InputStream in = BytesArrayList.streamBase64(payloadsStr);
-                if ("gzip".equals(headers.get("Transfer-Encoding"))) {
-                    try {
-                        in = new GZIPInputStream(in);
-                    } catch (IOException ex) {
-                        LOGGER.warn("Failed decompressing message! {uri: {}}", uri, ex);
-                        return;
-                    }
-                }
+        try {
+            decodedPayload = decoder.decodeMessagePayload(text, headers);
+        } catch (IOException ex) {
+            LOGGER.warn("Failed decoding message! {uri: {}}", uri, ex);
+            return;
+        }
 
+        for (Dispatcher<MessageListener> dispatcher : msgListeners.route(uri)) {
+            dispatcher.submit(() -> {
                 try {
-                    ByteArrayOutputStream out = new ByteArrayOutputStream(in.available());
-                    byte[] buffer = new byte[1024];
-                    int read;
-                    while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
-                    decodedPayload = out.toByteArray();
+                    dispatcher.listener.onMessage(uri, headers, decodedPayload);
                 } catch (IOException ex) {
-                    throw new IllegalStateException(ex);
-                } finally {
-                    try {
-                        in.close();
-                    } catch (IOException ignored) {
-                    }
+                    LOGGER.error("Failed dispatching message! {uri: {}}", uri, ex);
+                } catch (Exception ex) {
+                    LOGGER.error("Failed handling message! {uri: {}}", uri, ex);
                 }
-            }
-        } else {
-            decodedPayload = new byte[0];
+            });
         }
-
-        boolean interesting = false;
-        synchronized (msgListeners) {
-            for (MessageListener listener : msgListeners.keySet()) {
-                boolean dispatched = false;
-                List<String> keys = msgListeners.get(listener);
-                for (String key : keys) {
-                    if (uri.startsWith(key) && !dispatched) {
-                        interesting = true;
-                        asyncWorker.submit(() -> {
-                            try {
-                                listener.onMessage(uri, headers, decodedPayload);
-                            } catch (IOException ex) {
-                                LOGGER.error("Failed dispatching message! {uri: {}}", uri, ex);
-                            } catch (Exception ex) {
-                                LOGGER.error("Failed handling message! {uri: {}}", uri, ex);
-                            }
-                        });
-                        dispatched = true;
-                    }
-                }
-            }
-        }
-
-        if (!interesting) LOGGER.debug("Couldn't dispatch message: " + uri);
     }
 
     public void addMessageListener(@NotNull MessageListener listener, @NotNull String... uris) {
-        synchronized (msgListeners) {
-            if (msgListeners.containsKey(listener))
+        synchronized (listenersLock) {
+            if (msgListeners.find(d -> d.listener == listener) != null)
                 throw new IllegalArgumentException(String.format("A listener for %s has already been added.", Arrays.toString(uris)));
 
-            msgListeners.put(listener, Arrays.asList(uris));
-            msgListeners.notifyAll();
+            Dispatcher<MessageListener> dispatcher = new Dispatcher<>(listener);
+            PrefixRouter<Dispatcher<MessageListener>> router = msgListeners;
+            for (String uri : uris) router = router.with(uri, dispatcher);
+            msgListeners = router;
+            listenersLock.notifyAll();
         }
     }
 
     public void removeMessageListener(@NotNull MessageListener listener) {
-        synchronized (msgListeners) {
-            msgListeners.remove(listener);
+        synchronized (listenersLock) {
+            Dispatcher<MessageListener> dispatcher = msgListeners.find(d -> d.listener == listener);
+            if (dispatcher != null) msgListeners = msgListeners.without(dispatcher);
         }
     }
 
     public void addRequestListener(@NotNull RequestListener listener, @NotNull String uri) {
-        synchronized (reqListeners) {
-            if (reqListeners.containsKey(uri))
+        synchronized (listenersLock) {
+            if (reqListeners.hasPrefix(uri))
                 throw new IllegalArgumentException(String.format("A listener for '%s' has already been added.", uri));
 
-            reqListeners.put(uri, listener);
-            reqListeners.notifyAll();
+            Dispatcher<RequestListener> dispatcher = reqListeners.find(d -> d.listener == listener);
+            if (dispatcher == null) dispatcher = new Dispatcher<>(listener);
+            reqListeners = reqListeners.with(uri, dispatcher);
+            listenersLock.notifyAll();
         }
     }
 
     public void removeRequestListener(@NotNull RequestListener listener) {
-        synchronized (reqListeners) {
-            reqListeners.values().remove(listener);
+        synchronized (listenersLock) {
+            Dispatcher<RequestListener> dispatcher = reqListeners.find(d -> d.listener == listener);
+            if (dispatcher != null) reqListeners = reqListeners.without(dispatcher);
         }
     }
 
     @Override
     public void close() {
-        asyncWorker.close();
+        dispatchExecutor.shutdown();
         scheduler.shutdown();
 
         if (conn != null) {
@@ -255,7 +202,10 @@ public class DealerClient implements Closeable {
             lastScheduledReconnection = null;
         }
 
-        msgListeners.clear();
+        synchronized (listenersLock) {
+            msgListeners = PrefixRouter.empty();
+            reqListeners = PrefixRouter.empty();
+        }
     }
 
     /**
@@ -296,8 +246,29 @@ public class DealerClient implements Closeable {
         void onMessage(@NotNull String uri, @NotNull Map<String, String> headers, @NotNull byte[] payload) throws IOException;
     }
 
+    /**
+     * Delivers messages to a single listener in order, independently of the other listeners.
+     */
+    private final class Dispatcher<L> {
+        final L listener;
+        private final OrderedExecutor executor = new OrderedExecutor(dispatchExecutor);
+
+        Dispatcher(@NotNull L listener) {
+            this.listener = listener;
+        }
+
+        void submit(@NotNull Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                LOGGER.warn("Failed dispatching to listener, client is closing. {listener: {}}", listener);
+            }
+        }
+    }
+
     private class ConnectionHolder implements Closeable {
         private final WebSocket ws;
+        private final MessageDecoder decoder = new MessageDecoder();
         private boolean closed = false;
         private boolean receivedPong = false;
         private ScheduledFuture<?> lastScheduledPing;
@@ -329,6 +300,10 @@ public class DealerClient implements Closeable {
                 lastScheduledPing = null;
             }
 
+            synchronized (decoder) {
+                decoder.close();
+            }
+
             if (conn == ConnectionHolder.this)
                 connectionInvalided();
             else
@@ -365,24 +340,34 @@ public class DealerClient implements Closeable {
 
             @Override
             public void onMessage(@NotNull WebSocket ws, @NotNull String text) {
-                JsonObject obj = JsonParser.parseString(text).getAsJsonObject();
+                MessageDecoder.Envelope envelope;
+                try {
+                    envelope = MessageDecoder.readEnvelope(text);
+                } catch (IOException | RuntimeException ex) {
+                    LOGGER.warn("Failed parsing message: " + text, ex);
+                    return;
+                }
 
-                waitForListeners();
+                if (envelope.type == MessageType.MESSAGE || envelope.type == MessageType.REQUEST)
+                    waitForListeners();
 
-                MessageType type = MessageType.parse(obj.get("type").getAsString());
-                switch (type) {
+                switch (envelope.type) {
                     case MESSAGE:
                         try {
-                            handleMessage(obj);
+                            synchronized (decoder) {
+                                handleMessage(decoder, envelope, text);
+                            }
                         } catch (Exception ex) {
-                            LOGGER.warn("Failed handling message: " + obj, ex);
+                            LOGGER.warn("Failed handling message: " + text, ex);
                         }
                         break;
                     case REQUEST:
                         try {
-                            handleRequest(obj);
+                            synchronized (decoder) {
+                                handleRequest(decoder, envelope, text);
+                            }
                         } catch (Exception ex) {
-                            LOGGER.warn("Failed handling request: " + obj, ex);
+                            LOGGER.warn("Failed handling request: " + text, ex);
                         }
                         break;
                     case PONG:
@@ -391,7 +376,7 @@ public class DealerClient implements Closeable {
                     case PING:
                         break;
                     default:
-                        throw new IllegalArgumentException("Unknown message type for " + type);
+                        throw new IllegalArgumentException("Unknown message type for " + envelope.type);
                 }
             }
 
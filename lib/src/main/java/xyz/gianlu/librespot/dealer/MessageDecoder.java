@@ -0,0 +1,320 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.dealer;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the frames received from the dealer. The envelope (type, uri and headers) is read first with a streaming reader
+ * so that uninteresting messages can be dropped without touching the payloads. Base64 and gzip are decoded into buffers
+ * that are reused across frames, this class is therefore not thread-safe.
+ *
+ * @author devgianlu
+ */
+final class MessageDecoder {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+    private static final byte[] BASE64_DECODE = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_DECODE, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) BASE64_DECODE[alphabet.charAt(i)] = (byte) i;
+    }
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private byte[] encoded = new byte[INITIAL_BUFFER_SIZE];
+    private byte[] decoded = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * Reads the top level fields of a frame, skipping payloads.
+     */
+    @NotNull
+    static Envelope readEnvelope(@NotNull String text) throws IOException {
+        String type = null, uri = null, mid = null, key = null;
+        Map<String, String> headers = Collections.emptyMap();
+
+        try (JsonReader reader = new JsonReader(new StringReader(text))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "type":
+                        type = reader.nextString();
+                        break;
+                    case "uri":
+                        uri = reader.nextString();
+                        break;
+                    case "message_ident":
+                        mid = reader.nextString();
+                        break;
+                    case "key":
+                        key = reader.nextString();
+                        break;
+                    case "headers":
+                        headers = readHeaders(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+        }
+
+        if (type == null) throw new IOException("Missing message type!");
+        return new Envelope(MessageType.parse(type), uri, mid, key, headers);
+    }
+
+    @NotNull
+    private static Map<String, String> readHeaders(@NotNull JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> map = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) map.put(reader.nextName(), reader.nextString());
+        reader.endObject();
+        return map;
+    }
+
+    /**
+     * Moves {@param reader} to the value of the top level field named {@param name}.
+     *
+     * @return Whether the field has been found
+     */
+    private static boolean seekField(@NotNull JsonReader reader, @NotNull String name) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(name)) return reader.peek() != JsonToken.NULL;
+            else reader.skipValue();
+        }
+
+        return false;
+    }
+
+    private static int gzipHeaderLength(byte[] data, int len) throws IOException {
+        if (len < 10 || (data[0] & 0xFF) != 0x1f || (data[1] & 0xFF) != 0x8b || data[2] != 8)
+            throw new IOException("Not in GZIP format");
+
+        int flags = data[3] & 0xFF;
+        int off = 10;
+        if ((flags & 4) != 0) { // FEXTRA
+            if (off + 2 > len) throw new EOFException();
+            off += 2 + ((data[off] & 0xFF) | ((data[off + 1] & 0xFF) << 8));
+        }
+
+        if ((flags & 8) != 0) { // FNAME
+            while (off < len && data[off] != 0) off++;
+            off++;
+        }
+
+        if ((flags & 16) != 0) { // FCOMMENT
+            while (off < len && data[off] != 0) off++;
+            off++;
+        }
+
+        if ((flags & 2) != 0) off += 2; // FHCRC
+        if (off > len) throw new EOFException();
+        return off;
+    }
+
+    private static int readIntLE(byte[] data, int off) {
+        return (data[off] & 0xFF) | ((data[off + 1] & 0xFF) << 8) | ((data[off + 2] & 0xFF) << 16) | ((data[off + 3] & 0xFF) << 24);
+    }
+
+    /**
+     * Decodes the payloads of a message. Base64 payloads are concatenated and optionally decompressed.
+     *
+     * @return The decoded payload, an empty array if there is none
+     */
+    @NotNull
+    byte[] decodeMessagePayload(@NotNull String text, @NotNull Map<String, String> headers) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(text))) {
+            if (!seekField(reader, "payloads")) return new byte[0];
+
+            String contentType = headers.get("Content-Type");
+            if ("application/json".equals(contentType) || "text/plain".equals(contentType)) {
+                reader.beginArray();
+                if (!reader.hasNext()) return new byte[0];
+
+                byte[] payload;
+                if (reader.peek() == JsonToken.STRING) payload = reader.nextString().getBytes();
+                else payload = JsonParser.parseReader(reader).toString().getBytes();
+
+                if (reader.hasNext()) throw new UnsupportedOperationException();
+                return payload;
+            }
+
+            int encodedLen = 0;
+            reader.beginArray();
+            while (reader.hasNext()) encodedLen = decodeBase64(reader.nextString(), encodedLen);
+
+            try {
+                if ("gzip".equals(headers.get("Transfer-Encoding"))) {
+                    int len = gunzip(encodedLen);
+                    return Arrays.copyOf(decoded, len);
+                } else {
+                    return Arrays.copyOf(encoded, encodedLen);
+                }
+            } finally {
+                trimBuffers();
+            }
+        }
+    }
+
+    /**
+     * Decodes the payload of a request, decompressing it if needed.
+     */
+    @NotNull
+    JsonObject decodeRequestPayload(@NotNull String text, @NotNull Map<String, String> headers) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(text))) {
+            if (!seekField(reader, "payload")) throw new IOException("Missing request payload!");
+
+            if (!"gzip".equals(headers.get("Transfer-Encoding")))
+                return JsonParser.parseReader(reader).getAsJsonObject();
+
+            if (!seekField(reader, "compressed")) throw new IOException("Missing compressed payload!");
+
+            try {
+                int len = gunzip(decodeBase64(reader.nextString(), 0));
+                try (Reader in = new InputStreamReader(new ByteArrayInputStream(decoded, 0, len), StandardCharsets.UTF_8)) {
+                    return JsonParser.parseReader(in).getAsJsonObject();
+                }
+            } finally {
+                trimBuffers();
+            }
+        }
+    }
+
+    /**
+     * Decodes {@param str} appending it to {@link MessageDecoder#encoded} from {@param off}.
+     *
+     * @return The new length of the data in {@link MessageDecoder#encoded}
+     */
+    private int decodeBase64(@NotNull String str, int off) throws IOException {
+        int required = off + str.length() / 4 * 3 + 3;
+        if (encoded.length < required) encoded = Arrays.copyOf(encoded, Math.max(required, encoded.length * 2));
+
+        byte[] out = encoded;
+        int bits = 0, count = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '=') break;
+
+            int val = c < 128 ? BASE64_DECODE[c] : -1;
+            if (val == -1) throw new IOException("Illegal base64 character: " + c);
+
+            bits = (bits << 6) | val;
+            if (++count == 4) {
+                out[off++] = (byte) (bits >> 16);
+                out[off++] = (byte) (bits >> 8);
+                out[off++] = (byte) bits;
+                bits = count = 0;
+            }
+        }
+
+        if (count == 2) {
+            out[off++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            out[off++] = (byte) (bits >> 10);
+            out[off++] = (byte) (bits >> 2);
+        } else if (count == 1) {
+            throw new IOException("Truncated base64 input!");
+        }
+
+        return off;
+    }
+
+    /**
+     * Decompresses the first {@param len} bytes of {@link MessageDecoder#encoded} into {@link MessageDecoder#decoded}.
+     *
+     * @return The length of the decompressed data
+     */
+    private int gunzip(int len) throws IOException {
+        int header = gzipHeaderLength(encoded, len);
+
+        inflater.reset();
+        inflater.setInput(encoded, header, len - header);
+        crc.reset();
+
+        int off = 0;
+        try {
+            while (!inflater.finished()) {
+                if (off == decoded.length) decoded = Arrays.copyOf(decoded, decoded.length * 2);
+
+                int read = inflater.inflate(decoded, off, decoded.length - off);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new EOFException("Unexpected end of GZIP stream");
+
+                off += read;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        }
+
+        crc.update(decoded, 0, off);
+
+        int trailer = len - inflater.getRemaining();
+        if (trailer + 8 > len) throw new EOFException("Missing GZIP trailer");
+        if (readIntLE(encoded, trailer) != (int) crc.getValue()) throw new IOException("Corrupt GZIP trailer");
+        if (readIntLE(encoded, trailer + 4) != off) throw new IOException("Corrupt GZIP trailer");
+
+        return off;
+    }
+
+    private void trimBuffers() {
+        if (encoded.length > MAX_RETAINED_BUFFER_SIZE) encoded = new byte[INITIAL_BUFFER_SIZE];
+        if (decoded.length > MAX_RETAINED_BUFFER_SIZE) decoded = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    void close() {
+        inflater.end();
+    }
+
+    static final class Envelope {
+        final MessageType type;
+        final String uri;
+        final String mid;
+        final String key;
+        final Map<String, String> headers;
+
+        private Envelope(@NotNull MessageType type, @Nullable String uri, @Nullable String mid, @Nullable String key, @NotNull Map<String, String> headers) {
+            this.type = type;
+            this.uri = uri;
+            this.mid = mid;
+            this.key = key;
+            this.headers = headers;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.dealer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Immutable trie mapping URI prefixes to values. Modifications return a new router, so lookups can run without locking
+ * while registrations are published with a single volatile write.
+ *
+ * @author devgianlu
+ */
+final class PrefixRouter<V> {
+    private static final PrefixRouter<?> EMPTY = new PrefixRouter<>(Collections.emptyList());
+    private final List<Entry<V>> entries;
+    private final Node root;
+
+    private PrefixRouter(@NotNull List<Entry<V>> entries) {
+        this.entries = entries;
+        this.root = build(entries);
+    }
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    static <V> PrefixRouter<V> empty() {
+        return (PrefixRouter<V>) EMPTY;
+    }
+
+    @NotNull
+    private static <V> Node build(@NotNull List<Entry<V>> entries) {
+        Builder root = new Builder();
+        for (Entry<V> entry : entries) {
+            Builder node = root;
+            for (int i = 0; i < entry.prefix.length(); i++)
+                node = node.children.computeIfAbsent(entry.prefix.charAt(i), c -> new Builder());
+
+            node.values.add(entry.value);
+        }
+
+        return root.freeze();
+    }
+
+    @NotNull
+    PrefixRouter<V> with(@NotNull String prefix, @NotNull V value) {
+        List<Entry<V>> list = new ArrayList<>(entries.size() + 1);
+        list.addAll(entries);
+        list.add(new Entry<>(prefix, value));
+        return new PrefixRouter<>(Collections.unmodifiableList(list));
+    }
+
+    /**
+     * @return A router without any of the prefixes associated with {@param value}
+     */
+    @NotNull
+    PrefixRouter<V> without(@NotNull V value) {
+        List<Entry<V>> list = new ArrayList<>(entries.size());
+        for (Entry<V> entry : entries)
+            if (entry.value != value)
+                list.add(entry);
+
+        if (list.size() == entries.size()) return this;
+        else if (list.isEmpty()) return empty();
+        else return new PrefixRouter<>(Collections.unmodifiableList(list));
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    boolean hasPrefix(@NotNull String prefix) {
+        for (Entry<V> entry : entries)
+            if (entry.prefix.equals(prefix))
+                return true;
+
+        return false;
+    }
+
+    @Nullable
+    V find(@NotNull Predicate<V> predicate) {
+        for (Entry<V> entry : entries)
+            if (predicate.test(entry.value))
+                return entry.value;
+
+        return null;
+    }
+
+    /**
+     * @return Whether at least one prefix matches {@param key}
+     */
+    boolean matches(@NotNull String key) {
+        Node node = root;
+        for (int i = 0; ; i++) {
+            if (node.values.length > 0) return true;
+            if (i == key.length() || (node = node.child(key.charAt(i))) == null) return false;
+        }
+    }
+
+    /**
+     * @return The distinct values whose prefix matches {@param key}, shortest prefix first
+     */
+    @NotNull
+    List<V> route(@NotNull String key) {
+        List<V> result = null;
+        Node node = root;
+        for (int i = 0; ; i++) {
+            for (Object value : node.values) {
+                if (result == null) result = new ArrayList<>(2);
+                if (!containsIdentity(result, value)) result.add(cast(value));
+            }
+
+            if (i == key.length() || (node = node.child(key.charAt(i))) == null) break;
+        }
+
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    private static boolean containsIdentity(@NotNull List<?> list, @NotNull Object value) {
+        for (Object obj : list)
+            if (obj == value)
+                return true;
+
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(Object value) {
+        return (V) value;
+    }
+
+    private static final class Entry<V> {
+        final String prefix;
+        final V value;
+
+        Entry(@NotNull String prefix, @NotNull V value) {
+            this.prefix = prefix;
+            this.value = value;
+        }
+    }
+
+    private static final class Node {
+        private static final Object[] NO_VALUES = new Object[0];
+        final char[] chars;
+        final Node[] children;
+        final Object[] values;
+
+        Node(char[] chars, Node[] children, Object[] values) {
+            this.chars = chars;
+            this.children = children;
+            this.values = values.length == 0 ? NO_VALUES : values;
+        }
+
+        @Nullable
+        Node child(char c) {
+            int index = Arrays.binarySearch(chars, c);
+            return index < 0 ? null : children[index];
+        }
+    }
+
+    private static final class Builder {
+        final TreeMap<Character, Builder> children = new TreeMap<>();
+        final List<Object> values = new ArrayList<>(1);
+
+        @NotNull
+        Node freeze() {
+            char[] chars = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder> entry : children.entrySet()) {
+                chars[i] = entry.getKey();
+                nodes[i] = entry.getValue().freeze();
+                i++;
+            }
+
+            return new Node(chars, nodes, values.toArray());
+        }
+    }
+}
@@ -26,19 +26,44 @@ import java.util.regex.Pattern;
  * @author Gianlu
  */
 public final class EpisodeId implements SpotifyId, PlayableId {
+    static final String PREFIX = "spotify:episode:";
     static final Pattern PATTERN = Pattern.compile("spotify:episode:(.{22})");
-    private final String hexId;
+    private final long high;
+    private final long low;
+    private String uri;
+    private String hexId;
+
+    private EpisodeId(long high, long low, String uri) {
+        this.high = high;
+        this.low = low;
+        this.uri = uri;
+    }
+
+    @NotNull
+    private static EpisodeId fromGid(@NotNull byte[] gid) {
+        if (gid.length != SpotifyIdCodec.GID_LENGTH)
+            throw new IllegalArgumentException("Invalid GID length: " + gid.length);
+
+        return new EpisodeId(SpotifyIdCodec.gidHigh(gid), SpotifyIdCodec.gidLow(gid), null);
+    }
 
-    private EpisodeId(@NotNull String hex) {
-        this.hexId = hex.toLowerCase();
+    /**
+     * @return Whether {@param uri} is a well formed episode URI, which can be decoded without a regex
+     */
+    static boolean isUri(@NotNull String uri) {
+        return uri.length() == PREFIX.length() + SpotifyIdCodec.BASE62_LENGTH && uri.startsWith(PREFIX)
+                && SpotifyIdCodec.isBase62(uri, PREFIX.length());
     }
 
     @NotNull
     public static EpisodeId fromUri(@NotNull String uri) {
+        if (isUri(uri))
+            return new EpisodeId(SpotifyIdCodec.base62High(uri, PREFIX.length()), SpotifyIdCodec.base62Low(uri, PREFIX.length()), uri);
+
         Matcher matcher = PATTERN.matcher(uri);
         if (matcher.find()) {
             String id = matcher.group(1);
-            return new EpisodeId(Utils.bytesToHex(BASE62.decode(id.getBytes(), 16)));
+            return fromGid(BASE62.decode(id.getBytes(), 16));
         } else {
             throw new IllegalArgumentException("Not a Spotify episode ID: " + uri);
         }
@@ -46,25 +71,38 @@ public final class EpisodeId implements SpotifyId, PlayableId {
 
     @NotNull
     public static EpisodeId fromBase62(@NotNull String base62) {
-        return new EpisodeId(Utils.bytesToHex(BASE62.decode(base62.getBytes(), 16)));
+        if (base62.length() == SpotifyIdCodec.BASE62_LENGTH && SpotifyIdCodec.isBase62(base62, 0))
+            return new EpisodeId(SpotifyIdCodec.base62High(base62, 0), SpotifyIdCodec.base62Low(base62, 0), null);
+
+        return fromGid(BASE62.decode(base62.getBytes(), 16));
     }
 
     @NotNull
     public static EpisodeId fromHex(@NotNull String hex) {
-        return new EpisodeId(hex);
+        if (hex.length() == SpotifyIdCodec.HEX_LENGTH && SpotifyIdCodec.isHex(hex, 0))
+            return new EpisodeId(SpotifyIdCodec.hexHigh(hex, 0), SpotifyIdCodec.hexLow(hex, 0), null);
+
+        return fromGid(Utils.hexToBytes(hex));
+    }
+
+    @NotNull
+    public static EpisodeId fromGid(long high, long low) {
+        return new EpisodeId(high, low, null);
     }
 
     public @NotNull String toMercuryUri() {
-        return "hm://metadata/4/episode/" + hexId;
+        return "hm://metadata/4/episode/" + hexId();
     }
 
     @Override
     public @NotNull String toSpotifyUri() {
-        return "spotify:episode:" + new String(BASE62.encode(Utils.hexToBytes(hexId)));
+        if (uri == null) uri = SpotifyIdCodec.toUri(PREFIX, high, low);
+        return uri;
     }
 
     @Override
     public @NotNull String hexId() {
+        if (hexId == null) hexId = SpotifyIdCodec.toHex(high, low);
         return hexId;
     }
 
@@ -76,7 +114,21 @@ public final class EpisodeId implements SpotifyId, PlayableId {
     @Override
     @NotNull
     public byte[] getGid() {
-        return Utils.hexToBytes(hexId);
+        return SpotifyIdCodec.toGid(high, low);
+    }
+
+    /**
+     * @return The most significant half of the GID
+     */
+    public long gidHigh() {
+        return high;
+    }
+
+    /**
+     * @return The least significant half of the GID
+     */
+    public long gidLow() {
+        return low;
     }
 
     @NotNull
@@ -87,7 +139,7 @@ public final class EpisodeId implements SpotifyId, PlayableId {
 
     @Override
     public int hashCode() {
-        return hexId.hashCode();
+        return Long.hashCode(high) * 31 + Long.hashCode(low);
     }
 
     @Override
@@ -95,6 +147,6 @@ public final class EpisodeId implements SpotifyId, PlayableId {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         EpisodeId episodeId = (EpisodeId) o;
-        return hexId.equals(episodeId.hexId);
+        return high == episodeId.high && low == episodeId.low;
     }
 }
@@ -39,8 +39,8 @@ public interface PlayableId {
     static PlayableId fromUri(@NotNull String uri) {
         if (isDelimiter(uri)) return new UnsupportedId(uri);
         else if (isLocal(uri)) return new LocalId(uri);
-        else if (TrackId.PATTERN.matcher(uri).matches()) return TrackId.fromUri(uri);
-        else if (EpisodeId.PATTERN.matcher(uri).matches()) return EpisodeId.fromUri(uri);
+        else if (TrackId.isUri(uri) || TrackId.PATTERN.matcher(uri).matches()) return TrackId.fromUri(uri);
+        else if (EpisodeId.isUri(uri) || EpisodeId.PATTERN.matcher(uri).matches()) return EpisodeId.fromUri(uri);
         else throw new IllegalArgumentException("Unknown uri: " + uri);
     }
 
@@ -79,12 +79,20 @@ public interface PlayableId {
 
     @NotNull
     static PlayableId from(@NotNull Metadata.Track track) {
-        return TrackId.fromHex(Utils.bytesToHex(track.getGid()));
+        ByteString gid = track.getGid();
+        if (gid.size() == SpotifyIdCodec.GID_LENGTH)
+            return TrackId.fromGid(SpotifyIdCodec.gidHigh(gid), SpotifyIdCodec.gidLow(gid));
+        else
+            return TrackId.fromHex(Utils.bytesToHex(gid));
     }
 
     @NotNull
     static PlayableId from(@NotNull Metadata.Episode episode) {
-        return EpisodeId.fromHex(Utils.bytesToHex(episode.getGid()));
+        ByteString gid = episode.getGid();
+        if (gid.size() == SpotifyIdCodec.GID_LENGTH)
+            return EpisodeId.fromGid(SpotifyIdCodec.gidHigh(gid), SpotifyIdCodec.gidLow(gid));
+        else
+            return EpisodeId.fromHex(Utils.bytesToHex(gid));
     }
 
     @NotNull
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.metadata;
+
+import com.google.protobuf.ByteString;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Codec for 128 bit Spotify IDs held as two longs, the most significant half first. IDs are converted to and from
+ * their 22 characters Base62 and 32 characters hex representation without intermediate arrays or strings.
+ *
+ * @author devgianlu
+ */
+public final class SpotifyIdCodec {
+    public static final int BASE62_LENGTH = 22;
+    public static final int HEX_LENGTH = 32;
+    public static final int GID_LENGTH = 16;
+    private static final char[] BASE62 = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] BASE62_LOOKUP = new byte[128];
+    private static final byte[] HEX_LOOKUP = new byte[128];
+    private static final long MASK = 0xFFFFFFFFL;
+
+    static {
+        Arrays.fill(BASE62_LOOKUP, (byte) -1);
+        for (int i = 0; i < BASE62.length; i++) BASE62_LOOKUP[BASE62[i]] = (byte) i;
+
+        Arrays.fill(HEX_LOOKUP, (byte) -1);
+        for (int i = 0; i < HEX.length; i++) HEX_LOOKUP[HEX[i]] = (byte) i;
+        for (int i = 10; i < HEX.length; i++) HEX_LOOKUP[Character.toUpperCase(HEX[i])] = (byte) i;
+    }
+
+    private SpotifyIdCodec() {
+    }
+
+    private static int base62Digit(char c) {
+        return c < 128 ? BASE62_LOOKUP[c] : -1;
+    }
+
+    private static int hexDigit(char c) {
+        return c < 128 ? HEX_LOOKUP[c] : -1;
+    }
+
+    /**
+     * Decodes the Base62 ID at {@param offset} into four 32 bits limbs, most significant first.
+     *
+     * @return The most significant limb before masking, negative if the ID is invalid and greater than 32 bits if it overflows
+     */
+    private static long decodeBase62(@NotNull CharSequence str, int offset, int limb) {
+        if (offset < 0 || str.length() - offset < BASE62_LENGTH) return -1;
+
+        long l0 = 0, l1 = 0, l2 = 0, l3 = 0;
+        for (int i = offset; i < offset + BASE62_LENGTH; i++) {
+            int digit = base62Digit(str.charAt(i));
+            if (digit == -1) return -1;
+
+            l3 = l3 * 62 + digit;
+            l2 = l2 * 62 + (l3 >>> 32);
+            l1 = l1 * 62 + (l2 >>> 32);
+            l0 = l0 * 62 + (l1 >>> 32);
+            if ((l0 >>> 32) != 0) return l0;
+
+            l3 &= MASK;
+            l2 &= MASK;
+            l1 &= MASK;
+        }
+
+        switch (limb) {
+            case 0:
+                return (l0 << 32) | l1;
+            case 1:
+                return (l2 << 32) | l3;
+            default:
+                return l0;
+        }
+    }
+
+    /**
+     * @return Whether there is a valid 128 bit Base62 ID at {@param offset}
+     */
+    public static boolean isBase62(@NotNull CharSequence str, int offset) {
+        long l0 = decodeBase62(str, offset, -1);
+        return l0 >= 0 && (l0 >>> 32) == 0;
+    }
+
+    /**
+     * @return The most significant half of the Base62 ID at {@param offset}, must be valid
+     */
+    public static long base62High(@NotNull CharSequence str, int offset) {
+        return decodeBase62(str, offset, 0);
+    }
+
+    /**
+     * @return The least significant half of the Base62 ID at {@param offset}, must be valid
+     */
+    public static long base62Low(@NotNull CharSequence str, int offset) {
+        return decodeBase62(str, offset, 1);
+    }
+
+    /**
+     * Writes the Base62 representation of the ID to {@param dst} at {@param offset}.
+     */
+    public static void encodeBase62(long high, long low, char[] dst, int offset) {
+        long l0 = high >>> 32, l1 = high & MASK, l2 = low >>> 32, l3 = low & MASK;
+        for (int i = offset + BASE62_LENGTH - 1; i >= offset; i--) {
+            long rem = l0 % 62;
+            l0 /= 62;
+            l1 |= rem << 32;
+            rem = l1 % 62;
+            l1 /= 62;
+            l2 |= rem << 32;
+            rem = l2 % 62;
+            l2 /= 62;
+            l3 |= rem << 32;
+            rem = l3 % 62;
+            l3 /= 62;
+            dst[i] = BASE62[(int) rem];
+        }
+    }
+
+    @NotNull
+    public static String toBase62(long high, long low) {
+        char[] chars = new char[BASE62_LENGTH];
+        encodeBase62(high, low, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * @return {@param prefix} followed by the Base62 representation of the ID
+     */
+    @NotNull
+    public static String toUri(@NotNull String prefix, long high, long low) {
+        char[] chars = new char[prefix.length() + BASE62_LENGTH];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        encodeBase62(high, low, chars, prefix.length());
+        return new String(chars);
+    }
+
+    /**
+     * @return Whether there is a valid 128 bit hex ID at {@param offset}
+     */
+    public static boolean isHex(@NotNull CharSequence str, int offset) {
+        if (offset < 0 || str.length() - offset < HEX_LENGTH) return false;
+
+        for (int i = offset; i < offset + HEX_LENGTH; i++)
+            if (hexDigit(str.charAt(i)) == -1) return false;
+
+        return true;
+    }
+
+    private static long decodeHex(@NotNull CharSequence str, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + HEX_LENGTH / 2; i++)
+            value = (value << 4) | hexDigit(str.charAt(i));
+
+        return value;
+    }
+
+    /**
+     * @return The most significant half of the hex ID at {@param offset}, must be valid
+     */
+    public static long hexHigh(@NotNull CharSequence str, int offset) {
+        return decodeHex(str, offset);
+    }
+
+    /**
+     * @return The least significant half of the hex ID at {@param offset}, must be valid
+     */
+    public static long hexLow(@NotNull CharSequence str, int offset) {
+        return decodeHex(str, offset + HEX_LENGTH / 2);
+    }
+
+    /**
+     * @return The lowercase hex representation of the ID
+     */
+    @NotNull
+    public static String toHex(long high, long low) {
+        char[] chars = new char[HEX_LENGTH];
+        for (int i = HEX_LENGTH / 2 - 1; i >= 0; i--, high >>>= 4) chars[i] = HEX[(int) (high & 0xF)];
+        for (int i = HEX_LENGTH - 1; i >= HEX_LENGTH / 2; i--, low >>>= 4) chars[i] = HEX[(int) (low & 0xF)];
+        return new String(chars);
+    }
+
+    /**
+     * @return The most significant half of the 16 bytes GID
+     */
+    public static long gidHigh(@NotNull byte[] gid) {
+        long value = 0;
+        for (int i = 0; i < GID_LENGTH / 2; i++) value = (value << 8) | (gid[i] & 0xFF);
+        return value;
+    }
+
+    /**
+     * @return The least significant half of the 16 bytes GID
+     */
+    public static long gidLow(@NotNull byte[] gid) {
+        long value = 0;
+        for (int i = GID_LENGTH / 2; i < GID_LENGTH; i++) value = (value << 8) | (gid[i] & 0xFF);
+        return value;
+    }
+
+    /**
+     * @return The most significant half of the 16 bytes GID
+     */
+    public static long gidHigh(@NotNull ByteString gid) {
+        long value = 0;
+        for (int i = 0; i < GID_LENGTH / 2; i++) value = (value << 8) | (gid.byteAt(i) & 0xFF);
+        return value;
+    }
+
+    /**
+     * @return The least significant half of the 16 bytes GID
+     */
+    public static long gidLow(@NotNull ByteString gid) {
+        long value = 0;
+        for (int i = GID_LENGTH / 2; i < GID_LENGTH; i++) value = (value << 8) | (gid.byteAt(i) & 0xFF);
+        return value;
+    }
+
+    @NotNull
+    public static byte[] toGid(long high, long low) {
+        byte[] gid = new byte[GID_LENGTH];
+        for (int i = GID_LENGTH / 2 - 1; i >= 0; i--, high >>>= 8) gid[i] = (byte) high;
+        for (int i = GID_LENGTH - 1; i >= GID_LENGTH / 2; i--, low >>>= 8) gid[i] = (byte) low;
+        return gid;
+    }
+
+    /**
+     * @return The Base62 representation of {@param gid}, which is not required to be 16 bytes long
+     */
+    @NotNull
+    public static String gidToBase62(@NotNull ByteString gid) {
+        if (gid.size() == GID_LENGTH) return toBase62(gidHigh(gid), gidLow(gid));
+        else return new String(PlayableId.BASE62.encode(gid.toByteArray(), BASE62_LENGTH));
+    }
+}
@@ -26,19 +26,44 @@ import java.util.regex.Pattern;
  * @author Gianlu
  */
 public final class TrackId implements SpotifyId, PlayableId {
+    static final String PREFIX = "spotify:track:";
     static final Pattern PATTERN = Pattern.compile("spotify:track:(.{22})");
-    private final String hexId;
+    private final long high;
+    private final long low;
+    private String uri;
+    private String hexId;
+
+    private TrackId(long high, long low, String uri) {
+        this.high = high;
+        this.low = low;
+        this.uri = uri;
+    }
+
+    @NotNull
+    private static TrackId fromGid(@NotNull byte[] gid) {
+        if (gid.length != SpotifyIdCodec.GID_LENGTH)
+            throw new IllegalArgumentException("Invalid GID length: " + gid.length);
+
+        return new TrackId(SpotifyIdCodec.gidHigh(gid), SpotifyIdCodec.gidLow(gid), null);
+    }
 
-    private TrackId(@NotNull String hex) {
-        this.hexId = hex.toLowerCase();
+    /**
+     * @return Whether {@param uri} is a well formed track URI, which can be decoded without a regex
+     */
+    static boolean isUri(@NotNull String uri) {
+        return uri.length() == PREFIX.length() + SpotifyIdCodec.BASE62_LENGTH && uri.startsWith(PREFIX)
+                && SpotifyIdCodec.isBase62(uri, PREFIX.length());
     }
 
     @NotNull
     public static TrackId fromUri(@NotNull String uri) {
+        if (isUri(uri))
+            return new TrackId(SpotifyIdCodec.base62High(uri, PREFIX.length()), SpotifyIdCodec.base62Low(uri, PREFIX.length()), uri);
+
         Matcher matcher = PATTERN.matcher(uri);
         if (matcher.find()) {
             String id = matcher.group(1);
-            return new TrackId(Utils.bytesToHex(BASE62.decode(id.getBytes(), 16)));
+            return fromGid(BASE62.decode(id.getBytes(), 16));
         } else {
             throw new IllegalArgumentException("Not a Spotify track ID: " + uri);
         }
@@ -46,25 +71,38 @@ public final class TrackId implements SpotifyId, PlayableId {
 
     @NotNull
     public static TrackId fromBase62(@NotNull String base62) {
-        return new TrackId(Utils.bytesToHex(BASE62.decode(base62.getBytes(), 16)));
+        if (base62.length() == SpotifyIdCodec.BASE62_LENGTH && SpotifyIdCodec.isBase62(base62, 0))
+            return new TrackId(SpotifyIdCodec.base62High(base62, 0), SpotifyIdCodec.base62Low(base62, 0), null);
+
+        return fromGid(BASE62.decode(base62.getBytes(), 16));
     }
 
     @NotNull
     public static TrackId fromHex(@NotNull String hex) {
-        return new TrackId(hex);
+        if (hex.length() == SpotifyIdCodec.HEX_LENGTH && SpotifyIdCodec.isHex(hex, 0))
+            return new TrackId(SpotifyIdCodec.hexHigh(hex, 0), SpotifyIdCodec.hexLow(hex, 0), null);
+
+        return fromGid(Utils.hexToBytes(hex));
+    }
+
+    @NotNull
+    public static TrackId fromGid(long high, long low) {
+        return new TrackId(high, low, null);
     }
 
     public @NotNull String toMercuryUri() {
-        return "hm://metadata/4/track/" + hexId;
+        return "hm://metadata/4/track/" + hexId();
     }
 
     @Override
     public @NotNull String toSpotifyUri() {
-        return "spotify:track:" + new String(BASE62.encode(Utils.hexToBytes(hexId), 22));
+        if (uri == null) uri = SpotifyIdCodec.toUri(PREFIX, high, low);
+        return uri;
     }
 
     @Override
     public @NotNull String hexId() {
+        if (hexId == null) hexId = SpotifyIdCodec.toHex(high, low);
         return hexId;
     }
 
@@ -76,7 +114,21 @@ public final class TrackId implements SpotifyId, PlayableId {
     @Override
     @NotNull
     public byte[] getGid() {
-        return Utils.hexToBytes(hexId);
+        return SpotifyIdCodec.toGid(high, low);
+    }
+
+    /**
+     * @return The most significant half of the GID
+     */
+    public long gidHigh() {
+        return high;
+    }
+
+    /**
+     * @return The least significant half of the GID
+     */
+    public long gidLow() {
+        return low;
     }
 
     @NotNull
@@ -87,7 +139,7 @@ public final class TrackId implements SpotifyId, PlayableId {
 
     @Override
     public int hashCode() {
-        return hexId.hashCode();
+        return Long.hashCode(high) * 31 + Long.hashCode(low);
     }
 
     @Override
@@ -95,6 +147,6 @@ public final class TrackId implements SpotifyId, PlayableId {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         TrackId trackId = (TrackId) o;
-        return hexId.equals(trackId.hexId);
+        return high == trackId.high && low == trackId.low;
     }
 }
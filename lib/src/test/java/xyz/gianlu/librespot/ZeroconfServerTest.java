@@ -0,0 +1,312 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.spotify.Authentication;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.common.Utils;
+import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.core.TimeProvider;
+import xyz.gianlu.librespot.crypto.DiffieHellman;
+import xyz.gianlu.librespot.crypto.PBKDF2;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class ZeroconfServerTest {
+    private static final BlockingQueue<Session.Builder> builders = new LinkedBlockingQueue<>();
+    private static ZeroconfServer server;
+    private static int port;
+
+    @BeforeAll
+    static void start() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        Session.Configuration conf = new Session.Configuration.Builder()
+                .setCacheEnabled(false)
+                .setTimeSynchronizationMethod(TimeProvider.Method.MANUAL)
+                .build();
+
+        server = new ZeroconfServer.Builder(conf)
+                .setDeviceName("Main")
+                .addDevice("Other")
+                .setListenPort(port)
+                .create();
+
+        // Never connect to Spotify, only record the builders that would have been used
+        server.sessionFactory = builder -> {
+            builders.add(builder);
+            throw new IOException("Not connecting in tests");
+        };
+    }
+
+    @AfterAll
+    static void stop() throws IOException {
+        server.close();
+    }
+
+    @NotNull
+    private static byte[] hmacSha1(@NotNull byte[] key, @NotNull byte[] data) throws GeneralSecurityException {
+        Mac hmac = Mac.getInstance("HmacSHA1");
+        hmac.init(new SecretKeySpec(key, "HmacSHA1"));
+        return hmac.doFinal(data);
+    }
+
+    /**
+     * Encrypts credentials like the Spotify clients do: the credentials blob with a key derived from the device ID and
+     * username, then the whole thing with the key agreed with the device.
+     *
+     * @return The body of the {@code addUser} request
+     */
+    @NotNull
+    private static String addUserBody(@NotNull Random random, @NotNull String deviceId, @NotNull String serverKey, @NotNull String username) throws GeneralSecurityException, IOException {
+        byte[] authData = new byte[64];
+        random.nextBytes(authData);
+
+        ByteArrayOutputStream credentials = new ByteArrayOutputStream();
+        credentials.write(new byte[]{0x49, 1, 0x41, 0x50, 1, 0x51, 0x40});
+        credentials.write(authData);
+        byte[] plain = Arrays.copyOf(credentials.toByteArray(), (credentials.size() + 15) / 16 * 16);
+        for (int i = 16; i < plain.length; i++) plain[i] ^= plain[i - 16];
+
+        byte[] secret = MessageDigest.getInstance("SHA-1").digest(deviceId.getBytes());
+        byte[] baseKey = PBKDF2.HmacSHA1(secret, username.getBytes(), 0x100, 20);
+        byte[] key = ByteBuffer.allocate(24).put(MessageDigest.getInstance("SHA-1").digest(baseKey)).putInt(20).array();
+        Cipher ecb = Cipher.getInstance("AES/ECB/NoPadding");
+        ecb.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        byte[] inner = Utils.toBase64(ecb.doFinal(plain)).getBytes(StandardCharsets.US_ASCII);
+
+        DiffieHellman keys = new DiffieHellman(random);
+        byte[] sharedKey = Utils.toByteArray(keys.computeSharedKey(Utils.fromBase64(serverKey)));
+        byte[] blobKey = Arrays.copyOfRange(MessageDigest.getInstance("SHA-1").digest(sharedKey), 0, 16);
+        byte[] iv = new byte[16];
+        random.nextBytes(iv);
+
+        Cipher ctr = Cipher.getInstance("AES/CTR/NoPadding");
+        ctr.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(Arrays.copyOfRange(hmacSha1(blobKey, "encryption".getBytes()), 0, 16), "AES"), new IvParameterSpec(iv));
+        byte[] encrypted = ctr.doFinal(inner);
+        byte[] checksum = hmacSha1(hmacSha1(blobKey, "checksum".getBytes()), encrypted);
+
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        blob.write(iv);
+        blob.write(encrypted);
+        blob.write(checksum);
+
+        return "action=addUser&userName=" + URLEncoder.encode(username, "UTF-8")
+                + "&blob=" + URLEncoder.encode(Utils.toBase64(blob.toByteArray()), "UTF-8")
+                + "&clientKey=" + URLEncoder.encode(Utils.toBase64(keys.publicKeyArray()), "UTF-8")
+                + "&deviceName=test";
+    }
+
+    @NotNull
+    private static String addUser(@NotNull String body) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(("POST / HTTP/1.1\r\nContent-Type: application/x-www-form-urlencoded\r\nContent-Length: " + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.US_ASCII));
+            return readResponse(new DataInputStream(socket.getInputStream()));
+        }
+    }
+
+    @NotNull
+    private static JsonObject getInfo() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write("GET /?action=getInfo HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            return JsonParser.parseString(readResponse(new DataInputStream(socket.getInputStream()))).getAsJsonObject();
+        }
+    }
+
+    /**
+     * Reads a response with a {@code Content-Length} and returns its body.
+     */
+    @NotNull
+    private static String readResponse(@NotNull DataInputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (true) {
+            head.write(in.readByte());
+            byte[] bytes = head.toByteArray();
+            if (bytes.length >= 4 && new String(bytes, bytes.length - 4, 4, StandardCharsets.US_ASCII).equals("\r\n\r\n"))
+                break;
+        }
+
+        String[] lines = head.toString("US-ASCII").split("\r\n");
+        assertTrue(lines[0].endsWith(" 200 OK"), lines[0]);
+
+        int contentLength = -1;
+        for (String line : lines)
+            if (line.startsWith("Content-Length: "))
+                contentLength = Integer.parseInt(line.substring(16));
+
+        assertTrue(contentLength > 0);
+        byte[] body = new byte[contentLength];
+        in.readFully(body);
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testKeepAlive() throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            ZeroconfServer.Device other = server.devices().get(1);
+            out.write(("GET /?action=getInfo HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                    "GET /zc/" + other.id() + "?action=getInfo&version=2.7.1 HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            JsonObject main = JsonParser.parseString(readResponse(in)).getAsJsonObject();
+            assertEquals("Main", main.get("remoteName").getAsString());
+            assertEquals(server.devices().get(0).id(), main.get("deviceID").getAsString());
+            assertEquals("", main.get("activeUser").getAsString());
+
+            JsonObject info = JsonParser.parseString(readResponse(in)).getAsJsonObject();
+            assertEquals("Other", info.get("remoteName").getAsString());
+            assertEquals(other.id(), info.get("deviceID").getAsString());
+            assertNotEquals(main.get("publicKey").getAsString(), info.get("publicKey").getAsString());
+
+            out.write("GET /?action=getInfo HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            readResponse(in);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testBadRequests() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            String body = "action=addUser&blob=abc";
+            socket.getOutputStream().write(("POST / HTTP/1.1\r\nContent-Type: application/x-www-form-urlencoded\r\nContent-Length: " + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.US_ASCII));
+            assertEquals(-1, socket.getInputStream().read());
+        }
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write("POST / HTTP/1.1\r\nContent-Type: text/plain\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            assertEquals(-1, socket.getInputStream().read());
+        }
+
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write("GET /?action=unknown HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            assertEquals(-1, socket.getInputStream().read());
+        }
+
+        String otherKey;
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(("GET /zc/" + server.devices().get(1).id() + "?action=getInfo HTTP/1.0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            otherKey = JsonParser.parseString(readResponse(new DataInputStream(socket.getInputStream()))).getAsJsonObject().get("publicKey").getAsString();
+        }
+
+        String body = addUserBody(new Random(5), server.devices().get(0).id(), otherKey, "mismatched");
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(("POST / HTTP/1.1\r\nContent-Type: application/x-www-form-urlencoded\r\nContent-Length: " + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.US_ASCII));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            assertEquals("HTTP/1.1 400 Bad Request", reader.readLine());
+        }
+    }
+
+    @Test
+    void testAddUser() throws Exception {
+        builders.clear();
+
+        JsonObject info = getInfo();
+        String body = addUserBody(new Random(7), info.get("deviceID").getAsString(), info.get("publicKey").getAsString(), "someone");
+
+        JsonObject resp = JsonParser.parseString(addUser(body)).getAsJsonObject();
+        assertEquals(101, resp.get("status").getAsInt());
+        assertEquals("OK", resp.get("statusString").getAsString());
+
+        Session.Builder builder = builders.poll(5, TimeUnit.SECONDS);
+        assertNotNull(builder);
+
+        byte[] authData = new byte[64];
+        new Random(7).nextBytes(authData);
+
+        Authentication.LoginCredentials credentials = builder.getCredentials();
+        assertEquals("someone", credentials.getUsername());
+        assertEquals(Authentication.AuthenticationType.AUTHENTICATION_STORED_SPOTIFY_CREDENTIALS, credentials.getTyp());
+        assertArrayEquals(authData, credentials.getAuthData().toByteArray());
+
+        JsonObject after = getInfo();
+        assertEquals("", after.get("activeUser").getAsString());
+    }
+
+    /**
+     * Measures the time needed by {@code addUser} until the client receives the response, which includes the key
+     * agreement and the decryption of both blobs. The session creation is stubbed.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkAddUser() throws Exception {
+        JsonObject info = getInfo();
+        String deviceId = info.get("deviceID").getAsString();
+        String serverKey = info.get("publicKey").getAsString();
+
+        Random random = new Random(11);
+        String[] bodies = new String[150];
+        for (int i = 0; i < bodies.length; i++)
+            bodies[i] = addUserBody(random, deviceId, serverKey, "user" + i);
+
+        long[] addUser = new long[100];
+        long[] getInfo = new long[addUser.length];
+        for (int i = 0; i < bodies.length; i++) {
+            long start = System.nanoTime();
+            assertTrue(addUser(bodies[i]).contains("\"status\":101"));
+            long addUserNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            getInfo();
+            long getInfoNanos = System.nanoTime() - start;
+
+            int round = i - (bodies.length - addUser.length);
+            if (round >= 0) {
+                addUser[round] = addUserNanos;
+                getInfo[round] = getInfoNanos;
+            }
+        }
+
+        Arrays.sort(addUser);
+        Arrays.sort(getInfo);
+        System.out.printf("addUser: avg %.1fus, p50 %.1fus, p99 %.1fus; getInfo: avg %.1fus, p50 %.1fus%n",
+                Arrays.stream(addUser).average().orElse(0) / 1000, addUser[addUser.length / 2] / 1000f, addUser[addUser.length * 99 / 100] / 1000f,
+                Arrays.stream(getInfo).average().orElse(0) / 1000, getInfo[getInfo.length / 2] / 1000f);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.common;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author devgianlu
+ */
+class IndexPermutationTest {
+
+    @Test
+    void testBijection() {
+        for (int size : new int[]{0, 1, 2, 3, 7, 64, 1000, 10_007}) {
+            IndexPermutation permutation = new IndexPermutation(size, 0xC0FFEEL + size);
+            boolean[] seen = new boolean[size];
+            int fixed = 0;
+            for (int i = 0; i < size; i++) {
+                int index = permutation.apply(i);
+                Assertions.assertFalse(seen[index]);
+                Assertions.assertEquals(i, permutation.invert(index));
+                seen[index] = true;
+                if (index == i) fixed++;
+            }
+
+            if (size >= 1000) Assertions.assertTrue(fixed < size / 100, "Too many fixed points: " + fixed);
+        }
+    }
+
+    @Test
+    void testSeed() {
+        IndexPermutation first = new IndexPermutation(500, 42);
+        IndexPermutation same = new IndexPermutation(500, 42);
+        IndexPermutation other = new IndexPermutation(500, 43);
+
+        int different = 0;
+        for (int i = 0; i < 500; i++) {
+            Assertions.assertEquals(first.apply(i), same.apply(i));
+            if (first.apply(i) != other.apply(i)) different++;
+        }
+
+        Assertions.assertTrue(different > 400);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.common;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import com.spotify.connectstate.Player;
+import com.spotify.metadata.Metadata;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author devgianlu
+ */
+class ProtobufToJsonTest {
+
+    private static ByteString gid(Random random) {
+        byte[] gid = new byte[16];
+        random.nextBytes(gid);
+        return ByteString.copyFrom(gid);
+    }
+
+    private static Metadata.Artist artist(Random random, int i) {
+        return Metadata.Artist.newBuilder()
+                .setGid(gid(random))
+                .setName("Artist \"" + i + "\" <&> é ")
+                .build();
+    }
+
+    private static Metadata.Album album(Random random, int tracks) {
+        Metadata.Album.Builder album = Metadata.Album.newBuilder()
+                .setGid(gid(random))
+                .setName("Album\twith\\escapes\u0001")
+                .addArtist(artist(random, 0))
+                .setType(Metadata.Album.Type.ALBUM)
+                .setLabel("Label")
+                .setDate(Metadata.Date.newBuilder().setYear(2021).setMonth(3).setDay(14))
+                .setPopularity(-42)
+                .addGenre("rock").addGenre("pop")
+                .addCopyright(Metadata.Copyright.newBuilder().setType(Metadata.Copyright.Type.P).setText("(P) 2021"));
+
+        for (int i = 0; i < 3; i++)
+            album.addCover(Metadata.Image.newBuilder().setFileId(gid(random)).setSize(Metadata.Image.Size.forNumber(i)).setWidth(300 * i).setHeight(300 * i));
+
+        Metadata.Disc.Builder disc = Metadata.Disc.newBuilder().setNumber(1);
+        for (int i = 0; i < tracks; i++)
+            disc.addTrack(Metadata.Track.newBuilder().setGid(gid(random)).setName("Track " + i).setDuration(180_000 + i));
+
+        return album.addDisc(disc).build();
+    }
+
+    private static Metadata.Track track(Random random) {
+        Metadata.Track.Builder track = Metadata.Track.newBuilder()
+                .setGid(gid(random))
+                .setName("Track \"name\" / 日本語")
+                .setAlbum(album(random, 0))
+                .setNumber(7)
+                .setDiscNumber(1)
+                .setDuration(215_123)
+                .setPopularity(63)
+                .setExplicit(true)
+                .setEarliestLiveTimestamp(1_600_000_000_000L)
+                .setHasLyrics(false)
+                .addExternalId(Metadata.ExternalId.newBuilder().setType("isrc").setId("USRC17607839"))
+                .addTags("tag");
+
+        for (int i = 0; i < 3; i++) track.addArtist(artist(random, i));
+        for (Metadata.AudioFile.Format format : Metadata.AudioFile.Format.values())
+            track.addFile(Metadata.AudioFile.newBuilder().setFileId(gid(random)).setFormat(format));
+
+        return track.build();
+    }
+
+    private static void assertSameJson(Message message) throws IOException {
+        String expected = ProtobufToJson.convert(message).toString();
+        assertEquals(expected, ProtobufToJson.toJsonString(message));
+
+        StringWriter writer = new StringWriter();
+        ProtobufToJson.write(message, writer);
+        assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    void testSameOutput() throws IOException {
+        Random random = new Random(3);
+        assertSameJson(track(random));
+        assertSameJson(album(random, 12));
+        assertSameJson(Metadata.Track.getDefaultInstance());
+
+        Player.PlayerState state = Player.PlayerState.newBuilder()
+                .setTimestamp(-1)
+                .setContextUri("spotify:playlist:abc")
+                .setPlaybackSpeed(1.5)
+                .setIsPlaying(true)
+                .setTrack(Player.ProvidedTrack.newBuilder().setUri("spotify:track:abc").putMetadata("key", "\"value\"").putMetadata("other", "\n"))
+                .addNextTracks(Player.ProvidedTrack.newBuilder().setUri("spotify:track:def").addRemoved("a"))
+                .addNextTracks(Player.ProvidedTrack.newBuilder().setUri("spotify:track:ghi"))
+                .putContextMetadata("a", "b")
+                .build();
+        assertSameJson(state);
+
+        List<Metadata.Track> tracks = Arrays.asList(track(random), Metadata.Track.getDefaultInstance(), track(random));
+        StringBuilder list = new StringBuilder();
+        ProtobufToJson.writeList(tracks, list);
+        assertEquals(ProtobufToJson.convertList(tracks).toString(), list.toString());
+    }
+
+    /**
+     * Compares the time needed to serialize metadata responses with the Gson tree and the compiled writer.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkMetadata() {
+        Random random = new Random(17);
+        Message[][] messages = new Message[][]{new Message[200], new Message[200]};
+        for (int i = 0; i < messages[0].length; i++) {
+            messages[0][i] = track(random);
+            messages[1][i] = album(random, 15);
+        }
+
+        String[] names = new String[]{"Track", "Album"};
+        int blackhole = 0;
+        for (int type = 0; type < messages.length; type++) {
+            long treeNanos = 0, writerNanos = 0;
+            for (int round = 0; round < 50; round++) {
+                long start = System.nanoTime();
+                for (Message message : messages[type])
+                    blackhole += ProtobufToJson.convert(message).toString().length();
+                if (round >= 40) treeNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (Message message : messages[type])
+                    blackhole += ProtobufToJson.toJsonString(message).length();
+                if (round >= 40) writerNanos += System.nanoTime() - start;
+            }
+
+            System.out.printf("Metadata.%s to JSON: tree %.2fus, writer %.2fus (%d)%n", names[type],
+                    treeNanos / 1000f / messages[type].length / 10, writerNanos / 1000f / messages[type].length / 10, blackhole);
+        }
+
+        assertTrue(blackhole > 0);
+    }
+}
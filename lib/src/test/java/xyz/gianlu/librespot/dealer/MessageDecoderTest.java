@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.dealer;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+public class MessageDecoderTest {
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testEnvelope() throws IOException {
+        MessageDecoder.Envelope envelope = MessageDecoder.readEnvelope("{\"payloads\":[\"AAAA\"],\"headers\":{\"Content-Type\":\"application/octet-stream\"},\"type\":\"message\",\"uri\":\"hm://test\"}");
+        assertEquals(MessageType.MESSAGE, envelope.type);
+        assertEquals("hm://test", envelope.uri);
+        assertEquals("application/octet-stream", envelope.headers.get("Content-Type"));
+
+        envelope = MessageDecoder.readEnvelope("{\"type\":\"pong\"}");
+        assertEquals(MessageType.PONG, envelope.type);
+        assertTrue(envelope.headers.isEmpty());
+    }
+
+    @Test
+    public void testGzipPayloads() throws IOException {
+        byte[] data = new byte[100_000];
+        new Random(42).nextBytes(data);
+        for (int i = 0; i < data.length; i += 3) data[i] = 0;
+
+        byte[] compressed = gzip(data);
+        int half = compressed.length / 2;
+        String first = Base64.getEncoder().encodeToString(java.util.Arrays.copyOfRange(compressed, 0, half));
+        String second = Base64.getEncoder().encodeToString(java.util.Arrays.copyOfRange(compressed, half, compressed.length));
+        String text = "{\"headers\":{\"Transfer-Encoding\":\"gzip\"},\"payloads\":[\"" + first + "\",\"" + second + "\"],\"type\":\"message\",\"uri\":\"hm://test\"}";
+
+        MessageDecoder decoder = new MessageDecoder();
+        MessageDecoder.Envelope envelope = MessageDecoder.readEnvelope(text);
+        for (int i = 0; i < 3; i++)
+            assertArrayEquals(data, decoder.decodeMessagePayload(text, envelope.headers));
+
+        compressed[compressed.length - 6] ^= 1;
+        String corrupt = "{\"headers\":{\"Transfer-Encoding\":\"gzip\"},\"payloads\":[\"" + Base64.getEncoder().encodeToString(compressed) + "\"]}";
+        assertThrows(IOException.class, () -> decoder.decodeMessagePayload(corrupt, envelope.headers));
+    }
+
+    @Test
+    public void testPlainPayloads() throws IOException {
+        MessageDecoder decoder = new MessageDecoder();
+
+        String text = "{\"headers\":{\"Content-Type\":\"text/plain\"},\"payloads\":[\"hello\"],\"type\":\"message\",\"uri\":\"hm://test\"}";
+        assertEquals("hello", new String(decoder.decodeMessagePayload(text, MessageDecoder.readEnvelope(text).headers)));
+
+        text = "{\"headers\":{},\"payloads\":[\"aGVsbG8=\"],\"type\":\"message\",\"uri\":\"hm://test\"}";
+        assertEquals("hello", new String(decoder.decodeMessagePayload(text, MessageDecoder.readEnvelope(text).headers)));
+
+        text = "{\"type\":\"message\",\"uri\":\"hm://test\"}";
+        assertEquals(0, decoder.decodeMessagePayload(text, MessageDecoder.readEnvelope(text).headers).length);
+    }
+
+    @Test
+    public void testGzipRequest() throws IOException {
+        String payload = "{\"message_id\":3,\"sent_by_device_id\":\"abc\",\"command\":{\"endpoint\":\"pause\"}}";
+        String compressed = Base64.getEncoder().encodeToString(gzip(payload.getBytes(StandardCharsets.UTF_8)));
+        String text = "{\"headers\":{\"Transfer-Encoding\":\"gzip\"},\"key\":\"k\",\"message_ident\":\"hm://connect-state/v1/player/command\",\"payload\":{\"compressed\":\"" + compressed + "\"},\"type\":\"request\"}";
+
+        MessageDecoder.Envelope envelope = MessageDecoder.readEnvelope(text);
+        assertEquals(MessageType.REQUEST, envelope.type);
+        assertEquals("k", envelope.key);
+
+        JsonObject obj = new MessageDecoder().decodeRequestPayload(text, envelope.headers);
+        assertEquals(3, obj.get("message_id").getAsInt());
+        assertEquals("pause", obj.getAsJsonObject("command").get("endpoint").getAsString());
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.dealer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+public class PrefixRouterTest {
+
+    @Test
+    public void testRoute() {
+        String state = "state", device = "device", all = "all";
+        PrefixRouter<String> router = PrefixRouter.<String>empty()
+                .with("hm://connect-state/v1/cluster", device)
+                .with("hm://connect-state/v1/connect/volume", device)
+                .with("hm://playlist/", state)
+                .with("hm://", all)
+                .with("hm://connect-state/v1/", device);
+
+        assertEquals(Arrays.asList(all, device), router.route("hm://connect-state/v1/cluster"));
+        assertEquals(Arrays.asList(all, state), router.route("hm://playlist/v2/playlist/abc"));
+        assertEquals(Collections.singletonList(all), router.route("hm://pusher/v1/connections/abc"));
+        assertTrue(router.route("spotify:user:attributes:update").isEmpty());
+
+        assertTrue(router.matches("hm://collection"));
+        assertFalse(router.matches("hm:/"));
+        assertTrue(router.hasPrefix("hm://playlist/"));
+
+        PrefixRouter<String> removed = router.without(all);
+        assertNotSame(router, removed);
+        assertFalse(removed.matches("hm://collection"));
+        assertEquals(Collections.singletonList(device), removed.route("hm://connect-state/v1/connect/volume"));
+        assertEquals(Arrays.asList(all, device), router.route("hm://connect-state/v1/cluster"));
+
+        assertTrue(removed.without(device).without(state).isEmpty());
+    }
+}
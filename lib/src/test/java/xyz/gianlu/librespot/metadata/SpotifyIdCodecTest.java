@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.metadata;
+
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.common.Utils;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class SpotifyIdCodecTest {
+
+    private static byte[] randomGid(Random random) {
+        byte[] gid = new byte[16];
+        random.nextBytes(gid);
+        if (random.nextInt(8) == 0) gid[0] = 0;
+        return gid;
+    }
+
+    @Test
+    void testLegacyEquivalence() {
+        Random random = new Random(5);
+        for (int i = 0; i < 10_000; i++) {
+            byte[] gid = randomGid(random);
+            String base62 = new String(PlayableId.BASE62.encode(gid, 22));
+            String hex = Utils.bytesToHex(gid).toLowerCase();
+            long high = SpotifyIdCodec.gidHigh(gid), low = SpotifyIdCodec.gidLow(gid);
+
+            assertEquals(base62, SpotifyIdCodec.toBase62(high, low));
+            assertEquals(hex, SpotifyIdCodec.toHex(high, low));
+            assertArrayEquals(gid, SpotifyIdCodec.toGid(high, low));
+            assertEquals(base62, SpotifyIdCodec.gidToBase62(ByteString.copyFrom(gid)));
+
+            assertTrue(SpotifyIdCodec.isBase62(base62, 0));
+            assertEquals(high, SpotifyIdCodec.base62High(base62, 0));
+            assertEquals(low, SpotifyIdCodec.base62Low(base62, 0));
+            assertTrue(SpotifyIdCodec.isHex(hex.toUpperCase(), 0));
+            assertEquals(high, SpotifyIdCodec.hexHigh(hex.toUpperCase(), 0));
+            assertEquals(low, SpotifyIdCodec.hexLow(hex, 0));
+
+            TrackId track = TrackId.fromUri("spotify:track:" + base62);
+            assertEquals(TrackId.fromHex(hex), track);
+            assertEquals(hex, track.hexId());
+            assertArrayEquals(gid, track.getGid());
+            assertEquals("spotify:track:" + base62, TrackId.fromBase62(base62).toSpotifyUri());
+            assertEquals("spotify:episode:" + base62, EpisodeId.fromHex(hex).toSpotifyUri());
+        }
+
+        assertFalse(SpotifyIdCodec.isBase62("zzzzzzzzzzzzzzzzzzzzzz", 0));
+        assertFalse(SpotifyIdCodec.isBase62("00yinrzqPZKA2vbnwnn3h-", 0));
+        assertFalse(SpotifyIdCodec.isBase62("00yinrzqPZKA2vbnwnn3h", 0));
+        assertFalse(SpotifyIdCodec.isHex("0123456789abcdef0123456789abcdeg", 0));
+    }
+
+    /**
+     * Measures the conversions done for every track when a context is loaded: parsing the URI, getting its GID and hex
+     * and converting GIDs back to URIs.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkContextLoad() {
+        Random random = new Random(9);
+        String[] uris = new String[10_000];
+        byte[][] gids = new byte[uris.length][];
+        for (int i = 0; i < uris.length; i++) {
+            gids[i] = randomGid(random);
+            uris[i] = "spotify:track:" + new String(PlayableId.BASE62.encode(gids[i], 22));
+        }
+
+        long legacyNanos = 0, codecNanos = 0;
+        int blackhole = 0;
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < uris.length; i++) {
+                byte[] gid = PlayableId.BASE62.decode(uris[i].substring(14).getBytes(), 16);
+                String hex = Utils.bytesToHex(gid).toLowerCase();
+                String uri = "spotify:track:" + new String(PlayableId.BASE62.encode(Utils.hexToBytes(hex), 22));
+                blackhole += hex.length() + uri.length();
+                blackhole += new String(PlayableId.BASE62.encode(gids[i], 22)).length();
+            }
+            if (round >= 5) legacyNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < uris.length; i++) {
+                TrackId id = TrackId.fromUri(uris[i]);
+                blackhole += id.hexId().length() + id.toSpotifyUri().length();
+                blackhole += SpotifyIdCodec.toBase62(SpotifyIdCodec.gidHigh(gids[i]), SpotifyIdCodec.gidLow(gids[i])).length();
+            }
+            if (round >= 5) codecNanos += System.nanoTime() - start;
+        }
+
+        System.out.printf("ID conversions per track: legacy %.2fus, codec %.2fus (%d)%n",
+                legacyNanos / 1000f / uris.length / 5, codecNanos / 1000f / uris.length / 5, blackhole);
+        assertTrue(blackhole > 0);
+    }
+}
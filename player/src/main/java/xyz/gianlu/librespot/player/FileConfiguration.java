@@ -341,6 +341,22 @@ public final class FileConfiguration {
         return config.get("api.host");
     }
 
+    public int apiIoThreads() {
+        return config.get("api.ioThreads");
+    }
+
+    public int apiWorkerThreads() {
+        return config.get("api.workerThreads");
+    }
+
+    public long apiMetadataCacheSize() {
+        return config.getLong("api.metadataCacheSize");
+    }
+
+    public int apiMetadataCacheTtl() {
+        return config.get("api.metadataCacheTtl");
+    }
+
     @NotNull
     public ShellEvents.Configuration toEventsShell() {
         return new ShellEvents.Configuration.Builder()
@@ -377,6 +393,9 @@ public final class FileConfiguration {
         if (config.get("zeroconf.listenAll")) builder.setListenAll(true);
         else builder.setListenInterfaces(getStringArray("zeroconf.interfaces", ','));
 
+        for (String name : getStringArray("zeroconf.devices", ','))
+            builder.addDevice(name.trim());
+
         return builder;
     }
 
@@ -441,6 +460,9 @@ public final class FileConfiguration {
         return new PlayerConfiguration.Builder()
                 .setAutoplayEnabled(config.get("player.autoplayEnabled"))
                 .setCrossfadeDuration(config.get("player.crossfadeDuration"))
+                .setDecodeAheadBuffer(config.get("player.decodeAheadBuffer"))
+                .setDecodeAheadLowWatermark(config.get("player.decodeAheadLowWatermark"))
+                .setDecodeAheadHighWatermark(config.get("player.decodeAheadHighWatermark"))
                 .setEnableNormalisation(config.get("player.enableNormalisation"))
                 .setUseAlbumGain(config.get("player.useAlbumGain"))
                 .setInitialVolume(config.get("player.initialVolume"))
@@ -453,10 +475,13 @@ public final class FileConfiguration {
                 .setOutputPipe(outputPipe())
                 .setPreferredQuality(preferredQuality())
                 .setPreloadEnabled(config.get("preload.enabled"))
+                .setGaplessPlayback(config.get("player.gaplessPlayback"))
                 .setReleaseLineDelay(config.get("player.releaseLineDelay"))
                 .setVolumeSteps(config.get("player.volumeSteps"))
                 .setBypassSinkVolume(config.get("player.bypassSinkVolume"))
                 .setLocalFilesPath(getFile("player.localFilesPath"))
+                .setSnapshotFile(getFile("player.snapshotFile"))
+                .setSnapshotInterval(config.get("player.snapshotInterval"))
                 .build();
     }
 
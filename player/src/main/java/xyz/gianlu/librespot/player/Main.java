@@ -26,6 +26,9 @@ import xyz.gianlu.librespot.mercury.MercuryClient;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Gianlu
@@ -44,23 +47,30 @@ public class Main {
             else shellEvents = null;
 
             ZeroconfServer server = conf.initZeroconfBuilder().create();
+            Map<String, PlayerConfiguration> playerConfs = new HashMap<>();
+            PlayerConfiguration playerConf = conf.toPlayer();
+            if (server.devices().size() > 1) {
+                for (ZeroconfServer.Device device : server.devices())
+                    playerConfs.put(device.id(), playerConf.forDevice(device.id()));
+            }
+
             server.addSessionListener(new ZeroconfServer.SessionListener() {
-                Player lastPlayer = null;
+                final Map<String, Player> lastPlayers = new ConcurrentHashMap<>();
 
                 {
-                    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                        if (lastPlayer != null) lastPlayer.close();
-                    }));
+                    Runtime.getRuntime().addShutdownHook(new Thread(() -> lastPlayers.values().forEach(Player::close)));
                 }
 
                 @Override
                 public void sessionClosing(@NotNull Session session) {
+                    Player lastPlayer = lastPlayers.remove(session.deviceId());
                     if (lastPlayer != null) lastPlayer.close();
                 }
 
                 @Override
                 public void sessionChanged(@NotNull Session session) {
-                    lastPlayer = new Player(conf.toPlayer(), session);
+                    Player lastPlayer = new Player(playerConfs.getOrDefault(session.deviceId(), playerConf), session);
+                    lastPlayers.put(session.deviceId(), lastPlayer);
 
                     if (shellEvents != null) {
                         session.addReconnectionListener(shellEvents);
@@ -21,18 +21,20 @@ import com.google.gson.JsonParser;
 import com.spotify.context.ContextOuterClass.Context;
 import com.spotify.context.ContextTrackOuterClass.ContextTrack;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.ProtoUtils;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.mercury.MercuryClient;
 import xyz.gianlu.librespot.mercury.MercuryRequests;
 import xyz.gianlu.librespot.mercury.RawMercuryRequest;
 import xyz.gianlu.librespot.metadata.PlayableId;
+import xyz.gianlu.librespot.metadata.SpotifyIdCodec;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static com.spotify.context.ContextPageOuterClass.ContextPage;
 
@@ -40,6 +42,17 @@ import static com.spotify.context.ContextPageOuterClass.ContextPage;
  * @author Gianlu
  */
 public final class PagesLoader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PagesLoader.class);
+    private static final int MAX_CONCURRENT_FETCHES = 4;
+    private static final ThreadPoolExecutor fetchExecutor;
+
+    static {
+        fetchExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new NameThreadFactory(r -> "pages-loader-" + r.hashCode()));
+        fetchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Map<String, CompletableFuture<ContextPage>> fetches = new HashMap<>();
     private final List<ContextPage> pages;
     private final Session session;
     private String resolveUrl = null;
@@ -67,34 +80,174 @@ public final class PagesLoader {
         return loader;
     }
 
+    /**
+     * Reads a loader written by {@link PagesLoader#writeTo(DataOutputStream)}.
+     */
+    @NotNull
+    static PagesLoader readFrom(@NotNull Session session, @NotNull DataInputStream in) throws IOException {
+        PagesLoader loader = new PagesLoader(session);
+        loader.currentPage = in.readInt();
+        loader.resolveUrl = PlaybackSnapshots.readString(in);
+
+        int count = in.readInt();
+        if (count < 0 || loader.currentPage < -1 || loader.currentPage >= Math.max(count, 1))
+            throw new IOException(String.format("Invalid pages: %d, %d", loader.currentPage, count));
+
+        for (int i = 0; i < count; i++)
+            loader.pages.add(PlaybackSnapshots.readMessage(in, ContextPage.parser()));
+
+        return loader;
+    }
+
     private static void sanitizeTracks(List<ContextTrack> tracks, String uriPrefix) {
         for (int i = 0; i < tracks.size(); i++) {
-            ContextTrack.Builder builder = tracks.get(i).toBuilder();
-            if ((builder.hasUri() && !builder.getUri().isEmpty()) || !builder.hasGid()) continue;
+            ContextTrack track = tracks.get(i);
+            if ((track.hasUri() && !track.getUri().isEmpty()) || !track.hasGid()) continue;
 
-            builder.setUri(uriPrefix + new String(PlayableId.BASE62.encode(builder.getGid().toByteArray(), 22)));
-            tracks.set(i, builder.build());
+            tracks.set(i, track.toBuilder().setUri(uriPrefix + SpotifyIdCodec.gidToBase62(track.getGid())).build());
         }
     }
 
     @NotNull
-    private List<ContextTrack> fetchTracks(@NotNull String url) throws IOException {
+    private static String nextPageUrl(@NotNull ContextPage page) {
+        return page.hasNextPageUrl() ? page.getNextPageUrl() : "";
+    }
+
+    /**
+     * @return The page at {@param url}, with its tracks and the URL of the following page if any
+     */
+    @NotNull
+    private ContextPage fetchPageSync(@NotNull String url) throws IOException {
         MercuryClient.Response resp = session.mercury().sendSync(RawMercuryRequest.newBuilder()
                 .setUri(url).setMethod("GET").build());
 
         try (Reader reader = new InputStreamReader(resp.payload.stream())) {
             JsonObject obj = JsonParser.parseReader(reader).getAsJsonObject();
-            return ProtoUtils.jsonToContextTracks(obj.getAsJsonArray("tracks"));
+            return ProtoUtils.jsonToContextPage(obj);
         }
     }
 
     @NotNull
-    private List<ContextTrack> resolvePage(@NotNull ContextPage page) throws IOException {
+    private CompletableFuture<ContextPage> fetchPageAsync(@NotNull String url) {
+        return fetches.computeIfAbsent(url, u -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetchPageSync(u);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, fetchExecutor));
+    }
+
+    /**
+     * Gets the page at {@param url}, waiting for the prefetched result if there is one.
+     */
+    @NotNull
+    private ContextPage fetchPage(@NotNull String url) throws IOException {
+        CompletableFuture<ContextPage> future = fetches.remove(url);
+        if (future == null) return fetchPageSync(url);
+
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            LOGGER.warn("Failed prefetching page, retrying. {url: {}}", url, ex.getCause());
+            return fetchPageSync(url);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+    }
+
+    private void resolveIfNeeded() throws IOException, MercuryClient.MercuryException {
+        if (pages.isEmpty() && resolveUrl != null)
+            pages.addAll(session.mercury().sendSync(MercuryRequests.resolveContext(resolveUrl)).pages());
+
+        resolveUrl = null;
+    }
+
+    /**
+     * Starts fetching all the pages whose URL is known, at most {@link PagesLoader#MAX_CONCURRENT_FETCHES} at a time.
+     * The tracks are still consumed in order with {@link PagesLoader#nextPage()} and {@link PagesLoader#currentPage()}.
+     *
+     * @return A future completed when all the prefetched pages have been received
+     */
+    @NotNull
+    synchronized CompletableFuture<Void> prefetch() throws IOException, MercuryClient.MercuryException {
+        resolveIfNeeded();
+
+        List<CompletableFuture<ContextPage>> futures = new ArrayList<>();
+        for (int i = Math.max(0, currentPage + 1); i < pages.size(); i++) {
+            ContextPage page = pages.get(i);
+            if (page.getTracksCount() == 0 && page.hasPageUrl())
+                futures.add(fetchPageAsync(page.getPageUrl()));
+        }
+
+        if (!pages.isEmpty()) {
+            String next = nextPageUrl(pages.get(pages.size() - 1));
+            if (!next.isEmpty()) futures.add(fetchPageAsync(next));
+        }
+
+        if (!futures.isEmpty()) LOGGER.trace("Prefetching context pages. {count: {}}", futures.size());
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Fetches every remaining page, following the chain of next page URLs. The lock is held only to start the fetches,
+     * never while waiting for them, so that the pages can be fetched while the state is in use. They are then consumed
+     * from the results with {@link PagesLoader#nextPage()} without further requests.
+     */
+    void fetchAll() throws IOException, MercuryClient.MercuryException {
+        CompletableFuture<Void> known = prefetch();
+        try {
+            known.get();
+        } catch (ExecutionException ignored) {
+            // Pages that failed are fetched again when consumed
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        }
+
+        String url;
+        synchronized (this) {
+            url = pages.isEmpty() ? "" : nextPageUrl(pages.get(pages.size() - 1));
+            if (url.isEmpty() && !pages.isEmpty()) {
+                ContextPage last = pages.get(pages.size() - 1);
+                CompletableFuture<ContextPage> future = last.hasPageUrl() ? fetches.get(last.getPageUrl()) : null;
+                if (future != null && future.isDone() && !future.isCompletedExceptionally())
+                    url = nextPageUrl(future.join());
+            }
+        }
+
+        int count = 0;
+        while (!url.isEmpty()) {
+            CompletableFuture<ContextPage> future;
+            synchronized (this) {
+                future = fetchPageAsync(url);
+            }
+
+            try {
+                url = nextPageUrl(future.get());
+                count++;
+            } catch (ExecutionException ex) {
+                throw new IOException(ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+        }
+
+        LOGGER.trace("Fetched all context pages. {following: {}}", count);
+    }
+
+    /**
+     * @return {@param page} itself if it has tracks, otherwise the page fetched from its URL
+     */
+    @NotNull
+    private ContextPage resolvePage(@NotNull ContextPage page) throws IOException {
         if (page.getTracksCount() > 0) {
-            return page.getTracksList();
+            return page;
         } else {
             if (page.hasPageUrl()) {
-                return fetchTracks(page.getPageUrl());
+                return fetchPage(page.getPageUrl());
             } else if (page.hasLoading() && page.getLoading()) {
                 throw new UnsupportedOperationException("What does loading even mean?");
             } else {
@@ -107,40 +260,42 @@ public final class PagesLoader {
     private List<ContextTrack> getPage(int index) throws IOException, IllegalStateException, MercuryClient.MercuryException {
         if (index == -1) throw new IllegalStateException("You must call nextPage() first!");
 
-        if (index == 0 && pages.isEmpty() && resolveUrl != null)
-            pages.addAll(session.mercury().sendSync(MercuryRequests.resolveContext(resolveUrl)).pages());
-
-        resolveUrl = null;
+        if (index == 0) resolveIfNeeded();
+        else resolveUrl = null;
 
         if (index < pages.size()) {
             ContextPage page = pages.get(index);
-            List<ContextTrack> tracks = resolvePage(page);
-            pages.set(index, page.toBuilder().clearPageUrl().clearTracks().addAllTracks(tracks).build());
-            return tracks;
+            ContextPage resolved = resolvePage(page);
+            ContextPage.Builder builder = page.toBuilder().clearPageUrl().clearTracks().addAllTracks(resolved.getTracksList());
+            if (resolved != page && index == pages.size() - 1 && nextPageUrl(page).isEmpty() && !nextPageUrl(resolved).isEmpty())
+                builder.setNextPageUrl(resolved.getNextPageUrl()); // The chain continues after the last fetched page
+
+            pages.set(index, builder.build());
+            return resolved.getTracksList();
         } else {
             if (index > pages.size()) throw new IndexOutOfBoundsException();
 
             ContextPage prev = pages.get(index - 1);
-            if (!prev.hasNextPageUrl()) throw new IllegalStateException();
+            String nextPageUrl = nextPageUrl(prev);
+            if (nextPageUrl.isEmpty()) throw new IllegalStateException();
 
-            String nextPageUrl = prev.getNextPageUrl();
             pages.set(index - 1, prev.toBuilder().clearNextPageUrl().build());
 
-            List<ContextTrack> tracks = fetchTracks(nextPageUrl);
-            pages.add(ContextPage.newBuilder()
-                    .addAllTracks(tracks)
-                    .build());
+            ContextPage fetched = fetchPage(nextPageUrl);
+            ContextPage.Builder builder = ContextPage.newBuilder().addAllTracks(fetched.getTracksList());
+            if (!nextPageUrl(fetched).isEmpty()) builder.setNextPageUrl(fetched.getNextPageUrl());
+            pages.add(builder.build());
 
-            return tracks;
+            return fetched.getTracksList();
         }
     }
 
     @NotNull
-    List<ContextTrack> currentPage() throws IOException, MercuryClient.MercuryException {
+    synchronized List<ContextTrack> currentPage() throws IOException, MercuryClient.MercuryException {
         return getPage(currentPage);
     }
 
-    boolean nextPage() throws IOException, MercuryClient.MercuryException {
+    synchronized boolean nextPage() throws IOException, MercuryClient.MercuryException {
         try {
             getPage(currentPage + 1);
             currentPage++;
@@ -150,7 +305,21 @@ public final class PagesLoader {
         }
     }
 
-    void putFirstPages(@NotNull List<ContextPage> pages, String contextUri) {
+    /**
+     * Writes the pages that have not been consumed yet, the tracks of the others are already in the state.
+     */
+    synchronized void writeTo(@NotNull DataOutputStream out) throws IOException {
+        out.writeInt(currentPage);
+        PlaybackSnapshots.writeString(out, resolveUrl);
+        out.writeInt(pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            ContextPage page = pages.get(i);
+            if (i <= currentPage) page = page.toBuilder().clearTracks().build();
+            PlaybackSnapshots.writeMessage(out, page);
+        }
+    }
+
+    synchronized void putFirstPages(@NotNull List<ContextPage> pages, String contextUri) {
         if (currentPage != -1 || !this.pages.isEmpty()) throw new IllegalStateException();
         for (ContextPage page : pages) {
             List<ContextTrack> tracks = new ArrayList<>(page.getTracksList());
@@ -159,7 +328,7 @@ public final class PagesLoader {
         }
     }
 
-    void putFirstPage(@NotNull List<ContextTrack> tracks, String contextUri) {
+    synchronized void putFirstPage(@NotNull List<ContextTrack> tracks, String contextUri) {
         if (currentPage != -1 || !pages.isEmpty()) throw new IllegalStateException();
         sanitizeTracks(tracks, contextUri == null ? null : PlayableId.inferUriPrefix(contextUri));
         pages.add(ContextPage.newBuilder().addAllTracks(tracks).build());
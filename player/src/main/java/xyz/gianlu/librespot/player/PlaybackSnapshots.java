@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.common.NameThreadFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the state needed to resume playback after a restart into a single binary file. Snapshots are taken
+ * periodically and when the player is closed, then written atomically only if they changed. A snapshot belongs to the
+ * user that wrote it and is discarded when another user is logged in.
+ *
+ * @author devgianlu
+ */
+final class PlaybackSnapshots {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlaybackSnapshots.class);
+    private static final int MAGIC = 0x4C535053;
+    private static final int VERSION = 3;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new NameThreadFactory((r) -> "playback-snapshots-" + r.hashCode()));
+    private final File file;
+    private final int interval;
+    private final String username;
+    private byte[] lastWritten = null;
+    private boolean restored = false;
+
+    PlaybackSnapshots(@NotNull File file, int interval, @NotNull String username) {
+        this.file = file;
+        this.interval = interval;
+        this.username = username;
+    }
+
+    static void writeString(@NotNull DataOutputStream out, @Nullable String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @Nullable
+    static String readString(@NotNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) return null;
+        else if (length < 0) throw new IOException("Invalid string length: " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeMessage(@NotNull DataOutputStream out, @NotNull MessageLite message) throws IOException {
+        out.writeInt(message.getSerializedSize());
+        message.writeTo(out);
+    }
+
+    @NotNull
+    static <M extends MessageLite> M readMessage(@NotNull DataInputStream in, @NotNull Parser<M> parser) throws IOException {
+        int length = in.readInt();
+        if (length < 0) throw new IOException("Invalid message length: " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return parser.parseFrom(bytes);
+    }
+
+    /**
+     * Starts taking snapshots of {@param state} periodically.
+     */
+    void start(@NotNull StateWrapper state) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                save(state);
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("Failed saving playback snapshot. {file: {}}", file, ex);
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Takes a snapshot of {@param state} and writes it if it changed since the last one.
+     */
+    synchronized void save(@NotNull StateWrapper state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, username);
+        if (!state.writeSnapshot(out)) return;
+
+        byte[] data = bytes.toByteArray();
+        if (Arrays.equals(data, lastWritten)) return;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), data);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        lastWritten = data;
+        LOGGER.trace("Saved playback snapshot. {file: {}, size: {}}", file, data.length);
+    }
+
+    /**
+     * Reads the snapshot to restore, this returns {@code null} after the first call.
+     *
+     * @return The snapshot positioned after the header or {@code null} if there is none
+     */
+    @Nullable
+    synchronized DataInputStream takeRestore() {
+        if (restored) return null;
+        restored = true;
+
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file.toPath());
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            LOGGER.warn("Failed reading playback snapshot. {file: {}}", file, ex);
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != MAGIC || version != VERSION) {
+                LOGGER.warn("Ignoring unknown playback snapshot. {file: {}, version: {}}", file, version);
+                return null;
+            }
+
+            String owner = readString(in);
+            if (!username.equals(owner)) {
+                LOGGER.info("Discarding playback snapshot of another user. {file: {}}", file);
+                discard();
+                return null;
+            }
+
+            lastWritten = data;
+            return in;
+        } catch (IOException ex) {
+            LOGGER.warn("Ignoring truncated playback snapshot. {file: {}}", file);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the snapshot so that it is not restored again.
+     */
+    synchronized void discard() {
+        lastWritten = null;
+        if (file.exists() && !file.delete())
+            LOGGER.warn("Failed deleting playback snapshot. {file: {}}", file);
+    }
+
+    /**
+     * Stops taking snapshots and saves the last one.
+     */
+    void close(@NotNull StateWrapper state) {
+        executor.shutdown();
+
+        try {
+            save(state);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Failed saving playback snapshot. {file: {}}", file, ex);
+        }
+    }
+}
@@ -47,12 +47,14 @@ import xyz.gianlu.librespot.player.metrics.NewPlaybackIdEvent;
 import xyz.gianlu.librespot.player.metrics.NewSessionIdEvent;
 import xyz.gianlu.librespot.player.metrics.PlaybackMetrics;
 import xyz.gianlu.librespot.player.metrics.PlayerMetrics;
+import xyz.gianlu.librespot.player.metrics.SinkMetrics;
 import xyz.gianlu.librespot.player.mixing.AudioSink;
 import xyz.gianlu.librespot.player.playback.PlayerSession;
 import xyz.gianlu.librespot.player.state.DeviceStateHandler;
 import xyz.gianlu.librespot.player.state.DeviceStateHandler.PlayCommandHelper;
 
 import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
@@ -73,6 +75,8 @@ public class Player implements Closeable {
     private PlayerSession playerSession;
     private ScheduledFuture<?> releaseLineFuture = null;
     private DeviceStateHandler.Listener deviceStateListener;
+    private PlaybackSnapshots snapshots = null;
+    private volatile boolean revalidateAfterLoad = false;
 
     public Player(@NotNull PlayerConfiguration conf, @NotNull Session session) {
         this.conf = conf;
@@ -84,6 +88,11 @@ public class Player implements Closeable {
         });
 
         initState();
+
+        if (conf.snapshotFile != null) {
+            snapshots = new PlaybackSnapshots(conf.snapshotFile, conf.snapshotInterval, session.username());
+            snapshots.start(state);
+        }
     }
 
     public void addEventsListener(@NotNull EventsListener listener) {
@@ -100,6 +109,7 @@ public class Player implements Closeable {
             @Override
             public void ready() {
                 events.volumeChanged(state.getVolume());
+                restoreSnapshot();
             }
 
             @Override
@@ -376,6 +386,11 @@ public class Player implements Closeable {
 
                 events.finishedLoading();
                 events.metadataAvailable();
+
+                if (revalidateAfterLoad) {
+                    revalidateAfterLoad = false;
+                    scheduler.execute(state::revalidateContext);
+                }
             }
 
             @Override
@@ -531,6 +546,29 @@ public class Player implements Closeable {
         }
     }
 
+    /**
+     * Resumes from the playback snapshot, if any. The context is revalidated once the first track has been loaded.
+     */
+    private void restoreSnapshot() {
+        if (snapshots == null) return;
+
+        DataInputStream in = snapshots.takeRestore();
+        if (in == null) return;
+
+        try {
+            String sessionId = state.restoreSnapshot(in);
+            events.contextChanged();
+
+            revalidateAfterLoad = true;
+            loadSession(sessionId, !state.isPaused(), false);
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Failed restoring playback snapshot!", ex);
+            snapshots.discard();
+            revalidateAfterLoad = false;
+            panicState(null);
+        }
+    }
+
     private void handleTransferState(@NotNull TransferStateOuterClass.TransferState cmd) {
         LOGGER.debug("Loading context (transfer), uri: {}", cmd.getCurrentSession().getContext().getUri());
 
@@ -826,6 +864,14 @@ public class Player implements Closeable {
         }
     }
 
+    /**
+     * @return The counters of the audio sink.
+     */
+    @NotNull
+    public SinkMetrics sinkMetrics() {
+        return sink.metrics();
+    }
+
     /**
      * @return The current position of the player or {@code -1} if unavailable (most likely if it's playing an episode).
      */
@@ -844,6 +890,8 @@ public class Player implements Closeable {
 
     @Override
     public void close() {
+        if (snapshots != null) snapshots.close(state);
+
         if (playerSession != null) {
             endMetrics(playerSession.currentPlaybackId(), PlaybackMetrics.Reason.LOGOUT, playerSession.currentMetrics(), state.getPosition());
             playerSession.close();
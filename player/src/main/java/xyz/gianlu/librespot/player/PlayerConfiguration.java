@@ -34,6 +34,10 @@ public final class PlayerConfiguration {
     public final boolean autoplayEnabled;
     public final int crossfadeDuration;
     public final boolean preloadEnabled;
+    public final boolean gaplessPlayback;
+    public final int decodeAheadBuffer;
+    public final int decodeAheadLowWatermark;
+    public final int decodeAheadHighWatermark;
 
     // Output
     public final AudioOutput output;
@@ -53,15 +57,24 @@ public final class PlayerConfiguration {
     // Local files
     public final File localFilesPath;
 
-    private PlayerConfiguration(AudioQuality preferredQuality, boolean enableNormalisation, boolean useAlbumGain, float normalisationPregain, boolean autoplayEnabled, int crossfadeDuration, boolean preloadEnabled,
+    // Snapshots
+    public final File snapshotFile;
+    public final int snapshotInterval;
+
+    private PlayerConfiguration(AudioQuality preferredQuality, boolean enableNormalisation, boolean useAlbumGain, float normalisationPregain, boolean autoplayEnabled, int crossfadeDuration, boolean preloadEnabled, boolean gaplessPlayback,
+                                int decodeAheadBuffer, int decodeAheadLowWatermark, int decodeAheadHighWatermark,
                                 AudioOutput output, String outputClass, Object[] outputClassParams, File outputPipe, File metadataPipe, String[] mixerSearchKeywords, boolean logAvailableMixers, int releaseLineDelay,
-                                int initialVolume, int volumeSteps, boolean bypassSinkVolume, File localFilesPath) {
+                                int initialVolume, int volumeSteps, boolean bypassSinkVolume, File localFilesPath, File snapshotFile, int snapshotInterval) {
         this.preferredQuality = preferredQuality;
         this.enableNormalisation = enableNormalisation;
         this.useAlbumGain = useAlbumGain;
         this.normalisationPregain = normalisationPregain;
         this.autoplayEnabled = autoplayEnabled;
         this.crossfadeDuration = crossfadeDuration;
+        this.gaplessPlayback = gaplessPlayback;
+        this.decodeAheadBuffer = decodeAheadBuffer;
+        this.decodeAheadLowWatermark = decodeAheadLowWatermark;
+        this.decodeAheadHighWatermark = decodeAheadHighWatermark;
         this.output = output;
         this.outputClass = outputClass;
         this.outputClassParams = outputClassParams;
@@ -75,6 +88,35 @@ public final class PlayerConfiguration {
         this.preloadEnabled = preloadEnabled;
         this.bypassSinkVolume = bypassSinkVolume;
         this.localFilesPath = localFilesPath;
+        this.snapshotFile = snapshotFile;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Derives the configuration of one of many devices running in the same process. Each device gets its own snapshot
+     * file, named after {@param deviceId}, while pipes cannot be shared so they are rejected.
+     *
+     * @throws IllegalArgumentException If the audio output or the metadata go to a pipe
+     */
+    @NotNull
+    public PlayerConfiguration forDevice(@NotNull String deviceId) {
+        if (output == AudioOutput.PIPE || metadataPipe != null)
+            throw new IllegalArgumentException("Pipes cannot be shared by multiple devices, use a different output or a single device.");
+
+        File deviceSnapshotFile = null;
+        if (snapshotFile != null) {
+            String name = snapshotFile.getName();
+            int dot = name.lastIndexOf('.');
+            if (dot > 0) name = name.substring(0, dot) + "-" + deviceId + name.substring(dot);
+            else name = name + "-" + deviceId;
+
+            deviceSnapshotFile = new File(snapshotFile.getParentFile(), name);
+        }
+
+        return new PlayerConfiguration(preferredQuality, enableNormalisation, useAlbumGain, normalisationPregain, autoplayEnabled, crossfadeDuration, preloadEnabled, gaplessPlayback,
+                decodeAheadBuffer, decodeAheadLowWatermark, decodeAheadHighWatermark,
+                output, outputClass, outputClassParams, outputPipe, metadataPipe, mixerSearchKeywords, logAvailableMixers, releaseLineDelay,
+                initialVolume, volumeSteps, bypassSinkVolume, localFilesPath, deviceSnapshotFile, snapshotInterval);
     }
 
     public enum AudioOutput {
@@ -90,6 +132,10 @@ public final class PlayerConfiguration {
         private boolean autoplayEnabled = true;
         private int crossfadeDuration = 0;
         private boolean preloadEnabled = true;
+        private boolean gaplessPlayback = false;
+        private int decodeAheadBuffer = 1000;
+        private int decodeAheadLowWatermark = 50;
+        private int decodeAheadHighWatermark = 90;
 
         // Output
         private AudioOutput output = AudioOutput.MIXER;
@@ -109,6 +155,10 @@ public final class PlayerConfiguration {
         // Local files
         private File localFilesPath;
 
+        // Snapshots
+        private File snapshotFile;
+        private int snapshotInterval = 30;
+
         public Builder() {
         }
 
@@ -142,6 +192,30 @@ public final class PlayerConfiguration {
             return this;
         }
 
+        public Builder setDecodeAheadBuffer(int decodeAheadBuffer) {
+            if (decodeAheadBuffer < 0)
+                throw new IllegalArgumentException("Invalid decode ahead buffer: " + decodeAheadBuffer);
+
+            this.decodeAheadBuffer = decodeAheadBuffer;
+            return this;
+        }
+
+        public Builder setDecodeAheadLowWatermark(int decodeAheadLowWatermark) {
+            if (decodeAheadLowWatermark < 0 || decodeAheadLowWatermark > 100)
+                throw new IllegalArgumentException("Invalid low watermark: " + decodeAheadLowWatermark);
+
+            this.decodeAheadLowWatermark = decodeAheadLowWatermark;
+            return this;
+        }
+
+        public Builder setDecodeAheadHighWatermark(int decodeAheadHighWatermark) {
+            if (decodeAheadHighWatermark < 0 || decodeAheadHighWatermark > 100)
+                throw new IllegalArgumentException("Invalid high watermark: " + decodeAheadHighWatermark);
+
+            this.decodeAheadHighWatermark = decodeAheadHighWatermark;
+            return this;
+        }
+
         public Builder setOutput(AudioOutput output) {
             this.output = output;
             return this;
@@ -203,6 +277,11 @@ public final class PlayerConfiguration {
             return this;
         }
 
+        public Builder setGaplessPlayback(boolean gaplessPlayback) {
+            this.gaplessPlayback = gaplessPlayback;
+            return this;
+        }
+
         public Builder setBypassSinkVolume(boolean bypassSinkVolume) {
             this.bypassSinkVolume = bypassSinkVolume;
             return this;
@@ -213,11 +292,28 @@ public final class PlayerConfiguration {
             return this;
         }
 
+        public Builder setSnapshotFile(File snapshotFile) {
+            this.snapshotFile = snapshotFile;
+            return this;
+        }
+
+        public Builder setSnapshotInterval(int snapshotInterval) {
+            if (snapshotInterval < 1)
+                throw new IllegalArgumentException("Invalid snapshot interval: " + snapshotInterval);
+
+            this.snapshotInterval = snapshotInterval;
+            return this;
+        }
+
         @Contract(value = " -> new", pure = true)
         public @NotNull PlayerConfiguration build() {
-            return new PlayerConfiguration(preferredQuality, enableNormalisation, useAlbumGain, normalisationPregain, autoplayEnabled, crossfadeDuration, preloadEnabled,
+            if (decodeAheadLowWatermark >= decodeAheadHighWatermark)
+                throw new IllegalArgumentException("Low watermark must be lower than high watermark: " + decodeAheadLowWatermark + " >= " + decodeAheadHighWatermark);
+
+            return new PlayerConfiguration(preferredQuality, enableNormalisation, useAlbumGain, normalisationPregain, autoplayEnabled, crossfadeDuration, preloadEnabled, gaplessPlayback,
+                    decodeAheadBuffer, decodeAheadLowWatermark, decodeAheadHighWatermark,
                     output, outputClass, outputClassParams, outputPipe, metadataPipe, mixerSearchKeywords, logAvailableMixers, releaseLineDelay,
-                    initialVolume, volumeSteps, bypassSinkVolume, localFilesPath);
+                    initialVolume, volumeSteps, bypassSinkVolume, localFilesPath, snapshotFile, snapshotInterval);
         }
     }
 }
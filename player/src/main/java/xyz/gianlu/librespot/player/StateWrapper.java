@@ -40,13 +40,15 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.audio.MetadataWrapper;
-import xyz.gianlu.librespot.common.FisherYatesShuffle;
+import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.ProtoUtils;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.core.TimeProvider;
 import xyz.gianlu.librespot.dealer.DealerClient;
+import xyz.gianlu.librespot.json.ResolvedContextWrapper;
 import xyz.gianlu.librespot.mercury.MercuryClient;
+import xyz.gianlu.librespot.mercury.MercuryRequests;
 import xyz.gianlu.librespot.metadata.*;
 import xyz.gianlu.librespot.player.contexts.AbsSpotifyContext;
 import xyz.gianlu.librespot.player.state.DeviceStateHandler;
@@ -54,9 +56,13 @@ import xyz.gianlu.librespot.player.state.DeviceStateHandler.PlayCommandHelper;
 import xyz.gianlu.librespot.player.state.RestrictionsManager;
 import xyz.gianlu.librespot.player.state.RestrictionsManager.Action;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -85,6 +91,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     private final Session session;
     private final Player player;
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService loaderExecutor = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "context-loader-" + r.hashCode()));
     private final DeviceStateHandler device;
     private AbsSpotifyContext context;
     private PagesLoader pages;
@@ -242,7 +249,11 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         LOGGER.info("Context has transforming! {url: {}, shuffle: {}, willRequest: {}}", url, shuffle, willRequest);
 
         if (!willRequest) return;
-        JsonObject obj = ProtoUtils.craftContextStateCombo(state, tracksKeeper.tracks);
+        JsonObject obj;
+        synchronized (tracksKeeper) {
+            obj = ProtoUtils.craftContextStateCombo(state, tracksKeeper.tracks);
+        }
+
         try (Response resp = session.api().send("POST", HttpUrl.get(url).encodedPath(), null, RequestBody.create(obj.toString(), MediaType.get("application/json")))) {
             ResponseBody body = resp.body();
             if (resp.code() != 200) {
@@ -586,6 +597,123 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         tracksKeeper.updateContext(ProtoUtils.jsonToContextPages(obj.getAsJsonArray("pages")));
     }
 
+    /**
+     * Writes what is needed to resume playback of the current context with {@link StateWrapper#restoreSnapshot(DataInputStream)}.
+     *
+     * @return Whether there is something to resume
+     */
+    synchronized boolean writeSnapshot(@NotNull DataOutputStream out) throws IOException {
+        if (context == null || tracksKeeper == null || !state.hasTrack()) return false;
+
+        PlaybackSnapshots.writeString(out, state.getContextUri());
+        PlaybackSnapshots.writeString(out, state.getContextUrl().isEmpty() ? null : state.getContextUrl());
+        PlaybackSnapshots.writeMessage(out, state.getPlayOrigin());
+        PlaybackSnapshots.writeMessage(out, state.getOptions());
+
+        Map<String, String> metadata = state.getContextMetadataMap();
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            PlaybackSnapshots.writeString(out, entry.getKey());
+            PlaybackSnapshots.writeString(out, entry.getValue());
+        }
+
+        boolean paused = !state.getIsPlaying() || state.getIsPaused();
+        out.writeBoolean(paused);
+        out.writeLong(paused ? state.getPositionAsOfTimestamp() : getPosition());
+
+        pages.writeTo(out);
+        tracksKeeper.writeTo(out);
+        return true;
+    }
+
+    /**
+     * Restores the context written by {@link StateWrapper#writeSnapshot(DataOutputStream)} without making any request.
+     * The context should be revalidated with {@link StateWrapper#revalidateContext()} once playback has resumed.
+     *
+     * @return The new session ID
+     */
+    @NotNull
+    synchronized String restoreSnapshot(@NotNull DataInputStream in) throws IOException {
+        String uri = PlaybackSnapshots.readString(in);
+        if (uri == null) throw new IOException("Missing context URI!");
+
+        Context.Builder ctx = Context.newBuilder().setUri(uri);
+        String url = PlaybackSnapshots.readString(in);
+        if (url != null) ctx.setUrl(url);
+
+        PlayOrigin playOrigin = PlaybackSnapshots.readMessage(in, PlayOrigin.parser());
+        ContextPlayerOptions options = PlaybackSnapshots.readMessage(in, ContextPlayerOptions.parser());
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = PlaybackSnapshots.readString(in);
+            String value = PlaybackSnapshots.readString(in);
+            if (key != null && value != null) ctx.putMetadata(key, value);
+        }
+
+        boolean paused = in.readBoolean();
+        long position = in.readLong();
+
+        state.setPlayOrigin(playOrigin);
+        state.setOptions(options);
+        String sessionId = setContext(ctx.build());
+        pages = PagesLoader.readFrom(session, in);
+        tracksKeeper.readFrom(in);
+
+        state.setPositionAsOfTimestamp(position);
+        state.setTimestamp(TimeProvider.currentTimeMillis());
+        setState(true, paused, true);
+
+        LOGGER.info("Restored playback snapshot. {context: {}, index: {}, position: {}}", uri, tracksKeeper.getCurrentTrackIndex(), position);
+        return sessionId;
+    }
+
+    /**
+     * Resolves the current context again and replaces the restored tracks with the resolved ones, loading pages up to the
+     * current track. If the current track is not part of the context anymore, only the metadata is updated.
+     * Used after restoring a snapshot.
+     */
+    void revalidateContext() {
+        String uri = getContextUri();
+        ContextTrack current = getCurrentTrack();
+        if (uri == null || uri.isEmpty() || current == null) return;
+
+        try {
+            ResolvedContextWrapper resolved = session.mercury().sendSync(MercuryRequests.resolveContext(uri));
+            PagesLoader loader = PagesLoader.from(session, Context.newBuilder().setUri(uri).addAllPages(resolved.pages()).build());
+
+            List<ContextTrack> tracks = new ArrayList<>();
+            boolean found = false;
+            while (!found && loader.nextPage()) {
+                List<ContextTrack> page = loader.currentPage();
+                found = ProtoUtils.indexOfTrack(page, current) != -1;
+                tracks.addAll(page);
+            }
+
+            synchronized (this) {
+                if (context == null || tracksKeeper == null || !uri.equals(context.uri())) return;
+
+                JsonObject metadata = resolved.metadata();
+                if (metadata != null) ProtoUtils.copyOverMetadata(metadata, state);
+
+                PagesLoader old = pages;
+                pages = loader;
+                if (!tracksKeeper.revalidate(tracks)) {
+                    pages = old;
+                    tracksKeeper.updateContext(resolved.pages());
+                    LOGGER.debug("Current track not found in revalidated context. {uri: {}}", uri);
+                }
+
+                loadTransforming();
+            }
+
+            updated();
+            LOGGER.debug("Revalidated restored context. {uri: {}}", uri);
+        } catch (IOException | MercuryClient.MercuryException | RuntimeException ex) {
+            LOGGER.warn("Failed revalidating restored context. {uri: {}}", uri, ex);
+        }
+    }
+
     void skipTo(@NotNull ContextTrack track) {
         tracksKeeper.skipTo(track);
         setPosition(0);
@@ -650,19 +778,14 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
     @NotNull
     Optional<Map<String, String>> metadataFor(@NotNull PlayableId id) {
-        if (tracksKeeper == null) return Optional.empty();
+        TracksKeeper keeper = tracksKeeper;
+        if (keeper == null) return Optional.empty();
 
         ContextTrack current = getCurrentTrack();
         if (current != null && id.matches(current))
             return Optional.of(current.getMetadataMap());
 
-        int index = PlayableId.indexOfTrack(tracksKeeper.tracks, id);
-        if (index == -1) {
-            index = PlayableId.indexOfTrack(tracksKeeper.queue, id);
-            if (index == -1) return Optional.empty();
-        }
-
-        return Optional.of(tracksKeeper.tracks.get(index).getMetadataMap());
+        return Optional.ofNullable(keeper.metadataFor(id));
     }
 
     /**
@@ -808,7 +931,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     public int getContextSize() {
         String trackCount = getContextMetadata("track_count");
         if (trackCount != null) return Integer.parseInt(trackCount);
-        else if (tracksKeeper != null) return tracksKeeper.tracks.size();
+        else if (tracksKeeper != null) return tracksKeeper.length();
         else return 0;
     }
 
@@ -824,35 +947,46 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
     @NotNull
     public List<ContextTrack> getNextTracks(boolean withQueue) {
-        if (tracksKeeper == null) return Collections.emptyList();
+        TracksKeeper keeper = tracksKeeper;
+        if (keeper == null) return Collections.emptyList();
 
-        int index = tracksKeeper.getCurrentTrackIndex();
-        int size = tracksKeeper.tracks.size();
-        List<ContextTrack> list = new ArrayList<>(size - index);
-        for (int i = index + 1; i < size; i++)
-            list.add(tracksKeeper.tracks.get(i));
+        synchronized (keeper) {
+            int index = keeper.getCurrentTrackIndex();
+            int size = keeper.tracks.size();
+            List<ContextTrack> list = new ArrayList<>(Math.max(size - index, 0));
+            for (int i = index + 1; i < size; i++)
+                list.add(keeper.tracks.get(i));
 
-        if (withQueue) list.addAll(0, tracksKeeper.queue);
+            if (withQueue) list.addAll(0, keeper.queue);
 
-        return list;
+            return list;
+        }
     }
 
     @Nullable
     public ContextTrack getCurrentTrack() {
-        int index = tracksKeeper.getCurrentTrackIndex();
-        return tracksKeeper == null || tracksKeeper.tracks.size() < index ? null : tracksKeeper.tracks.get(index);
+        TracksKeeper keeper = tracksKeeper;
+        if (keeper == null) return null;
+
+        synchronized (keeper) {
+            int index = keeper.getCurrentTrackIndex();
+            return keeper.tracks.size() <= index ? null : keeper.tracks.get(index);
+        }
     }
 
     @NotNull
     public List<ContextTrack> getPrevTracks() {
-        if (tracksKeeper == null) return Collections.emptyList();
+        TracksKeeper keeper = tracksKeeper;
+        if (keeper == null) return Collections.emptyList();
 
-        int index = tracksKeeper.getCurrentTrackIndex();
-        List<ContextTrack> list = new ArrayList<>(index);
-        for (int i = 0; i < index; i++)
-            list.add(tracksKeeper.tracks.get(i));
+        synchronized (keeper) {
+            int index = Math.min(keeper.getCurrentTrackIndex(), keeper.tracks.size());
+            List<ContextTrack> list = new ArrayList<>(index);
+            for (int i = 0; i < index; i++)
+                list.add(keeper.tracks.get(i));
 
-        return list;
+            return list;
+        }
     }
 
     @NotNull
@@ -882,6 +1016,8 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
         device.removeListener(this);
         device.close();
+
+        loaderExecutor.shutdownNow();
     }
 
     public enum PreviousPlayable {
@@ -912,14 +1048,14 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     }
 
     private class TracksKeeper {
-        private static final int MAX_PREV_TRACKS = 16;
-        private static final int MAX_NEXT_TRACKS = 48;
         private final LinkedList<ContextTrack> queue = new LinkedList<>();
-        private final List<ContextTrack> tracks = new ArrayList<>();
-        private final FisherYatesShuffle<ContextTrack> shuffle = new FisherYatesShuffle<>(session.random());
+        private final TrackList tracks = new TrackList();
+        private final TracksWindow window = new TracksWindow();
         private volatile boolean isPlayingQueue = false;
         private volatile boolean cannotLoadMore = false;
-        private volatile int shuffleKeepIndex = -1;
+        private volatile boolean shuffledPartially = false;
+        private byte[] snapshotTracks = null;
+        private int snapshotModifications = -1;
 
         private TracksKeeper() {
             checkComplete();
@@ -970,18 +1106,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         }
 
         private void updatePrevNextTracks() {
-            int index = getCurrentTrackIndex();
-
-            state.clearPrevTracks();
-            for (int i = Math.max(0, index - MAX_PREV_TRACKS); i < index; i++)
-                state.addPrevTracks(ProtoUtils.toProvidedTrack(tracks.get(i), getContextUri()));
-
-            state.clearNextTracks();
-            for (ContextTrack track : queue)
-                state.addNextTracks(ProtoUtils.toProvidedTrack(track, getContextUri()));
-
-            for (int i = index + 1; i < Math.min(tracks.size(), index + 1 + MAX_NEXT_TRACKS); i++)
-                state.addNextTracks(ProtoUtils.toProvidedTrack(tracks.get(i), getContextUri()));
+            window.update(state, tracks, queue, getCurrentTrackIndex(), getContextUri());
         }
 
         void updateTrackDuration(int duration) {
@@ -1021,7 +1146,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
          */
         private void updateState() {
             if (isPlayingQueue) state.setTrack(ProtoUtils.toProvidedTrack(queue.remove(), getContextUri()));
-            else state.setTrack(ProtoUtils.toProvidedTrack(tracks.get(getCurrentTrackIndex()), getContextUri()));
+            else state.setTrack(tracks.provided(getCurrentTrackIndex(), getContextUri()));
 
             updateLikeDislike();
 
@@ -1077,7 +1202,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         synchronized void updateContext(@NotNull List<ContextPage> updatedPages) {
             List<ContextTrack> updatedTracks = ProtoUtils.join(updatedPages);
             for (ContextTrack track : updatedTracks) {
-                int index = ProtoUtils.indexOfTrack(tracks, track);
+                int index = tracks.indexOfTrack(track);
                 if (index == -1) continue;
 
                 ContextTrack.Builder builder = tracks.get(index).toBuilder();
@@ -1091,6 +1216,85 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             }
         }
 
+        /**
+         * Replaces the tracks with the ones of the context resolved again, keeping the queue and the current track. The
+         * context is shuffled again if needed, with the current track first.
+         *
+         * @return Whether the current track is in {@param fresh}, nothing is changed otherwise
+         */
+        synchronized boolean revalidate(@NotNull List<ContextTrack> fresh) {
+            int index = ProtoUtils.indexOfTrack(fresh, tracks.get(getCurrentTrackIndex()));
+            if (index == -1) return false;
+
+            tracks.clear();
+            tracks.addAll(fresh);
+            shuffledPartially = false;
+            cannotLoadMore = false;
+            checkComplete();
+
+            if (context.isFinite() && isShufflingContext() && tracks.size() > 1) {
+                if (cannotLoadMore) tracks.shuffle(session.random().nextLong(), index);
+                else shuffleLoadedTracks(index);
+
+                index = 0;
+            }
+
+            state.setIndex(ContextIndex.newBuilder().setTrack(index).build());
+            updatePrevNextTracks();
+            return true;
+        }
+
+        /**
+         * Writes the queue and the tracks, the latter are encoded again only if they changed since the last call.
+         */
+        synchronized void writeTo(@NotNull DataOutputStream out) throws IOException {
+            out.writeBoolean(isPlayingQueue);
+            out.writeBoolean(cannotLoadMore);
+            out.writeBoolean(shuffledPartially);
+            out.writeInt(getCurrentTrackIndex());
+            PlaybackSnapshots.writeMessage(out, getCurrentTrack());
+
+            out.writeInt(queue.size());
+            for (ContextTrack track : queue) PlaybackSnapshots.writeMessage(out, track);
+
+            if (snapshotTracks == null || snapshotModifications != tracks.modifications()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                tracks.writeTo(new DataOutputStream(bytes));
+                snapshotTracks = bytes.toByteArray();
+                snapshotModifications = tracks.modifications();
+            }
+
+            out.write(snapshotTracks);
+        }
+
+        /**
+         * Restores the tracks and the queue written by {@link TracksKeeper#writeTo(DataOutputStream)}.
+         */
+        synchronized void readFrom(@NotNull DataInputStream in) throws IOException {
+            isPlayingQueue = in.readBoolean();
+            cannotLoadMore = in.readBoolean();
+            shuffledPartially = in.readBoolean();
+            int index = in.readInt();
+            ProvidedTrack current = PlaybackSnapshots.readMessage(in, ProvidedTrack.parser());
+
+            int queued = in.readInt();
+            if (queued < 0) throw new IOException("Invalid queue size: " + queued);
+
+            queue.clear();
+            for (int i = 0; i < queued; i++) queue.add(PlaybackSnapshots.readMessage(in, ContextTrack.parser()));
+
+            tracks.readFrom(in);
+            if (index < 0 || index >= tracks.size())
+                throw new IOException(String.format("Invalid track index: %d, %d", index, tracks.size()));
+
+            state.setIndex(ContextIndex.newBuilder().setTrack(index).build());
+            state.setTrack(current);
+
+            updateLikeDislike();
+            updateTrackDuration();
+            updatePrevNextTracks();
+        }
+
         synchronized void initializeStart() throws IOException, MercuryClient.MercuryException, AbsSpotifyContext.UnsupportedContextException {
             if (!cannotLoadMore) {
                 if (!pages.nextPage()) throw new IllegalStateException();
@@ -1203,12 +1407,11 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
                 queue.addAll(queueCopy);
             }
 
-            for (int i = 0; i < tracks.size(); i++) {
-                if (ProtoUtils.trackEquals(tracks.get(i), track)) {
-                    setCurrentTrackIndex(i);
-                    enrichCurrentTrack(track);
-                    return;
-                }
+            int index = tracks.indexOfTrack(track);
+            if (index != -1) {
+                setCurrentTrackIndex(index);
+                enrichCurrentTrack(track);
+                return;
             }
 
             throw new IllegalStateException("Did not find track to skip to: " + ProtoUtils.toString(track));
@@ -1230,9 +1433,12 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
             int current = getCurrentTrackIndex();
             if (current == tracks.size() - 1) {
-                if (isShufflingContext() || cannotLoadMore) return null;
+                if (cannotLoadMore) return null;
 
-                if (pages.nextPage()) {
+                if (isShufflingContext()) {
+                    if (!shuffledPartially || !loadAllTracks() || current == tracks.size() - 1)
+                        return null;
+                } else if (pages.nextPage()) {
                     tracks.addAll(pages.currentPage());
                 } else {
                     cannotLoadMore = true;
@@ -1332,13 +1538,17 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
         /**
          * Tries to load all the tracks of this context, must be called on a non-shuffled and finite context!
+         * If only the loaded tracks have been shuffled, the new ones are shuffled into the upcoming tracks.
          *
          * @return Whether the operation was successful.
          */
         private boolean loadAllTracks() {
             if (!context.isFinite()) throw new IllegalStateException();
 
+            int loaded = tracks.size();
             try {
+                pages.prefetch();
+
                 while (true) {
                     if (pages.nextPage()) tracks.addAll(pages.currentPage());
                     else break;
@@ -1351,9 +1561,55 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             cannotLoadMore = true;
             updateTrackCount();
 
+            if (shuffledPartially) {
+                shuffledPartially = false;
+
+                Random random = session.random();
+                int first = getCurrentTrackIndex() + 1;
+                if (!tracks.shuffleTail(random.nextLong(), first)) {
+                    for (int i = Math.max(first, loaded); i < tracks.size(); i++)
+                        Collections.swap(tracks, i, first + random.nextInt(i - first + 1));
+                }
+
+                LOGGER.trace("Shuffled tracks loaded after shuffling. {count: {}}", tracks.size() - loaded);
+            }
+
             return true;
         }
 
+        /**
+         * Shuffles the tracks that have already been loaded and loads the others in background.
+         *
+         * @param keep The index of the track to place first, {@code -1} for none
+         */
+        private void shuffleLoadedTracks(int keep) {
+            PagesLoader loader = pages;
+            shuffledPartially = true;
+            tracks.shuffle(session.random().nextLong(), keep);
+
+            loaderExecutor.execute(() -> {
+                // Fetch the pages without holding the state, only appending them needs it
+                try {
+                    loader.fetchAll();
+                } catch (IOException | MercuryClient.MercuryException ex) {
+                    LOGGER.warn("Failed fetching context pages!", ex);
+                    return;
+                }
+
+                synchronized (StateWrapper.this) {
+                    synchronized (this) {
+                        if (tracksKeeper != this || pages != loader || !shuffledPartially) return;
+
+                        if (loadAllTracks()) {
+                            updatePrevNextTracks();
+                            updated();
+                            LOGGER.debug("Loaded all tracks in background. {count: {}}", tracks.size());
+                        }
+                    }
+                }
+            });
+        }
+
         /**
          * Shuffles the entire track list without caring about the current state, must be called before {@link #setCurrentTrackIndex(int)}!
          */
@@ -1363,15 +1619,12 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             if (isPlayingQueue) return;
 
             if (!cannotLoadMore) {
-                if (loadAllTracks()) {
-                    LOGGER.trace("Loaded all tracks before shuffling (entirely).");
-                } else {
-                    LOGGER.error("Cannot shuffle entire context!");
-                    return;
-                }
+                shuffleLoadedTracks(-1);
+                LOGGER.trace("Shuffled loaded tracks, loading the others in background.");
+                return;
             }
 
-            shuffle.shuffle(tracks, true);
+            tracks.shuffle(session.random().nextLong(), -1);
             LOGGER.trace("Shuffled context entirely!");
         }
 
@@ -1381,31 +1634,19 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             if (isPlayingQueue) return;
 
             if (value) {
-                if (!cannotLoadMore) {
-                    if (loadAllTracks()) {
-                        LOGGER.trace("Loaded all tracks before shuffling.");
-                    } else {
-                        LOGGER.error("Cannot shuffle context!");
-                        return;
-                    }
-                }
+                int keep = getCurrentTrackIndex();
+                if (cannotLoadMore) tracks.shuffle(session.random().nextLong(), keep);
+                else shuffleLoadedTracks(keep);
 
-                PlayableId currentlyPlaying = getCurrentPlayableOrThrow();
-                shuffle.shuffle(tracks, true);
-                shuffleKeepIndex = PlayableId.indexOfTrack(tracks, currentlyPlaying);
-                Collections.swap(tracks, 0, shuffleKeepIndex);
                 setCurrentTrackIndex(0);
 
-                LOGGER.trace("Shuffled context! {keepIndex: {}}", shuffleKeepIndex);
+                LOGGER.trace("Shuffled context! {keepIndex: {}, partially: {}}", keep, shuffledPartially);
             } else {
-                if (shuffle.canUnshuffle(tracks.size())) {
-                    PlayableId currentlyPlaying = getCurrentPlayableOrThrow();
-                    if (shuffleKeepIndex != -1) Collections.swap(tracks, 0, shuffleKeepIndex);
+                shuffledPartially = false;
 
-                    shuffle.unshuffle(tracks);
-                    setCurrentTrackIndex(PlayableId.indexOfTrack(tracks, currentlyPlaying));
-
-                    LOGGER.trace("Unshuffled using Fisher-Yates.");
+                if (tracks.canUnshuffle()) {
+                    setCurrentTrackIndex(tracks.unshuffle(getCurrentTrackIndex()));
+                    LOGGER.trace("Unshuffled using permutation seed.");
                 } else {
                     PlayableId id = getCurrentPlayableOrThrow();
 
@@ -1413,16 +1654,28 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
                     pages = PagesLoader.from(session, context.uri());
                     loadAllTracks();
 
-                    setCurrentTrackIndex(PlayableId.indexOfTrack(tracks, id));
+                    setCurrentTrackIndex(tracks.indexOfPlayable(id));
                     LOGGER.trace("Unshuffled by reloading context.");
                 }
             }
         }
 
-        public int length() {
+        public synchronized int length() {
             return tracks.size();
         }
 
+        /**
+         * @return The metadata of the first track of the context, or of the queue, matching {@param id}
+         */
+        @Nullable
+        synchronized Map<String, String> metadataFor(@NotNull PlayableId id) {
+            int index = tracks.indexOfPlayable(id);
+            if (index != -1) return tracks.get(index).getMetadataMap();
+
+            index = PlayableId.indexOfTrack(queue, id);
+            return index == -1 ? null : queue.get(index).getMetadataMap();
+        }
+
         /**
          * Adds tracks to the current state. {@link TracksKeeper#tracks} MUST be in a non-shuffled state.
          */
@@ -1533,7 +1786,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         }
 
         synchronized void updateMetadataFor(@NotNull String uri, @NotNull String key, @NotNull String value) {
-            int index = ProtoUtils.indexOfTrackByUri(tracks, uri);
+            int index = tracks.indexOfUri(uri);
             if (index == -1) return;
 
             updateMetadataFor(index, key, value);
@@ -0,0 +1,630 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.google.protobuf.ByteString;
+import com.spotify.connectstate.Player.ProvidedTrack;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.jetbrains.annotations.NotNull;
+import xyz.gianlu.librespot.common.IndexPermutation;
+import xyz.gianlu.librespot.common.ProtoUtils;
+import xyz.gianlu.librespot.metadata.PlayableId;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * List of the tracks of a context indexed by URI, GID and UID. The indexes point to the first occurrence of each key
+ * and are rebuilt lazily from the first position that has been modified, so lookups are constant time unless the list
+ * has been changed before the position being looked up. Tracks are stored in a {@link TrackTable} and regular track and
+ * episode URIs are indexed by their GID, so that huge contexts do not keep a {@link ContextTrack} for each track around.
+ * <p>
+ * The list can be shuffled lazily: tracks are never moved, instead positions are mapped to the stored order through an
+ * {@link IndexPermutation}, so the original order can be restored from the seed as long as it has not been altered.
+ * Tracks appended after a lazy shuffle can be shuffled in with {@link TrackList#shuffleTail(long, int)}, which adds a
+ * second permutation on top of the first one instead of moving them.
+ * Indexes and lookups always refer to the stored order, so with duplicate tracks in a shuffled list the returned
+ * position is not necessarily the first one.
+ * <p>
+ * Lookups update the indexes, so the list is not thread-safe even when it is only read: every access must hold the
+ * lock of the {@code TracksKeeper} owning it.
+ *
+ * @author devgianlu
+ */
+final class TrackList extends AbstractList<ContextTrack> implements RandomAccess {
+    private final TrackTable tracks = new TrackTable();
+    private final GidIndex byKey = new GidIndex();
+    private final Map<String, Integer> byUri = new HashMap<>();
+    private final Map<ByteString, Integer> byGid = new HashMap<>();
+    private final Map<String, Integer> byUid = new HashMap<>();
+    /**
+     * All the positions before this one are indexed correctly.
+     */
+    private int indexedUpTo = 0;
+    private int modifications = 0;
+    private IndexPermutation order = null;
+    private int orderFirst = -1;
+    private int keepIndex = -1;
+    private int keepPosition = -1;
+    private IndexPermutation tailOrder = null;
+    private int tailFirst = -1;
+    private boolean orderChanged = false;
+
+    private static boolean hasUri(@NotNull ContextTrack track) {
+        return track.hasUri() && !track.getUri().isEmpty();
+    }
+
+    private static boolean hasUid(@NotNull ContextTrack track) {
+        return track.hasUid() && !track.getUid().isEmpty();
+    }
+
+    private static boolean sameKeys(@NotNull ContextTrack a, @NotNull ContextTrack b) {
+        return a.getUri().equals(b.getUri()) && a.hasGid() == b.hasGid() && a.getGid().equals(b.getGid()) && a.getUid().equals(b.getUid());
+    }
+
+    private void invalidateFrom(int index) {
+        if (index < indexedUpTo) indexedUpTo = index;
+    }
+
+    private void ensureIndexed() {
+        if (indexedUpTo == tracks.size()) return;
+
+        if (indexedUpTo == 0 || byKey.size() + byUri.size() + byGid.size() + byUid.size() > tracks.size() * 6) {
+            byKey.clear();
+            byUri.clear();
+            byGid.clear();
+            byUid.clear();
+            indexedUpTo = 0;
+        }
+
+        // Keep an existing entry only if it still points to an earlier occurrence of the same key
+        for (int i = indexedUpTo; i < tracks.size(); i++) {
+            if (tracks.isCompact(i)) {
+                long high = tracks.high(i), low = tracks.low(i);
+                int first = byKey.get(high, low);
+                if (first == -1 || first >= i || !tracks.hasKey(first, high, low))
+                    byKey.put(high, low, i);
+            } else {
+                ContextTrack track = tracks.full(i);
+                if (hasUri(track)) {
+                    Integer first = byUri.get(track.getUri());
+                    if (first == null || first >= i || tracks.isCompact(first) || !track.getUri().equals(tracks.full(first).getUri()))
+                        byUri.put(track.getUri(), i);
+                }
+
+                if (track.hasGid()) {
+                    Integer first = byGid.get(track.getGid());
+                    if (first == null || first >= i || tracks.isCompact(first) || !tracks.full(first).hasGid() || !track.getGid().equals(tracks.full(first).getGid()))
+                        byGid.put(track.getGid(), i);
+                }
+            }
+
+            String uid = tracks.uid(i);
+            if (uid != null && !uid.isEmpty()) {
+                Integer first = byUid.get(uid);
+                if (first == null || first >= i || !uid.equals(tracks.uid(first)))
+                    byUid.put(uid, i);
+            }
+        }
+
+        indexedUpTo = tracks.size();
+    }
+
+    private static int lookup(@NotNull Map<?, Integer> map, @NotNull Object key) {
+        Integer index = map.get(key);
+        return index == null ? -1 : index;
+    }
+
+    private static int min(int a, int b) {
+        if (a == -1) return b;
+        else if (b == -1) return a;
+        else return Math.min(a, b);
+    }
+
+    /**
+     * @return The number of positions covered by the shuffle, tracks after these are in stored order
+     */
+    private int shuffledSize() {
+        if (order == null) return 0;
+        else if (tailOrder == null) return order.size();
+        else return tailFirst + tailOrder.size();
+    }
+
+    /**
+     * @return The index in {@link TrackList#tracks} of the track at {@param position}
+     */
+    private int toStorage(int position) {
+        if (tailOrder == null || position < tailFirst) return orderToStorage(position);
+        if (position >= tailFirst + tailOrder.size()) return position;
+
+        int value = tailOrder.apply(position - tailFirst);
+        int shuffled = order.size() - tailFirst;
+        return value < shuffled ? orderToStorage(tailFirst + value) : order.size() + value - shuffled;
+    }
+
+    /**
+     * @return The position of the track at {@param index} in {@link TrackList#tracks}
+     */
+    private int toView(int index) {
+        if (tailOrder == null || index < 0) return orderToView(index);
+
+        int value;
+        int shuffled = order.size() - tailFirst;
+        if (index >= order.size()) {
+            value = shuffled + index - order.size();
+            if (value >= tailOrder.size()) return index;
+        } else {
+            int position = orderToView(index);
+            if (position < tailFirst) return position;
+            value = position - tailFirst;
+        }
+
+        return tailFirst + tailOrder.invert(value);
+    }
+
+    /**
+     * Same as {@link TrackList#toStorage(int)}, but only for the first permutation.
+     */
+    private int orderToStorage(int position) {
+        if (order == null || position >= order.size()) return position;
+
+        if (keepIndex != -1) {
+            if (position == 0) return keepIndex;
+            else if (position == keepPosition) return orderFirst;
+        }
+
+        return order.apply(position);
+    }
+
+    /**
+     * Same as {@link TrackList#toView(int)}, but only for the first permutation.
+     */
+    private int orderToView(int index) {
+        if (order == null || index < 0 || index >= order.size()) return index;
+
+        if (keepIndex != -1) {
+            if (index == keepIndex) return 0;
+            else if (index == orderFirst) return keepPosition;
+        }
+
+        return order.invert(index);
+    }
+
+    /**
+     * @return The position of the first track with the given URI, or {@code -1}
+     */
+    int indexOfUri(@NotNull String uri) {
+        return toView(storageIndexOfUri(uri));
+    }
+
+    /**
+     * @return The position of the first track with the given UID, or {@code -1}
+     */
+    int indexOfUid(@NotNull String uid) {
+        return toView(storageIndexOfUid(uid));
+    }
+
+    /**
+     * Equivalent to {@link PlayableId#indexOfTrack(List, PlayableId)}.
+     */
+    int indexOfPlayable(@NotNull PlayableId id) {
+        return toView(storageIndexOfPlayable(id));
+    }
+
+    /**
+     * Equivalent to {@link ProtoUtils#indexOfTrack(List, ContextTrack)}.
+     */
+    int indexOfTrack(@NotNull ContextTrack track) {
+        return toView(storageIndexOfTrack(track));
+    }
+
+    /**
+     * @return The index of the first compact track with the given GID that matches, {@code -2} if the first one
+     * with the given GID does not match and the tracks must be scanned
+     */
+    private int storageIndexOfKey(long high, long low, @NotNull IntPredicate matches) {
+        int index = byKey.get(high, low);
+        if (index == -1 || index >= tracks.size() || !tracks.hasKey(index, high, low)) return -1;
+        return matches.test(index) ? index : -2;
+    }
+
+    private int storageIndexOfUri(@NotNull String uri) {
+        if (uri.isEmpty()) return ProtoUtils.indexOfTrackByUri(tracks, uri);
+
+        ensureIndexed();
+        int index = lookup(byUri, uri);
+        if (index != -1 && (index >= tracks.size() || tracks.isCompact(index) || !uri.equals(tracks.full(index).getUri())))
+            index = -1;
+
+        if (tracks.parseUri(uri)) {
+            int kind = tracks.parsedKind();
+            int compact = storageIndexOfKey(tracks.parsedHigh(), tracks.parsedLow(), i -> tracks.kind(i) == kind);
+            if (compact == -2) return ProtoUtils.indexOfTrackByUri(tracks, uri);
+            index = min(index, compact);
+        }
+
+        return index;
+    }
+
+    private int storageIndexOfUid(@NotNull String uid) {
+        if (uid.isEmpty()) return ProtoUtils.indexOfTrackByUid(tracks, uid);
+
+        ensureIndexed();
+        int index = lookup(byUid, uid);
+        return index != -1 && index < tracks.size() && uid.equals(tracks.uid(index)) ? index : -1;
+    }
+
+    private int storageIndexOfGid(@NotNull ByteString gid) {
+        ensureIndexed();
+        int index = lookup(byGid, gid);
+        if (index != -1 && (index >= tracks.size() || tracks.isCompact(index) || !tracks.full(index).hasGid() || !gid.equals(tracks.full(index).getGid())))
+            index = -1;
+
+        if (tracks.parseGid(gid)) {
+            int compact = storageIndexOfKey(tracks.parsedHigh(), tracks.parsedLow(), tracks::hasGidField);
+            if (compact == -2) return ProtoUtils.indexOfTrack(tracks, ContextTrack.newBuilder().setGid(gid).build());
+            index = min(index, compact);
+        }
+
+        return index;
+    }
+
+    private int storageIndexOfPlayable(@NotNull PlayableId id) {
+        ensureIndexed();
+
+        String uri = id.toSpotifyUri();
+        int index = lookup(byUri, uri);
+        if (index != -1 && (index >= tracks.size() || tracks.isCompact(index) || !uri.equals(tracks.full(index).getUri())))
+            index = -1;
+
+        ByteString gid = id.hasGid() ? ByteString.copyFrom(id.getGid()) : null;
+        if (gid != null) {
+            int byGidIndex = lookup(byGid, gid);
+            if (byGidIndex != -1 && byGidIndex < tracks.size() && !tracks.isCompact(byGidIndex) && gid.equals(tracks.full(byGidIndex).getGid()))
+                index = min(index, byGidIndex);
+        }
+
+        if (tracks.parseUri(uri)) {
+            int kind = tracks.parsedKind();
+            int compact = storageIndexOfKey(tracks.parsedHigh(), tracks.parsedLow(), i -> tracks.kind(i) == kind);
+            if (compact == -2) return PlayableId.indexOfTrack(tracks, id);
+            index = min(index, compact);
+        }
+
+        if (gid != null && tracks.parseGid(gid)) {
+            int compact = storageIndexOfKey(tracks.parsedHigh(), tracks.parsedLow(), tracks::hasGidField);
+            if (compact == -2) return PlayableId.indexOfTrack(tracks, id);
+            index = min(index, compact);
+        }
+
+        return index;
+    }
+
+    private int storageIndexOfTrack(@NotNull ContextTrack track) {
+        int index = -1;
+        for (int i = 0; i < 3; i++) {
+            int candidate;
+            if (i == 0 && hasUri(track)) candidate = storageIndexOfUri(track.getUri());
+            else if (i == 1 && track.hasGid()) candidate = storageIndexOfGid(track.getGid());
+            else if (i == 2 && hasUid(track)) candidate = storageIndexOfUid(track.getUid());
+            else continue;
+
+            if (candidate == -1) continue;
+            if (!ProtoUtils.trackEquals(tracks.get(candidate), track))
+                return ProtoUtils.indexOfTrack(tracks, track);
+
+            if (index == -1 || candidate < index) index = candidate;
+        }
+
+        return index;
+    }
+
+    /**
+     * Shuffles the list lazily, applying any previous shuffle first.
+     *
+     * @param seed The seed of the permutation
+     * @param keep The position of the track to place first, {@code -1} for none
+     */
+    void shuffle(long seed, int keep) {
+        shuffle(seed, keep, tracks.size());
+    }
+
+    private void shuffle(long seed, int keep, int size) {
+        materialize();
+
+        order = new IndexPermutation(size, seed);
+        tailOrder = null;
+        tailFirst = -1;
+        orderChanged = false;
+        if (keep != -1) {
+            keepIndex = keep;
+            keepPosition = order.invert(keep);
+            orderFirst = order.apply(0);
+        } else {
+            keepIndex = keepPosition = orderFirst = -1;
+        }
+
+        modifications++;
+    }
+
+    /**
+     * Shuffles the tracks added after {@link TrackList#shuffle(long, int)} together with the shuffled ones from
+     * {@param first} onwards. The positions before {@param first} do not change and the list can still be unshuffled.
+     *
+     * @param seed  The seed of the permutation
+     * @param first The first position to shuffle
+     * @return Whether the tracks have been shuffled, {@code false} if the list is not lazily shuffled or the tail has
+     * already been shuffled once
+     */
+    boolean shuffleTail(long seed, int first) {
+        if (order == null || tailOrder != null || first < 0 || first > order.size()) return false;
+        if (first >= tracks.size()) return true;
+
+        tailOrder = new IndexPermutation(tracks.size() - first, seed);
+        tailFirst = first;
+        modifications++;
+        return true;
+    }
+
+    /**
+     * @return Whether the list is shuffled and the original order can be restored
+     */
+    boolean canUnshuffle() {
+        return order != null && !orderChanged;
+    }
+
+    /**
+     * Restores the order the list had before being shuffled.
+     *
+     * @param position A position in the shuffled list
+     * @return The position of the same track after unshuffling
+     */
+    int unshuffle(int position) {
+        if (!canUnshuffle()) throw new IllegalStateException("Cannot unshuffle!");
+
+        int index = toStorage(position);
+        order = tailOrder = null;
+        keepIndex = keepPosition = orderFirst = tailFirst = -1;
+        modifications++;
+        return index;
+    }
+
+    /**
+     * Writes the tracks and, if it can be restored, the shuffle. Otherwise the tracks are written in their current order.
+     */
+    void writeTo(@NotNull DataOutputStream out) throws IOException {
+        boolean shuffled = canUnshuffle();
+        out.writeBoolean(shuffled);
+        if (shuffled) {
+            out.writeLong(order.seed());
+            out.writeInt(order.size());
+            out.writeInt(keepIndex);
+            out.writeBoolean(tailOrder != null);
+            if (tailOrder != null) {
+                out.writeLong(tailOrder.seed());
+                out.writeInt(tailFirst);
+            }
+
+            tracks.writeTo(out, IntUnaryOperator.identity());
+        } else {
+            tracks.writeTo(out, this::toStorage);
+        }
+    }
+
+    /**
+     * Replaces the tracks with the ones written by {@link TrackList#writeTo(DataOutputStream)}.
+     */
+    void readFrom(@NotNull DataInputStream in) throws IOException {
+        clear();
+
+        boolean shuffled = in.readBoolean();
+        long seed = shuffled ? in.readLong() : 0;
+        int size = shuffled ? in.readInt() : 0;
+        int keep = shuffled ? in.readInt() : -1;
+        boolean tail = shuffled && in.readBoolean();
+        long tailSeed = tail ? in.readLong() : 0;
+        int first = tail ? in.readInt() : -1;
+        tracks.readFrom(in);
+        if (size < 0 || size > tracks.size() || keep < -1 || keep >= size || first < -1 || first > size)
+            throw new IOException(String.format("Invalid shuffle: %d, %d, %d", size, keep, first));
+
+        if (shuffled) shuffle(seed, keep, size);
+        if (tail) shuffleTail(tailSeed, first);
+
+        modifications++;
+    }
+
+    /**
+     * Stores the tracks in the shuffled order, the original order is lost.
+     */
+    private void materialize() {
+        if (order == null) return;
+
+        tracks.reorder(this::toStorage);
+        order = tailOrder = null;
+        keepIndex = keepPosition = orderFirst = tailFirst = -1;
+        indexedUpTo = 0;
+        modifications++;
+    }
+
+    /**
+     * @return The cached {@link ProvidedTrack} for the track at {@param position}
+     */
+    @NotNull
+    ProvidedTrack provided(int position, String contextUri) {
+        return tracks.provided(toStorage(position), contextUri);
+    }
+
+    /**
+     * @return A counter incremented every time the list is modified
+     */
+    int modifications() {
+        return modifications;
+    }
+
+    @Override
+    public ContextTrack get(int index) {
+        return tracks.get(toStorage(index));
+    }
+
+    @Override
+    public int size() {
+        return tracks.size();
+    }
+
+    @Override
+    public ContextTrack set(int position, @NotNull ContextTrack element) {
+        int index = toStorage(position);
+        ContextTrack old = tracks.set(index, element);
+        if (old == element) return old;
+
+        if (!sameKeys(old, element)) {
+            invalidateFrom(index);
+            if (order != null) orderChanged = true;
+        }
+
+        modifications++;
+        return old;
+    }
+
+    @Override
+    public void add(int index, @NotNull ContextTrack element) {
+        if (index < shuffledSize()) materialize();
+
+        tracks.add(index, element);
+        if (index < tracks.size() - 1) invalidateFrom(index);
+        modifications++;
+    }
+
+    @Override
+    public boolean addAll(@NotNull Collection<? extends ContextTrack> c) {
+        modifications++;
+        return tracks.addAll(c);
+    }
+
+    @Override
+    public ContextTrack remove(int index) {
+        if (index < shuffledSize()) materialize();
+
+        ContextTrack old = tracks.remove(index);
+        invalidateFrom(index);
+        modifications++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        order = tailOrder = null;
+        keepIndex = keepPosition = orderFirst = tailFirst = -1;
+        tracks.clear();
+        modifications++;
+        byKey.clear();
+        byUri.clear();
+        byGid.clear();
+        byUid.clear();
+        indexedUpTo = 0;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex < shuffledSize()) materialize();
+
+        tracks.removeRange(fromIndex, toIndex);
+        invalidateFrom(fromIndex);
+        modifications++;
+    }
+
+    /**
+     * Open addressing hash table from 128 bit GIDs to positions.
+     */
+    private static final class GidIndex {
+        private long[] highs = new long[16];
+        private long[] lows = new long[16];
+        private int[] values = new int[16];
+        private int size = 0;
+
+        GidIndex() {
+            Arrays.fill(values, -1);
+        }
+
+        private static int hash(long high, long low) {
+            long h = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(long high, long low) {
+            int mask = values.length - 1;
+            for (int slot = hash(high, low) & mask; values[slot] != -1; slot = (slot + 1) & mask) {
+                if (highs[slot] == high && lows[slot] == low)
+                    return values[slot];
+            }
+
+            return -1;
+        }
+
+        void put(long high, long low, int value) {
+            if ((size + 1) * 2 > values.length) resize(values.length * 2);
+
+            int mask = values.length - 1;
+            int slot = hash(high, low) & mask;
+            for (; values[slot] != -1; slot = (slot + 1) & mask) {
+                if (highs[slot] == high && lows[slot] == low) {
+                    values[slot] = value;
+                    return;
+                }
+            }
+
+            highs[slot] = high;
+            lows[slot] = low;
+            values[slot] = value;
+            size++;
+        }
+
+        private void resize(int capacity) {
+            long[] oldHighs = highs, oldLows = lows;
+            int[] oldValues = values;
+
+            highs = new long[capacity];
+            lows = new long[capacity];
+            values = new int[capacity];
+            Arrays.fill(values, -1);
+            size = 0;
+
+            for (int i = 0; i < oldValues.length; i++)
+                if (oldValues[i] != -1) put(oldHighs[i], oldLows[i], oldValues[i]);
+        }
+
+        void clear() {
+            if (values.length > 16) {
+                highs = new long[16];
+                lows = new long[16];
+                values = new int[16];
+            }
+
+            Arrays.fill(values, -1);
+            size = 0;
+        }
+    }
+}
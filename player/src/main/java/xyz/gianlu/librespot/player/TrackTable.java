@@ -0,0 +1,454 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.spotify.connectstate.Player.ProvidedTrack;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.gianlu.librespot.common.ProtoUtils;
+import xyz.gianlu.librespot.metadata.SpotifyIdCodec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Compact storage for the tracks of a context. Tracks with a regular track or episode URI are kept as the two halves
+ * of their 128 bit GID, the interned UID and the remaining fields (usually just the metadata) serialized, which are only
+ * parsed when the {@link ContextTrack} is needed. Any other track is stored as is.
+ * <p>
+ * Materialized tracks and their {@link ProvidedTrack} are cached in a small direct-mapped cache, big enough for the
+ * prev/next tracks window. Each slot holds an immutable entry, so a racing read gets either the old or the new entry,
+ * never a mix of the two.
+ *
+ * @author devgianlu
+ */
+final class TrackTable extends AbstractList<ContextTrack> implements RandomAccess {
+    static final int KIND_TRACK = 0;
+    static final int KIND_EPISODE = 1;
+    private static final String[] PREFIXES = {"spotify:track:", "spotify:episode:"};
+    private static final int COMPACT = 1;
+    private static final int EPISODE = 1 << 1;
+    private static final int HAS_GID = 1 << 2;
+    private static final int CACHE_SIZE = 256;
+
+    private final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+    private long[] high = new long[16];
+    private long[] low = new long[16];
+    private byte[] flags = new byte[16];
+    private String[] uids = new String[16];
+    /**
+     * The serialized remaining fields for compact tracks, the whole {@link ContextTrack} otherwise.
+     */
+    private Object[] extras = new Object[16];
+    private int size = 0;
+    /**
+     * Result of the last successful {@link TrackTable#parseUri(String)}.
+     */
+    private long parsedHigh;
+    private long parsedLow;
+    private int parsedKind;
+
+    /**
+     * Parses a track or episode URI, storing the result in {@link TrackTable#parsedHigh}, {@link TrackTable#parsedLow}
+     * and {@link TrackTable#parsedKind}.
+     *
+     * @return Whether the URI can be stored compactly
+     */
+    boolean parseUri(@NotNull String uri) {
+        int kind;
+        if (uri.startsWith(PREFIXES[KIND_TRACK])) kind = KIND_TRACK;
+        else if (uri.startsWith(PREFIXES[KIND_EPISODE])) kind = KIND_EPISODE;
+        else return false;
+
+        int offset = PREFIXES[kind].length();
+        if (uri.length() != offset + SpotifyIdCodec.BASE62_LENGTH || !SpotifyIdCodec.isBase62(uri, offset))
+            return false;
+
+        parsedHigh = SpotifyIdCodec.base62High(uri, offset);
+        parsedLow = SpotifyIdCodec.base62Low(uri, offset);
+        parsedKind = kind;
+        return true;
+    }
+
+    long parsedHigh() {
+        return parsedHigh;
+    }
+
+    long parsedLow() {
+        return parsedLow;
+    }
+
+    int parsedKind() {
+        return parsedKind;
+    }
+
+    /**
+     * @return Whether {@param gid} is 16 bytes long, storing it in {@link TrackTable#parsedHigh} and {@link TrackTable#parsedLow}
+     */
+    boolean parseGid(@NotNull ByteString gid) {
+        if (gid.size() != SpotifyIdCodec.GID_LENGTH) return false;
+
+        parsedHigh = SpotifyIdCodec.gidHigh(gid);
+        parsedLow = SpotifyIdCodec.gidLow(gid);
+        return true;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= high.length) return;
+
+        int length = Math.max(capacity, high.length + (high.length >> 1));
+        high = Arrays.copyOf(high, length);
+        low = Arrays.copyOf(low, length);
+        flags = Arrays.copyOf(flags, length);
+        uids = Arrays.copyOf(uids, length);
+        extras = Arrays.copyOf(extras, length);
+    }
+
+    private void invalidateCache() {
+        Arrays.fill(cache, null);
+    }
+
+    private void invalidateCache(int index) {
+        int slot = index & (CACHE_SIZE - 1);
+        CacheEntry entry = cache[slot];
+        if (entry != null && entry.index == index) cache[slot] = null;
+    }
+
+    private void store(int index, @NotNull ContextTrack track) {
+        uids[index] = track.hasUid() ? track.getUid().intern() : null;
+
+        if (track.hasUri() && parseUri(track.getUri())) {
+            long h = parsedHigh, l = parsedLow;
+            int kind = parsedKind;
+            if (!track.hasGid() || (parseGid(track.getGid()) && parsedHigh == h && parsedLow == l)) {
+                ContextTrack rest = track.toBuilder().clearUri().clearGid().clearUid().build();
+
+                high[index] = h;
+                low[index] = l;
+                flags[index] = (byte) (COMPACT | (kind == KIND_EPISODE ? EPISODE : 0) | (track.hasGid() ? HAS_GID : 0));
+                extras[index] = rest.getSerializedSize() == 0 ? null : rest.toByteString();
+                return;
+            }
+        }
+
+        high[index] = low[index] = 0;
+        flags[index] = 0;
+        extras[index] = track;
+    }
+
+    /**
+     * @return Whether the track at {@param index} is stored compactly
+     */
+    boolean isCompact(int index) {
+        return (flags[index] & COMPACT) != 0;
+    }
+
+    /**
+     * @return Whether the compact track at {@param index} has the given GID
+     */
+    boolean hasKey(int index, long high, long low) {
+        return isCompact(index) && this.high[index] == high && this.low[index] == low;
+    }
+
+    long high(int index) {
+        return high[index];
+    }
+
+    long low(int index) {
+        return low[index];
+    }
+
+    /**
+     * @return The kind of the compact track at {@param index}
+     */
+    int kind(int index) {
+        return (flags[index] & EPISODE) != 0 ? KIND_EPISODE : KIND_TRACK;
+    }
+
+    /**
+     * @return Whether the compact track at {@param index} has its GID field set
+     */
+    boolean hasGidField(int index) {
+        return (flags[index] & HAS_GID) != 0;
+    }
+
+    /**
+     * @return The UID of the track at {@param index} or {@code null} if not set
+     */
+    @Nullable
+    String uid(int index) {
+        return uids[index];
+    }
+
+    /**
+     * @return The track at {@param index} if it is not stored compactly
+     */
+    @NotNull
+    ContextTrack full(int index) {
+        return (ContextTrack) extras[index];
+    }
+
+    @NotNull
+    private ContextTrack materialize(int index) {
+        if (!isCompact(index)) return full(index);
+
+        ContextTrack.Builder builder;
+        ByteString rest = (ByteString) extras[index];
+        if (rest == null) {
+            builder = ContextTrack.newBuilder();
+        } else {
+            try {
+                builder = ContextTrack.parseFrom(rest).toBuilder();
+            } catch (InvalidProtocolBufferException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        builder.setUri(SpotifyIdCodec.toUri(PREFIXES[kind(index)], high[index], low[index]));
+        if (hasGidField(index)) builder.setGid(ByteString.copyFrom(SpotifyIdCodec.toGid(high[index], low[index])));
+        if (uids[index] != null) builder.setUid(uids[index]);
+        return builder.build();
+    }
+
+    @NotNull
+    private CacheEntry cached(int index) {
+        int slot = index & (CACHE_SIZE - 1);
+        CacheEntry entry = cache[slot];
+        if (entry == null || entry.index != index) cache[slot] = entry = new CacheEntry(index, materialize(index), null);
+        return entry;
+    }
+
+    /**
+     * @return The {@link ProvidedTrack} for the track at {@param index}
+     */
+    @NotNull
+    ProvidedTrack provided(int index, String contextUri) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index + " >= " + size);
+
+        CacheEntry entry = cached(index);
+        if (entry.provided != null) return entry.provided;
+
+        ProvidedTrack track = ProtoUtils.toProvidedTrack(entry.track, contextUri);
+        cache[index & (CACHE_SIZE - 1)] = new CacheEntry(index, entry.track, track);
+        return track;
+    }
+
+    @Override
+    public ContextTrack get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index + " >= " + size);
+        return cached(index).track;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public ContextTrack set(int index, @NotNull ContextTrack element) {
+        ContextTrack old = get(index);
+        if (old == element) return old;
+
+        store(index, element);
+        invalidateCache(index);
+        return old;
+    }
+
+    @Override
+    public void add(int index, @NotNull ContextTrack element) {
+        if (index < 0 || index > size) throw new IndexOutOfBoundsException(index + " > " + size);
+
+        ensureCapacity(size + 1);
+        if (index < size) {
+            int moved = size - index;
+            System.arraycopy(high, index, high, index + 1, moved);
+            System.arraycopy(low, index, low, index + 1, moved);
+            System.arraycopy(flags, index, flags, index + 1, moved);
+            System.arraycopy(uids, index, uids, index + 1, moved);
+            System.arraycopy(extras, index, extras, index + 1, moved);
+            invalidateCache();
+        }
+
+        store(index, element);
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(@NotNull Collection<? extends ContextTrack> c) {
+        ensureCapacity(size + c.size());
+        for (ContextTrack track : c) store(size++, track);
+        modCount++;
+        return !c.isEmpty();
+    }
+
+    @Override
+    public ContextTrack remove(int index) {
+        ContextTrack old = get(index);
+        removeRange(index, index + 1);
+        return old;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        int moved = size - toIndex;
+        System.arraycopy(high, toIndex, high, fromIndex, moved);
+        System.arraycopy(low, toIndex, low, fromIndex, moved);
+        System.arraycopy(flags, toIndex, flags, fromIndex, moved);
+        System.arraycopy(uids, toIndex, uids, fromIndex, moved);
+        System.arraycopy(extras, toIndex, extras, fromIndex, moved);
+
+        int newSize = size - (toIndex - fromIndex);
+        Arrays.fill(uids, newSize, size, null);
+        Arrays.fill(extras, newSize, size, null);
+        size = newSize;
+        invalidateCache();
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        high = new long[16];
+        low = new long[16];
+        flags = new byte[16];
+        uids = new String[16];
+        extras = new Object[16];
+        size = 0;
+        invalidateCache();
+        modCount++;
+    }
+
+    /**
+     * Reorders the tracks so that the track at {@code i} is the one previously at {@code order.applyAsInt(i)}.
+     */
+    void reorder(@NotNull IntUnaryOperator order) {
+        long[] newHigh = new long[high.length];
+        long[] newLow = new long[low.length];
+        byte[] newFlags = new byte[flags.length];
+        String[] newUids = new String[uids.length];
+        Object[] newExtras = new Object[extras.length];
+        for (int i = 0; i < size; i++) {
+            int from = order.applyAsInt(i);
+            newHigh[i] = high[from];
+            newLow[i] = low[from];
+            newFlags[i] = flags[from];
+            newUids[i] = uids[from];
+            newExtras[i] = extras[from];
+        }
+
+        high = newHigh;
+        low = newLow;
+        flags = newFlags;
+        uids = newUids;
+        extras = newExtras;
+        invalidateCache();
+        modCount++;
+    }
+
+    /**
+     * Writes the tracks in the order given by {@param order} without materializing them.
+     */
+    void writeTo(@NotNull DataOutputStream out, @NotNull IntUnaryOperator order) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            int index = order.applyAsInt(i);
+            out.writeByte(flags[index]);
+            if (isCompact(index)) {
+                out.writeLong(high[index]);
+                out.writeLong(low[index]);
+                out.writeBoolean(uids[index] != null);
+                if (uids[index] != null) out.writeUTF(uids[index]);
+
+                ByteString rest = (ByteString) extras[index];
+                if (rest == null) {
+                    out.writeInt(0);
+                } else {
+                    out.writeInt(rest.size());
+                    rest.writeTo(out);
+                }
+            } else {
+                byte[] bytes = full(index).toByteArray();
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Replaces the tracks with the ones written by {@link TrackTable#writeTo(DataOutputStream, IntUnaryOperator)}.
+     */
+    void readFrom(@NotNull DataInputStream in) throws IOException {
+        clear();
+
+        int count = in.readInt();
+        if (count < 0) throw new IOException("Invalid tracks count: " + count);
+
+        for (int i = 0; i < count; i++) {
+            ensureCapacity(i + 1);
+
+            byte flag = in.readByte();
+            if ((flag & COMPACT) != 0) {
+                flags[i] = flag;
+                high[i] = in.readLong();
+                low[i] = in.readLong();
+                uids[i] = in.readBoolean() ? in.readUTF().intern() : null;
+
+                int length = in.readInt();
+                if (length < 0) throw new IOException("Invalid track length: " + length);
+                if (length > 0) {
+                    byte[] rest = new byte[length];
+                    in.readFully(rest);
+                    extras[i] = ByteString.copyFrom(rest);
+                } else {
+                    extras[i] = null;
+                }
+            } else {
+                int length = in.readInt();
+                if (length < 0) throw new IOException("Invalid track length: " + length);
+
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                store(i, ContextTrack.parseFrom(bytes));
+            }
+
+            size = i + 1;
+        }
+
+        modCount++;
+    }
+
+    private static final class CacheEntry {
+        final int index;
+        final ContextTrack track;
+        final ProvidedTrack provided;
+
+        CacheEntry(int index, @NotNull ContextTrack track, @Nullable ProvidedTrack provided) {
+            this.index = index;
+            this.track = track;
+            this.provided = provided;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.spotify.connectstate.Player;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.jetbrains.annotations.NotNull;
+import xyz.gianlu.librespot.common.ProtoUtils;
+
+import java.util.Collection;
+
+/**
+ * Maintains the previous and next tracks of the state around the current index. When the index moves by one and
+ * nothing else changed the window is slid, otherwise it is rebuilt from the tracks cached in {@link TrackList}.
+ *
+ * @author devgianlu
+ */
+final class TracksWindow {
+    static final int MAX_PREV_TRACKS = 16;
+    static final int MAX_NEXT_TRACKS = 48;
+    private int index = -1;
+    private int modifications = -1;
+    private int prevCount = -1;
+    private int nextCount = -1;
+
+    /**
+     * Updates the prev/next tracks of {@param state} for the track at {@param index}.
+     */
+    void update(@NotNull Player.PlayerState.Builder state, @NotNull TrackList tracks, @NotNull Collection<ContextTrack> queue, int index, String contextUri) {
+        boolean unchanged = queue.isEmpty() && modifications == tracks.modifications()
+                && prevCount == state.getPrevTracksCount() && nextCount == state.getNextTracksCount();
+
+        if (unchanged && index == this.index) return;
+        else if (unchanged && index == this.index + 1) advance(state, tracks, contextUri);
+        else if (unchanged && index == this.index - 1) rewind(state, tracks, contextUri);
+        else rebuild(state, tracks, queue, index, contextUri);
+
+        this.index = index;
+        this.modifications = queue.isEmpty() ? tracks.modifications() : -1;
+        this.prevCount = state.getPrevTracksCount();
+        this.nextCount = state.getNextTracksCount();
+    }
+
+    /**
+     * Forces the next update to rebuild the window.
+     */
+    void invalidate() {
+        index = -1;
+        modifications = -1;
+    }
+
+    private void advance(@NotNull Player.PlayerState.Builder state, @NotNull TrackList tracks, String contextUri) {
+        int old = index;
+        state.addPrevTracks(tracks.provided(old, contextUri));
+        if (state.getPrevTracksCount() > MAX_PREV_TRACKS) state.removePrevTracks(0);
+
+        if (state.getNextTracksCount() > 0) state.removeNextTracks(0);
+        if (old + 1 + MAX_NEXT_TRACKS < tracks.size())
+            state.addNextTracks(tracks.provided(old + 1 + MAX_NEXT_TRACKS, contextUri));
+    }
+
+    private void rewind(@NotNull Player.PlayerState.Builder state, @NotNull TrackList tracks, String contextUri) {
+        int old = index;
+        if (state.getPrevTracksCount() > 0) state.removePrevTracks(state.getPrevTracksCount() - 1);
+        if (old - 1 - MAX_PREV_TRACKS >= 0)
+            state.addPrevTracks(0, tracks.provided(old - 1 - MAX_PREV_TRACKS, contextUri));
+
+        if (old + MAX_NEXT_TRACKS < tracks.size()) state.removeNextTracks(state.getNextTracksCount() - 1);
+        state.addNextTracks(0, tracks.provided(old, contextUri));
+    }
+
+    private void rebuild(@NotNull Player.PlayerState.Builder state, @NotNull TrackList tracks, @NotNull Collection<ContextTrack> queue, int index, String contextUri) {
+        state.clearPrevTracks();
+        for (int i = Math.max(0, index - MAX_PREV_TRACKS); i < index; i++)
+            state.addPrevTracks(tracks.provided(i, contextUri));
+
+        state.clearNextTracks();
+        for (ContextTrack track : queue)
+            state.addNextTracks(ProtoUtils.toProvidedTrack(track, contextUri));
+
+        for (int i = index + 1; i < Math.min(tracks.size(), index + 1 + MAX_NEXT_TRACKS); i++)
+            state.addNextTracks(tracks.provided(i, contextUri));
+    }
+}
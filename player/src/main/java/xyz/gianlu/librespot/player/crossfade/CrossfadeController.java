@@ -217,6 +217,13 @@ public class CrossfadeController {
         return !fadeOutMap.isEmpty();
     }
 
+    /**
+     * @return Whether there is a fade in for the given {@param reason}.
+     */
+    public boolean hasFadeIn(@NotNull Reason reason) {
+        return fadeInMap.containsKey(reason);
+    }
+
     /**
      * @return The amount of fade overlap accumulated during playback.
      */
@@ -21,6 +21,7 @@ import xyz.gianlu.librespot.audio.DecodedAudioStream;
 import xyz.gianlu.librespot.audio.PlayableContentFeeder;
 import xyz.gianlu.librespot.player.crossfade.CrossfadeController;
 import xyz.gianlu.librespot.player.decoders.Decoder;
+import xyz.gianlu.librespot.player.mixing.MixingLine;
 import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
 
 /**
@@ -37,9 +38,12 @@ public final class PlayerMetrics {
     public int fadeOverlap = 0;
     public String transition = "none";
     public int decryptTime = 0;
+    public int reserveMs = 0;
+    public int reserveLevel = 0;
+    public int underruns = 0;
 
     public PlayerMetrics(@Nullable PlayableContentFeeder.Metrics contentMetrics, @Nullable CrossfadeController crossfade,
-                         @Nullable DecodedAudioStream stream, @Nullable Decoder decoder) {
+                         @Nullable DecodedAudioStream stream, @Nullable Decoder decoder, @Nullable MixingLine.MixingOutput output) {
         this.contentMetrics = contentMetrics;
 
         if (decoder != null) {
@@ -68,6 +72,12 @@ public final class PlayerMetrics {
             }
         }
 
+        if (output != null) {
+            reserveMs = output.reserveMillis();
+            reserveLevel = output.reserveLevel();
+            underruns = output.underruns();
+        }
+
         if (crossfade != null) {
             transition = "crossfade";
             fadeOverlap = crossfade.fadeOverlap();
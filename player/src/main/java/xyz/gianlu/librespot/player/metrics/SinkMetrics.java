@@ -0,0 +1,44 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.metrics;
+
+/**
+ * A snapshot of the audio sink counters since it has been created.
+ *
+ * @author devgianlu
+ */
+public final class SinkMetrics {
+    public final long writes;
+    public final long writtenBytes;
+    public final float averageWriteLatency;
+    public final float maxWriteLatency;
+    public final int underruns;
+
+    public SinkMetrics(long writes, long writtenBytes, long totalWriteNanos, long maxWriteNanos, int underruns) {
+        this.writes = writes;
+        this.writtenBytes = writtenBytes;
+        this.averageWriteLatency = writes == 0 ? 0 : totalWriteNanos / (float) writes / 1_000_000f;
+        this.maxWriteLatency = maxWriteNanos / 1_000_000f;
+        this.underruns = underruns;
+    }
+
+    @Override
+    public String toString() {
+        return "SinkMetrics{writes=" + writes + ", writtenBytes=" + writtenBytes + ", averageWriteLatency=" + averageWriteLatency
+                + ", maxWriteLatency=" + maxWriteLatency + ", underruns=" + underruns + '}';
+    }
+}
@@ -21,6 +21,7 @@ import org.jetbrains.annotations.Nullable;
 import xyz.gianlu.librespot.player.Player;
 import xyz.gianlu.librespot.player.PlayerConfiguration;
 import xyz.gianlu.librespot.player.decoders.Decoder;
+import xyz.gianlu.librespot.player.metrics.SinkMetrics;
 import xyz.gianlu.librespot.player.mixing.output.*;
 
 import java.io.Closeable;
@@ -30,19 +31,28 @@ import java.io.IOException;
  * @author devgianlu
  */
 public final class AudioSink implements Runnable, Closeable {
+    private static final int MIN_WRITE_SIZE = Decoder.BUFFER_SIZE * 2;
+    private static final int MAX_WRITE_SIZE = Decoder.BUFFER_SIZE * 16;
+    private static final long IDLE_TIMEOUT = 1000;
     private final Object pauseLock = new Object();
     private final SinkOutput output;
-    private final MixingLine mixing = new MixingLine();
+    private final MixingLine mixing;
     private final Thread thread;
     private final Listener listener;
     private volatile boolean closed = false;
     private volatile boolean paused = true;
+    private volatile long writes = 0;
+    private volatile long writtenBytes = 0;
+    private volatile long totalWriteNanos = 0;
+    private volatile long maxWriteNanos = 0;
+    private volatile int underruns = 0;
 
     /**
      * Creates a new sink from the current {@param conf}. Also sets the initial volume.
      */
     public AudioSink(@NotNull PlayerConfiguration conf, @NotNull Listener listener) {
         this.listener = listener;
+        this.mixing = new MixingLine(conf);
         switch (conf.output) {
             case MIXER:
                 output = initCustomOutputSink("xyz.gianlu.librespot.player.mixing.output.MixerOutput",
@@ -142,6 +152,39 @@ public final class AudioSink implements Runnable, Closeable {
         else mixing.setGlobalGain(volumeNorm);
     }
 
+    /**
+     * @return The write counters of this sink.
+     */
+    @NotNull
+    public SinkMetrics metrics() {
+        return new SinkMetrics(writes, writtenBytes, totalWriteNanos, maxWriteNanos, underruns);
+    }
+
+    /**
+     * Computes the size of the next write from the space available in the sink, writing as much as possible at once
+     * when the sink reports it and falling back to {@link AudioSink#MIN_WRITE_SIZE} otherwise.
+     */
+    private int nextWriteSize() {
+        int available = output.available();
+        if (available < 0) return MIN_WRITE_SIZE;
+        else return Math.max(MIN_WRITE_SIZE, Math.min(available, MAX_WRITE_SIZE));
+    }
+
+    private void write(byte[] buffer, int count, boolean primed) throws IOException {
+        int bufferSize = output.bufferSize();
+        if (primed && bufferSize > 0 && output.available() >= bufferSize)
+            underruns++;
+
+        long start = System.nanoTime();
+        output.write(buffer, 0, count);
+        long elapsed = System.nanoTime() - start;
+
+        writes++;
+        writtenBytes += count;
+        totalWriteNanos += elapsed;
+        if (elapsed > maxWriteNanos) maxWriteNanos = elapsed;
+    }
+
     @Override
     public void close() {
         closed = true;
@@ -152,13 +195,15 @@ public final class AudioSink implements Runnable, Closeable {
 
     @Override
     public void run() {
-        byte[] buffer = new byte[Decoder.BUFFER_SIZE * 2];
+        byte[] buffer = new byte[MAX_WRITE_SIZE];
 
         boolean started = false;
+        boolean primed = false;
         while (!closed) {
             if (paused) {
                 output.stop();
                 started = false;
+                primed = false;
 
                 synchronized (pauseLock) {
                     try {
@@ -173,10 +218,19 @@ public final class AudioSink implements Runnable, Closeable {
                         OutputAudioFormat format = mixing.getFormat();
                         if (format != null) started = output.start(format);
                         mixing.switchFormat = false;
+                        primed = false;
+                    }
+
+                    int count = mixing.read(buffer, 0, nextWriteSize());
+                    if (count == 0) {
+                        mixing.awaitReadable(IDLE_TIMEOUT);
+                        continue;
                     }
 
-                    int count = mixing.read(buffer);
-                    output.write(buffer, 0, count);
+                    write(buffer, count, primed);
+                    primed = true;
+                } catch (InterruptedException ex) {
+                    break;
                 } catch (IOException | SinkException ex) {
                     if (closed) break;
 
@@ -39,7 +39,14 @@ public class CircularBuffer implements Closeable {
     private int tail;
 
     public CircularBuffer(int bufferSize) {
-        data = new byte[bufferSize + 1];
+        this(new byte[bufferSize + 1]);
+    }
+
+    /**
+     * Creates a buffer backed by {@param data}, its capacity is {@code data.length - 1}. The content of the array is ignored.
+     */
+    protected CircularBuffer(byte[] data) {
+        this.data = data;
         head = 0;
         tail = 0;
     }
@@ -54,6 +61,34 @@ public class CircularBuffer implements Closeable {
             awaitData.await(100, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Waits until the number of bytes available for reading drops to {@param count} or lower.
+     *
+     * @param timeout The maximum time to wait in milliseconds
+     * @return Whether the condition has been satisfied
+     */
+    public boolean awaitAvailableAtMost(int count, long timeout) {
+        if (closed) return false;
+
+        lock.lock();
+
+        try {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (available() > count && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) break;
+
+                awaitSpace.await(Math.min(remaining, 100), TimeUnit.MILLISECONDS);
+            }
+
+            return !closed && available() <= count;
+        } catch (InterruptedException ex) {
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void write(byte[] b, int off, int len) {
         if (closed) return;
 
@@ -181,6 +216,30 @@ public class CircularBuffer implements Closeable {
         }
     }
 
+    /**
+     * @return The maximum number of bytes this buffer can hold.
+     */
+    public int capacity() {
+        return data.length - 1;
+    }
+
+    /**
+     * Closes the buffer and returns its backing array. The array is handed out while holding the lock used by readers
+     * and writers, so none of them is using it anymore and all of them will see the buffer as closed.
+     */
+    @NotNull
+    byte[] release() {
+        close();
+
+        lock.lock();
+
+        try {
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * @return Whether the buffer is full and no data can be written without blocking.
      */
@@ -20,8 +20,12 @@ package xyz.gianlu.librespot.player.mixing;
  * @author Gianlu
  */
 class GainAwareCircularBuffer extends CircularBuffer {
-    GainAwareCircularBuffer(int bufferSize) {
-        super(bufferSize);
+    private volatile int underruns = 0;
+    private volatile boolean primed = false;
+    private volatile boolean draining = false;
+
+    GainAwareCircularBuffer(byte[] data) {
+        super(data);
     }
 
     private static void writeToArray(int val, byte[] b, int dest) {
@@ -33,12 +37,32 @@ class GainAwareCircularBuffer extends CircularBuffer {
         b[dest + 1] = (byte) (val >>> 8);
     }
 
+    /**
+     * @return How many times a read found less data than requested after the buffer had been filled once.
+     */
+    int underruns() {
+        return underruns;
+    }
+
+    /**
+     * Marks the buffer as draining, no more data will be written, so empty reads are expected and not counted as underruns.
+     */
+    void draining() {
+        draining = true;
+    }
+
     void readGain(byte[] b, int off, int len, float gain) {
         if (closed) return;
 
         lock.lock();
 
         try {
+            if (available() < len) {
+                if (primed && !draining) underruns++;
+            } else {
+                primed = true;
+            }
+
             awaitData(len);
             if (closed) return;
 
@@ -56,6 +80,12 @@ class GainAwareCircularBuffer extends CircularBuffer {
         }
     }
 
+    @Override
+    public void empty() {
+        super.empty();
+        primed = false;
+    }
+
     void readMergeGain(byte[] b, int off, int len, float gg, float fg, float sg) {
         if (closed) return;
 
@@ -20,22 +20,33 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.player.PlayerConfiguration;
 import xyz.gianlu.librespot.player.decoders.Decoder;
 import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
 
 /**
  * @author Gianlu
  */
 public final class MixingLine extends InputStream {
     private static final Logger LOGGER = LoggerFactory.getLogger(MixingLine.class);
+    private static final int MIN_BUFFER_SIZE = Decoder.BUFFER_SIZE * 4;
+    private static final int MIN_READ_SIZE = Decoder.BUFFER_SIZE * 2;
+    private static final long MIXING_WAIT = 5;
+    private final Object readableLock = new Object();
+    private final Queue<byte[]> bufferPool = new ArrayDeque<>(2);
+    private final int bufferSize;
+    private final int lowWatermark;
+    private final int highWatermark;
     boolean switchFormat = false;
-    private GainAwareCircularBuffer fcb;
-    private GainAwareCircularBuffer scb;
-    private FirstOutputStream fout;
-    private SecondOutputStream sout;
+    private volatile GainAwareCircularBuffer fcb;
+    private volatile GainAwareCircularBuffer scb;
+    private volatile FirstOutputStream fout;
+    private volatile SecondOutputStream sout;
     private volatile boolean fe = false;
     private volatile boolean se = false;
     private volatile float fg = 1;
@@ -43,7 +54,15 @@ public final class MixingLine extends InputStream {
     private volatile float gg = 1;
     private OutputAudioFormat format = OutputAudioFormat.DEFAULT_FORMAT;
 
-    public MixingLine() {
+    public MixingLine(@NotNull PlayerConfiguration conf) {
+        OutputAudioFormat format = OutputAudioFormat.DEFAULT_FORMAT;
+        int size = (int) (format.getFrameRate() * format.getFrameSize() * conf.decodeAheadBuffer / 1000);
+        size -= size % format.getFrameSize();
+        bufferSize = Math.max(size, MIN_BUFFER_SIZE);
+        lowWatermark = bufferSize / 100 * conf.decodeAheadLowWatermark;
+        highWatermark = Math.max(bufferSize / 100 * conf.decodeAheadHighWatermark, lowWatermark + Decoder.BUFFER_SIZE);
+
+        LOGGER.trace("Decode ahead buffer is {} bytes. {low: {}, high: {}}", bufferSize, lowWatermark, highWatermark);
     }
 
     @Override
@@ -62,16 +81,47 @@ public final class MixingLine extends InputStream {
             scb.readMergeGain(b, off, willRead, gg, fg, sg);
             return willRead;
         } else if (fe && fcb != null) {
-            fcb.readGain(b, off, len, gg * fg);
-            return len;
+            int willRead = readSize(fcb.available(), len);
+            fcb.readGain(b, off, willRead, gg * fg);
+            return willRead;
         } else if (se && scb != null) {
-            scb.readGain(b, off, len, gg * sg);
-            return len;
+            int willRead = readSize(scb.available(), len);
+            scb.readGain(b, off, willRead, gg * sg);
+            return willRead;
         } else {
             return 0;
         }
     }
 
+    /**
+     * Computes how much to read from a single output: as much as available up to {@param len}, but at least
+     * {@link MixingLine#MIN_READ_SIZE} bytes so that the caller blocks instead of reading tiny chunks.
+     */
+    private int readSize(int available, int len) {
+        int size = Math.min(len, Math.max(available, MIN_READ_SIZE));
+        if (format != null) size -= size % format.getFrameSize();
+        return size;
+    }
+
+    /**
+     * Waits for something to read after {@link MixingLine#read(byte[], int, int)} returned nothing: either for an output
+     * to be enabled or, if both are, for both of them to have data.
+     *
+     * @param timeout The maximum time to wait for an output to be enabled in milliseconds
+     */
+    public void awaitReadable(long timeout) throws InterruptedException {
+        synchronized (readableLock) {
+            if (fe && se) readableLock.wait(MIXING_WAIT);
+            else if (!fe && !se) readableLock.wait(timeout);
+        }
+    }
+
+    private void notifyReadable() {
+        synchronized (readableLock) {
+            readableLock.notifyAll();
+        }
+    }
+
     @Nullable
     public MixingOutput someOut() {
         if (fout == null) return firstOut();
@@ -82,7 +132,7 @@ public final class MixingLine extends InputStream {
     @NotNull
     public MixingOutput firstOut() {
         if (fout == null) {
-            fcb = new GainAwareCircularBuffer(Decoder.BUFFER_SIZE * 4);
+            fcb = new GainAwareCircularBuffer(obtainBuffer());
             fout = new FirstOutputStream();
         }
 
@@ -92,13 +142,39 @@ public final class MixingLine extends InputStream {
     @NotNull
     public MixingOutput secondOut() {
         if (sout == null) {
-            scb = new GainAwareCircularBuffer(Decoder.BUFFER_SIZE * 4);
+            scb = new GainAwareCircularBuffer(obtainBuffer());
             sout = new SecondOutputStream();
         }
 
         return sout;
     }
 
+    @NotNull
+    private byte[] obtainBuffer() {
+        synchronized (bufferPool) {
+            byte[] buffer = bufferPool.poll();
+            if (buffer != null) return buffer;
+        }
+
+        return new byte[bufferSize + 1];
+    }
+
+    /**
+     * Closes the buffer and returns its backing array to the pool.
+     */
+    private void recycleBuffer(@NotNull CircularBuffer buffer) {
+        byte[] array = buffer.release();
+        synchronized (bufferPool) {
+            if (bufferPool.size() < 2) bufferPool.add(array);
+        }
+    }
+
+    private int bytesToMillis(int bytes) {
+        OutputAudioFormat format = this.format;
+        if (format == null) format = OutputAudioFormat.DEFAULT_FORMAT;
+        return (int) (bytes / format.getFrameSize() * 1000 / format.getFrameRate());
+    }
+
     public void setGlobalGain(float gain) {
         gg = gain;
     }
@@ -132,6 +208,7 @@ public final class MixingLine extends InputStream {
     }
 
     public abstract static class MixingOutput extends OutputStream {
+        private final StreamConverter.Buffer converted = new StreamConverter.Buffer();
         StreamConverter converter = null;
 
         @Override
@@ -142,18 +219,78 @@ public final class MixingLine extends InputStream {
         @Override
         public final void write(@NotNull byte[] b, int off, int len) {
             if (converter != null) {
-                converter.write(b, off, len);
-                writeBuffer(converter.convert());
+                converter.convert(b, off, len, converted);
+                writeBuffer(converted.data(), 0, converted.size());
             } else {
                 writeBuffer(b, off, len);
             }
         }
 
-        protected void writeBuffer(byte[] b) {
-            writeBuffer(b, 0, b.length);
+        protected abstract void writeBuffer(@NotNull byte[] b, int off, int len);
+
+        /**
+         * @return The buffer for this output or {@code null} if it has been cleared.
+         */
+        @Nullable
+        abstract GainAwareCircularBuffer buffer();
+
+        @NotNull
+        abstract MixingLine line();
+
+        /**
+         * @return The amount of decoded audio waiting to be played, in milliseconds.
+         */
+        public final int reserveMillis() {
+            GainAwareCircularBuffer buffer = buffer();
+            return buffer == null ? 0 : line().bytesToMillis(buffer.available());
+        }
+
+        /**
+         * @return The amount of decoded audio waiting to be played, as a percentage of the buffer capacity.
+         */
+        public final int reserveLevel() {
+            GainAwareCircularBuffer buffer = buffer();
+            return buffer == null ? 0 : (int) ((long) buffer.available() * 100 / buffer.capacity());
         }
 
-        protected abstract void writeBuffer(@NotNull byte[] b, int off, int len);
+        /**
+         * @return How many times the sink found this output short of data.
+         */
+        public final int underruns() {
+            GainAwareCircularBuffer buffer = buffer();
+            return buffer == null ? 0 : buffer.underruns();
+        }
+
+        /**
+         * @return Whether the reserve has reached the high watermark and decoding should stop.
+         */
+        public final boolean reserveFull() {
+            GainAwareCircularBuffer buffer = buffer();
+            return buffer == null || buffer.available() >= line().highWatermark;
+        }
+
+        /**
+         * Waits for the reserve to drop to the low watermark.
+         *
+         * @param timeout The maximum time to wait in milliseconds
+         * @return Whether decoding should resume
+         */
+        public final boolean awaitReserveLow(long timeout) {
+            GainAwareCircularBuffer buffer = buffer();
+            return buffer != null && buffer.awaitAvailableAtMost(line().lowWatermark, timeout);
+        }
+
+        /**
+         * Waits for the reserve to be played out. Any leftover smaller than a single sink read is discarded.
+         */
+        public final void drain() {
+            GainAwareCircularBuffer buffer = buffer();
+            if (buffer == null) return;
+
+            buffer.draining();
+            while (!buffer.awaitAvailableAtMost(MIN_READ_SIZE - 1, 100))
+                if (buffer.closed) break;
+        }
 
         public abstract void toggle(boolean enabled, @Nullable OutputAudioFormat format);
 
@@ -166,10 +303,21 @@ public final class MixingLine extends InputStream {
 
     public class FirstOutputStream extends MixingOutput {
 
+        @Override
+        @Nullable GainAwareCircularBuffer buffer() {
+            GainAwareCircularBuffer buffer = fcb; // Read before the owner, a newer buffer may replace it once cleared
+            return fout == this ? buffer : null;
+        }
+
+        @Override
+        @NotNull MixingLine line() {
+            return MixingLine.this;
+        }
+
         @Override
         public void writeBuffer(@NotNull byte[] b, int off, int len) {
-            if (fout == null || fout != this) return;
-            fcb.write(b, off, len);
+            GainAwareCircularBuffer buffer = buffer();
+            if (buffer != null) buffer.write(b, off, len);
         }
 
         @Override
@@ -181,6 +329,7 @@ public final class MixingLine extends InputStream {
 
             if (format != null) converter = setFormat(format, this);
             fe = enabled;
+            if (enabled) notifyReadable();
             LOGGER.trace("Toggle first channel: " + enabled);
         }
 
@@ -197,26 +346,40 @@ public final class MixingLine extends InputStream {
             fg = 1;
             fe = false;
 
-            fcb.close();
+            GainAwareCircularBuffer buffer = fcb;
+            buffer.close();
             synchronized (MixingLine.this) {
                 fout = null;
                 fcb = null;
             }
+
+            recycleBuffer(buffer);
         }
 
         @Override
         public void emptyBuffer() {
-            if (fout == null || fout != this) return;
-            fcb.empty();
+            GainAwareCircularBuffer buffer = buffer();
+            if (buffer != null) buffer.empty();
         }
     }
 
     public class SecondOutputStream extends MixingOutput {
 
+        @Override
+        @Nullable GainAwareCircularBuffer buffer() {
+            GainAwareCircularBuffer buffer = scb; // Read before the owner, a newer buffer may replace it once cleared
+            return sout == this ? buffer : null;
+        }
+
+        @Override
+        @NotNull MixingLine line() {
+            return MixingLine.this;
+        }
+
         @Override
         public void writeBuffer(@NotNull byte[] b, int off, int len) {
-            if (sout == null || sout != this) return;
-            scb.write(b, off, len);
+            GainAwareCircularBuffer buffer = buffer();
+            if (buffer != null) buffer.write(b, off, len);
         }
 
         @Override
@@ -228,6 +391,7 @@ public final class MixingLine extends InputStream {
 
             if (format != null) converter = setFormat(format, this);
             se = enabled;
+            if (enabled) notifyReadable();
             LOGGER.trace("Toggle second channel: " + enabled);
         }
 
@@ -244,17 +408,20 @@ public final class MixingLine extends InputStream {
             sg = 1;
             se = false;
 
-            scb.close();
+            GainAwareCircularBuffer buffer = scb;
+            buffer.close();
             synchronized (MixingLine.this) {
                 sout = null;
                 scb = null;
             }
+
+            recycleBuffer(buffer);
         }
 
         @Override
         public void emptyBuffer() {
-            if (sout == null || sout != this) return;
-            scb.empty();
+            GainAwareCircularBuffer buffer = buffer();
+            if (buffer != null) buffer.empty();
         }
     }
 }
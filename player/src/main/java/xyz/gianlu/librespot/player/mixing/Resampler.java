@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.mixing;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Streaming polyphase resampler for signed 16 bit little endian PCM. The ratio between the two sample rates is reduced
+ * to {@code up / down} and every output sample is computed with a windowed sinc filter selected among {@code up} phases.
+ * Incoming frames are kept in a history buffer, so the output can be written in place over the input.
+ *
+ * @author devgianlu
+ */
+final class Resampler implements StreamConverter.Stage {
+    private static final int HALF_TAPS = 16;
+    private static final int MAX_PHASES = 1024;
+    private final int channels;
+    private final int up;
+    private final int down;
+    private final float[][] coefficients;
+    private float[] history;
+    private int historyFrames;
+    private int position;
+    private int phase = 0;
+
+    Resampler(int fromRate, int toRate, int channels) {
+        if (!canResample(fromRate, toRate))
+            throw new UnsupportedOperationException(String.format("From %d to %d", fromRate, toRate));
+
+        int gcd = gcd(fromRate, toRate);
+        this.up = toRate / gcd;
+        this.down = fromRate / gcd;
+        this.channels = channels;
+        this.coefficients = computeCoefficients(up, down);
+
+        historyFrames = position = HALF_TAPS - 1;
+        history = new float[(historyFrames + 1024) * channels];
+    }
+
+    static boolean canResample(int fromRate, int toRate) {
+        if (fromRate <= 0 || toRate <= 0) return false;
+        return toRate / gcd(fromRate, toRate) <= MAX_PHASES;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int tmp = a % b;
+            a = b;
+            b = tmp;
+        }
+
+        return a;
+    }
+
+    @NotNull
+    private static float[][] computeCoefficients(int up, int down) {
+        double cutoff = Math.min(1, (double) up / down);
+        float[][] coefficients = new float[up][HALF_TAPS * 2];
+        for (int p = 0; p < up; p++) {
+            double sum = 0;
+            for (int k = 0; k < HALF_TAPS * 2; k++) {
+                double u = (double) p / up + HALF_TAPS - 1 - k;
+                double value = cutoff * sinc(cutoff * u) * blackman(u / HALF_TAPS);
+                coefficients[p][k] = (float) value;
+                sum += value;
+            }
+
+            for (int k = 0; k < HALF_TAPS * 2; k++)
+                coefficients[p][k] /= sum;
+        }
+
+        return coefficients;
+    }
+
+    private static double sinc(double x) {
+        if (x == 0) return 1;
+        else return Math.sin(Math.PI * x) / (Math.PI * x);
+    }
+
+    private static double blackman(double x) {
+        if (x <= -1 || x >= 1) return 0;
+        else return 0.42 + 0.5 * Math.cos(Math.PI * x) + 0.08 * Math.cos(2 * Math.PI * x);
+    }
+
+    /**
+     * Resamples the content of {@param buffer}. Some frames are retained to compute the next output.
+     */
+    @Override
+    public void process(@NotNull StreamConverter.Buffer buffer) {
+        byte[] src = buffer.data;
+        int frames = buffer.size / (2 * channels);
+        if (history.length < (historyFrames + frames) * channels) {
+            float[] tmp = new float[(historyFrames + frames) * channels];
+            System.arraycopy(history, 0, tmp, 0, historyFrames * channels);
+            history = tmp;
+        }
+
+        for (int i = 0, j = historyFrames * channels; i < frames * channels * 2; i += 2, j++)
+            history[j] = (short) ((src[i] & 0xFF) | ((src[i + 1] & 0xFF) << 8));
+
+        historyFrames += frames;
+
+        buffer.size = 0;
+        buffer.ensureCapacity(((int) ((long) (historyFrames - position) * up / down) + 1) * channels * 2);
+        byte[] output = buffer.data;
+
+        int dest = 0;
+        while (position + HALF_TAPS < historyFrames) {
+            float[] h = coefficients[phase];
+            int start = (position - HALF_TAPS + 1) * channels;
+            for (int c = 0; c < channels; c++) {
+                float acc = 0;
+                for (int k = 0, i = start + c; k < h.length; k++, i += channels)
+                    acc += h[k] * history[i];
+
+                int val = Math.round(acc);
+                if (val > 32767) val = 32767;
+                else if (val < -32768) val = -32768;
+
+                output[dest++] = (byte) val;
+                output[dest++] = (byte) (val >>> 8);
+            }
+
+            phase += down;
+            position += phase / up;
+            phase %= up;
+        }
+
+        int consumed = position - HALF_TAPS + 1;
+        if (consumed > 0) {
+            System.arraycopy(history, consumed * channels, history, 0, (historyFrames - consumed) * channels);
+            historyFrames -= consumed;
+            position -= consumed;
+        }
+
+        buffer.size = dest;
+    }
+}
@@ -16,22 +16,37 @@
 
 package xyz.gianlu.librespot.player.mixing;
 
-import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
 
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-public final class StreamConverter extends OutputStream {
-    private final boolean monoToStereo;
-    private final int sampleSizeFrom;
-    private final int sampleSizeTo;
-    private byte[] buffer;
+/**
+ * Converts PCM blocks between two formats through a chain of stages. Every stage works in place on a {@link Buffer}
+ * provided by the caller, so that no memory is allocated once the buffer has grown to the size of the largest block.
+ *
+ * @author devgianlu
+ */
+public final class StreamConverter {
+    private final Stage[] stages;
 
     private StreamConverter(@NotNull OutputAudioFormat from, @NotNull OutputAudioFormat to) {
-        monoToStereo = from.getChannels() == 1 && to.getChannels() == 2;
-        sampleSizeFrom = from.getSampleSizeInBits();
-        sampleSizeTo = to.getSampleSizeInBits();
+        List<Stage> stages = new ArrayList<>(3);
+
+        int sampleSizeFrom = from.getSampleSizeInBits();
+        int sampleSizeTo = to.getSampleSizeInBits();
+        if (sampleSizeFrom != sampleSizeTo)
+            stages.add(new SampleSizeStage(sampleSizeFrom, sampleSizeTo));
+
+        if (from.getSampleRate() != to.getSampleRate())
+            stages.add(new Resampler((int) from.getSampleRate(), (int) to.getSampleRate(), from.getChannels()));
+
+        if (from.getChannels() == 1 && to.getChannels() == 2)
+            stages.add(new MonoToStereoStage(sampleSizeTo));
+
+        this.stages = stages.toArray(new Stage[0]);
     }
 
     public static boolean canConvert(@NotNull OutputAudioFormat from, @NotNull OutputAudioFormat to) {
@@ -39,7 +54,10 @@ public final class StreamConverter extends OutputStream {
 
         if (from.matches(to)) return true;
         if (from.getEncoding() != to.getEncoding()) return false;
-        return from.getSampleRate() == to.getSampleRate();
+        if (from.getSampleRate() == to.getSampleRate()) return true;
+
+        return to.getSampleSizeInBits() == 16 && from.getChannels() <= 2
+                && Resampler.canResample((int) from.getSampleRate(), (int) to.getSampleRate());
     }
 
     @NotNull
@@ -50,74 +68,130 @@ public final class StreamConverter extends OutputStream {
         return new StreamConverter(from, to);
     }
 
-    private static byte[] monoToStereo(@NotNull byte[] src, int sampleSizeBits) {
-        if (sampleSizeBits != 16) throw new UnsupportedOperationException();
+    /**
+     * Converts the given block into {@param out}, its previous content is discarded.
+     */
+    public void convert(@NotNull byte[] b, int off, int len, @NotNull Buffer out) {
+        out.size = 0;
+        out.ensureCapacity(len);
+        System.arraycopy(b, off, out.data, 0, len);
+        out.size = len;
+
+        for (Stage stage : stages)
+            stage.process(out);
+    }
+
+    interface Stage {
+        /**
+         * Processes the content of {@param buffer} in place.
+         */
+        void process(@NotNull Buffer buffer);
+    }
 
-        byte[] result = new byte[src.length * 2];
-        for (int i = 0; i < src.length - 1; i += 2) {
-            result[i * 2] = src[i];
-            result[i * 2 + 1] = src[i + 1];
-            result[i * 2 + 2] = src[i];
-            result[i * 2 + 3] = src[i + 1];
+    /**
+     * A growable buffer holding a converted block.
+     */
+    public static final class Buffer {
+        byte[] data = new byte[0];
+        int size = 0;
+
+        /**
+         * Makes sure the buffer can hold {@param capacity} bytes, keeping the current content.
+         */
+        void ensureCapacity(int capacity) {
+            if (data.length < capacity) data = Arrays.copyOf(data, capacity);
         }
 
-        return result;
+        /**
+         * @return The backing array, only the first {@link Buffer#size()} bytes are valid.
+         */
+        @NotNull
+        public byte[] data() {
+            return data;
+        }
+
+        /**
+         * @return The number of valid bytes in {@link Buffer#data()}
+         */
+        public int size() {
+            return size;
+        }
     }
 
-    private static byte[] sampleSizeConversion(byte[] src, int fromSampleSize, int toSampleSize) {
-        int sampleConversionRatio = toSampleSize / fromSampleSize;
-        if (sampleConversionRatio != 1) {
-            int fromSampleSizeByte = fromSampleSize / 8;
-            int toSampleSizeByte = toSampleSize / 8;
-
-            byte[] result = new byte[src.length * sampleConversionRatio];
-            for (int i = 0, j = 0; i < src.length; i += fromSampleSizeByte, j += toSampleSizeByte) {
-                float val;
-                if (fromSampleSize == 8) {
-                    val = src[i];
-                    val /= 128f;
-                } else if (fromSampleSize == 16) {
-                    val = (src[i] & 0xFF) | ((src[i + 1] & 0xFF) << 8);
-                    val /= 32768f;
-                } else {
-                    throw new UnsupportedOperationException("Sample size: " + fromSampleSize);
-                }
-
-                if (toSampleSize == 8) {
-                    byte s = (byte) (val * 128);
-                    if (s < 0) s |= 128;
-                    result[j] = s;
-                } else if (toSampleSize == 16) {
-                    short s = (short) (val * 32768);
-                    if (s < 0) s |= 32768;
-                    result[j] = (byte) s;
-                    result[j + 1] = (byte) (s >>> 8);
-                } else {
-                    throw new UnsupportedOperationException("Sample size: " + toSampleSize);
-                }
+    private static final class MonoToStereoStage implements Stage {
+        MonoToStereoStage(int sampleSizeBits) {
+            if (sampleSizeBits != 16) throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void process(@NotNull Buffer buffer) {
+            int len = buffer.size;
+            buffer.ensureCapacity(len * 2);
+
+            byte[] data = buffer.data;
+            for (int i = len - 2; i >= 0; i -= 2) {
+                byte lo = data[i];
+                byte hi = data[i + 1];
+                data[i * 2] = lo;
+                data[i * 2 + 1] = hi;
+                data[i * 2 + 2] = lo;
+                data[i * 2 + 3] = hi;
             }
 
-            return result;
-        } else {
-            return src;
+            buffer.size = len * 2;
         }
     }
 
-    public byte[] convert() {
-        byte[] result = sampleSizeConversion(buffer, sampleSizeFrom, sampleSizeTo);
-        if (monoToStereo) result = monoToStereo(result, sampleSizeTo);
-        return result;
-    }
+    private static final class SampleSizeStage implements Stage {
+        private final int fromSampleSize;
+        private final int toSampleSize;
 
-    @Override
-    public void write(@NotNull byte[] b, int off, int len) {
-        if (buffer == null || buffer.length != len) buffer = new byte[len];
-        System.arraycopy(b, off, buffer, 0, len);
-    }
+        SampleSizeStage(int fromSampleSize, int toSampleSize) {
+            if (fromSampleSize != 8 && fromSampleSize != 16)
+                throw new UnsupportedOperationException("Sample size: " + fromSampleSize);
+            if (toSampleSize != 8 && toSampleSize != 16)
+                throw new UnsupportedOperationException("Sample size: " + toSampleSize);
+
+            this.fromSampleSize = fromSampleSize;
+            this.toSampleSize = toSampleSize;
+        }
+
+        private static float read(byte[] data, int i, int sampleSize) {
+            if (sampleSize == 8) return data[i] / 128f;
+            else return ((data[i] & 0xFF) | ((data[i + 1] & 0xFF) << 8)) / 32768f;
+        }
 
-    @Override
-    @Contract("_ -> fail")
-    public void write(int i) {
-        throw new UnsupportedOperationException();
+        private static void write(byte[] data, int j, int sampleSize, float val) {
+            if (sampleSize == 8) {
+                byte s = (byte) (val * 128);
+                if (s < 0) s |= 128;
+                data[j] = s;
+            } else {
+                short s = (short) (val * 32768);
+                if (s < 0) s |= 32768;
+                data[j] = (byte) s;
+                data[j + 1] = (byte) (s >>> 8);
+            }
+        }
+
+        @Override
+        public void process(@NotNull Buffer buffer) {
+            int fromBytes = fromSampleSize / 8;
+            int toBytes = toSampleSize / 8;
+            int samples = buffer.size / fromBytes;
+            buffer.ensureCapacity(samples * toBytes);
+
+            // Walk backwards when expanding and forwards when shrinking so that samples are never overwritten before being read
+            byte[] data = buffer.data;
+            if (toBytes > fromBytes) {
+                for (int n = samples - 1; n >= 0; n--)
+                    write(data, n * toBytes, toSampleSize, read(data, n * fromBytes, fromSampleSize));
+            } else {
+                for (int n = 0; n < samples; n++)
+                    write(data, n * toBytes, toSampleSize, read(data, n * fromBytes, fromSampleSize));
+            }
+
+            buffer.size = samples * toBytes;
+        }
     }
 }
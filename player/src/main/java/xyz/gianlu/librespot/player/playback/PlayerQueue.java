@@ -34,10 +34,19 @@ import java.util.concurrent.Executors;
  */
 final class PlayerQueue implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(PlayerQueue.class);
-    private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "player-queue-" + r.hashCode()));
+    private final ExecutorService executorService;
+    private final boolean sharedExecutor;
     private PlayerQueueEntry head = null;
 
-    PlayerQueue() {
+    /**
+     * @param executorService The executor shared with other players, or {@code null} to create one for this queue only
+     */
+    PlayerQueue(@Nullable ExecutorService executorService) {
+        this.sharedExecutor = executorService != null;
+        if (executorService == null)
+            this.executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "player-queue-" + r.hashCode()));
+        else
+            this.executorService = executorService;
     }
 
     /**
@@ -147,12 +156,12 @@ final class PlayerQueue implements Closeable {
     }
 
     /**
-     * Clear the queue by closing every entry and shutdown the executor service.
+     * Clear the queue by closing every entry and shutdown the executor service, unless it is shared.
      */
     @Override
     public void close() {
         if (head != null) head.clear();
-        executorService.shutdown();
+        if (!sharedExecutor) executorService.shutdown();
 
         LOGGER.trace("Queue has been cleared.");
     }
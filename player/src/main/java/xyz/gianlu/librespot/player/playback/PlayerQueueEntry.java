@@ -40,7 +40,9 @@ import xyz.gianlu.librespot.player.metrics.PlaybackMetrics;
 import xyz.gianlu.librespot.player.metrics.PlayerMetrics;
 import xyz.gianlu.librespot.player.mixing.AudioSink;
 import xyz.gianlu.librespot.player.mixing.MixingLine;
+import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
@@ -58,6 +60,8 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
     static final int INSTANT_PRELOAD = 1;
     static final int INSTANT_START_NEXT = 2;
     static final int INSTANT_END = 3;
+    private static final long RESERVE_POLL_INTERVAL = 20;
+    private static final int GAPLESS_STAGING_DURATION = 300;
     private static final Logger LOGGER = LoggerFactory.getLogger(PlayerQueueEntry.class);
     final PlayableId playable;
     final String playbackId;
@@ -79,6 +83,10 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
     private volatile int seekTime = -1;
     private boolean retried = false;
     private PlayableContentFeeder.Metrics contentMetrics;
+    private int underruns = 0;
+    private volatile ByteArrayOutputStream stagedHead = null;
+    private volatile int stagedHeadMillis = 0;
+    private volatile boolean endOfStream = false;
 
     PlayerQueueEntry(@NotNull AudioSink sink, @NotNull Session session, @NotNull PlayerConfiguration conf, @NotNull PlayableId playable, boolean preloaded, @NotNull Listener listener) {
         this.sink = sink;
@@ -166,17 +174,24 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
      */
     @NotNull
     PlayerMetrics metrics() {
-        return new PlayerMetrics(contentMetrics, crossfade, audioStream, decoder);
+        MixingLine.MixingOutput out = output;
+        PlayerMetrics metrics = new PlayerMetrics(contentMetrics, crossfade, audioStream, decoder, out);
+        if (out == null) metrics.underruns = underruns;
+        return metrics;
     }
 
     /**
-     * Returns the current position.
+     * Returns the current position, that is the decoder position minus the audio that is still buffered in the output.
      *
      * @return The current position of the player or {@code -1} if not ready.
      * @throws Decoder.CannotGetTimeException If the time is unavailable for the codec being used.
      */
     int getTime() throws Decoder.CannotGetTimeException {
-        return decoder == null ? -1 : decoder.time();
+        if (decoder == null) return -1;
+
+        MixingLine.MixingOutput out = output;
+        if (out == null) return Math.max(0, decoder.time() - stagedHeadMillis);
+        else return Math.max(0, decoder.time() - out.reserveMillis() - stagedHeadMillis);
     }
 
     /**
@@ -199,6 +214,8 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
      * @param pos The time in milliseconds
      */
     void seek(int pos) {
+        if (pos == 0 && stagedHead != null) return; // The staged head already starts from the beginning
+
         seekTime = pos;
         if (output != null) output.emptyBuffer();
     }
@@ -220,6 +237,78 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
         }
     }
 
+    /**
+     * Removes the output without clearing it, the audio still buffered is left untouched.
+     *
+     * @return The output that was previously associated with this entry
+     */
+    @Nullable
+    MixingLine.MixingOutput detachOutput() {
+        MixingLine.MixingOutput tmp = output;
+        output = null;
+        if (tmp != null) {
+            underruns = tmp.underruns();
+            LOGGER.debug("{} has been detached from output.", this);
+        }
+
+        return tmp;
+    }
+
+    /**
+     * Waits for the audio buffered in the output to be played.
+     */
+    void drainOutput() {
+        MixingLine.MixingOutput out = output;
+        if (out != null) out.drain();
+    }
+
+    /**
+     * @return Whether the decoder reached the end of the stream while the output was kept attached for gapless playback.
+     */
+    boolean reachedEndOfStream() {
+        return endOfStream;
+    }
+
+    /**
+     * Checks whether this entry can be written on the output of {@param prev} right after its last sample.
+     *
+     * @param prev   The entry that reached the end of its stream
+     * @param reason The reason why this entry is being played
+     * @return Whether {@link PlayerQueueEntry#detachOutput()} can be used to hand the output of {@param prev} to this entry
+     */
+    boolean canSpliceAfter(@NotNull PlayerQueueEntry prev, @NotNull PlaybackMetrics.Reason reason) {
+        if (reason != PlaybackMetrics.Reason.TRACK_DONE || !prev.endOfStream || !prev.hasOutput())
+            return false;
+
+        if (stagedHead == null || decoder == null || prev.decoder == null)
+            return false;
+
+        if (crossfade != null && crossfade.hasFadeIn(reason))
+            return false;
+
+        return decoder.getAudioFormat().matches(prev.decoder.getAudioFormat());
+    }
+
+    /**
+     * Decodes the beginning of the content ahead of time so that it can be written right after the previous entry.
+     */
+    private void stageHead() throws IOException, Decoder.DecoderException {
+        OutputAudioFormat format = decoder.getAudioFormat();
+        int target = (int) (format.getFrameRate() * format.getFrameSize() * GAPLESS_STAGING_DURATION / 1000);
+
+        ByteArrayOutputStream staging = new ByteArrayOutputStream(target + Decoder.BUFFER_SIZE);
+        while (!closed && output == null && seekTime == -1 && staging.size() < target) {
+            if (decoder.writeSomeTo(staging) == -1)
+                break;
+        }
+
+        if (closed || seekTime != -1) return;
+
+        stagedHeadMillis = (int) (staging.size() / format.getFrameSize() * 1000 / format.getFrameRate());
+        stagedHead = staging;
+        LOGGER.trace("Staged {}ms of audio for gapless playback. {id: {}}", stagedHeadMillis, playbackId);
+    }
+
     /**
      * Removes the output. As soon as this method is called the entry will stop playing.
      */
@@ -227,6 +316,7 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
         if (output != null) {
             MixingLine.MixingOutput tmp = output;
             output = null;
+            underruns = tmp.underruns();
 
             tmp.toggle(false, null);
             tmp.clear();
@@ -255,7 +345,7 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
     void notifyInstant(int callbackId, int when) {
         if (decoder != null) {
             try {
-                int time = decoder.time();
+                int time = getTime();
                 if (time >= when) {
                     listener.instantReached(this, callbackId, time);
                     return;
@@ -288,7 +378,18 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
 
         listener.finishedLoading(this, metadata);
 
+        if (preloaded && conf.gaplessPlayback) {
+            try {
+                stageHead();
+            } catch (IOException | Decoder.DecoderException ex) {
+                close();
+                listener.playbackError(this, ex);
+                return;
+            }
+        }
+
         boolean canGetTime = true;
+        boolean filling = true;
         while (!closed) {
             if (output == null) {
                 synchronized (playbackLock) {
@@ -308,11 +409,13 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
             if (seekTime != -1) {
                 decoder.seek(seekTime);
                 seekTime = -1;
+                stagedHead = null;
+                stagedHeadMillis = 0;
             }
 
             if (canGetTime) {
                 try {
-                    int time = decoder.time();
+                    int time = getTime();
                     if (!notifyInstants.isEmpty()) checkInstants(time);
                     if (output == null)
                         continue;
@@ -323,14 +426,31 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
                 }
             }
 
+            if (filling && output.reserveFull()) filling = false;
+            if (!filling) {
+                if (!output.awaitReserveLow(RESERVE_POLL_INTERVAL)) continue;
+                filling = true;
+            }
+
             try {
-                if (decoder.writeSomeTo(output) == -1) {
+                ByteArrayOutputStream staged = stagedHead;
+                if (staged != null) {
+                    staged.writeTo(output);
+                    stagedHead = null;
+                    stagedHeadMillis = 0;
+                } else if (decoder.writeSomeTo(output) == -1) {
                     try {
                         int time = decoder.time();
                         LOGGER.debug("Player time offset is {}. {id: {}}", metadata.duration() - time, playbackId);
                     } catch (Decoder.CannotGetTimeException ignored) {
                     }
 
+                    if (conf.gaplessPlayback) {
+                        endOfStream = true;
+                        break;
+                    }
+
+                    drainOutput();
                     close();
                     break;
                 }
@@ -345,8 +465,16 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
             }
         }
 
-        if (output != null) output.toggle(false, null);
-        listener.playbackEnded(this);
+        if (endOfStream) {
+            listener.playbackEnded(this);
+
+            drainOutput();
+            close();
+        } else {
+            if (output != null) output.toggle(false, null);
+            listener.playbackEnded(this);
+        }
+
         LOGGER.trace("{} terminated.", this);
     }
 
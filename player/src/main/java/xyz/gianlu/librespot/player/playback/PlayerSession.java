@@ -25,6 +25,7 @@ import xyz.gianlu.librespot.audio.MetadataWrapper;
 import xyz.gianlu.librespot.audio.PlayableContentFeeder;
 import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.core.SharedResources;
 import xyz.gianlu.librespot.metadata.PlayableId;
 import xyz.gianlu.librespot.player.PlayerConfiguration;
 import xyz.gianlu.librespot.player.crossfade.CrossfadeController;
@@ -48,7 +49,7 @@ import java.util.concurrent.Executors;
  */
 public class PlayerSession implements Closeable, PlayerQueueEntry.Listener {
     private static final Logger LOGGER = LoggerFactory.getLogger(PlayerSession.class);
-    private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "player-session-" + r.hashCode()));
+    private final ExecutorService executorService;
     private final Session session;
     private final AudioSink sink;
     private final PlayerConfiguration conf;
@@ -65,7 +66,16 @@ public class PlayerSession implements Closeable, PlayerQueueEntry.Listener {
         this.conf = conf;
         this.sessionId = sessionId;
         this.listener = listener;
-        this.queue = new PlayerQueue();
+
+        SharedResources resources = session.sharedResources();
+        if (resources == null) {
+            this.executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "player-session-" + r.hashCode()));
+            this.queue = new PlayerQueue(null);
+        } else {
+            this.executorService = resources.executor();
+            this.queue = new PlayerQueue(resources.executor());
+        }
+
         LOGGER.info("Created new session. {id: {}}", sessionId);
 
         sink.clearOutputs();
@@ -243,9 +253,15 @@ public class PlayerSession implements Closeable, PlayerQueueEntry.Listener {
             throw new IllegalStateException();
 
         boolean customFade = false;
+        MixingLine.MixingOutput out = null;
         if (head.prev != null) {
             head.prev.endReason = reason;
-            if (head.prev.crossfade == null) {
+            if (head.prev.reachedEndOfStream()) {
+                if (head.canSpliceAfter(head.prev, reason)) out = head.prev.detachOutput();
+                else if (reason == Reason.TRACK_DONE) head.prev.drainOutput();
+
+                head.prev.close();
+            } else if (head.prev.crossfade == null) {
                 head.prev.close();
                 customFade = false;
             } else {
@@ -268,9 +284,13 @@ public class PlayerSession implements Closeable, PlayerQueueEntry.Listener {
             }
         }
 
-        MixingLine.MixingOutput out = sink.someOutput();
-        if (out == null)
-            throw new IllegalStateException("No output is available for " + head);
+        if (out == null) {
+            out = sink.someOutput();
+            if (out == null)
+                throw new IllegalStateException("No output is available for " + head);
+        } else {
+            LOGGER.debug("{} will be spliced right after the previous entry.", head);
+        }
 
         CrossfadeController.FadeInterval fadeIn;
         if (head.crossfade != null && (fadeIn = head.crossfade.selectFadeIn(reason, customFade)) != null) {
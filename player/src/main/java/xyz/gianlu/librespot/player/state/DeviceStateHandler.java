@@ -29,7 +29,7 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.Version;
-import xyz.gianlu.librespot.common.AsyncWorker;
+import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.ProtoUtils;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
@@ -45,13 +45,19 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.*;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Gianlu
  */
 public final class DeviceStateHandler implements Closeable, DealerClient.MessageListener, DealerClient.RequestListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(DeviceStateHandler.class);
+    private static final int PUT_STATE_DEBOUNCE = 100;
+    private static final Connect.PutStateReason[] PUT_STATE_REASON_PRIORITY = new Connect.PutStateReason[]{
+            Connect.PutStateReason.NEW_DEVICE, Connect.PutStateReason.BECAME_INACTIVE,
+            Connect.PutStateReason.PLAYER_STATE_CHANGED, Connect.PutStateReason.VOLUME_CHANGED
+    };
 
     static {
         try {
@@ -65,7 +71,14 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
     private final Connect.DeviceInfo.Builder deviceInfo;
     private final List<Listener> listeners = Collections.synchronizedList(new ArrayList<>());
     private final Connect.PutStateRequest.Builder putState;
-    private final AsyncWorker<Connect.PutStateRequest> putStateWorker;
+    private final ScheduledExecutorService putStateWorker = Executors.newSingleThreadScheduledExecutor(new NameThreadFactory(r -> "put-state-worker-" + r.hashCode()));
+    private final EnumSet<Connect.PutStateReason> pendingReasons = EnumSet.noneOf(Connect.PutStateReason.class);
+    private final AtomicLong submittedStates = new AtomicLong(0);
+    private final AtomicLong sentStates = new AtomicLong(0);
+    private Connect.PutStateRequest pendingPutState = null;
+    private ScheduledFuture<?> pendingPutStateFuture = null;
+    private boolean lastPlaying = false;
+    private boolean lastPaused = false;
     private volatile String connectionId = null;
     private volatile boolean closing = false;
     private String lastCommandSentByDeviceId;
@@ -73,7 +86,6 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
     public DeviceStateHandler(@NotNull Session session, @NotNull PlayerConfiguration conf) {
         this.session = session;
         this.deviceInfo = initializeDeviceInfo(session, conf);
-        this.putStateWorker = new AsyncWorker<>("put-state-worker", this::putConnectState);
         this.putState = Connect.PutStateRequest.newBuilder()
                 .setMemberType(Connect.MemberType.CONNECT_STATE)
                 .setDevice(Connect.Device.newBuilder()
@@ -214,6 +226,20 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
         }
     }
 
+    @NotNull
+    private static Connect.PutStateReason mostRelevantReason(@NotNull EnumSet<Connect.PutStateReason> reasons) {
+        for (Connect.PutStateReason reason : PUT_STATE_REASON_PRIORITY)
+            if (reasons.contains(reason))
+                return reason;
+
+        return reasons.iterator().next();
+    }
+
+    /**
+     * Schedules a state update. Updates are coalesced: only the latest state is sent and the reasons of the updates
+     * received within {@link DeviceStateHandler#PUT_STATE_DEBOUNCE} are merged. Play/pause transitions and device
+     * (in)activity are sent immediately.
+     */
     public synchronized void updateState(@NotNull Connect.PutStateReason reason, int playerTime, @NotNull Player.PlayerState state) {
         if (connectionId == null) throw new IllegalStateException();
 
@@ -224,19 +250,68 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
         else
             putState.setHasBeenPlayingForMs(Math.min(playerTime, timestamp - putState.getStartedPlayingAt()));
 
-        putState.setPutStateReason(reason)
+        pendingReasons.add(reason);
+        putState.setPutStateReason(mostRelevantReason(pendingReasons))
                 .setClientSideTimestamp(timestamp)
                 .getDeviceBuilder()
                 .setDeviceInfo(deviceInfo)
                 .setPlayerState(state);
 
+        boolean urgent = reason == Connect.PutStateReason.NEW_DEVICE || reason == Connect.PutStateReason.BECAME_INACTIVE
+                || state.getIsPlaying() != lastPlaying || state.getIsPaused() != lastPaused;
+        lastPlaying = state.getIsPlaying();
+        lastPaused = state.getIsPaused();
+
+        pendingPutState = putState.build();
+        submittedStates.incrementAndGet();
+
+        if (pendingPutStateFuture != null) {
+            if (!urgent || pendingPutStateFuture.getDelay(TimeUnit.MILLISECONDS) <= 0)
+                return;
+
+            pendingPutStateFuture.cancel(false);
+        }
+
         try {
-            putStateWorker.submit(putState.build());
+            pendingPutStateFuture = putStateWorker.schedule(this::flushPutState, urgent ? 0 : PUT_STATE_DEBOUNCE, TimeUnit.MILLISECONDS);
         } catch (RejectedExecutionException ex) {
             if (!closing) LOGGER.error("Failed to submit update state task.", ex);
         }
     }
 
+    /**
+     * @return The number of state updates requested with {@link DeviceStateHandler#updateState(Connect.PutStateReason, int, Player.PlayerState)}
+     */
+    public long submittedStates() {
+        return submittedStates.get();
+    }
+
+    /**
+     * @return The number of state updates successfully sent to the server, failed puts are not counted
+     */
+    public long sentStates() {
+        return sentStates.get();
+    }
+
+    private void flushPutState() {
+        Connect.PutStateRequest req;
+        Set<Connect.PutStateReason> reasons;
+        synchronized (this) {
+            pendingPutStateFuture = null;
+            if (pendingPutState == null) return;
+
+            req = pendingPutState;
+            reasons = EnumSet.copyOf(pendingReasons);
+            pendingPutState = null;
+            pendingReasons.clear();
+        }
+
+        if (putConnectState(req)) sentStates.incrementAndGet();
+
+        if (reasons.size() > 1)
+            LOGGER.trace("Merged state updates. {reasons: {}, submitted: {}, sent: {}}", reasons, submittedStates.get(), sentStates.get());
+    }
+
     public synchronized int getVolume() {
         return deviceInfo.getVolume();
     }
@@ -257,27 +332,33 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
         session.dealer().removeMessageListener(this);
         session.dealer().removeRequestListener(this);
 
-        putStateWorker.close();
+        putStateWorker.shutdown();
         listeners.clear();
+
+        LOGGER.debug("Closed state handler. {submitted: {}, sent: {}}", submittedStates.get(), sentStates.get());
     }
 
     /**
      * Performs the network request related to {@link Connect.PutStateRequest}. This MUST be called only from {@link DeviceStateHandler#putStateWorker}.
      *
      * @param req The {@link Connect.PutStateRequest}
+     * @return Whether the state has been sent successfully
      */
-    private void putConnectState(@NotNull Connect.PutStateRequest req) {
+    private boolean putConnectState(@NotNull Connect.PutStateRequest req) {
         try {
             session.api().putConnectState(connectionId, req);
             if (LOGGER.isTraceEnabled()) {
                 LOGGER.info("Put state. {ts: {}, connId: {}, reason: {}, request: {}}", req.getClientSideTimestamp(),
-                        Utils.truncateMiddle(connectionId, 10), req.getPutStateReason(), TextFormat.shortDebugString(putState));
+                        Utils.truncateMiddle(connectionId, 10), req.getPutStateReason(), TextFormat.shortDebugString(req));
             } else {
                 LOGGER.info("Put state. {ts: {}, connId: {}, reason: {}}", req.getClientSideTimestamp(),
                         Utils.truncateMiddle(connectionId, 10), req.getPutStateReason());
             }
+
+            return true;
         } catch (IOException | MercuryClient.MercuryException ex) {
             LOGGER.error("Failed updating state.", ex);
+            return false;
         }
     }
 
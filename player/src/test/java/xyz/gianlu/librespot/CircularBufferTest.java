@@ -20,8 +20,7 @@ import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 import xyz.gianlu.librespot.player.mixing.CircularBuffer;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * @author Gianlu
@@ -69,4 +68,21 @@ class CircularBufferTest {
         assertEquals(0, b.free());
         assertTrue(b.full());
     }
+
+    @Test
+    void awaitAvailable() {
+        CircularBuffer b = new CircularBuffer(32);
+        assertEquals(32, b.capacity());
+        assertTrue(b.awaitAvailableAtMost(0, 10));
+
+        write(b, 24);
+        assertFalse(b.awaitAvailableAtMost(16, 10));
+
+        new Thread(() -> read(b, 8)).start();
+        assertTrue(b.awaitAvailableAtMost(16, 1000));
+        assertEquals(16, b.available());
+
+        b.close();
+        assertFalse(b.awaitAvailableAtMost(16, 10));
+    }
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class PlayerConfigurationTest {
+
+    @Test
+    void testForDevice() {
+        PlayerConfiguration conf = new PlayerConfiguration.Builder()
+                .setSnapshotFile(new File("state", "snapshot.bin"))
+                .build();
+
+        PlayerConfiguration first = conf.forDevice("abc");
+        PlayerConfiguration second = conf.forDevice("def");
+        assertEquals(new File("state", "snapshot-abc.bin"), first.snapshotFile);
+        assertEquals(new File("state", "snapshot-def.bin"), second.snapshotFile);
+        assertEquals(conf.output, first.output);
+        assertEquals(conf.snapshotInterval, first.snapshotInterval);
+
+        assertEquals(new File("snapshot-abc"), new PlayerConfiguration.Builder().setSnapshotFile(new File("snapshot")).build().forDevice("abc").snapshotFile);
+        assertNull(new PlayerConfiguration.Builder().build().forDevice("abc").snapshotFile);
+    }
+
+    @Test
+    void testForDeviceRejectsPipes() {
+        PlayerConfiguration pipe = new PlayerConfiguration.Builder()
+                .setOutput(PlayerConfiguration.AudioOutput.PIPE)
+                .setOutputPipe(new File("audio.pcm"))
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> pipe.forDevice("abc"));
+
+        PlayerConfiguration metadata = new PlayerConfiguration.Builder()
+                .setMetadataPipe(new File("metadata"))
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> metadata.forDevice("abc"));
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.google.protobuf.ByteString;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.common.FisherYatesShuffle;
+import xyz.gianlu.librespot.common.ProtoUtils;
+import xyz.gianlu.librespot.metadata.PlayableId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+public class TrackListTest {
+
+    private static ContextTrack track(int id) {
+        StringBuilder builder = new StringBuilder(Integer.toString(id, 36));
+        while (builder.length() < 22) builder.insert(0, '0');
+
+        return ContextTrack.newBuilder()
+                .setUri("spotify:track:" + builder)
+                .setUid("uid" + id)
+                .build();
+    }
+
+    private static void assertSameLookups(List<ContextTrack> expected, TrackList list, Random random) {
+        assertEquals(expected, new ArrayList<>(list));
+
+        for (int i = 0; i < 50; i++) {
+            ContextTrack track = track(random.nextInt(300));
+            assertEquals(ProtoUtils.indexOfTrack(expected, track), list.indexOfTrack(track));
+            assertEquals(ProtoUtils.indexOfTrackByUri(expected, track.getUri()), list.indexOfUri(track.getUri()));
+            assertEquals(ProtoUtils.indexOfTrackByUid(expected, track.getUid()), list.indexOfUid(track.getUid()));
+
+            PlayableId id = PlayableId.fromUri(track.getUri());
+            assertEquals(PlayableId.indexOfTrack(expected, id), list.indexOfPlayable(id));
+        }
+    }
+
+    @Test
+    public void testLookups() {
+        Random random = new Random(7);
+        List<ContextTrack> expected = new ArrayList<>();
+        TrackList list = new TrackList();
+        for (int i = 0; i < 200; i++) {
+            ContextTrack track = track(random.nextInt(250));
+            expected.add(track);
+            list.add(track);
+        }
+
+        FisherYatesShuffle<ContextTrack> shuffle = new FisherYatesShuffle<>(random);
+        for (int round = 0; round < 200; round++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    int index = random.nextInt(expected.size() + 1);
+                    ContextTrack track = track(random.nextInt(300));
+                    expected.add(index, track);
+                    list.add(index, track);
+                    break;
+                case 1:
+                    index = random.nextInt(expected.size());
+                    expected.remove(index);
+                    list.remove(index);
+                    break;
+                case 2:
+                    index = random.nextInt(expected.size());
+                    ContextTrack updated = expected.get(index).toBuilder().putMetadata("duration", "1000").build();
+                    expected.set(index, updated);
+                    list.set(index, updated);
+                    break;
+                case 3:
+                    int from = random.nextInt(expected.size()), to = random.nextInt(expected.size());
+                    Collections.swap(expected, from, to);
+                    Collections.swap(list, from, to);
+                    break;
+                case 4:
+                    long seed = random.nextLong();
+                    new FisherYatesShuffle<ContextTrack>(new Random(seed)).shuffle(expected, false);
+                    new FisherYatesShuffle<ContextTrack>(new Random(seed)).shuffle(list, false);
+                    break;
+                case 5:
+                    List<ContextTrack> page = new ArrayList<>();
+                    for (int i = 0; i < 10; i++) page.add(track(random.nextInt(300)));
+                    expected.addAll(page);
+                    list.addAll(page);
+                    break;
+            }
+
+            assertSameLookups(expected, list, random);
+        }
+
+        shuffle.shuffle(list, true);
+        shuffle.unshuffle(list);
+        assertSameLookups(expected, list, random);
+    }
+
+    @Test
+    public void testLazyShuffle() {
+        List<ContextTrack> original = new ArrayList<>();
+        TrackList list = new TrackList();
+        for (int i = 0; i < 1000; i++) {
+            original.add(track(i));
+            list.add(track(i));
+        }
+
+        list.shuffle(1234, 500);
+        assertTrue(list.canUnshuffle());
+        assertEquals(original.get(500), list.get(0));
+        assertEquals(new HashSet<>(original), new HashSet<>(list));
+        assertNotEquals(original, new ArrayList<>(list));
+
+        for (int i = 0; i < list.size(); i++) {
+            ContextTrack track = list.get(i);
+            assertEquals(i, list.indexOfTrack(track));
+            assertEquals(i, list.indexOfUid(track.getUid()));
+            assertEquals(i, list.indexOfPlayable(PlayableId.fromUri(track.getUri())));
+        }
+
+        List<ContextTrack> page = new ArrayList<>();
+        for (int i = 1000; i < 1100; i++) page.add(track(i));
+        original.addAll(page);
+        list.addAll(page);
+        list.set(3, list.get(3).toBuilder().putMetadata("duration", "1").build());
+        original.set(original.indexOf(list.get(3).toBuilder().clearMetadata().build()), list.get(3));
+
+        int position = list.indexOfUid("uid42");
+        assertEquals(42, list.unshuffle(position));
+        assertEquals(original, new ArrayList<>(list));
+
+        list.shuffle(99, -1);
+        Collections.swap(list, 0, 1);
+        assertFalse(list.canUnshuffle());
+    }
+
+    @Test
+    public void testTailShuffle() throws IOException {
+        List<ContextTrack> original = new ArrayList<>();
+        TrackList list = new TrackList();
+        for (int i = 0; i < 1000; i++) {
+            original.add(track(i));
+            list.add(track(i));
+        }
+
+        list.shuffle(1234, 500);
+        List<ContextTrack> played = new ArrayList<>(list.subList(0, 11));
+
+        List<ContextTrack> page = new ArrayList<>();
+        for (int i = 1000; i < 1200; i++) page.add(track(i));
+        original.addAll(page);
+        list.addAll(page);
+
+        assertTrue(list.shuffleTail(99, 11));
+        assertFalse(list.shuffleTail(100, 11));
+        assertTrue(list.canUnshuffle());
+        assertEquals(played, list.subList(0, 11));
+        assertEquals(new HashSet<>(original), new HashSet<>(list));
+        assertNotEquals(page, list.subList(1000, 1200));
+
+        for (int i = 0; i < list.size(); i++) {
+            ContextTrack track = list.get(i);
+            assertEquals(i, list.indexOfTrack(track));
+            assertEquals(i, list.indexOfUid(track.getUid()));
+        }
+
+        TrackList copy = roundTrip(list);
+        assertEquals(new ArrayList<>(list), new ArrayList<>(copy));
+        assertTrue(copy.canUnshuffle());
+
+        int position = list.indexOfUid("uid1100");
+        assertEquals(1100, list.unshuffle(position));
+        assertEquals(original, new ArrayList<>(list));
+    }
+
+    @Test
+    public void testCompactTable() {
+        Random random = new Random(11);
+        List<ContextTrack> pool = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            ContextTrack track = track(i);
+            pool.add(track);
+            pool.add(track.toBuilder().setUri(track.getUri().replace("track", "episode")).setUid("ep" + i).build());
+            pool.add(track.toBuilder().setGid(ByteString.copyFrom(PlayableId.fromUri(track.getUri()).getGid())).build());
+            pool.add(track.toBuilder().setGid(ByteString.copyFrom(new byte[16])).putMetadata("is_queued", "true").build());
+            pool.add(ContextTrack.newBuilder().setGid(ByteString.copyFrom(PlayableId.fromUri(track.getUri()).getGid())).build());
+            pool.add(ContextTrack.newBuilder().setUri("spotify:local:artist:album:title" + i + ":180").setUid("local" + i).build());
+        }
+
+        pool.add(ContextTrack.newBuilder().setUri("spotify:track:zzzzzzzzzzzzzzzzzzzzzz").build());
+        pool.add(ContextTrack.newBuilder().setUri("spotify:delimiter").build());
+
+        List<ContextTrack> expected = new ArrayList<>();
+        TrackList list = new TrackList();
+        for (int i = 0; i < 150; i++) {
+            ContextTrack track = pool.get(random.nextInt(pool.size()));
+            expected.add(track);
+            list.add(track);
+        }
+
+        for (int round = 0; round < 100; round++) {
+            int index = random.nextInt(expected.size());
+            ContextTrack track = pool.get(random.nextInt(pool.size()));
+            if (random.nextBoolean()) {
+                expected.set(index, track);
+                list.set(index, track);
+            } else {
+                expected.add(index, track);
+                list.add(index, track);
+            }
+
+            assertEquals(expected, new ArrayList<>(list));
+            for (ContextTrack probe : pool) {
+                assertEquals(ProtoUtils.indexOfTrack(expected, probe), list.indexOfTrack(probe));
+                assertEquals(ProtoUtils.indexOfTrackByUri(expected, probe.getUri()), list.indexOfUri(probe.getUri()));
+                assertEquals(ProtoUtils.indexOfTrackByUid(expected, probe.getUid()), list.indexOfUid(probe.getUid()));
+
+                if (!probe.getUri().isEmpty() && !probe.getUri().contains("zzz")) {
+                    PlayableId id = PlayableId.fromUri(probe.getUri());
+                    assertEquals(PlayableId.indexOfTrack(expected, id), list.indexOfPlayable(id));
+                }
+            }
+        }
+    }
+
+    private static TrackList roundTrip(TrackList list) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        list.writeTo(new DataOutputStream(bytes));
+
+        TrackList copy = new TrackList();
+        copy.add(track(1));
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        return copy;
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        List<ContextTrack> original = new ArrayList<>();
+        TrackList list = new TrackList();
+        for (int i = 0; i < 300; i++) {
+            ContextTrack track = track(i);
+            if (i % 3 == 0) track = track.toBuilder().putMetadata("duration", String.valueOf(i)).build();
+            else if (i % 7 == 0) track = track.toBuilder().setUri("spotify:local:artist:album:title" + i + ":180").build();
+
+            original.add(track);
+            list.add(track);
+        }
+
+        TrackList copy = roundTrip(list);
+        assertEquals(original, new ArrayList<>(copy));
+        assertFalse(copy.canUnshuffle());
+        assertEquals(17, copy.indexOfUid("uid17"));
+
+        list.shuffle(42, 100);
+        copy = roundTrip(list);
+        assertEquals(new ArrayList<>(list), new ArrayList<>(copy));
+        assertTrue(copy.canUnshuffle());
+        assertEquals(list.unshuffle(10), copy.unshuffle(10));
+        assertEquals(original, new ArrayList<>(copy));
+
+        list.shuffle(7, -1);
+        Collections.swap(list, 0, 1);
+        copy = roundTrip(list);
+        assertEquals(new ArrayList<>(list), new ArrayList<>(copy));
+        assertFalse(copy.canUnshuffle());
+    }
+}
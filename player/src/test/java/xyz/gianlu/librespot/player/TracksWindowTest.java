@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.spotify.connectstate.Player;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.common.ProtoUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author devgianlu
+ */
+public class TracksWindowTest {
+    private static final String CONTEXT_URI = "spotify:playlist:37i9dQZF1DXcBWIGoYBM5M";
+
+    private static TrackList tracks(int count) {
+        TrackList list = new TrackList();
+        for (int i = 0; i < count; i++) {
+            StringBuilder builder = new StringBuilder(Integer.toString(i, 36));
+            while (builder.length() < 22) builder.insert(0, '0');
+
+            list.add(ContextTrack.newBuilder()
+                    .setUri("spotify:track:" + builder)
+                    .setUid("uid" + i)
+                    .putMetadata("album_uri", "spotify:album:" + builder)
+                    .putMetadata("artist_uri", "spotify:artist:" + builder)
+                    .build());
+        }
+
+        return list;
+    }
+
+    /**
+     * The window as it was computed before it was made incremental.
+     */
+    private static void rebuild(Player.PlayerState.Builder state, TrackList tracks, Collection<ContextTrack> queue, int index) {
+        state.clearPrevTracks();
+        for (int i = Math.max(0, index - TracksWindow.MAX_PREV_TRACKS); i < index; i++)
+            state.addPrevTracks(ProtoUtils.toProvidedTrack(tracks.get(i), CONTEXT_URI));
+
+        state.clearNextTracks();
+        for (ContextTrack track : queue)
+            state.addNextTracks(ProtoUtils.toProvidedTrack(track, CONTEXT_URI));
+
+        for (int i = index + 1; i < Math.min(tracks.size(), index + 1 + TracksWindow.MAX_NEXT_TRACKS); i++)
+            state.addNextTracks(ProtoUtils.toProvidedTrack(tracks.get(i), CONTEXT_URI));
+    }
+
+    @Test
+    public void testWindow() {
+        Random random = new Random(3);
+        TrackList tracks = tracks(200);
+        LinkedList<ContextTrack> queue = new LinkedList<>();
+        TracksWindow window = new TracksWindow();
+        Player.PlayerState.Builder state = Player.PlayerState.newBuilder();
+        Player.PlayerState.Builder expected = Player.PlayerState.newBuilder();
+
+        int index = 0;
+        for (int i = 0; i < 2000; i++) {
+            int action = random.nextInt(20);
+            if (action < 12) index = Math.min(tracks.size() - 1, index + 1);
+            else if (action < 17) index = Math.max(0, index - 1);
+            else if (action == 17) index = random.nextInt(tracks.size());
+            else if (action == 18) tracks.set(random.nextInt(tracks.size()), tracks.get(0).toBuilder().putMetadata("duration", "1").build());
+            else if (queue.isEmpty()) queue.add(tracks.get(random.nextInt(tracks.size())));
+            else queue.remove();
+
+            window.update(state, tracks, queue, index, CONTEXT_URI);
+            rebuild(expected, tracks, queue, index);
+
+            assertEquals(expected.getPrevTracksList(), state.getPrevTracksList());
+            assertEquals(expected.getNextTracksList(), state.getNextTracksList());
+        }
+    }
+
+    /**
+     * Measures the time it takes to update the window when skipping through a context with 10000 tracks.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkSkip() {
+        TrackList tracks = tracks(10_000);
+        Collection<ContextTrack> queue = Collections.emptyList();
+        Player.PlayerState.Builder state = Player.PlayerState.newBuilder();
+
+        for (int i = 0; i < 1000; i++) rebuild(state, tracks, queue, i);
+        long start = System.nanoTime();
+        for (int i = 0; i < tracks.size(); i++) rebuild(state, tracks, queue, i);
+        long rebuildNanos = System.nanoTime() - start;
+
+        TracksWindow window = new TracksWindow();
+        for (int i = 0; i < 1000; i++) window.update(state, tracks, queue, i, CONTEXT_URI);
+        window.invalidate();
+        start = System.nanoTime();
+        for (int i = 0; i < tracks.size(); i++) window.update(state, tracks, queue, i, CONTEXT_URI);
+        long windowNanos = System.nanoTime() - start;
+
+        System.out.printf("Skip latency over %d tracks: rebuild %.2fus, incremental %.2fus%n", tracks.size(),
+                rebuildNanos / 1000f / tracks.size(), windowNanos / 1000f / tracks.size());
+
+        Player.PlayerState.Builder expected = Player.PlayerState.newBuilder();
+        rebuild(expected, tracks, queue, tracks.size() - 1);
+        assertEquals(expected.getPrevTracksList(), state.getPrevTracksList());
+        assertEquals(expected.getNextTracksList(), state.getNextTracksList());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.mixing;
+
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.player.PlayerConfiguration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class MixingLineTest {
+
+    @Test
+    void clearedOutputDoesNotWriteRecycledBuffer() {
+        MixingLine line = new MixingLine(new PlayerConfiguration.Builder().build());
+        MixingLine.MixingOutput old = line.firstOut();
+        old.write(new byte[4096], 0, 4096);
+        assertTrue(old.reserveMillis() > 0);
+
+        old.clear();
+        MixingLine.MixingOutput out = line.firstOut();
+        assertNotSame(old, out);
+        assertNull(old.buffer());
+
+        old.write(new byte[4096], 0, 4096);
+        old.emptyBuffer();
+        assertEquals(0, out.reserveMillis());
+
+        out.write(new byte[4096], 0, 4096);
+        old.emptyBuffer();
+        assertTrue(out.reserveMillis() > 0);
+    }
+
+    @Test
+    void releasedBufferIsClosed() {
+        CircularBuffer buffer = new CircularBuffer(32);
+        byte[] array = buffer.release();
+        assertEquals(33, array.length);
+
+        buffer.write(new byte[8], 0, 8);
+        assertEquals(0, buffer.available());
+        assertEquals(-1, buffer.read(new byte[8], 0, 8));
+    }
+
+    @Test
+    void watermarksMustBeOrdered() {
+        assertThrows(IllegalArgumentException.class, () -> new PlayerConfiguration.Builder()
+                .setDecodeAheadLowWatermark(80)
+                .setDecodeAheadHighWatermark(80)
+                .build());
+
+        assertThrows(IllegalArgumentException.class, () -> new PlayerConfiguration.Builder()
+                .setDecodeAheadLowWatermark(90)
+                .setDecodeAheadHighWatermark(50)
+                .build());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.mixing;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.player.decoders.Decoder;
+import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+public class StreamConverterTest {
+
+    private static byte[] sine(int sampleRate, int channels, int frames, float frequency) {
+        byte[] data = new byte[frames * channels * 2];
+        for (int i = 0, j = 0; i < frames; i++) {
+            short val = (short) (Math.sin(2 * Math.PI * frequency * i / sampleRate) * 16000);
+            for (int c = 0; c < channels; c++) {
+                data[j++] = (byte) val;
+                data[j++] = (byte) (val >>> 8);
+            }
+        }
+
+        return data;
+    }
+
+    @Test
+    public void testResample() {
+        OutputAudioFormat from = new OutputAudioFormat(48000, 16, 2, true, false);
+        assertTrue(StreamConverter.canConvert(from, OutputAudioFormat.DEFAULT_FORMAT));
+
+        StreamConverter converter = StreamConverter.converter(from, OutputAudioFormat.DEFAULT_FORMAT);
+        byte[] in = sine(48000, 2, 48000, 440);
+
+        StreamConverter.Buffer buffer = new StreamConverter.Buffer();
+        int total = 0, peak = 0;
+        for (int off = 0; off < in.length; off += 2048) {
+            converter.convert(in, off, Math.min(2048, in.length - off), buffer);
+            byte[] out = buffer.data();
+            for (int i = 0; i < buffer.size(); i += 2)
+                peak = Math.max(peak, Math.abs((short) ((out[i] & 0xFF) | ((out[i + 1] & 0xFF) << 8))));
+
+            total += buffer.size();
+        }
+
+        assertEquals(44100 * 4, total, 32 * 4);
+        assertEquals(16000, peak, 200);
+    }
+
+    @Test
+    public void testMonoToStereo() {
+        OutputAudioFormat from = new OutputAudioFormat(22050, 16, 1, true, false);
+        StreamConverter converter = StreamConverter.converter(from, OutputAudioFormat.DEFAULT_FORMAT);
+
+        byte[] in = sine(22050, 1, 22050, 440);
+        StreamConverter.Buffer buffer = new StreamConverter.Buffer();
+        int total = 0;
+        for (int off = 0; off < in.length; off += 2048) {
+            converter.convert(in, off, Math.min(2048, in.length - off), buffer);
+            total += buffer.size();
+
+            byte[] out = buffer.data();
+            for (int i = 0; i < buffer.size(); i += 4) {
+                assertEquals(out[i], out[i + 2]);
+                assertEquals(out[i + 1], out[i + 3]);
+            }
+        }
+
+        assertEquals(44100 * 4, total, 32 * 4);
+    }
+
+    @Test
+    public void testUnsupported() {
+        assertFalse(StreamConverter.canConvert(new OutputAudioFormat(44101, 16, 2, true, false), OutputAudioFormat.DEFAULT_FORMAT));
+        assertFalse(StreamConverter.canConvert(new OutputAudioFormat(48000, 16, 2, true, true), OutputAudioFormat.DEFAULT_FORMAT));
+    }
+
+    /**
+     * Converts one minute of 8 bit mono audio, in decoder sized blocks, and reports the allocation rate.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkAllocations() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported()) return;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        OutputAudioFormat from = new OutputAudioFormat(22050, 8, 1, true, false);
+        StreamConverter converter = StreamConverter.converter(from, OutputAudioFormat.DEFAULT_FORMAT);
+        StreamConverter.Buffer buffer = new StreamConverter.Buffer();
+        byte[] block = new byte[Decoder.BUFFER_SIZE];
+        int blocks = 22050 * 60 / block.length;
+
+        for (int i = 0; i < 100; i++) converter.convert(block, 0, block.length, buffer);
+
+        long tid = Thread.currentThread().getId();
+        long start = System.nanoTime();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < blocks; i++) converter.convert(block, 0, block.length, buffer);
+        long allocated = threadBean.getThreadAllocatedBytes(tid) - allocatedBefore;
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("Converted %d blocks in %dms, %d bytes allocated (%.1f bytes/s)%n", blocks,
+                elapsed / 1_000_000, allocated, allocated / (elapsed / 1e9));
+        assertTrue(allocated < 1024, "Allocated " + allocated + " bytes");
+    }
+}
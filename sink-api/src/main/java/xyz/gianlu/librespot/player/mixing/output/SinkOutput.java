@@ -32,6 +32,20 @@ public interface SinkOutput extends Closeable {
 
     void write(byte[] buffer, int offset, int len) throws IOException;
 
+    /**
+     * @return The number of bytes that can be written without blocking or {@code -1} if unknown.
+     */
+    default int available() {
+        return -1;
+    }
+
+    /**
+     * @return The size of the internal buffer of the sink in bytes or {@code -1} if unknown.
+     */
+    default int bufferSize() {
+        return -1;
+    }
+
     default boolean setVolume(@Range(from = 0, to = 1) float volume) {
         return false;
     }
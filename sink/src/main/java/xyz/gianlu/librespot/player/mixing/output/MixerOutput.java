@@ -92,6 +92,18 @@ public final class MixerOutput implements SinkOutput {
         if (line != null) line.write(buffer, offset, len);
     }
 
+    @Override
+    public int available() {
+        SourceDataLine line = this.line;
+        return line == null ? -1 : line.available();
+    }
+
+    @Override
+    public int bufferSize() {
+        SourceDataLine line = this.line;
+        return line == null ? -1 : line.getBufferSize();
+    }
+
     @Override
     public void drain() {
         if (line != null) line.drain();